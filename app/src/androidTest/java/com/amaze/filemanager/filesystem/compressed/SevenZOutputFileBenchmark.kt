@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZArchiveEntry
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZFile
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZMethod
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZMethodConfiguration
+import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZOutputFile
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.Random
+
+/**
+ * Compares writing a 7z archive on the calling thread with writing it in blocks on as many
+ * threads as the device has cores, up to four. Timings are logged with the tag of this class.
+ *
+ * LZMA2 runs with a 1 MiB dictionary, since an encoder with the default 8 MiB one takes about
+ * 100 MiB, more than the app's heap allows for four of them.
+ *
+ * Takes a while, run it on its own on a real device.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class SevenZOutputFileBenchmark {
+
+    private lateinit var directory: File
+    private val contents = ArrayList<ByteArray>()
+
+    /** Generates [ENTRY_COUNT] entries of somewhat compressible text */
+    @Before
+    fun setUp() {
+        directory = File(ApplicationProvider.getApplicationContext<Context>().cacheDir, TAG)
+        directory.mkdirs()
+        val random = Random(0)
+        val words = "the quick brown fox jumps over lazy dog amaze file manager ".split(' ')
+        repeat(ENTRY_COUNT) {
+            val text = StringBuilder(ENTRY_SIZE)
+            while (text.length < ENTRY_SIZE) {
+                text.append(words[random.nextInt(words.size)]).append(random.nextInt(1000))
+                    .append(' ')
+            }
+            contents.add(text.toString().toByteArray())
+        }
+    }
+
+    /** Deletes the archives */
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    /** Writes the entries once on the calling thread and once in blocks */
+    @Test
+    fun compareSingleAndMultiThreaded() {
+        val threadCount = minOf(Runtime.getRuntime().availableProcessors(), 4)
+        val (single, singleSize) = write(1)
+        val (multi, multiSize) = write(threadCount)
+        Log.i(
+            TAG,
+            "${contents.sumOf { it.size.toLong() } / 1024 / 1024} MiB in $ENTRY_COUNT entries: " +
+                "$single ms ($singleSize bytes) on 1 thread, " +
+                "$multi ms ($multiSize bytes) on $threadCount threads"
+        )
+    }
+
+    private fun write(threadCount: Int): Pair<Long, Long> {
+        val archive = File(directory, "$threadCount.7z")
+        val start = SystemClock.elapsedRealtime()
+        SevenZOutputFile(archive).use { out ->
+            out.setThreadCount(threadCount)
+            out.setContentMethods(
+                listOf(SevenZMethodConfiguration(SevenZMethod.LZMA2, DICTIONARY_SIZE))
+            )
+            contents.forEachIndexed { i, content ->
+                out.putArchiveEntry(SevenZArchiveEntry().apply { name = "$i.txt" })
+                out.write(content)
+                out.closeArchiveEntry()
+            }
+        }
+        val elapsed = SystemClock.elapsedRealtime() - start
+
+        SevenZFile(archive).use {
+            var count = 0
+            while (it.nextEntry != null) count++
+            assertEquals(ENTRY_COUNT, count)
+        }
+        return elapsed to archive.length()
+    }
+
+    companion object {
+        private const val TAG = "SevenZOutputFileBenchmark"
+        private const val ENTRY_COUNT = 32
+        private const val ENTRY_SIZE = 2 * 1024 * 1024
+        private const val DICTIONARY_SIZE = 1024 * 1024
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.content.Context
+import android.os.SystemClock
+import android.util.Log
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.amaze.filemanager.asynchronous.management.ProgressCounter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.io.File
+import java.util.Random
+import java.util.zip.ZipFile
+
+/**
+ * Compares compressing a folder on the calling thread with compressing it on as many workers as
+ * the device has cores, up to four. Timings are logged with the tag of this class.
+ *
+ * Takes a while and some storage, run it on its own on a real device.
+ */
+@LargeTest
+@RunWith(AndroidJUnit4::class)
+class ZipCompressorBenchmark {
+
+    private lateinit var directory: File
+    private lateinit var folder: File
+    private var totalBytes = 0L
+
+    /** Writes [FILE_COUNT] files of somewhat compressible data, as a backup would contain */
+    @Before
+    fun setUp() {
+        directory = File(ApplicationProvider.getApplicationContext<Context>().cacheDir, TAG)
+        folder = File(directory, "folder").also { it.mkdirs() }
+        val random = Random(0)
+        val words = "the quick brown fox jumps over lazy dog amaze file manager ".split(' ')
+        for (i in 0 until FILE_COUNT) {
+            File(folder, "$i.txt").bufferedWriter().use {
+                while (totalBytes < (i + 1L) * FILE_SIZE) {
+                    val word = words[random.nextInt(words.size)] + random.nextInt(1000) + ' '
+                    it.write(word)
+                    totalBytes += word.length
+                }
+            }
+        }
+    }
+
+    /** Deletes the generated files */
+    @After
+    fun tearDown() {
+        directory.deleteRecursively()
+    }
+
+    /** Compresses the folder once on the calling thread and once in parallel */
+    @Test
+    fun compareSequentialAndParallel() {
+        val parallelism = minOf(Runtime.getRuntime().availableProcessors(), 4)
+        val sequential = compress(1)
+        val parallel = compress(parallelism)
+        Log.i(
+            TAG,
+            "${totalBytes / 1024 / 1024} MiB in $FILE_COUNT files: " +
+                "$sequential ms on 1 thread, $parallel ms on $parallelism threads"
+        )
+    }
+
+    private fun compress(parallelism: Int): Long {
+        val zip = File(directory, "out-$parallelism.zip")
+        val progress = ProgressCounter()
+        val start = SystemClock.elapsedRealtime()
+        ZipCompressor(directory, parallelism, progress) { false }
+            .compress(listOf(folder), zip.outputStream()) { _, _ -> }
+        val elapsed = SystemClock.elapsedRealtime() - start
+
+        assertEquals(totalBytes, progress.get())
+        ZipFile(zip).use { assertEquals(FILE_COUNT, it.size()) }
+        zip.delete()
+        return elapsed
+    }
+
+    companion object {
+        private const val TAG = "ZipCompressorBenchmark"
+        private const val FILE_COUNT = 64
+        private const val FILE_SIZE = 4 * 1024 * 1024
+    }
+}
@@ -38,7 +38,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil;
+import com.amaze.filemanager.asynchronous.management.ProgressCounter;
 import com.amaze.filemanager.test.DummyFileGenerator;
 import com.amaze.filemanager.utils.ProgressHandler;
 
@@ -87,7 +87,7 @@ public class GenericCopyUtilEspressoTest {
     copyUtil.doCopy(
         new FileInputStream(file1).getChannel(),
         Channels.newChannel(new FileOutputStream(file2)),
-        ServiceWatcherUtil.UPDATE_POSITION);
+        new ProgressCounter());
     assertEquals(file1.length(), file2.length());
     assertSha1Equals(checksum, file2);
   }
@@ -98,7 +98,7 @@ public class GenericCopyUtilEspressoTest {
     copyUtil.copyFile(
         new FileInputStream(file1).getChannel(),
         new FileOutputStream(file2).getChannel(),
-        ServiceWatcherUtil.UPDATE_POSITION);
+        new ProgressCounter());
     assertEquals(file1.length(), file2.length());
     assertSha1Equals(checksum, file2);
   }
@@ -109,7 +109,7 @@ public class GenericCopyUtilEspressoTest {
     copyUtil.copyFile(
         new BufferedInputStream(new FileInputStream(file1)),
         new BufferedOutputStream(new FileOutputStream(file2)),
-        ServiceWatcherUtil.UPDATE_POSITION);
+        new ProgressCounter());
     assertEquals(file1.length(), file2.length());
     assertSha1Equals(checksum, file2);
   }
@@ -31,6 +31,7 @@ import static com.amaze.filemanager.ui.fragments.preference_fragments.Preference
 import static com.amaze.filemanager.ui.fragments.preference_fragments.PreferencesConstants.PREFERENCE_USE_CIRCULAR_IMAGES;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 import com.amaze.filemanager.GlideApp;
@@ -57,6 +58,7 @@ import com.amaze.filemanager.ui.selection.SelectionPopupMenu;
 import com.amaze.filemanager.ui.theme.AppTheme;
 import com.amaze.filemanager.ui.views.CircleGradientDrawable;
 import com.amaze.filemanager.utils.AnimUtils;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.amaze.filemanager.utils.GlideConstants;
 import com.amaze.filemanager.utils.Utils;
 import com.bumptech.glide.integration.recyclerview.RecyclerViewPreloader;
@@ -89,8 +91,14 @@ import androidx.annotation.IntDef;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.view.ContextThemeWrapper;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.disposables.Disposable;
+import io.reactivex.schedulers.Schedulers;
+
 /**
  * This class is the information that serves to load the files into a "list" (a RecyclerView). There
  * are 3 types of item TYPE_ITEM, TYPE_HEADER_FOLDERS and TYPE_HEADER_FILES, EMPTY_LAST_ITEM and
@@ -121,6 +129,10 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
   private RecyclerPreloadSizeProvider sizeProvider;
   private RecyclerPreloadModelProvider modelProvider;
   private ArrayList<ListItem> itemsDigested = new ArrayList<>();
+  // items of the last updateItems() being compared with the ones shown
+  @Nullable private Disposable pendingUpdate;
+  // icons to preload, at the same positions as their items
+  private List<IconDataParcelable> preloadUris = new ArrayList<>();
   @NonNull private final Context context;
   private LayoutInflater mInflater;
   private float minRowHeight;
@@ -503,45 +515,182 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
     setItems(recyclerView, elements, true);
   }
 
+  /**
+   * Replaces the items like {@link #setItems(RecyclerView, List)}, but only notifies the adapter of
+   * the items that actually changed, so that the list doesn't jump when mostly the same items are
+   * set again.
+   *
+   * <p>The items are compared on a background thread, those shown stay until then. Should they
+   * change meanwhile, the new items are shown without comparing them again.
+   */
+  public void updateItems(
+      final RecyclerView recyclerView, @NonNull List<LayoutElementParcelable> elements) {
+    if (pendingUpdate != null) pendingUpdate.dispose();
+
+    final ArrayList<ListItem> shownItems = itemsDigested;
+    final ArrayList<ListItem> oldItems = new ArrayList<>(shownItems);
+    final ArrayList<IconDataParcelable> uris = new ArrayList<>(elements.size());
+    final ArrayList<ListItem> newItems = digest(elements, uris);
+    if (getBoolean(PREFERENCE_SHOW_HEADERS)) {
+      addHeaders(newItems, uris);
+    }
+
+    pendingUpdate =
+        Single.fromCallable(
+                () -> DiffUtil.calculateDiff(new ListItemDiffCallback(oldItems, newItems)))
+            .subscribeOn(Schedulers.computation())
+            .observeOn(AndroidSchedulers.mainThread())
+            .subscribe(
+                diff -> {
+                  pendingUpdate = null;
+                  boolean unchanged =
+                      itemsDigested == shownItems && shownItems.size() == oldItems.size();
+                  itemsDigested = newItems;
+                  offset = 0;
+                  stoppedAnimation = false;
+                  setPreloadedIcons(recyclerView, uris);
+                  if (unchanged) {
+                    diff.dispatchUpdatesTo(this);
+                  } else {
+                    notifyDataSetChanged();
+                  }
+                },
+                throwable ->
+                    Log.e(getClass().getSimpleName(), "Failed to compare items", throwable));
+  }
+
+  /**
+   * Adds elements found while a directory is still being listed, each at its place among the items
+   * already there, which must be sorted the same way. Headers missing for them are only added by
+   * the next {@link #updateItems(RecyclerView, List)}, once the listing is complete.
+   *
+   * @param sortedElements new elements, sorted by {@param comparator}
+   */
+  public void insertItems(
+      @NonNull List<LayoutElementParcelable> sortedElements,
+      @NonNull Comparator<? super LayoutElementParcelable> comparator) {
+    ArrayList<ListItem> merged = new ArrayList<>(itemsDigested.size() + sortedElements.size());
+    ArrayList<Integer> insertedPositions = new ArrayList<>(sortedElements.size());
+    int next = 0;
+
+    for (int i = 0; i < itemsDigested.size(); i++) {
+      ListItem item = itemsDigested.get(i);
+      if (item.specialType == TYPE_ITEM) {
+        while (next < sortedElements.size()
+            && comparator.compare(sortedElements.get(next), item.elem) < 0) {
+          insertedPositions.add(merged.size());
+          merged.add(new ListItem(sortedElements.get(next++)));
+        }
+      } else if (item.specialType == TYPE_HEADER_FILES) {
+        // directories go above the files' header
+        LayoutElementParcelable firstFile =
+            i + 1 < itemsDigested.size() ? itemsDigested.get(i + 1).elem : null;
+        while (next < sortedElements.size()
+            && sortedElements.get(next).isDirectory
+            && (firstFile == null || comparator.compare(sortedElements.get(next), firstFile) < 0)) {
+          insertedPositions.add(merged.size());
+          merged.add(new ListItem(sortedElements.get(next++)));
+        }
+      } else if (item.specialType == EMPTY_LAST_ITEM) {
+        while (next < sortedElements.size()) {
+          insertedPositions.add(merged.size());
+          merged.add(new ListItem(sortedElements.get(next++)));
+        }
+      }
+      merged.add(item);
+    }
+    while (next < sortedElements.size()) {
+      insertedPositions.add(merged.size());
+      merged.add(new ListItem(sortedElements.get(next++)));
+    }
+    if (itemsDigested.isEmpty()
+        && !merged.isEmpty()
+        && mainFrag.getMainFragmentViewModel() != null
+        && mainFrag.getMainFragmentViewModel().isList()) {
+      // as setItems() would have, had these been the first elements
+      insertedPositions.add(merged.size());
+      merged.add(new ListItem(EMPTY_LAST_ITEM));
+    }
+
+    itemsDigested = merged;
+    preloadUris.clear();
+    for (ListItem item : itemsDigested) {
+      preloadUris.add(item.elem != null ? item.elem.iconData : null);
+    }
+
+    // positions are ascending, so each is right once the ones before it are inserted
+    int i = 0;
+    while (i < insertedPositions.size()) {
+      int start = insertedPositions.get(i);
+      int count = 1;
+      while (i + count < insertedPositions.size()
+          && insertedPositions.get(i + count) == start + count) {
+        count++;
+      }
+      notifyItemRangeInserted(start, count);
+      i += count;
+    }
+  }
+
   private void setItems(
       RecyclerView recyclerView,
       @NonNull List<LayoutElementParcelable> elements,
       boolean invalidate) {
-    if (preloader != null) {
-      recyclerView.removeOnScrollListener(preloader);
-      preloader = null;
+    if (pendingUpdate != null) {
+      pendingUpdate.dispose();
+      pendingUpdate = null;
     }
 
-    itemsDigested.clear();
+    ArrayList<IconDataParcelable> uris = new ArrayList<>(elements.size());
+    itemsDigested = digest(elements, uris);
     offset = 0;
     stoppedAnimation = false;
 
-    ArrayList<IconDataParcelable> uris = new ArrayList<>(itemsDigested.size());
+    if (getBoolean(PREFERENCE_SHOW_HEADERS)) {
+      createHeaders(invalidate, uris);
+    }
+
+    setPreloadedIcons(recyclerView, uris);
+  }
+
+  /**
+   * @return items for {@param elements}, without headers, whose icons are added to {@param uris}
+   *     at the same positions
+   */
+  private ArrayList<ListItem> digest(
+      @NonNull List<LayoutElementParcelable> elements, @NonNull List<IconDataParcelable> uris) {
+    ArrayList<ListItem> items = new ArrayList<>(elements.size() + 1);
 
     for (LayoutElementParcelable e : elements) {
-      itemsDigested.add(new ListItem(e.isBack, e));
+      items.add(new ListItem(e.isBack, e));
       uris.add(e != null ? e.iconData : null);
     }
 
     if (mainFrag.getMainFragmentViewModel() != null
         && mainFrag.getMainFragmentViewModel().isList()
-        && itemsDigested.size() > 0) {
-      itemsDigested.add(new ListItem(EMPTY_LAST_ITEM));
+        && items.size() > 0) {
+      items.add(new ListItem(EMPTY_LAST_ITEM));
       uris.add(null);
     }
 
-    for (int i = 0; i < itemsDigested.size(); i++) {
-      itemsDigested.get(i).setAnimate(false);
+    for (int i = 0; i < items.size(); i++) {
+      items.get(i).setAnimate(false);
     }
+    return items;
+  }
 
-    if (getBoolean(PREFERENCE_SHOW_HEADERS)) {
-      createHeaders(invalidate, uris);
+  /** Preloads {@param uris}, the icons of the items now shown, as the list scrolls. */
+  private void setPreloadedIcons(RecyclerView recyclerView, List<IconDataParcelable> uris) {
+    if (preloader != null) {
+      recyclerView.removeOnScrollListener(preloader);
+      preloader = null;
     }
 
     boolean isItemCircular = !isGrid;
 
     sizeProvider = new RecyclerPreloadSizeProvider(this);
     modelProvider = new RecyclerPreloadModelProvider(mainFrag, uris, isItemCircular);
+    preloadUris = uris;
 
     preloader =
         new RecyclerViewPreloader<>(
@@ -551,16 +700,24 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
   }
 
   public void createHeaders(boolean invalidate, List<IconDataParcelable> uris) {
+    addHeaders(itemsDigested, uris);
+
+    if (invalidate) {
+      notifyDataSetChanged();
+    }
+  }
+
+  private static void addHeaders(List<ListItem> items, List<IconDataParcelable> uris) {
     boolean[] headers = new boolean[] {false, false};
 
-    for (int i = 0; i < itemsDigested.size(); i++) {
+    for (int i = 0; i < items.size(); i++) {
 
-      if (itemsDigested.get(i).elem != null) {
-        LayoutElementParcelable nextItem = itemsDigested.get(i).elem;
+      if (items.get(i).elem != null) {
+        LayoutElementParcelable nextItem = items.get(i).elem;
 
         if (!headers[0] && nextItem.isDirectory) {
           headers[0] = true;
-          itemsDigested.add(i, new ListItem(TYPE_HEADER_FOLDERS));
+          items.add(i, new ListItem(TYPE_HEADER_FOLDERS));
           uris.add(i, null);
           continue;
         }
@@ -570,16 +727,12 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
             && !nextItem.title.equals(".")
             && !nextItem.title.equals("..")) {
           headers[1] = true;
-          itemsDigested.add(i, new ListItem(TYPE_HEADER_FILES));
+          items.add(i, new ListItem(TYPE_HEADER_FILES));
           uris.add(i, null);
           continue; // leave this continue for symmetry
         }
       }
     }
-
-    if (invalidate) {
-      notifyDataSetChanged();
-    }
   }
 
   @Override
@@ -1378,6 +1531,42 @@ public class RecyclerAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolde
     }
   }
 
+  private static class ListItemDiffCallback extends DiffUtil.Callback {
+    private final List<ListItem> oldItems;
+    private final List<ListItem> newItems;
+
+    ListItemDiffCallback(List<ListItem> oldItems, List<ListItem> newItems) {
+      this.oldItems = oldItems;
+      this.newItems = newItems;
+    }
+
+    @Override
+    public int getOldListSize() {
+      return oldItems.size();
+    }
+
+    @Override
+    public int getNewListSize() {
+      return newItems.size();
+    }
+
+    @Override
+    public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+      ListItem oldItem = oldItems.get(oldItemPosition);
+      ListItem newItem = newItems.get(newItemPosition);
+      if (oldItem.specialType != newItem.specialType) return false;
+      if (oldItem.elem == null || newItem.elem == null) return oldItem.elem == newItem.elem;
+      return TextUtils.equals(oldItem.elem.desc, newItem.elem.desc);
+    }
+
+    @Override
+    public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+      ListItem oldItem = oldItems.get(oldItemPosition);
+      ListItem newItem = newItems.get(newItemPosition);
+      return oldItem.elem == null || DirectoryListCache.isSameElement(oldItem.elem, newItem.elem);
+    }
+  }
+
   public interface OnImageProcessed {
     void onImageProcessed(boolean isImageBroken);
   }
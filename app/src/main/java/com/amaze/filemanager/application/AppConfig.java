@@ -20,6 +20,7 @@
 
 package com.amaze.filemanager.application;
 
+import java.io.File;
 import java.lang.ref.WeakReference;
 
 import org.acra.ACRA;
@@ -36,6 +37,7 @@ import com.amaze.filemanager.crashreport.ErrorActivity;
 import com.amaze.filemanager.database.ExplorerDatabase;
 import com.amaze.filemanager.database.UtilitiesDatabase;
 import com.amaze.filemanager.database.UtilsHandler;
+import com.amaze.filemanager.file_operations.filesystem.streams.BlockCache;
 import com.amaze.filemanager.filesystem.ssh.CustomSshJConfig;
 import com.amaze.filemanager.ui.provider.UtilitiesProvider;
 import com.amaze.filemanager.utils.LruBitmapCache;
@@ -101,6 +103,9 @@ public class AppConfig extends GlideApplication {
 
     runInBackground(Config::registerSmbURLHandler);
 
+    // blocks of streamed media leaving memory go to the cache dir
+    BlockCache.setDefault(new BlockCache(new File(getCacheDir(), "streams")));
+
     // disabling file exposure method check for api n+
     StrictMode.VmPolicy.Builder builder = new StrictMode.VmPolicy.Builder();
     StrictMode.setVmPolicy(builder.build());
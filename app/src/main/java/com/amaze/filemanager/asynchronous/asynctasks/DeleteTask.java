@@ -41,6 +41,7 @@ import com.amaze.filemanager.ui.fragments.CompressedExplorerFragment;
 import com.amaze.filemanager.ui.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.DataUtils;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.cloudrail.si.interfaces.CloudStorage;
 
@@ -127,6 +128,9 @@ public class DeleteTask
 
   @Override
   public void onPostExecute(AsyncTaskResult<Boolean> result) {
+    for (HybridFileParcelable file : files) {
+      DirectoryListCache.getInstance().invalidate(file.getParent(applicationContext));
+    }
 
     Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
     if (files.size() > 0) {
@@ -158,6 +162,7 @@ public class DeleteTask
       case OTG:
         DocumentFile documentFile =
             OTGUtil.getDocumentFile(file.getPath(), applicationContext, false);
+        OTGUtil.invalidateDocumentFile(file.getPath(), OpenMode.OTG);
         return documentFile.delete();
       case DOCUMENT_FILE:
         documentFile =
@@ -167,6 +172,7 @@ public class DeleteTask
                 applicationContext,
                 OpenMode.DOCUMENT_FILE,
                 false);
+        OTGUtil.invalidateDocumentFile(file.getPath(), OpenMode.DOCUMENT_FILE);
         return documentFile.delete();
       case DROPBOX:
       case BOX:
@@ -27,6 +27,7 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
 
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
@@ -42,18 +43,21 @@ import com.amaze.filemanager.filesystem.SafRootHolder;
 import com.amaze.filemanager.filesystem.cloud.CloudUtil;
 import com.amaze.filemanager.filesystem.files.FileListSorter;
 import com.amaze.filemanager.filesystem.root.ListFilesCommand;
+import com.amaze.filemanager.filesystem.smb.SmbLister;
 import com.amaze.filemanager.ui.fragments.CloudSheetFragment;
 import com.amaze.filemanager.ui.fragments.MainFragment;
 import com.amaze.filemanager.utils.DataUtils;
 import com.amaze.filemanager.utils.OTGUtil;
 import com.amaze.filemanager.utils.OnAsyncTaskFinished;
 import com.amaze.filemanager.utils.OnFileFound;
+import com.amaze.filemanager.utils.OnProgressUpdate;
 import com.cloudrail.si.interfaces.CloudStorage;
 
 import android.content.Context;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.text.format.Formatter;
 import android.util.Log;
@@ -64,10 +68,15 @@ import androidx.core.util.Pair;
 
 import jcifs.smb.SmbAuthException;
 import jcifs.smb.SmbException;
-import jcifs.smb.SmbFile;
 
 public class LoadFilesListTask
-    extends AsyncTask<Void, Void, Pair<OpenMode, ArrayList<LayoutElementParcelable>>> {
+    extends AsyncTask<
+        Void,
+        Pair<OpenMode, ArrayList<LayoutElementParcelable>>,
+        Pair<OpenMode, ArrayList<LayoutElementParcelable>>> {
+
+  /** Elements found are handed to the batch listener at most this often */
+  private static final long BATCH_INTERVAL_MILLIS = 100;
 
   private String path;
   private WeakReference<MainFragment> mainFragmentReference;
@@ -76,7 +85,30 @@ public class LoadFilesListTask
   private boolean showHiddenFiles, showThumbs;
   private DataUtils dataUtils = DataUtils.getInstance();
   private OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> listener;
+  private @Nullable OnProgressUpdate<Pair<OpenMode, ArrayList<LayoutElementParcelable>>>
+      batchListener;
+  private @Nullable FileListSorter sorter;
+  // elements found since the last batch was handed out
+  private ArrayList<LayoutElementParcelable> batch = new ArrayList<>();
+  private long lastBatchTime;
+
+  public LoadFilesListTask(
+      Context context,
+      String path,
+      MainFragment mainFragment,
+      OpenMode openmode,
+      boolean showThumbs,
+      boolean showHiddenFiles,
+      OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> l) {
+    this(context, path, mainFragment, openmode, showThumbs, showHiddenFiles, null, l);
+  }
 
+  /**
+   * @param batchListener if not null, is given the elements found so far every {@link
+   *     #BATCH_INTERVAL_MILLIS} while listing, each batch sorted by {@link #getSorter()}, so that
+   *     the first ones can be shown before the whole directory is listed. {@param l} is still given
+   *     the whole list at the end.
+   */
   public LoadFilesListTask(
       Context context,
       String path,
@@ -84,7 +116,9 @@ public class LoadFilesListTask
       OpenMode openmode,
       boolean showThumbs,
       boolean showHiddenFiles,
+      @Nullable OnProgressUpdate<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> batchListener,
       OnAsyncTaskFinished<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> l) {
+    this.batchListener = batchListener;
     this.path = path;
     this.mainFragmentReference = new WeakReference<>(mainFragment);
     this.openmode = openmode;
@@ -124,6 +158,11 @@ public class LoadFilesListTask
     mainFragment.getMainFragmentViewModel().setFileCount(0);
     final ArrayList<LayoutElementParcelable> list;
 
+    if (!(openmode == OpenMode.CUSTOM && ((path).equals("5") || (path).equals("6")))) {
+      sorter = createSorter(context, mainFragment);
+    }
+    lastBatchTime = SystemClock.elapsedRealtime();
+
     switch (openmode) {
       case SMB:
         if (hFile == null) {
@@ -133,8 +172,8 @@ public class LoadFilesListTask
           hFile.setPath(hFile.getPath() + "/");
         }
         try {
-          SmbFile[] smbFile = hFile.getSmbFile(5000).listFiles();
-          list = mainFragment.addToSmb(smbFile, path, showHiddenFiles);
+          List<SmbLister.Entry> entries = SmbLister.list(hFile.getSmbFile(5000));
+          list = mainFragment.addToSmb(entries, path, showHiddenFiles);
           openmode = OpenMode.SMB;
         } catch (SmbAuthException e) {
           if (!e.getMessage().toLowerCase().contains("denied")) {
@@ -159,10 +198,7 @@ public class LoadFilesListTask
             file -> {
               if (!(dataUtils.isFileHidden(file.getPath())
                   || file.isHidden() && !showHiddenFiles)) {
-                LayoutElementParcelable elem = createListParcelables(file);
-                if (elem != null) {
-                  list.add(elem);
-                }
+                addElement(list, createListParcelables(file));
               }
             });
         break;
@@ -199,8 +235,7 @@ public class LoadFilesListTask
         listOtg(
             path,
             file -> {
-              LayoutElementParcelable elem = createListParcelables(file);
-              if (elem != null) list.add(elem);
+              addElement(list, createListParcelables(file));
             });
         openmode = OpenMode.OTG;
         break;
@@ -208,8 +243,7 @@ public class LoadFilesListTask
         list = new ArrayList<>();
         listDocumentFiles(
             file -> {
-              LayoutElementParcelable elem = createListParcelables(file);
-              if (elem != null) list.add(elem);
+              addElement(list, createListParcelables(file));
             });
         openmode = OpenMode.DOCUMENT_FILE;
         break;
@@ -226,8 +260,7 @@ public class LoadFilesListTask
               cloudStorage,
               openmode,
               file -> {
-                LayoutElementParcelable elem = createListParcelables(file);
-                if (elem != null) list.add(elem);
+                addElement(list, createListParcelables(file));
               });
         } catch (CloudPluginException e) {
           e.printStackTrace();
@@ -248,8 +281,8 @@ public class LoadFilesListTask
               return null;
             },
             hybridFileParcelable -> {
-              LayoutElementParcelable elem = createListParcelables(hybridFileParcelable);
-              if (elem != null) list.add(elem);
+              if (currentOpenMode[0] != null) openmode = currentOpenMode[0];
+              addElement(list, createListParcelables(hybridFileParcelable));
               return null;
             });
         if (null != currentOpenMode[0]) {
@@ -258,26 +291,63 @@ public class LoadFilesListTask
         break;
     }
 
-    if (list != null
-        && !(openmode == OpenMode.CUSTOM && ((path).equals("5") || (path).equals("6")))) {
-      int t = SortHandler.getSortType(context, path);
-      int sortby;
-      int asc;
-      if (t <= 3) {
-        sortby = t;
-        asc = 1;
-      } else {
-        asc = -1;
-        sortby = t - 4;
-      }
-      Collections.sort(
-          list,
-          new FileListSorter(mainFragment.getMainFragmentViewModel().getDsort(), sortby, asc));
+    if (list != null && sorter != null) {
+      Collections.sort(list, sorter);
     }
 
     return new Pair<>(openmode, list);
   }
 
+  /**
+   * @return how elements are sorted, once listing has started. Null if they aren't (lists of
+   *     recent files)
+   */
+  public @Nullable FileListSorter getSorter() {
+    return sorter;
+  }
+
+  private FileListSorter createSorter(Context context, MainFragment mainFragment) {
+    int t = SortHandler.getSortType(context, path);
+    int sortby;
+    int asc;
+    if (t <= 3) {
+      sortby = t;
+      asc = 1;
+    } else {
+      asc = -1;
+      sortby = t - 4;
+    }
+    return new FileListSorter(mainFragment.getMainFragmentViewModel().getDsort(), sortby, asc);
+  }
+
+  /** Adds a found element to the list, and to the batch to hand out if any. */
+  private void addElement(
+      @NonNull ArrayList<LayoutElementParcelable> list, @Nullable LayoutElementParcelable elem) {
+    if (elem == null) return;
+    list.add(elem);
+    if (batchListener == null || sorter == null) return;
+
+    batch.add(elem);
+    long now = SystemClock.elapsedRealtime();
+    if (now - lastBatchTime >= BATCH_INTERVAL_MILLIS) {
+      lastBatchTime = now;
+      Collections.sort(batch, sorter);
+      publishProgress(new Pair<>(openmode, batch));
+      batch = new ArrayList<>();
+    }
+  }
+
+  @Override
+  @SafeVarargs
+  protected final void onProgressUpdate(
+      Pair<OpenMode, ArrayList<LayoutElementParcelable>>... batches) {
+    // batches may still be queued when the task is cancelled
+    if (isCancelled() || batchListener == null) return;
+    for (Pair<OpenMode, ArrayList<LayoutElementParcelable>> batch : batches) {
+      batchListener.onUpdate(batch);
+    }
+  }
+
   @Override
   protected void onCancelled() {
     listener.onAsyncTaskFinished(null);
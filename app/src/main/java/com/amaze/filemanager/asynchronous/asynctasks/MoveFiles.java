@@ -40,8 +40,10 @@ import com.amaze.filemanager.filesystem.cloud.CloudUtil;
 import com.amaze.filemanager.filesystem.files.CryptUtil;
 import com.amaze.filemanager.filesystem.files.FileUtils;
 import com.amaze.filemanager.filesystem.root.RenameFileCommand;
+import com.amaze.filemanager.filesystem.ssh.SshServerSideOperations;
 import com.amaze.filemanager.ui.activities.MainActivity;
 import com.amaze.filemanager.utils.DataUtils;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.cloudrail.si.interfaces.CloudStorage;
 
 import android.content.Context;
@@ -122,6 +124,13 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, String, Boolean> {
               } else return false;
             }
             break;
+          case SFTP:
+            // source and target both on the same server, have it rename the file
+            if (baseFile.getMode() != mode
+                || !SshServerSideOperations.rename(baseFile.getPath(), destPath)) {
+              return false;
+            }
+            break;
           case DROPBOX:
           case BOX:
           case ONEDRIVE:
@@ -155,6 +164,13 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, String, Boolean> {
   @Override
   public void onPostExecute(Boolean movedCorrectly) {
     if (movedCorrectly) {
+      for (int i = 0; i < paths.size(); i++) {
+        DirectoryListCache.getInstance().invalidate(paths.get(i));
+        for (HybridFileParcelable file : files.get(i)) {
+          DirectoryListCache.getInstance().invalidate(file.getParent(context));
+        }
+      }
+
       if (currentPath.equals(paths.get(0))) {
         // mainFrag.updateList();
         Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
@@ -243,6 +259,7 @@ public class MoveFiles extends AsyncTask<ArrayList<String>, String, Boolean> {
     HashSet<OpenMode> hashSet = new HashSet<>();
     hashSet.add(OpenMode.SMB);
     hashSet.add(OpenMode.FILE);
+    hashSet.add(OpenMode.SFTP);
     hashSet.add(OpenMode.DROPBOX);
     hashSet.add(OpenMode.BOX);
     hashSet.add(OpenMode.GDRIVE);
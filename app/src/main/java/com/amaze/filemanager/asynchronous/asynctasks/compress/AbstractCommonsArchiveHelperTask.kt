@@ -25,11 +25,11 @@ import com.amaze.filemanager.R
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable
 import com.amaze.filemanager.application.AppConfig
 import com.amaze.filemanager.asynchronous.asynctasks.AsyncTaskResult
-import com.amaze.filemanager.filesystem.compressed.CompressedHelper
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex
 import com.amaze.filemanager.utils.OnAsyncTaskFinished
-import org.apache.commons.compress.archivers.ArchiveEntry
 import org.apache.commons.compress.archivers.ArchiveException
 import org.apache.commons.compress.archivers.ArchiveInputStream
+import java.io.File
 import java.io.FileInputStream
 import java.io.IOException
 import java.io.InputStream
@@ -38,7 +38,7 @@ import java.util.*
 
 abstract class AbstractCommonsArchiveHelperTask(
     context: Context,
-    private val filePath: String,
+    protected val filePath: String,
     private val relativePath: String,
     goBack: Boolean,
     l: OnAsyncTaskFinished<AsyncTaskResult<ArrayList<CompressedObjectParcelable>>>
@@ -55,47 +55,30 @@ abstract class AbstractCommonsArchiveHelperTask(
      */
     abstract fun createFrom(inputStream: InputStream): ArchiveInputStream
 
+    /** Reads the whole archive to index it, subclasses may record more as they do. */
+    @Throws(IOException::class)
+    protected open fun buildIndex(): ArchiveIndex {
+        return createFrom(FileInputStream(filePath)).use { ArchiveIndex.build(it) }
+    }
+
     @Throws(ArchiveException::class)
-    @Suppress("LabeledExpression")
     public override fun addElements(elements: ArrayList<CompressedObjectParcelable>) {
-        var tarInputStream: ArchiveInputStream?
-        try {
-            tarInputStream = createFrom(FileInputStream(filePath))
-            var entry: ArchiveEntry?
-            while (tarInputStream.nextEntry.also { entry = it } != null) {
-                entry?.run {
-                    var name = name
-                    if (!CompressedHelper.isEntryPathValid(name)) {
-                        AppConfig.toast(
-                            context.get(),
-                            context.get()!!.getString(R.string.multiple_invalid_archive_entries)
-                        )
-                        return@run
-                    }
-                    if (name.endsWith(CompressedHelper.SEPARATOR)) {
-                        name = name.substring(0, name.length - 1)
-                    }
-                    val isInBaseDir =
-                        (relativePath == "" && !name.contains(CompressedHelper.SEPARATOR))
-                    val isInRelativeDir = (
-                        name.contains(CompressedHelper.SEPARATOR) &&
-                            name.substring(0, name.lastIndexOf(CompressedHelper.SEPARATOR))
-                            == relativePath
-                        )
-                    if (isInBaseDir || isInRelativeDir) {
-                        elements.add(
-                            CompressedObjectParcelable(
-                                name,
-                                lastModifiedDate.time,
-                                size,
-                                isDirectory
-                            )
-                        )
-                    }
-                }
-            }
+        val index = try {
+            // the whole archive is read once, then browsing it only looks the index up
+            ArchiveIndex.get(File(filePath), context.get()?.cacheDir) { buildIndex() }
         } catch (e: IOException) {
             throw ArchiveException(String.format("Tarball archive %s is corrupt", filePath), e)
         }
+
+        if (index.hasInvalidEntries) {
+            context.get()?.let {
+                AppConfig.toast(it, it.getString(R.string.multiple_invalid_archive_entries))
+            }
+        }
+        for (entry in index.list(relativePath)) {
+            elements.add(
+                CompressedObjectParcelable(entry.name, entry.date, entry.size, entry.isDirectory)
+            )
+        }
     }
 }
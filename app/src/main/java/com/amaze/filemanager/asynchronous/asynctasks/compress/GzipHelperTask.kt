@@ -23,9 +23,11 @@ package com.amaze.filemanager.asynchronous.asynctasks.compress
 import android.content.Context
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable
 import com.amaze.filemanager.asynchronous.asynctasks.AsyncTaskResult
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex
 import com.amaze.filemanager.utils.OnAsyncTaskFinished
 import org.apache.commons.compress.compressors.CompressorInputStream
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import java.io.File
 import java.util.*
 
 class GzipHelperTask(
@@ -39,4 +41,7 @@ class GzipHelperTask(
 
     override fun getCompressorInputStreamClass(): Class<out CompressorInputStream> =
         GzipCompressorInputStream::class.java
+
+    // checkpoints let extraction start near the entries instead of at the start of the archive
+    override fun buildIndex(): ArchiveIndex = ArchiveIndex.buildGzippedTar(File(filePath))
 }
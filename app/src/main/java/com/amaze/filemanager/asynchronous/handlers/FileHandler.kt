@@ -29,6 +29,7 @@ import com.amaze.filemanager.adapters.RecyclerAdapter
 import com.amaze.filemanager.filesystem.CustomFileObserver
 import com.amaze.filemanager.filesystem.HybridFile
 import com.amaze.filemanager.ui.fragments.MainFragment
+import com.amaze.filemanager.utils.DirectoryListCache
 import java.io.File
 import java.lang.ref.WeakReference
 
@@ -76,6 +77,8 @@ class FileHandler(
                 return
             }
         }
+        // the cached listing misses this change, it'll be listed again when next opened
+        DirectoryListCache.getInstance().invalidate(main.currentPath)
         if (listView.visibility == View.VISIBLE) {
             if (elementsList.size == 0) {
                 // no item left in list, recreate views
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.asynchronous.management;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amaze.filemanager.file_operations.utils.UpdatePosition;
+
+/**
+ * Number of bytes processed so far by a single {@link
+ * com.amaze.filemanager.asynchronous.services.AbstractProgressiveService} operation.
+ *
+ * <p>Can be updated from any number of worker threads at once, while the {@link
+ * ServiceWatcherUtil} watching the operation samples it every second. A single {@link AtomicLong}
+ * is enough here, updates come once per transferred buffer, not per byte.
+ */
+public class ProgressCounter implements UpdatePosition {
+
+  private final AtomicLong position = new AtomicLong();
+
+  @Override
+  public void updatePosition(long toAdd) {
+    position.addAndGet(toAdd);
+  }
+
+  /** @return bytes processed so far */
+  public long get() {
+    return position.get();
+  }
+}
@@ -23,19 +23,23 @@ package com.amaze.filemanager.asynchronous.management;
 /**
  * Created by vishal on 4/1/17.
  *
- * <p>Helper class providing helper methods to manage Service startup and it's progress Be advised -
- * this class can only handle progress with one object at a time. Hence, class also provides
- * convenience methods to serialize the service startup.
+ * <p>Helper class providing helper methods to manage Service startup and it's progress. Every
+ * operation gets its own instance, counting its progress with its own {@link ProgressCounter}, so
+ * operations of different services can run side by side. Class also provides convenience methods
+ * to serialize the startup of operations of the same service.
  */
 import static com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil.ServiceStatusCallbacks.*;
 
 import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
 import java.util.concurrent.*;
 
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.asynchronous.AbstractRepeatingRunnable;
 import com.amaze.filemanager.asynchronous.services.AbstractProgressiveService;
-import com.amaze.filemanager.file_operations.utils.UpdatePosition;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.ProgressHandler;
 
@@ -44,39 +48,54 @@ import android.content.Context;
 import android.content.Intent;
 import android.text.format.Formatter;
 
+import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 
 public class ServiceWatcherUtil {
 
-  public static final UpdatePosition UPDATE_POSITION =
-      (toAdd -> ServiceWatcherUtil.position += toAdd);
-
-  public static int state = STATE_UNSET;
-
   /**
-   * Position of byte in total byte size to be copied. This variable CANNOT be updated from more
-   * than one thread simultaneously. This variable should only be updated from an {@link
-   * AbstractProgressiveService}'s background thread.
+   * Position of byte in total byte size to be processed by this operation. May be updated from any
+   * of the {@link AbstractProgressiveService}'s background threads.
    *
-   * @see #postWaiting(Context)
+   * @see #getProgressCounter()
    */
-  public static volatile long position = 0L;
+  private final ProgressCounter progressCounter = new ProgressCounter();
+
+  private final ProgressHandler progressHandler;
+
+  /** Only touched by {@link #watcherRepeatingRunnable} */
+  private int state = STATE_UNSET;
+
+  /** Only touched by {@link #watcherRepeatingRunnable} */
+  private int haltCounter = -1;
 
-  private ProgressHandler progressHandler;
+  private AbstractRepeatingRunnable watcherRepeatingRunnable;
+
+  /**
+   * Class names of the services started through {@link #runService(Context, Intent)} which haven't
+   * been destroyed yet
+   */
+  private static final Set<String> runningServices = Collections.synchronizedSet(new HashSet<>());
 
-  private static AbstractRepeatingRunnable watcherRepeatingRunnable;
   private static NotificationManager notificationManager;
   private static NotificationCompat.Builder builder;
 
   private static ConcurrentLinkedQueue<Intent> pendingIntents = new ConcurrentLinkedQueue<>();
 
-  private static int haltCounter = -1;
+  private static AbstractRepeatingRunnable waitNotificationRunnable;
 
   /** @param progressHandler to publish progress after certain delay */
   public ServiceWatcherUtil(ProgressHandler progressHandler) {
     this.progressHandler = progressHandler;
-    position = 0L;
-    haltCounter = -1;
+    progressHandler.setHalted(false);
+  }
+
+  /**
+   * @return counter the operation's workers should add processed bytes to, the watcher samples it
+   *     to publish progress
+   */
+  public ProgressCounter getProgressCounter() {
+    return progressCounter;
   }
 
   /**
@@ -85,21 +104,23 @@ public class ServiceWatcherUtil {
    */
   public void watch(ServiceStatusCallbacks serviceStatusCallbacks) {
     watcherRepeatingRunnable =
-        new ServiceWatcherRepeatingRunnable(true, serviceStatusCallbacks, progressHandler);
+        new ServiceWatcherRepeatingRunnable(true, serviceStatusCallbacks, this);
   }
 
   private static final class ServiceWatcherRepeatingRunnable extends AbstractRepeatingRunnable {
     private final WeakReference<ServiceStatusCallbacks> serviceStatusCallbacks;
+    private final ServiceWatcherUtil watcher;
     private final ProgressHandler progressHandler;
 
     public ServiceWatcherRepeatingRunnable(
         boolean startImmediately,
         ServiceStatusCallbacks serviceStatusCallbacks,
-        ProgressHandler progressHandler) {
+        ServiceWatcherUtil watcher) {
       super(1, 1, TimeUnit.SECONDS, startImmediately);
 
       this.serviceStatusCallbacks = new WeakReference<>(serviceStatusCallbacks);
-      this.progressHandler = progressHandler;
+      this.watcher = watcher;
+      this.progressHandler = watcher.progressHandler;
     }
 
     @Override
@@ -116,8 +137,11 @@ public class ServiceWatcherUtil {
         return;
       }
 
+      // sample once, workers keep adding to the counter while we're in here
+      final long position = watcher.progressCounter.get();
+
       if (position == progressHandler.getWrittenSize()
-          && (state != STATE_HALTED && ++haltCounter > 5)) {
+          && (watcher.state != STATE_HALTED && ++watcher.haltCounter > 5)) {
         // new position is same as the last second position, and halt counter is past threshold
 
         String writtenSize =
@@ -133,28 +157,29 @@ public class ServiceWatcherUtil {
           // we passed at the beginning is never reached
           // we try to get a less precise size and make our decision based on that
           progressHandler.addWrittenLength(progressHandler.getTotalSize());
-          if (!pendingIntents.isEmpty()) pendingIntents.remove();
           cancel(false);
           return;
         }
 
-        haltCounter = 0;
-        state = STATE_HALTED;
+        watcher.haltCounter = 0;
+        watcher.state = STATE_HALTED;
+        progressHandler.setHalted(true);
         serviceStatusCallbacks.progressHalted();
       } else if (position != progressHandler.getWrittenSize()) {
 
-        if (state == STATE_HALTED) {
+        if (watcher.state == STATE_HALTED) {
 
-          state = STATE_RESUMED;
-          haltCounter = 0;
+          watcher.state = STATE_RESUMED;
+          watcher.haltCounter = 0;
+          progressHandler.setHalted(false);
           serviceStatusCallbacks.progressResumed();
         } else {
 
           // reset the halt counter everytime there is a progress
           // so that it increments only when
           // progress was halted for consecutive time period
-          state = STATE_UNSET;
-          haltCounter = 0;
+          watcher.state = STATE_UNSET;
+          watcher.haltCounter = 0;
         }
       }
 
@@ -163,7 +188,6 @@ public class ServiceWatcherUtil {
       if (position == progressHandler.getTotalSize() || progressHandler.getCancelled()) {
         // process complete, free up resources
         // we've finished the work or process cancelled
-        if (!pendingIntents.isEmpty()) pendingIntents.remove();
         cancel(false);
       }
     }
@@ -181,38 +205,61 @@ public class ServiceWatcherUtil {
   }
 
   /**
-   * Convenience method to check whether another service is working in background If a service is
-   * found working (by checking {@link #watcherRepeatingRunnable} for it's state) then we wait for
-   * an interval of 5 secs, before checking on it again.
+   * Convenience method to check whether the service is already working in background. Operations of
+   * different services are started right away; if the same service is found running (or has
+   * operations waiting already) the intent is queued, and checked on again every second.
    *
    * <p>Be advised - this method is not sure to start a new service, especially when app has been
    * closed as there are higher chances for android system to GC the thread when it is running low
    * on memory
    */
   public static synchronized void runService(final Context context, final Intent intent) {
-    switch (pendingIntents.size()) {
-      case 0:
-        context.startService(intent);
-        break;
-      case 1:
-        // initialize waiting handlers
-        pendingIntents.add(intent);
-        postWaiting(context);
-        break;
-      case 2:
-        // to avoid notifying repeatedly
-        pendingIntents.add(intent);
-        notificationManager.notify(NotificationConstants.WAIT_ID, builder.build());
-        break;
-      default:
-        pendingIntents.add(intent);
-        break;
+    if (!isServiceBusy(intent)) {
+      runningServices.add(getServiceName(intent));
+      context.startService(intent);
+      return;
+    }
+
+    pendingIntents.add(intent);
+    if (pendingIntents.size() == 1) {
+      // initialize waiting handlers
+      postWaiting(context);
+    } else {
+      // to avoid notifying repeatedly
+      notificationManager.notify(NotificationConstants.WAIT_ID, builder.build());
+    }
+  }
+
+  /** @return whether the service the intent is for is running or has intents queued */
+  private static boolean isServiceBusy(@NonNull Intent intent) {
+    String serviceName = getServiceName(intent);
+    if (runningServices.contains(serviceName)) {
+      return true;
     }
+
+    for (Intent pendingIntent : pendingIntents) {
+      if (serviceName.equals(getServiceName(pendingIntent))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String getServiceName(@NonNull Intent intent) {
+    return intent.getComponent() != null ? intent.getComponent().getClassName() : "";
+  }
+
+  /**
+   * Lets queued operations of the service start, must be called when a service started through
+   * {@link #runService(Context, Intent)} is destroyed.
+   */
+  public static void onServiceDestroyed(@NonNull AbstractProgressiveService service) {
+    runningServices.remove(service.getClass().getName());
   }
 
   /**
    * Helper method to {@link #runService(Context, Intent)} Starts the wait watcher thread if not
-   * already started. Halting condition depends on the state of {@link #watcherRepeatingRunnable}
+   * already started. Halting condition depends on {@link #runningServices}
    */
   private static synchronized void postWaiting(final Context context) {
     notificationManager =
@@ -227,7 +274,9 @@ public class ServiceWatcherUtil {
 
     NotificationConstants.setMetadata(context, builder, NotificationConstants.TYPE_NORMAL);
 
-    new WaitNotificationThread(context, true);
+    if (waitNotificationRunnable == null || !waitNotificationRunnable.isAlive()) {
+      waitNotificationRunnable = new WaitNotificationThread(context, true);
+    }
   }
 
   private static final class WaitNotificationThread extends AbstractRepeatingRunnable {
@@ -240,20 +289,25 @@ public class ServiceWatcherUtil {
 
     @Override
     public void run() {
-      if (watcherRepeatingRunnable == null || !watcherRepeatingRunnable.isAlive()) {
-        if (pendingIntents.size() == 0) {
+      synchronized (ServiceWatcherUtil.class) {
+        if (pendingIntents.isEmpty()) {
+          notificationManager.cancel(NotificationConstants.WAIT_ID);
           cancel(false);
           return;
-        } else {
-          if (pendingIntents.size() == 1) {
-            notificationManager.cancel(NotificationConstants.WAIT_ID);
-          }
+        }
+
+        final Context context = this.context.get();
+        if (context == null) {
+          return;
+        }
 
-          final Context context = this.context.get();
-          if (context != null) {
-            context.startService(pendingIntents.element());
-            cancel(true);
-            return;
+        // start the oldest waiting intent of each service that is done working
+        for (Iterator<Intent> iterator = pendingIntents.iterator(); iterator.hasNext(); ) {
+          Intent intent = iterator.next();
+          String serviceName = getServiceName(intent);
+          if (runningServices.add(serviceName)) {
+            iterator.remove();
+            context.startService(intent);
           }
         }
       }
@@ -118,6 +118,7 @@ public abstract class AbstractProgressiveService extends Service
     // remove the listener on destruction to prevent
     // implicit AbstractProgressiveService instance from leaking (as "this")
     getProgressHandler().setProgressListener(null);
+    ServiceWatcherUtil.onServiceDestroyed(this);
   }
 
   /**
@@ -139,7 +140,7 @@ public abstract class AbstractProgressiveService extends Service
         isNotificationTitleSet = true;
       }
 
-      if (ServiceWatcherUtil.state != ServiceWatcherUtil.ServiceStatusCallbacks.STATE_HALTED) {
+      if (!getProgressHandler().isHalted()) {
 
         String written =
             Formatter.formatFileSize(this, writtenSize)
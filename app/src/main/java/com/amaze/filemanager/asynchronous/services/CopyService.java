@@ -21,14 +21,26 @@
 package com.amaze.filemanager.asynchronous.services;
 
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.application.AppConfig;
 import com.amaze.filemanager.asynchronous.asynctasks.DeleteTask;
 import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil;
+import com.amaze.filemanager.database.CopyJournalHandler;
 import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.database.models.explorer.EncryptedEntry;
+import com.amaze.filemanager.database.models.utilities.CopyJournalEntry;
 import com.amaze.filemanager.file_operations.exceptions.ShellNotRunningException;
 import com.amaze.filemanager.file_operations.filesystem.OpenMode;
 import com.amaze.filemanager.filesystem.FileProperties;
@@ -40,9 +52,11 @@ import com.amaze.filemanager.filesystem.files.FileUtils;
 import com.amaze.filemanager.filesystem.files.GenericCopyUtil;
 import com.amaze.filemanager.filesystem.root.CopyFilesCommand;
 import com.amaze.filemanager.filesystem.root.MoveFileCommand;
+import com.amaze.filemanager.filesystem.ssh.SshServerSideOperations;
 import com.amaze.filemanager.ui.activities.MainActivity;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.DatapointParcelable;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.amaze.filemanager.utils.ObtainableServiceBinder;
 import com.amaze.filemanager.utils.ProgressHandler;
 
@@ -72,9 +86,15 @@ public class CopyService extends AbstractProgressiveService {
   public static final String TAG_COPY_OPEN_MODE = "MODE"; // target open mode
   public static final String TAG_COPY_MOVE = "move";
   private static final String TAG_COPY_START_ID = "id";
+  private static final String TAG_COPY_RESUMED = "resumed";
 
   public static final String TAG_BROADCAST_COPY_CANCEL = "copycancel";
 
+  /** Number of files copied at once between local storages */
+  private static final int COPY_PARALLELISM_LOCAL = 4;
+  /** Number of files copied at once when either end is SAF, SMB or SFTP */
+  private static final int COPY_PARALLELISM_REMOTE = 2;
+
   private NotificationManager mNotifyManager;
   private NotificationCompat.Builder mBuilder;
   private Context c;
@@ -159,14 +179,16 @@ public class CopyService extends AbstractProgressiveService {
     b.putString(TAG_COPY_TARGET, targetPath);
     b.putInt(TAG_COPY_OPEN_MODE, mode);
     b.putParcelableArrayList(TAG_COPY_SOURCES, files);
+    b.putBoolean(TAG_COPY_RESUMED, (flags & START_FLAG_REDELIVERY) != 0);
 
     super.onStartCommand(intent, flags, startId);
     super.progressHalted();
     // going async
     new DoInBackground(isRootExplorer).execute(b);
 
-    // If we get killed, after returning from here, restart
-    return START_NOT_STICKY;
+    // If we get killed, after returning from here, restart with the same intent, the copy journal
+    // lets us skip what was already copied
+    return START_REDELIVER_INTENT;
   }
 
   @Override
@@ -233,8 +255,15 @@ public class CopyService extends AbstractProgressiveService {
     boolean move;
     private Copy copy;
     private String targetPath;
+    /** Directories the sources are in, whose listings a move changes */
+    private final Set<String> sourceParents = new HashSet<>();
     private boolean isRootExplorer;
     private int sourceProgress = 0;
+    private final CopyJournalHandler copyJournal = CopyJournalHandler.getInstance();
+    /** Key of this operation's entries in the copy journal */
+    private String operation;
+    /** Entries left in the copy journal by a previous, interrupted run of this operation */
+    private Map<String, CopyJournalEntry> journalEntries = Collections.emptyMap();
 
     private DoInBackground(boolean isRootExplorer) {
       this.isRootExplorer = isRootExplorer;
@@ -261,9 +290,25 @@ public class CopyService extends AbstractProgressiveService {
       targetPath = p1[0].getString(TAG_COPY_TARGET);
       move = p1[0].getBoolean(TAG_COPY_MOVE);
       OpenMode openMode = OpenMode.getOpenMode(p1[0].getInt(TAG_COPY_OPEN_MODE));
+
+      for (HybridFileParcelable sourceFile : sourceFiles) {
+        sourceParents.add(sourceFile.getParent(c));
+      }
+
+      operation = getOperationKey(sourceFiles, targetPath, move);
+      if (p1[0].getBoolean(TAG_COPY_RESUMED)) {
+        journalEntries = copyJournal.getEntries(operation);
+      } else {
+        // same files were copied to the same place before, don't mistake it for this one
+        copyJournal.clear(operation);
+      }
+
       copy = new Copy();
       copy.execute(sourceFiles, targetPath, move, openMode);
 
+      // finished, failed or cancelled, either way there's nothing left to resume
+      copyJournal.clear(operation);
+
       if (copy.failedFOps.size() == 0) {
 
         // adding/updating new encrypted db entry if any encrypted file was copied/moved
@@ -289,12 +334,32 @@ public class CopyService extends AbstractProgressiveService {
       watcherUtil.stopWatch();
       finalizeNotification(copy.failedFOps, move);
 
+      DirectoryListCache.getInstance().invalidate(targetPath);
+      if (move) {
+        for (String sourceParent : sourceParents) {
+          DirectoryListCache.getInstance().invalidate(sourceParent);
+        }
+      }
+
       Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
       intent.putExtra(MainActivity.KEY_INTENT_LOAD_LIST_FILE, targetPath);
       sendBroadcast(intent);
       stopSelf();
     }
 
+    /**
+     * @return a key identifying this operation, the same whenever the same sources are copied or
+     *     moved to the same target, so a redelivered intent finds what its previous run journaled
+     */
+    private String getOperationKey(
+        ArrayList<HybridFileParcelable> sourceFiles, String targetPath, boolean move) {
+      StringBuilder key = new StringBuilder(move ? "move:" : "copy:").append(targetPath);
+      for (HybridFileParcelable sourceFile : sourceFiles) {
+        key.append('\n').append(sourceFile.getPath());
+      }
+      return UUID.nameUUIDFromBytes(key.toString().getBytes(Charset.forName("UTF-8"))).toString();
+    }
+
     /**
      * Iterates through every file to find an encrypted file and update/add a new entry about it's
      * metadata in the database
@@ -347,6 +412,18 @@ public class CopyService extends AbstractProgressiveService {
       ArrayList<HybridFile> failedFOps;
       ArrayList<HybridFileParcelable> toDelete;
 
+      /**
+       * Copies regular files concurrently, directories are still created on the calling thread
+       * before any of their children is handed over. Null when copying sequentially.
+       */
+      private ThreadPoolExecutor copyExecutor;
+
+      /**
+       * Index of the first source whose copy failed, {@link Integer#MAX_VALUE} while none did. Like
+       * the sequential copy, that source and every one after it end up in {@link #failedFOps}.
+       */
+      private final AtomicInteger firstFailedSource = new AtomicInteger(Integer.MAX_VALUE);
+
       Copy() {
         failedFOps = new ArrayList<>();
         toDelete = new ArrayList<>();
@@ -367,7 +444,14 @@ public class CopyService extends AbstractProgressiveService {
         watcherUtil.watch(CopyService.this);
 
         if (FileProperties.checkFolder((targetPath), c) == 1) {
+          startCopyExecutor(getCopyParallelism(sourceFiles.get(0).getMode(), mode));
+
           for (int i = 0; i < sourceFiles.size(); i++) {
+            if (firstFailedSource.get() < i) {
+              // a worker failed on an earlier source, stop as the sequential copy would
+              break;
+            }
+
             sourceProgress = i;
             HybridFileParcelable f1 = (sourceFiles.get(i));
 
@@ -398,7 +482,7 @@ public class CopyService extends AbstractProgressiveService {
                   continue;
                 }
                 progressHandler.setSourceFilesProcessed(++sourceProgress);
-                copyFiles((f1), hFile, progressHandler);
+                copyFiles((f1), hFile, progressHandler, i);
               } else {
                 break;
               }
@@ -406,12 +490,17 @@ public class CopyService extends AbstractProgressiveService {
               e.printStackTrace();
               Log.e("CopyService", "Got exception checkout: " + f1.getPath());
 
-              failedFOps.add(sourceFiles.get(i));
-              for (int j = i + 1; j < sourceFiles.size(); j++) failedFOps.add(sourceFiles.get(j));
+              markFailed(i);
               break;
             }
           }
 
+          awaitCopyExecutor();
+
+          for (int j = firstFailedSource.get(); j < sourceFiles.size(); j++) {
+            failedFOps.add(sourceFiles.get(j));
+          }
+
         } else if (isRootExplorer) {
           for (int i = 0; i < sourceFiles.size(); i++) {
             if (!progressHandler.getCancelled()) {
@@ -454,7 +543,7 @@ public class CopyService extends AbstractProgressiveService {
           } else if (move) {
             MoveFileCommand.INSTANCE.moveFile(sourceFile.getPath(), targetFile.getPath());
           }
-          ServiceWatcherUtil.position += sourceFile.getSize();
+          watcherUtil.getProgressCounter().updatePosition(sourceFile.getSize());
         } catch (ShellNotRunningException e) {
           e.printStackTrace();
           failedFOps.add(sourceFile);
@@ -462,10 +551,76 @@ public class CopyService extends AbstractProgressiveService {
         FileUtils.scanFile(c, new HybridFile[] {targetFile});
       }
 
+      /**
+       * Number of files copied at once, bounded by the slowest of source and target. Local storage
+       * copes well with concurrent access, while OTG and network filesystems serialize requests
+       * (or have per-connection limits) and gain little from more than one or two streams.
+       */
+      private int getCopyParallelism(OpenMode sourceMode, OpenMode targetMode) {
+        return Math.min(getCopyParallelism(sourceMode), getCopyParallelism(targetMode));
+      }
+
+      private int getCopyParallelism(OpenMode mode) {
+        switch (mode) {
+          case FILE:
+            return COPY_PARALLELISM_LOCAL;
+          case SMB:
+          case SFTP:
+          case DOCUMENT_FILE:
+            return COPY_PARALLELISM_REMOTE;
+          default:
+            // OTG, cloud providers and anything we know nothing about
+            return 1;
+        }
+      }
+
+      private void markFailed(int sourceIndex) {
+        int current;
+        do {
+          current = firstFailedSource.get();
+        } while (sourceIndex < current && !firstFailedSource.compareAndSet(current, sourceIndex));
+      }
+
+      private void startCopyExecutor(int parallelism) {
+        if (parallelism <= 1) {
+          copyExecutor = null;
+          return;
+        }
+
+        // bounded queue with caller runs policy, so that walking a huge tree doesn't queue
+        // every file in it, the walking thread copies a file itself when workers are behind
+        copyExecutor =
+            new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+      }
+
+      private void awaitCopyExecutor() {
+        if (copyExecutor == null) return;
+
+        copyExecutor.shutdown();
+        try {
+          while (!copyExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+            if (progressHandler.getCancelled()) {
+              copyExecutor.shutdownNow();
+            }
+          }
+        } catch (InterruptedException e) {
+          copyExecutor.shutdownNow();
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      /** @param sourceIndex index of the source (in the list given to {@link #execute}) */
       private void copyFiles(
           final HybridFileParcelable sourceFile,
           final HybridFile targetFile,
-          final ProgressHandler progressHandler)
+          final ProgressHandler progressHandler,
+          final int sourceIndex)
           throws IOException {
 
         if (progressHandler.getCancelled()) return;
@@ -495,7 +650,7 @@ public class CopyService extends AbstractProgressiveService {
                         file.getName(c),
                         file.isDirectory());
                 try {
-                  copyFiles(file, destFile, progressHandler);
+                  copyFiles(file, destFile, progressHandler, sourceIndex);
                 } catch (IOException e) {
                   throw new IllegalStateException(e); // throw unchecked exception, no throws needed
                 }
@@ -506,17 +661,92 @@ public class CopyService extends AbstractProgressiveService {
             return;
           }
 
-          GenericCopyUtil copyUtil = new GenericCopyUtil(c, progressHandler);
-
+          // named here rather than by the workers, so the name only ever comes from this thread
           progressHandler.setFileName(sourceFile.getName(c));
-          copyUtil.copy(
-              sourceFile,
-              targetFile,
+
+          if (copyExecutor == null) {
+            copySingleFile(sourceFile, targetFile, progressHandler);
+            return;
+          }
+
+          copyExecutor.execute(
               () -> {
-                // we ran out of memory to map the whole channel, let's switch to streams
-                AppConfig.toast(c, c.getString(R.string.copy_low_memory));
-              },
-              ServiceWatcherUtil.UPDATE_POSITION);
+                if (progressHandler.getCancelled() || firstFailedSource.get() <= sourceIndex) {
+                  return;
+                }
+
+                try {
+                  copySingleFile(sourceFile, targetFile, progressHandler);
+                } catch (Exception e) {
+                  // as in the sequential copy, whatever went wrong fails this source
+                  e.printStackTrace();
+                  Log.e("CopyService", "Got exception checkout: " + sourceFile.getPath());
+                  markFailed(sourceIndex);
+                }
+              });
+        }
+      }
+
+      private void copySingleFile(
+          final HybridFileParcelable sourceFile,
+          final HybridFile targetFile,
+          final ProgressHandler progressHandler)
+          throws IOException {
+        GenericCopyUtil copyUtil = new GenericCopyUtil(c, progressHandler);
+
+        long offset = 0;
+        CopyJournalEntry previousEntry = journalEntries.get(sourceFile.getPath());
+        if (previousEntry != null) {
+          offset =
+              previousEntry.getResumeOffset(
+                  targetFile.getPath(),
+                  sourceFile.getSize(),
+                  sourceFile.getDate(),
+                  Math.max(0, targetFile.length(c)));
+          if (previousEntry.completed
+              && previousEntry.matches(
+                  targetFile.getPath(), sourceFile.getSize(), sourceFile.getDate())
+              && offset == sourceFile.getSize()) {
+            watcherUtil.getProgressCounter().updatePosition(sourceFile.getSize());
+            return;
+          }
+        }
+
+        CopyJournalEntry entry =
+            new CopyJournalEntry(
+                operation,
+                sourceFile.getPath(),
+                targetFile.getPath(),
+                sourceFile.getSize(),
+                sourceFile.getDate());
+
+        if (sourceFile.isSftp()
+            && targetFile.isSftp()
+            && SshServerSideOperations.copy(sourceFile.getPath(), targetFile.getPath())) {
+          // copied by the server itself, no data went through us
+          watcherUtil.getProgressCounter().updatePosition(sourceFile.getSize());
+          entry.completed = true;
+          copyJournal.saveEntry(entry);
+          return;
+        }
+
+        copyUtil.copy(
+            sourceFile,
+            targetFile,
+            offset,
+            () -> {
+              // we ran out of memory to map the whole channel, let's switch to streams
+              AppConfig.toast(c, c.getString(R.string.copy_low_memory));
+            },
+            watcherUtil.getProgressCounter(),
+            confirmedBytes -> {
+              entry.bytesCopied = confirmedBytes;
+              copyJournal.saveEntry(entry);
+            });
+
+        if (!progressHandler.getCancelled()) {
+          entry.completed = true;
+          copyJournal.saveEntry(entry);
         }
       }
     }
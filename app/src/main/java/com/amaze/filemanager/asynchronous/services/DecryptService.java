@@ -176,7 +176,13 @@ public class DecryptService extends AbstractProgressiveService {
         // the path is to the same directory as in encrypted one in normal case
         // and the cache directory in case we're here because of the viewer
         try {
-          new CryptUtil(context, baseFile, decryptPath, progressHandler, failedOps);
+          new CryptUtil(
+              context,
+              baseFile,
+              decryptPath,
+              progressHandler,
+              serviceWatcherUtil.getProgressCounter(),
+              failedOps);
         } catch (Exception e) {
           e.printStackTrace();
           failedOps.add(baseFile);
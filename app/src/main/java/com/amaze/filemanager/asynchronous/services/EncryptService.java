@@ -33,6 +33,7 @@ import com.amaze.filemanager.filesystem.files.CryptUtil;
 import com.amaze.filemanager.ui.activities.MainActivity;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.DatapointParcelable;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.amaze.filemanager.utils.ObtainableServiceBinder;
 import com.amaze.filemanager.utils.ProgressHandler;
 
@@ -221,7 +222,13 @@ public class EncryptService extends AbstractProgressiveService {
 
         // we're here to encrypt
         try {
-          new CryptUtil(context, baseFile, progressHandler, failedOps, targetFilename);
+          new CryptUtil(
+              context,
+              baseFile,
+              progressHandler,
+              serviceWatcherUtil.getProgressCounter(),
+              failedOps,
+              targetFilename);
         } catch (Exception e) {
           e.printStackTrace();
           failedOps.add(baseFile);
@@ -238,6 +245,7 @@ public class EncryptService extends AbstractProgressiveService {
       serviceWatcherUtil.stopWatch();
       finalizeNotification(failedOps, false);
 
+      DirectoryListCache.getInstance().invalidate(baseFile.getParent(context));
       Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
       intent.putExtra(MainActivity.KEY_INTENT_LOAD_LIST_FILE, "");
       sendBroadcast(intent);
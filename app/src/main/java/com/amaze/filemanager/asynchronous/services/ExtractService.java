@@ -38,6 +38,7 @@ import com.amaze.filemanager.ui.activities.MainActivity;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
 import com.amaze.filemanager.ui.notifications.NotificationConstants;
 import com.amaze.filemanager.utils.DatapointParcelable;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.amaze.filemanager.utils.ObtainableServiceBinder;
 import com.amaze.filemanager.utils.ProgressHandler;
 import com.github.junrar.exception.UnsupportedRarV5Exception;
@@ -270,6 +271,10 @@ public class ExtractService extends AbstractProgressiveService {
 
         if (entriesToExtract != null && entriesToExtract.length == 0) entriesToExtract = null;
 
+        // every attempt counts its progress from the start of the archive
+        if (watcherUtil != null) watcherUtil.stopWatch();
+        watcherUtil = new ServiceWatcherUtil(progressHandler);
+
         final Extractor extractor =
             CompressedHelper.getExtractorInstance(
                 extractService.getApplicationContext(),
@@ -285,7 +290,6 @@ public class ExtractService extends AbstractProgressiveService {
 
                     extractService.addFirstDatapoint(firstEntryName, 1, totalBytes, false);
 
-                    watcherUtil = new ServiceWatcherUtil(progressHandler);
                     watcherUtil.watch(ExtractService.this);
                   }
 
@@ -309,7 +313,7 @@ public class ExtractService extends AbstractProgressiveService {
                     return progressHandler.getCancelled();
                   }
                 },
-                ServiceWatcherUtil.UPDATE_POSITION);
+                watcherUtil.getProgressCounter());
 
         try {
           if (entriesToExtract != null) {
@@ -395,9 +399,10 @@ public class ExtractService extends AbstractProgressiveService {
       final ExtractService extractService = this.extractService.get();
       if (extractService == null) return;
 
-      // check whether watcherutil was initialized. It was not initialized when we got exception
-      // in extracting the file
+      // check whether watcherutil was initialized. It was not initialized when the task was
+      // cancelled before extracting anything
       if (watcherUtil != null) watcherUtil.stopWatch();
+      DirectoryListCache.getInstance().invalidate(extractionPath);
       Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
       intent.putExtra(MainActivity.KEY_INTENT_LOAD_LIST_FILE, extractionPath);
       extractService.sendBroadcast(intent);
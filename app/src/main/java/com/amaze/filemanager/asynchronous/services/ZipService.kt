@@ -25,8 +25,6 @@ import android.app.PendingIntent
 import android.content.*
 import android.net.Uri
 import android.os.AsyncTask
-import android.os.Build.VERSION.SDK_INT
-import android.os.Build.VERSION_CODES.O
 import android.os.IBinder
 import android.widget.RemoteViews
 import androidx.annotation.StringRes
@@ -37,21 +35,18 @@ import com.amaze.filemanager.application.AppConfig
 import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil
 import com.amaze.filemanager.filesystem.FileUtil
 import com.amaze.filemanager.filesystem.HybridFileParcelable
+import com.amaze.filemanager.filesystem.compressed.ZipCompressor
 import com.amaze.filemanager.filesystem.files.FileUtils
-import com.amaze.filemanager.filesystem.files.GenericCopyUtil
 import com.amaze.filemanager.ui.activities.MainActivity
 import com.amaze.filemanager.ui.notifications.NotificationConstants
 import com.amaze.filemanager.utils.DatapointParcelable
+import com.amaze.filemanager.utils.DirectoryListCache
 import com.amaze.filemanager.utils.ObtainableServiceBinder
+import com.amaze.filemanager.utils.ParallelWorkUtil
 import com.amaze.filemanager.utils.ProgressHandler
 import java.io.*
-import java.nio.file.Files
-import java.nio.file.Paths
-import java.nio.file.attribute.BasicFileAttributes
 import java.util.*
-import java.util.zip.ZipEntry
-import java.util.zip.ZipException
-import java.util.zip.ZipOutputStream
+import kotlin.math.max
 
 @Suppress("TooManyFunctions") // Hack.
 class ZipService : AbstractProgressiveService() {
@@ -160,7 +155,6 @@ class ZipService : AbstractProgressiveService() {
         private val zipPath: String
     ) : AsyncTask<Void, Void?, Void?>() {
 
-        private var zos: ZipOutputStream? = null
         private var watcherUtil: ServiceWatcherUtil? = null
         private var totalBytes = 0L
 
@@ -197,6 +191,7 @@ class ZipService : AbstractProgressiveService() {
 
         public override fun onPostExecute(a: Void?) {
             watcherUtil!!.stopWatch()
+            DirectoryListCache.getInstance().invalidate(File(zipPath).parent)
             val intent = Intent(MainActivity.KEY_INTENT_LOAD_LIST)
                 .putExtra(MainActivity.KEY_INTENT_LOAD_LIST_FILE, zipPath)
             zipService.sendBroadcast(intent)
@@ -207,79 +202,35 @@ class ZipService : AbstractProgressiveService() {
          * Main logic for zipping specified files.
          */
         fun execute(context: Context, baseFiles: ArrayList<File>, zipPath: String?) {
-            val out: OutputStream?
             val zipDirectory = File(zipPath)
             watcherUtil = ServiceWatcherUtil(progressHandler)
             watcherUtil!!.watch(this@ZipService)
+            val compressor = ZipCompressor(
+                context.cacheDir,
+                ParallelWorkUtil.getParallelism(),
+                watcherUtil!!.progressCounter
+            ) { progressHandler.cancelled }
             try {
-                out = FileUtil.getOutputStream(zipDirectory, context)
-                zos = ZipOutputStream(BufferedOutputStream(out))
-                for ((fileProgress, file) in baseFiles.withIndex()) {
-                    if (isCancelled) return
+                compressor.compress(
+                    baseFiles,
+                    FileUtil.getOutputStream(zipDirectory, context)
+                        ?: throw IOException("Can't write to $zipPath")
+                ) { fileProgress, file ->
+                    // workers start entries out of order, the count of files only grows
                     progressHandler.fileName = file.name
-                    progressHandler.sourceFilesProcessed = fileProgress + 1
-                    compressFile(file, "")
+                    progressHandler.sourceFilesProcessed =
+                        max(progressHandler.sourceFilesProcessed, fileProgress + 1)
                 }
             } catch (e: IOException) {
                 e.printStackTrace()
             } finally {
-                try {
-                    zos!!.flush()
-                    zos!!.close()
-                    context.sendBroadcast(
-                        Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE)
-                            .setData(Uri.fromFile(zipDirectory))
-                    )
-                } catch (e: IOException) {
-                    e.printStackTrace()
-                }
-            }
-        }
-
-        @Throws(IOException::class, NullPointerException::class, ZipException::class)
-        private fun compressFile(file: File, path: String) {
-            if (progressHandler.cancelled) return
-            if (!file.isDirectory) {
-                zos!!.putNextEntry(createZipEntry(file, path))
-                val buf = ByteArray(GenericCopyUtil.DEFAULT_BUFFER_SIZE)
-                var len: Int
-                BufferedInputStream(FileInputStream(file)).use { `in` ->
-                    while (`in`.read(buf).also { len = it } > 0) {
-                        if (!progressHandler.cancelled) {
-                            zos!!.write(buf, 0, len)
-                            ServiceWatcherUtil.position += len.toLong()
-                        } else break
-                    }
-                }
-                return
-            }
-            file.listFiles()?.forEach {
-                compressFile(it, "${createZipEntryPrefixWith(path)}${file.name}")
-            }
-        }
-    }
-
-    private fun createZipEntryPrefixWith(path: String): String =
-        if (path.isEmpty()) {
-            path
-        } else {
-            "$path/"
-        }
-
-    private fun createZipEntry(file: File, path: String): ZipEntry =
-        ZipEntry("${createZipEntryPrefixWith(path)}${file.name}").apply {
-            if (SDK_INT >= O) {
-                val attrs = Files.readAttributes(
-                    Paths.get(file.absolutePath),
-                    BasicFileAttributes::class.java
+                context.sendBroadcast(
+                    Intent(Intent.ACTION_MEDIA_SCANNER_SCAN_FILE)
+                        .setData(Uri.fromFile(zipDirectory))
                 )
-                setCreationTime(attrs.creationTime())
-                    .setLastAccessTime(attrs.lastAccessTime())
-                    .lastModifiedTime = attrs.lastModifiedTime()
-            } else {
-                time = file.lastModified()
             }
         }
+    }
 
     /*
      * Class used for the client Binder. Because we know this service always runs in the same process
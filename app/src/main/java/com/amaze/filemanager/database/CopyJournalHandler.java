@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.database;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.amaze.filemanager.application.AppConfig;
+import com.amaze.filemanager.database.models.utilities.CopyJournalEntry;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import io.reactivex.schedulers.Schedulers;
+
+/**
+ * Keeps track of the files a copy or move operation already transferred, so that the operation can
+ * be resumed if its service gets killed.
+ *
+ * <p>Calls block until the database is updated, use these functions from a background thread
+ */
+public class CopyJournalHandler {
+
+  private static final String TAG = CopyJournalHandler.class.getSimpleName();
+
+  private final UtilitiesDatabase database;
+
+  private CopyJournalHandler(@NonNull UtilitiesDatabase utilitiesDatabase) {
+    database = utilitiesDatabase;
+  }
+
+  private static class CopyJournalHandlerHolder {
+    private static final CopyJournalHandler INSTANCE =
+        new CopyJournalHandler(AppConfig.getInstance().getUtilitiesDatabase());
+  }
+
+  public static CopyJournalHandler getInstance() {
+    return CopyJournalHandlerHolder.INSTANCE;
+  }
+
+  /** @return entries recorded for {@param operation}, by source path */
+  @NonNull
+  public Map<String, CopyJournalEntry> getEntries(@NonNull String operation) {
+    Map<String, CopyJournalEntry> entries = new HashMap<>();
+    try {
+      List<CopyJournalEntry> list =
+          database
+              .copyJournalEntryDao()
+              .findByOperation(operation)
+              .subscribeOn(Schedulers.io())
+              .blockingGet();
+      for (CopyJournalEntry entry : list) {
+        entries.put(entry.path, entry);
+      }
+    } catch (Exception e) {
+      // catch error to handle Single#onError for blockingGet
+      Log.e(TAG, "Error reading copy journal", e);
+    }
+    return entries;
+  }
+
+  /** Records (or updates) how far the copy of {@param entry}'s source got */
+  public void saveEntry(@NonNull CopyJournalEntry entry) {
+    try {
+      database.copyJournalEntryDao().insert(entry).subscribeOn(Schedulers.io()).blockingAwait();
+    } catch (Exception e) {
+      // a missing entry only means the file is copied again if we're resumed
+      Log.e(TAG, "Error writing copy journal", e);
+    }
+  }
+
+  /** Forgets everything recorded for {@param operation} */
+  public void clear(@NonNull String operation) {
+    try {
+      database
+          .copyJournalEntryDao()
+          .deleteByOperation(operation)
+          .subscribeOn(Schedulers.io())
+          .blockingAwait();
+    } catch (Exception e) {
+      Log.e(TAG, "Error clearing copy journal", e);
+    }
+  }
+}
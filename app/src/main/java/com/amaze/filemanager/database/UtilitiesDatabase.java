@@ -23,6 +23,7 @@ package com.amaze.filemanager.database;
 import static com.amaze.filemanager.database.UtilitiesDatabase.DATABASE_VERSION;
 
 import com.amaze.filemanager.database.daos.BookmarkEntryDao;
+import com.amaze.filemanager.database.daos.CopyJournalEntryDao;
 import com.amaze.filemanager.database.daos.GridEntryDao;
 import com.amaze.filemanager.database.daos.HiddenEntryDao;
 import com.amaze.filemanager.database.daos.HistoryEntryDao;
@@ -30,6 +31,7 @@ import com.amaze.filemanager.database.daos.ListEntryDao;
 import com.amaze.filemanager.database.daos.SftpEntryDao;
 import com.amaze.filemanager.database.daos.SmbEntryDao;
 import com.amaze.filemanager.database.models.utilities.Bookmark;
+import com.amaze.filemanager.database.models.utilities.CopyJournalEntry;
 import com.amaze.filemanager.database.models.utilities.Grid;
 import com.amaze.filemanager.database.models.utilities.Hidden;
 import com.amaze.filemanager.database.models.utilities.History;
@@ -48,7 +50,7 @@ import androidx.sqlite.db.SupportSQLiteDatabase;
 
 /**
  * Repository for {@link Bookmark}, {@link Grid}, {@link Hidden}, {@link History}, {@link List},
- * {@link SmbEntry}, {@link SftpEntry} objects in utilities.db in Amaze.
+ * {@link SmbEntry}, {@link SftpEntry}, {@link CopyJournalEntry} objects in utilities.db in Amaze.
  *
  * @see RoomDatabase
  */
@@ -60,14 +62,15 @@ import androidx.sqlite.db.SupportSQLiteDatabase;
       History.class,
       List.class,
       SmbEntry.class,
-      SftpEntry.class
+      SftpEntry.class,
+      CopyJournalEntry.class
     },
     version = DATABASE_VERSION,
-    exportSchema = false)
+    exportSchema = true)
 public abstract class UtilitiesDatabase extends RoomDatabase {
 
   private static final String DATABASE_NAME = "utilities.db";
-  protected static final int DATABASE_VERSION = 5;
+  protected static final int DATABASE_VERSION = 6;
 
   public static final String TABLE_HISTORY = "history";
   public static final String TABLE_HIDDEN = "hidden";
@@ -76,6 +79,7 @@ public abstract class UtilitiesDatabase extends RoomDatabase {
   public static final String TABLE_BOOKMARKS = "bookmarks";
   public static final String TABLE_SMB = "smb";
   public static final String TABLE_SFTP = "sftp";
+  public static final String TABLE_COPY_JOURNAL = "copy_journal";
 
   public static final String COLUMN_ID = "_id";
   public static final String COLUMN_PATH = "path";
@@ -83,6 +87,12 @@ public abstract class UtilitiesDatabase extends RoomDatabase {
   public static final String COLUMN_HOST_PUBKEY = "pub_key";
   public static final String COLUMN_PRIVATE_KEY_NAME = "ssh_key_name";
   public static final String COLUMN_PRIVATE_KEY = "ssh_key";
+  public static final String COLUMN_OPERATION = "operation";
+  public static final String COLUMN_TARGET_PATH = "target_path";
+  public static final String COLUMN_SOURCE_SIZE = "source_size";
+  public static final String COLUMN_SOURCE_LAST_MODIFIED = "source_last_modified";
+  public static final String COLUMN_BYTES_COPIED = "bytes_copied";
+  public static final String COLUMN_COMPLETED = "completed";
 
   private static final String TEMP_TABLE_PREFIX = "temp_";
 
@@ -332,7 +342,7 @@ public abstract class UtilitiesDatabase extends RoomDatabase {
       };
 
   private static final Migration MIGRATION_4_5 =
-      new Migration(4, DATABASE_VERSION) {
+      new Migration(4, 5) {
         @Override
         public void migrate(@NonNull SupportSQLiteDatabase database) {
           String backupTable = TEMP_TABLE_PREFIX + TABLE_BOOKMARKS;
@@ -367,6 +377,48 @@ public abstract class UtilitiesDatabase extends RoomDatabase {
         }
       };
 
+  static final Migration MIGRATION_5_6 =
+      new Migration(5, DATABASE_VERSION) {
+        @Override
+        public void migrate(@NonNull SupportSQLiteDatabase database) {
+          database.execSQL(
+              "CREATE TABLE IF NOT EXISTS "
+                  + TABLE_COPY_JOURNAL
+                  + " ("
+                  + COLUMN_ID
+                  + " INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL,"
+                  + COLUMN_PATH
+                  + " TEXT,"
+                  + COLUMN_OPERATION
+                  + " TEXT,"
+                  + COLUMN_TARGET_PATH
+                  + " TEXT,"
+                  + COLUMN_SOURCE_SIZE
+                  + " INTEGER NOT NULL,"
+                  + COLUMN_SOURCE_LAST_MODIFIED
+                  + " INTEGER NOT NULL,"
+                  + COLUMN_BYTES_COPIED
+                  + " INTEGER NOT NULL,"
+                  + COLUMN_COMPLETED
+                  + " INTEGER NOT NULL"
+                  + ");");
+          database.execSQL(
+              "CREATE UNIQUE INDEX IF NOT EXISTS `index_"
+                  + TABLE_COPY_JOURNAL
+                  + "_"
+                  + COLUMN_OPERATION
+                  + "_"
+                  + COLUMN_PATH
+                  + "` ON "
+                  + TABLE_COPY_JOURNAL
+                  + "("
+                  + COLUMN_OPERATION
+                  + ", "
+                  + COLUMN_PATH
+                  + ");");
+        }
+      };
+
   protected abstract HiddenEntryDao hiddenEntryDao();
 
   protected abstract GridEntryDao gridEntryDao();
@@ -381,10 +433,12 @@ public abstract class UtilitiesDatabase extends RoomDatabase {
 
   protected abstract SftpEntryDao sftpEntryDao();
 
+  protected abstract CopyJournalEntryDao copyJournalEntryDao();
+
   public static UtilitiesDatabase initialize(@NonNull Context context) {
     return Room.databaseBuilder(context, UtilitiesDatabase.class, DATABASE_NAME)
         .allowMainThreadQueries()
-        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5)
+        .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6)
         .build();
   }
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.database.models.utilities;
+
+import com.amaze.filemanager.database.UtilitiesDatabase;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+
+/**
+ * {@link Entity} representation of <code>copy_journal</code> table in utilities.db.
+ *
+ * <p>One row per source file of a copy or move operation, <code>path</code> being the source's,
+ * recording how much of it reached the target so an interrupted operation can pick up where it
+ * stopped.
+ *
+ * @see UtilitiesDatabase
+ */
+@Entity(
+    tableName = UtilitiesDatabase.TABLE_COPY_JOURNAL,
+    indices = {
+      @Index(
+          value = {UtilitiesDatabase.COLUMN_OPERATION, UtilitiesDatabase.COLUMN_PATH},
+          unique = true)
+    })
+public class CopyJournalEntry extends OperationData {
+
+  @ColumnInfo(name = UtilitiesDatabase.COLUMN_OPERATION)
+  public String operation;
+
+  @ColumnInfo(name = UtilitiesDatabase.COLUMN_TARGET_PATH)
+  public String targetPath;
+
+  @ColumnInfo(name = UtilitiesDatabase.COLUMN_SOURCE_SIZE)
+  public long sourceSize;
+
+  @ColumnInfo(name = UtilitiesDatabase.COLUMN_SOURCE_LAST_MODIFIED)
+  public long sourceLastModified;
+
+  @ColumnInfo(name = UtilitiesDatabase.COLUMN_BYTES_COPIED)
+  public long bytesCopied;
+
+  @ColumnInfo(name = UtilitiesDatabase.COLUMN_COMPLETED)
+  public boolean completed;
+
+  public CopyJournalEntry(
+      @NonNull String operation,
+      @NonNull String path,
+      @NonNull String targetPath,
+      long sourceSize,
+      long sourceLastModified) {
+    super(path);
+    this.operation = operation;
+    this.targetPath = targetPath;
+    this.sourceSize = sourceSize;
+    this.sourceLastModified = sourceLastModified;
+  }
+
+  /**
+   * @return whether this entry was recorded for the same source and target, and the source hasn't
+   *     changed since
+   */
+  public boolean matches(@NonNull String targetPath, long sourceSize, long sourceLastModified) {
+    return this.targetPath.equals(targetPath)
+        && this.sourceSize == sourceSize
+        && this.sourceLastModified == sourceLastModified;
+  }
+
+  /**
+   * @return number of bytes of the target, now {@param targetLength} bytes long, to keep when
+   *     copying the source to it again: all of them if this entry's copy completed, none if the
+   *     source changed since or the target is shorter than what this entry says reached it
+   */
+  public long getResumeOffset(
+      @NonNull String targetPath, long sourceSize, long sourceLastModified, long targetLength) {
+    if (!matches(targetPath, sourceSize, sourceLastModified)) {
+      return 0;
+    } else if (completed) {
+      return targetLength == sourceSize ? sourceSize : 0;
+    }
+    // only what reached the target is journaled, past it the target holds writes that were still in
+    // flight, and a target shorter than that was changed since
+    return targetLength >= bytesCopied ? bytesCopied : 0;
+  }
+}
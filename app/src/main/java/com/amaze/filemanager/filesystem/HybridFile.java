@@ -29,10 +29,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.MalformedURLException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.concurrent.atomic.AtomicLong;
 
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
@@ -45,9 +47,12 @@ import com.amaze.filemanager.filesystem.cloud.CloudUtil;
 import com.amaze.filemanager.filesystem.files.FileUtils;
 import com.amaze.filemanager.filesystem.root.DeleteFileCommand;
 import com.amaze.filemanager.filesystem.root.ListFilesCommand;
+import com.amaze.filemanager.filesystem.smb.PipelinedSmbFile;
+import com.amaze.filemanager.filesystem.ssh.PipelinedSftpFile;
 import com.amaze.filemanager.filesystem.ssh.SFtpClientTemplate;
 import com.amaze.filemanager.filesystem.ssh.SshClientTemplate;
 import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
+import com.amaze.filemanager.filesystem.ssh.SshConnectionPool;
 import com.amaze.filemanager.filesystem.ssh.Statvfs;
 import com.amaze.filemanager.ui.fragments.preference_fragments.PreferencesConstants;
 import com.amaze.filemanager.utils.DataUtils;
@@ -285,7 +290,18 @@ public class HybridFile {
     long s = 0L;
     switch (mode) {
       case SFTP:
-        return ((HybridFileParcelable) this).getSize();
+        if (this instanceof HybridFileParcelable) {
+          return ((HybridFileParcelable) this).getSize();
+        }
+        final Long sftpLength =
+            SshClientUtils.execute(
+                new SFtpClientTemplate<Long>(path) {
+                  @Override
+                  public Long execute(SFTPClient client) throws IOException {
+                    return client.size(SshClientUtils.extractRemotePathFrom(path));
+                  }
+                });
+        return sftpLength == null ? 0L : sftpLength;
       case SMB:
         SmbFile smbFile = getSmbFile();
         if (smbFile != null)
@@ -660,13 +676,7 @@ public class HybridFile {
         size = FileUtils.otgFolderSize(path, context);
         break;
       case DOCUMENT_FILE:
-        final AtomicLong totalBytes = new AtomicLong(0);
-        OTGUtil.getDocumentFiles(
-            SafRootHolder.getUriRoot(),
-            path,
-            context,
-            OpenMode.DOCUMENT_FILE,
-            file -> totalBytes.addAndGet(FileUtils.getBaseFileSize(file, context)));
+        size = FileUtils.documentFileFolderSize(path, context);
         break;
       case DROPBOX:
       case BOX:
@@ -1003,17 +1013,29 @@ public class HybridFile {
     InputStream inputStream;
     if (isSftp()) {
       return SshClientUtils.execute(
-          new SFtpClientTemplate<InputStream>(path) {
+          new SshClientTemplate<InputStream>(path, false) {
             @Override
-            public InputStream execute(SFTPClient client) throws IOException {
-              final RemoteFile rf = client.open(SshClientUtils.extractRemotePathFrom(path));
+            public InputStream execute(final SSHClient ssh) throws IOException {
+              // the client is in use until the stream is closed
+              final SFTPClient client = SshConnectionPool.INSTANCE.borrowSftpClient(ssh);
+              final RemoteFile rf;
+              try {
+                rf = client.open(SshClientUtils.extractRemotePathFrom(path));
+              } catch (IOException e) {
+                SshConnectionPool.INSTANCE.releaseSftpClient(ssh, client);
+                throw e;
+              }
               return rf.new RemoteFileInputStream() {
                 @Override
                 public void close() throws IOException {
                   try {
                     super.close();
                   } finally {
-                    rf.close();
+                    try {
+                      rf.close();
+                    } finally {
+                      SshConnectionPool.INSTANCE.releaseSftpClient(ssh, client);
+                    }
                   }
                 }
               };
@@ -1045,18 +1067,28 @@ public class HybridFile {
       case SFTP:
         inputStream =
             SshClientUtils.execute(
-                new SFtpClientTemplate<InputStream>(path, false) {
+                new SshClientTemplate<InputStream>(path, false) {
                   @Override
-                  public InputStream execute(final SFTPClient client) throws IOException {
-                    final RemoteFile rf = client.open(SshClientUtils.extractRemotePathFrom(path));
-                    return rf.new RemoteFileInputStream() {
+                  public InputStream execute(final SSHClient ssh) throws IOException {
+                    final SFTPClient client = SshConnectionPool.INSTANCE.borrowSftpClient(ssh);
+                    final PipelinedSftpFile file;
+                    try {
+                      file =
+                          PipelinedSftpFile.open(
+                              client,
+                              SshClientUtils.extractRemotePathFrom(path),
+                              EnumSet.of(net.schmizz.sshj.sftp.OpenMode.READ));
+                    } catch (IOException e) {
+                      SshConnectionPool.INSTANCE.releaseSftpClient(ssh, client);
+                      throw e;
+                    }
+                    return file.new PipelinedInputStream(0) {
                       @Override
                       public void close() throws IOException {
                         try {
                           super.close();
                         } finally {
-                          rf.close();
-                          client.close();
+                          SshConnectionPool.INSTANCE.releaseSftpClient(ssh, client);
                         }
                       }
                     };
@@ -1065,7 +1097,7 @@ public class HybridFile {
         break;
       case SMB:
         try {
-          inputStream = getSmbFile().getInputStream();
+          inputStream = PipelinedSmbFile.open(getSmbFile(), false).new PipelinedInputStream(0);
         } catch (IOException e) {
           inputStream = null;
           e.printStackTrace();
@@ -1122,6 +1154,21 @@ public class HybridFile {
 
   @Nullable
   public OutputStream getOutputStream(Context context) {
+    return getOutputStream(context, 0);
+  }
+
+  /**
+   * Opens this file for writing starting at {@param offset}, dropping whatever the file holds
+   * after it. Used to resume interrupted copies, only SFTP, SMB and local files support a non zero
+   * offset.
+   */
+  @Nullable
+  public OutputStream getOutputStream(Context context, final long offset) {
+    if (offset > 0 && mode != OpenMode.SFTP && mode != OpenMode.SMB && !isLocal()) {
+      Log.e(TAG, "Can't write at an offset in " + mode + " files");
+      return null;
+    }
+
     OutputStream outputStream;
     switch (mode) {
       case SFTP:
@@ -1129,25 +1176,35 @@ public class HybridFile {
             new SshClientTemplate<OutputStream>(path, false) {
               @Override
               public OutputStream execute(final SSHClient ssh) throws IOException {
-                final SFTPClient client = ssh.newSFTPClient();
-                final RemoteFile rf =
-                    client.open(
-                        SshClientUtils.extractRemotePathFrom(path),
-                        EnumSet.of(
-                            net.schmizz.sshj.sftp.OpenMode.WRITE,
-                            net.schmizz.sshj.sftp.OpenMode.CREAT));
-                return rf.new RemoteFileOutputStream() {
+                final SFTPClient client = SshConnectionPool.INSTANCE.borrowSftpClient(ssh);
+                final PipelinedSftpFile file;
+                try {
+                  file =
+                      PipelinedSftpFile.open(
+                          client,
+                          SshClientUtils.extractRemotePathFrom(path),
+                          offset > 0
+                              ? EnumSet.of(
+                                  net.schmizz.sshj.sftp.OpenMode.WRITE,
+                                  net.schmizz.sshj.sftp.OpenMode.CREAT)
+                              : EnumSet.of(
+                                  net.schmizz.sshj.sftp.OpenMode.WRITE,
+                                  net.schmizz.sshj.sftp.OpenMode.CREAT,
+                                  net.schmizz.sshj.sftp.OpenMode.TRUNC));
+                  if (offset > 0) {
+                    file.setLength(offset);
+                  }
+                } catch (IOException e) {
+                  SshConnectionPool.INSTANCE.releaseSftpClient(ssh, client);
+                  throw e;
+                }
+                return file.new PipelinedOutputStream(offset) {
                   @Override
                   public void close() throws IOException {
                     try {
                       super.close();
                     } finally {
-                      try {
-                        rf.close();
-                        client.close();
-                      } catch (Exception e) {
-                        Log.w(TAG, "Error closing stream", e);
-                      }
+                      SshConnectionPool.INSTANCE.releaseSftpClient(ssh, client);
                     }
                   }
                 };
@@ -1155,7 +1212,15 @@ public class HybridFile {
             });
       case SMB:
         try {
-          outputStream = getSmbFile().getOutputStream();
+          PipelinedSmbFile file = PipelinedSmbFile.open(getSmbFile(), true);
+          try {
+            // drop whatever was there past the part we're keeping
+            file.setLength(offset);
+          } catch (IOException e) {
+            file.close();
+            throw e;
+          }
+          outputStream = file.new PipelinedOutputStream(offset);
         } catch (IOException e) {
           outputStream = null;
           e.printStackTrace();
@@ -1183,7 +1248,14 @@ public class HybridFile {
         break;
       default:
         try {
-          outputStream = FileUtil.getOutputStream(getFile(), context);
+          if (offset > 0) {
+            FileChannel channel = new RandomAccessFile(getFile(), "rw").getChannel();
+            channel.truncate(offset);
+            channel.position(offset);
+            outputStream = Channels.newOutputStream(channel);
+          } else {
+            outputStream = FileUtil.getOutputStream(getFile(), context);
+          }
         } catch (Exception e) {
           outputStream = null;
           e.printStackTrace();
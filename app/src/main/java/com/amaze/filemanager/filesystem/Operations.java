@@ -127,6 +127,7 @@ public class Operations {
               } catch (Exception e) {
                 Log.w(getClass().getSimpleName(), "Failed to make directory", e);
               }
+              OTGUtil.invalidateDocumentFile(file.getPath(), file.getMode());
               errorCallBack.done(file, result);
             } else errorCallBack.done(file, false);
             return null;
@@ -270,6 +271,7 @@ public class Operations {
               } catch (Exception e) {
                 Log.w(getClass().getSimpleName(), "Failed to make file", e);
               }
+              OTGUtil.invalidateDocumentFile(file.getPath(), file.getMode());
               errorCallBack.done(file, result);
             } else errorCallBack.done(file, false);
             return null;
@@ -437,6 +439,9 @@ public class Operations {
             } catch (Exception e) {
               Log.w(getClass().getSimpleName(), "Failed to rename", e);
             }
+            // the document looked up for the old path has been renamed in place
+            OTGUtil.invalidateDocumentFile(oldFile.getPath(), oldFile.getMode());
+            OTGUtil.invalidateDocumentFile(newFile.getPath(), newFile.getMode());
             errorCallBack.done(newFile, result);
             return null;
           };
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem
+
+import android.content.Context
+import android.database.Cursor
+import android.net.Uri
+import android.os.Build.VERSION_CODES.LOLLIPOP
+import android.provider.DocumentsContract
+import android.provider.DocumentsContract.Document
+import android.util.Log
+import android.util.LruCache
+import androidx.annotation.RequiresApi
+import androidx.documentfile.provider.DocumentFile
+import com.amaze.filemanager.file_operations.filesystem.OpenMode
+import com.amaze.filemanager.utils.OnFileFound
+
+/**
+ * Reads Storage Access Framework trees (OTG devices and directories picked by the user) with
+ * [DocumentsContract] queries. [DocumentFile] queries the provider once per property of each file,
+ * and lists a whole directory to find each path segment; here a directory is listed with a single
+ * query carrying every column needed, and the document ids of directories seen, like the documents
+ * looked up, are remembered so that paths don't have to be walked from the root again.
+ *
+ * What's remembered of a path has to be [invalidate]d when it's renamed, deleted or made.
+ */
+@RequiresApi(LOLLIPOP)
+object SafDocumentTree {
+
+    private val TAG = SafDocumentTree::class.java.simpleName
+
+    private const val MAX_CACHED_DOCUMENT_IDS = 1000
+    private const val MAX_CACHED_DOCUMENT_FILES = 500
+
+    private val LISTING_PROJECTION = arrayOf(
+        Document.COLUMN_DOCUMENT_ID,
+        Document.COLUMN_DISPLAY_NAME,
+        Document.COLUMN_MIME_TYPE,
+        Document.COLUMN_SIZE,
+        Document.COLUMN_LAST_MODIFIED,
+        Document.COLUMN_FLAGS
+    )
+
+    private val LOOKUP_PROJECTION = arrayOf(
+        Document.COLUMN_DOCUMENT_ID,
+        Document.COLUMN_DISPLAY_NAME,
+        Document.COLUMN_MIME_TYPE
+    )
+
+    // "<tree uri>/<relative path>" to the document id of the directory there
+    private val documentIds = LruCache<String, String>(MAX_CACHED_DOCUMENT_IDS)
+
+    // "<tree uri>/<relative path>" to the document there, as looked up by getDocumentFile()
+    private val documentFiles = LruCache<String, DocumentFile>(MAX_CACHED_DOCUMENT_FILES)
+
+    /**
+     * Lists the directory at [parts] inside the tree, the segments of the path relative to the
+     * root of the tree.
+     *
+     * @param path the path of the directory, children get it joined with their name as path
+     * @return false if the directory doesn't exist
+     */
+    @JvmStatic
+    fun listFiles(
+        context: Context,
+        treeUri: Uri,
+        parts: List<String>,
+        path: String,
+        openMode: OpenMode,
+        fileFound: OnFileFound
+    ): Boolean {
+        val documentId = resolveDirectory(context, treeUri, parts, true) ?: return false
+        if (listChildren(context, treeUri, parts, documentId, path, openMode, fileFound)) {
+            return true
+        }
+        // the id was remembered for a directory that has been moved or deleted since
+        forget(treeUri, parts)
+        val freshDocumentId = resolveDirectory(context, treeUri, parts, false) ?: return false
+        return listChildren(context, treeUri, parts, freshDocumentId, path, openMode, fileFound)
+    }
+
+    /**
+     * Finds the document at [parts] inside the tree, the segments of the path relative to the root
+     * of the tree, starting from the deepest document already looked up on the path.
+     *
+     * @return null if there's no such document
+     */
+    @JvmStatic
+    fun getDocumentFile(context: Context, treeUri: Uri, parts: List<String>): DocumentFile? {
+        var depth = parts.size
+        var document: DocumentFile? = null
+        while (document == null && depth > 0) {
+            document = documentFiles.get(cacheKey(treeUri, parts.subList(0, depth)))
+            if (document == null) depth--
+        }
+        if (document == null) {
+            // documents are kept around, they mustn't keep an activity with them
+            document = DocumentFile.fromTreeUri(context.applicationContext, treeUri) ?: return null
+        }
+
+        for (i in depth + 1..parts.size) {
+            val path = parts.subList(0, i)
+            document = findChildDocument(context, treeUri, document!!, path) ?: return null
+            documentFiles.put(cacheKey(treeUri, path), document)
+        }
+        return document
+    }
+
+    /**
+     * Forgets what was found at [parts] and under it, as it has been renamed, deleted or made.
+     */
+    @JvmStatic
+    fun invalidate(treeUri: Uri, parts: List<String>) {
+        forget(treeUri, parts)
+    }
+
+    /**
+     * Finds the child of [parent] at [parts]. Its children are listed once, and kept for when
+     * the document id remembered for [parts] turns out to be stale.
+     */
+    private fun findChildDocument(
+        context: Context,
+        treeUri: Uri,
+        parent: DocumentFile,
+        parts: List<String>
+    ): DocumentFile? {
+        // there's no way to get a tree document for a given id, but as the child of another one
+        val children = parent.listFiles()
+        val cachedId = documentIds.get(cacheKey(treeUri, parts))
+        if (cachedId != null) {
+            val uri = DocumentsContract.buildDocumentUriUsingTree(treeUri, cachedId)
+            val child = children.firstOrNull { it.uri == uri }
+            if (child != null) return child
+            // the directory has been moved or deleted since it was listed
+            forget(treeUri, parts)
+        }
+
+        val parentId = DocumentsContract.getDocumentId(parent.uri)
+        val documentId = findChild(context, treeUri, parts.dropLast(1), parentId, parts.last())
+            ?: return null
+        val uri = DocumentsContract.buildDocumentUriUsingTree(treeUri, documentId)
+        return children.firstOrNull { it.uri == uri }
+    }
+
+    private fun listChildren(
+        context: Context,
+        treeUri: Uri,
+        parts: List<String>,
+        documentId: String,
+        path: String,
+        openMode: OpenMode,
+        fileFound: OnFileFound
+    ): Boolean {
+        val cursor = queryChildren(context, treeUri, documentId, LISTING_PROJECTION)
+            ?: return false
+        val names = HashSet<String>()
+        cursor.use {
+            while (it.moveToNext()) {
+                val childId = it.getString(0) ?: continue
+                val name = it.getString(1) ?: continue
+                val mimeType = it.getString(2)
+                val flags = if (it.isNull(5)) 0 else it.getInt(5)
+                val isDirectory = Document.MIME_TYPE_DIR == mimeType
+                names.add(name)
+                if (isDirectory) {
+                    documentIds.put(cacheKey(treeUri, parts + name), childId)
+                }
+
+                val baseFile = HybridFileParcelable(
+                    "$path/$name",
+                    parsePermission(mimeType, flags, isDirectory),
+                    it.getLong(4),
+                    if (isDirectory) 0 else it.getLong(3),
+                    isDirectory
+                )
+                baseFile.name = name
+                baseFile.mode = openMode
+                baseFile.fullUri = DocumentsContract.buildDocumentUriUsingTree(treeUri, childId)
+                fileFound.onFileFound(baseFile)
+            }
+        }
+        forgetMissing(treeUri, parts, names)
+        return true
+    }
+
+    /** @param useCache whether to start from the deepest directory of the path already known */
+    private fun resolveDirectory(
+        context: Context,
+        treeUri: Uri,
+        parts: List<String>,
+        useCache: Boolean
+    ): String? {
+        var documentId = DocumentsContract.getTreeDocumentId(treeUri)
+        var resolved = 0
+        if (useCache) {
+            for (depth in parts.size downTo 1) {
+                val cached = documentIds.get(cacheKey(treeUri, parts.subList(0, depth)))
+                if (cached != null) {
+                    documentId = cached
+                    resolved = depth
+                    break
+                }
+            }
+        }
+
+        for (depth in resolved + 1..parts.size) {
+            documentId = findChild(
+                context,
+                treeUri,
+                parts.subList(0, depth - 1),
+                documentId,
+                parts[depth - 1]
+            ) ?: return null
+            documentIds.put(cacheKey(treeUri, parts.subList(0, depth)), documentId)
+        }
+        return documentId
+    }
+
+    /**
+     * @return the document id of the child named [name] of the directory at [parentParts], whose
+     *     child directories are remembered on the way as [listChildren] does
+     */
+    private fun findChild(
+        context: Context,
+        treeUri: Uri,
+        parentParts: List<String>,
+        parentDocumentId: String,
+        name: String
+    ): String? {
+        val cursor = queryChildren(context, treeUri, parentDocumentId, LOOKUP_PROJECTION)
+            ?: return null
+        var documentId: String? = null
+        cursor.use {
+            while (it.moveToNext()) {
+                val childId = it.getString(0) ?: continue
+                val childName = it.getString(1) ?: continue
+                if (Document.MIME_TYPE_DIR == it.getString(2)) {
+                    documentIds.put(cacheKey(treeUri, parentParts + childName), childId)
+                }
+                if (name == childName) documentId = childId
+            }
+        }
+        return documentId
+    }
+
+    private fun queryChildren(
+        context: Context,
+        treeUri: Uri,
+        documentId: String,
+        projection: Array<String>
+    ): Cursor? {
+        return try {
+            context.contentResolver.query(
+                DocumentsContract.buildChildDocumentsUriUsingTree(treeUri, documentId),
+                projection,
+                null,
+                null,
+                null
+            )
+        } catch (e: IllegalArgumentException) {
+            // thrown by some providers for documents that don't exist
+            Log.w(TAG, "Failed to list $documentId", e)
+            null
+        }
+    }
+
+    /** Same permissions as [RootHelper.parseDocumentFilePermission] gives for a [DocumentFile] */
+    private fun parsePermission(mimeType: String?, flags: Int, isDirectory: Boolean): String {
+        var permission = ""
+        if (!mimeType.isNullOrEmpty()) {
+            permission += "r"
+        }
+        val canWrite = flags and Document.FLAG_SUPPORTS_DELETE != 0 ||
+            isDirectory && flags and Document.FLAG_DIR_SUPPORTS_CREATE != 0 ||
+            !mimeType.isNullOrEmpty() && flags and Document.FLAG_SUPPORTS_WRITE != 0
+        if (canWrite) {
+            permission += "wx"
+        }
+        return permission
+    }
+
+    /** Forgets the documents under [parts] that weren't in its listing anymore */
+    private fun forgetMissing(treeUri: Uri, parts: List<String>, present: Set<String>) {
+        val prefix = cacheKey(treeUri, parts) + "/"
+        forgetIf { key ->
+            key.startsWith(prefix) &&
+                !present.contains(key.substring(prefix.length).substringBefore('/'))
+        }
+    }
+
+    /** Forgets the document at [parts] and everything under it */
+    private fun forget(treeUri: Uri, parts: List<String>) {
+        val key = cacheKey(treeUri, parts)
+        forgetIf { it == key || it.startsWith("$key/") }
+    }
+
+    private inline fun forgetIf(predicate: (String) -> Boolean) {
+        for (key in documentIds.snapshot().keys) {
+            if (predicate(key)) documentIds.remove(key)
+        }
+        for (key in documentFiles.snapshot().keys) {
+            if (predicate(key)) documentFiles.remove(key)
+        }
+    }
+
+    private fun cacheKey(treeUri: Uri, parts: List<String>): String {
+        return treeUri.toString() + parts.joinToString(separator = "") { "/$it" }
+    }
+}
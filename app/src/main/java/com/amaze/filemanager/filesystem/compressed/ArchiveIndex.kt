@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.util.Log
+import android.util.LruCache
+import org.apache.commons.compress.archivers.ArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import java.io.BufferedInputStream
+import java.io.BufferedOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+
+/**
+ * Entries of an archive, read in a single pass and grouped by directory, so that browsing the
+ * archive doesn't decompress and scan all of it again for each directory opened.
+ *
+ * Indexes are kept in memory, and written to the cache directory, keyed by the path, size and last
+ * modification time of their archive. Those of gzipped archives come with the [gzipCheckpoints]
+ * to start decompressing them near an entry.
+ */
+class ArchiveIndex(
+    val entries: List<Entry>,
+    val hasInvalidEntries: Boolean,
+    val gzipCheckpoints: GzipCheckpointIndex? = null
+) {
+
+    /**
+     * @param name path of the entry in the archive, without trailing separator
+     * @param offset where the data of the entry starts in the uncompressed archive, or -1 if it
+     * isn't stored in one piece
+     */
+    data class Entry(
+        val name: String,
+        val date: Long,
+        val size: Long,
+        val isDirectory: Boolean,
+        val offset: Long
+    )
+
+    private val children: Map<String, List<Entry>> = entries.groupBy {
+        it.name.substringBeforeLast(CompressedHelper.SEPARATOR, "")
+    }
+
+    /** Entries directly inside the directory at [relativePath], "" being the top of the archive */
+    fun list(relativePath: String): List<Entry> = children[relativePath] ?: emptyList()
+
+    companion object {
+        private val TAG = ArchiveIndex::class.java.simpleName
+
+        private const val INDEX_DIRECTORY = "archive-index"
+        private const val FORMAT_VERSION = 2
+        private const val MAX_CACHED_ENTRIES = 200_000
+        private const val MAX_PERSISTED_INDEXES = 16
+        // a checkpoint's window takes about as much memory as this many entries
+        private const val CHECKPOINT_WEIGHT = 64
+
+        private val cache = object : LruCache<String, ArchiveIndex>(MAX_CACHED_ENTRIES) {
+            override fun sizeOf(key: String, value: ArchiveIndex): Int {
+                val checkpoints = value.gzipCheckpoints?.checkpoints?.size ?: 0
+                return value.entries.size + 1 + checkpoints * CHECKPOINT_WEIGHT
+            }
+        }
+
+        /**
+         * Gets the index of [archive] from memory, else from [cacheDir] if given, else by calling
+         * [build].
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun get(archive: File, cacheDir: File?, build: () -> ArchiveIndex): ArchiveIndex {
+            val key = "${archive.absolutePath}:${archive.length()}:${archive.lastModified()}"
+            cache.get(key)?.let { return it }
+
+            val indexFile = cacheDir?.let {
+                File(File(it, INDEX_DIRECTORY), String.format("%08x", key.hashCode()))
+            }
+            var index = indexFile?.let { read(it, key) }
+            if (index == null) {
+                index = build()
+                indexFile?.let { write(index, it, key) }
+            }
+            cache.put(key, index)
+            return index
+        }
+
+        /** Drops the indexes kept in memory, those written to cache directories are kept. */
+        @JvmStatic
+        fun clear() {
+            cache.evictAll()
+        }
+
+        /** Reads the entries of [archive] up to its end. */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun build(archive: ArchiveInputStream): ArchiveIndex {
+            val entries = ArrayList<Entry>()
+            var hasInvalidEntries = false
+            while (true) {
+                val entry = archive.nextEntry ?: break
+                if (!CompressedHelper.isEntryPathValid(entry.name)) {
+                    hasInvalidEntries = true
+                    continue
+                }
+                entries.add(
+                    Entry(
+                        entry.name.removeSuffix(CompressedHelper.SEPARATOR),
+                        entry.lastModifiedDate.time,
+                        entry.size,
+                        entry.isDirectory,
+                        if (entry is TarArchiveEntry && (entry.isGNUSparse || entry.isStarSparse)) {
+                            -1
+                        } else {
+                            // the header has just been read, the data comes next
+                            archive.bytesRead
+                        }
+                    )
+                )
+            }
+            return ArchiveIndex(entries, hasInvalidEntries)
+        }
+
+        /** Reads the entries of the gzipped tarball [archive], recording gzip checkpoints. */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun buildGzippedTar(archive: File): ArchiveIndex {
+            val recorder = GzipCheckpointIndex.Builder()
+            val index = TarArchiveInputStream(SeekableGzipInputStream(archive, recorder)).use {
+                build(it)
+            }
+            return ArchiveIndex(index.entries, index.hasInvalidEntries, recorder.build())
+        }
+
+        private fun read(indexFile: File, key: String): ArchiveIndex? {
+            if (!indexFile.exists()) return null
+            return try {
+                DataInputStream(BufferedInputStream(FileInputStream(indexFile))).use {
+                    // a different archive may have a key with the same hash
+                    if (it.readInt() != FORMAT_VERSION || it.readUTF() != key) {
+                        return null
+                    }
+                    val hasInvalidEntries = it.readBoolean()
+                    val gzipCheckpoints =
+                        if (it.readBoolean()) GzipCheckpointIndex.read(it) else null
+                    val count = it.readInt()
+                    val entries = ArrayList<Entry>(count)
+                    for (i in 0 until count) {
+                        entries.add(
+                            Entry(
+                                it.readUTF(),
+                                it.readLong(),
+                                it.readLong(),
+                                it.readBoolean(),
+                                it.readLong()
+                            )
+                        )
+                    }
+                    ArchiveIndex(entries, hasInvalidEntries, gzipCheckpoints)
+                }.also {
+                    indexFile.setLastModified(System.currentTimeMillis())
+                }
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to read archive index $indexFile", e)
+                null
+            }
+        }
+
+        private fun write(index: ArchiveIndex, indexFile: File, key: String) {
+            val directory = indexFile.parentFile ?: return
+            if (!directory.isDirectory && !directory.mkdirs()) return
+            val tempFile = File(directory, indexFile.name + ".tmp")
+            try {
+                DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use {
+                    it.writeInt(FORMAT_VERSION)
+                    it.writeUTF(key)
+                    it.writeBoolean(index.hasInvalidEntries)
+                    it.writeBoolean(index.gzipCheckpoints != null)
+                    index.gzipCheckpoints?.write(it)
+                    it.writeInt(index.entries.size)
+                    for (entry in index.entries) {
+                        it.writeUTF(entry.name)
+                        it.writeLong(entry.date)
+                        it.writeLong(entry.size)
+                        it.writeBoolean(entry.isDirectory)
+                        it.writeLong(entry.offset)
+                    }
+                }
+                if (!tempFile.renameTo(indexFile)) tempFile.delete()
+            } catch (e: IOException) {
+                Log.w(TAG, "Failed to write archive index $indexFile", e)
+                tempFile.delete()
+            }
+            prune(directory)
+        }
+
+        /** Deletes the least recently used indexes past [MAX_PERSISTED_INDEXES] */
+        private fun prune(directory: File) {
+            val indexFiles = directory.listFiles() ?: return
+            indexFiles.sortedByDescending { it.lastModified() }
+                .drop(MAX_PERSISTED_INDEXES)
+                .forEach { it.delete() }
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Points a gzip stream can be decompressed from other than its start, as zlib's zran example
+ * does: at the start of deflate blocks, along with the 32 KiB of data preceding them that the
+ * block may refer back to.
+ *
+ * <p>They are recorded by {@link SeekableGzipInputStream} while it reads the stream through, and
+ * used by {@link SeekableGzipInputStream#open} to start near a given offset.
+ */
+public class GzipCheckpointIndex {
+
+  /** Uncompressed bytes between checkpoints, to begin with */
+  public static final long DEFAULT_SPAN = 4 * 1024 * 1024;
+
+  /** Checkpoints kept at most, past that every other one is dropped and the span doubled */
+  public static final int MAX_CHECKPOINTS = 256;
+
+  private final List<Checkpoint> checkpoints;
+
+  public GzipCheckpointIndex(@NonNull List<Checkpoint> checkpoints) {
+    this.checkpoints = Collections.unmodifiableList(checkpoints);
+  }
+
+  @NonNull
+  public List<Checkpoint> getCheckpoints() {
+    return checkpoints;
+  }
+
+  /** @return the last checkpoint at or before {@param uncompressedOffset}, if any */
+  @Nullable
+  public Checkpoint find(long uncompressedOffset) {
+    int low = 0;
+    int high = checkpoints.size() - 1;
+    Checkpoint found = null;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      Checkpoint checkpoint = checkpoints.get(middle);
+      if (checkpoint.uncompressedOffset <= uncompressedOffset) {
+        found = checkpoint;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return found;
+  }
+
+  public void write(@NonNull DataOutputStream out) throws IOException {
+    out.writeInt(checkpoints.size());
+    for (Checkpoint checkpoint : checkpoints) {
+      out.writeLong(checkpoint.uncompressedOffset);
+      out.writeLong(checkpoint.bitOffset);
+      out.writeInt(checkpoint.windowLength);
+      out.writeInt(checkpoint.compressedWindow.length);
+      out.write(checkpoint.compressedWindow);
+    }
+  }
+
+  @NonNull
+  public static GzipCheckpointIndex read(@NonNull DataInputStream in) throws IOException {
+    int count = in.readInt();
+    List<Checkpoint> checkpoints = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      long uncompressedOffset = in.readLong();
+      long bitOffset = in.readLong();
+      int windowLength = in.readInt();
+      byte[] compressedWindow = new byte[in.readInt()];
+      in.readFully(compressedWindow);
+      checkpoints.add(
+          new Checkpoint(uncompressedOffset, bitOffset, windowLength, compressedWindow));
+    }
+    return new GzipCheckpointIndex(checkpoints);
+  }
+
+  /**
+   * Place in the stream where a deflate block starts. Windows are kept deflated, they usually
+   * shrink to a fraction of their size.
+   */
+  public static class Checkpoint {
+    /** Offset of the block's data in the uncompressed stream */
+    public final long uncompressedOffset;
+
+    /** Offset of the block's header in the gzip file, in bits */
+    public final long bitOffset;
+
+    private final int windowLength;
+    private final byte[] compressedWindow;
+
+    Checkpoint(long uncompressedOffset, long bitOffset, int windowLength, byte[] compressedWindow) {
+      this.uncompressedOffset = uncompressedOffset;
+      this.bitOffset = bitOffset;
+      this.windowLength = windowLength;
+      this.compressedWindow = compressedWindow;
+    }
+
+    /** @return the data preceding the block, up to 32 KiB of it */
+    @NonNull
+    public byte[] getWindow() throws IOException {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(compressedWindow);
+        byte[] window = new byte[windowLength];
+        int length = 0;
+        while (length < windowLength && !inflater.finished()) {
+          int inflated = inflater.inflate(window, length, windowLength - length);
+          if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+          length += inflated;
+        }
+        if (length != windowLength) throw new IOException("Truncated checkpoint window");
+        return window;
+      } catch (DataFormatException e) {
+        throw new IOException("Corrupt checkpoint window", e);
+      } finally {
+        inflater.end();
+      }
+    }
+  }
+
+  /** Collects checkpoints at least a span apart, keeping at most {@link #MAX_CHECKPOINTS}. */
+  public static class Builder {
+    private final List<Checkpoint> checkpoints = new ArrayList<>();
+    private long span;
+    private long lastOffset = 0;
+
+    public Builder() {
+      this(DEFAULT_SPAN);
+    }
+
+    public Builder(long span) {
+      this.span = span;
+    }
+
+    /** @return whether a checkpoint at {@param uncompressedOffset} should be {@link #add}ed */
+    public boolean wants(long uncompressedOffset) {
+      return uncompressedOffset - lastOffset >= span;
+    }
+
+    public void add(long uncompressedOffset, long bitOffset, byte[] window) {
+      if (checkpoints.size() == MAX_CHECKPOINTS) {
+        List<Checkpoint> kept = new ArrayList<>(MAX_CHECKPOINTS / 2);
+        for (int i = 1; i < checkpoints.size(); i += 2) {
+          kept.add(checkpoints.get(i));
+        }
+        checkpoints.clear();
+        checkpoints.addAll(kept);
+        span *= 2;
+      }
+      checkpoints.add(
+          new Checkpoint(uncompressedOffset, bitOffset, window.length, deflate(window)));
+      lastOffset = uncompressedOffset;
+    }
+
+    @NonNull
+    public GzipCheckpointIndex build() {
+      return new GzipCheckpointIndex(new ArrayList<>(checkpoints));
+    }
+
+    private static byte[] deflate(byte[] data) {
+      Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+      try {
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+          int length = deflater.deflate(buffer);
+          out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+      } finally {
+        deflater.end();
+      }
+    }
+  }
+}
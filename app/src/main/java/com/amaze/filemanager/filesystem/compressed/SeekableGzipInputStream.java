@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Decompresses the first member of a gzip file, like {@link
+ * org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream}, but can start from a
+ * {@link GzipCheckpointIndex.Checkpoint} and record checkpoints while reading.
+ *
+ * <p>{@link java.util.zip.Inflater} can neither stop at block boundaries nor start in the middle
+ * of a byte, so the deflate stream is decoded here, after zlib's puff.c, with a lookup table for
+ * short Huffman codes.
+ */
+public class SeekableGzipInputStream extends InputStream {
+
+  private static final int WINDOW_SIZE = 32 * 1024;
+  private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+  private static final int MAX_BITS = 15;
+  private static final int FAST_BITS = 9;
+  private static final int FAST_MASK = (1 << FAST_BITS) - 1;
+
+  private static final int STATE_HEADER = 0;
+  private static final int STATE_STORED = 1;
+  private static final int STATE_CODES = 2;
+  private static final int STATE_END = 3;
+
+  private static final short[] LENGTH_BASE = {
+    3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131,
+    163, 195, 227, 258
+  };
+  private static final short[] LENGTH_EXTRA = {
+    0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+  };
+  private static final short[] DISTANCE_BASE = {
+    1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537,
+    2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577
+  };
+  private static final short[] DISTANCE_EXTRA = {
+    0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13
+  };
+  private static final int[] CODE_LENGTH_ORDER = {
+    16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15
+  };
+
+  private final FileInputStream in;
+  private final byte[] inBuffer = new byte[64 * 1024];
+  private int inPosition = 0;
+  private int inEnd = 0;
+  // offset of inBuffer in the file
+  private long inOffset;
+  private int bitBuffer = 0;
+  private int bitCount = 0;
+
+  private final byte[] window = new byte[WINDOW_SIZE];
+  private long outOffset;
+  private final long startOffset;
+
+  private int state = STATE_HEADER;
+  private boolean lastBlock = false;
+  private int storedRemaining;
+  private Huffman lengthCode;
+  private Huffman distanceCode;
+  private int copyLength = 0;
+  private int copyDistance;
+
+  @Nullable private final GzipCheckpointIndex.Builder recorder;
+  // only a stream read from the start of the member can be checked against its trailer
+  @Nullable private final CRC32 crc;
+
+  /** Reads {@param file} from its start. */
+  public SeekableGzipInputStream(@NonNull File file) throws IOException {
+    this(file, (GzipCheckpointIndex.Builder) null);
+  }
+
+  /** Reads {@param file} from its start, adding checkpoints to {@param recorder}. */
+  public SeekableGzipInputStream(
+      @NonNull File file, @Nullable GzipCheckpointIndex.Builder recorder) throws IOException {
+    in = new FileInputStream(file);
+    inOffset = 0;
+    outOffset = 0;
+    startOffset = 0;
+    this.recorder = recorder;
+    crc = new CRC32();
+    try {
+      readHeader();
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /** Reads {@param file} from {@param checkpoint}. */
+  public SeekableGzipInputStream(
+      @NonNull File file, @NonNull GzipCheckpointIndex.Checkpoint checkpoint) throws IOException {
+    in = new FileInputStream(file);
+    recorder = null;
+    crc = checkpoint.uncompressedOffset == 0 ? new CRC32() : null;
+    try {
+      inOffset = checkpoint.bitOffset >>> 3;
+      in.getChannel().position(inOffset);
+      bits((int) (checkpoint.bitOffset & 7));
+
+      byte[] preceding = checkpoint.getWindow();
+      outOffset = checkpoint.uncompressedOffset;
+      startOffset = outOffset - preceding.length;
+      for (int i = 0; i < preceding.length; i++) {
+        window[(int) (startOffset + i) & WINDOW_MASK] = preceding[i];
+      }
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens {@param file} at {@param uncompressedOffset}, starting from the closest checkpoint
+   * before it in {@param index}.
+   */
+  @NonNull
+  public static SeekableGzipInputStream open(
+      @NonNull File file, @NonNull GzipCheckpointIndex index, long uncompressedOffset)
+      throws IOException {
+    GzipCheckpointIndex.Checkpoint checkpoint = index.find(uncompressedOffset);
+    SeekableGzipInputStream stream =
+        checkpoint == null
+            ? new SeekableGzipInputStream(file)
+            : new SeekableGzipInputStream(file, checkpoint);
+    long remaining = uncompressedOffset - stream.getPosition();
+    while (remaining > 0) {
+      long skipped = stream.skip(remaining);
+      if (skipped <= 0) {
+        stream.close();
+        throw new EOFException("Offset " + uncompressedOffset + " past the end of " + file);
+      }
+      remaining -= skipped;
+    }
+    return stream;
+  }
+
+  /** @return offset of the next byte read in the uncompressed stream */
+  public long getPosition() {
+    return outOffset;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(@NonNull byte[] b, int off, int len) throws IOException {
+    if (len == 0) return 0;
+    int produced = 0;
+    while (produced < len && state != STATE_END) {
+      if (copyLength > 0) {
+        produced += copy(b, off + produced, len - produced);
+        continue;
+      }
+      switch (state) {
+        case STATE_HEADER:
+          if (lastBlock) {
+            readTrailer(b, off, produced);
+            state = STATE_END;
+            return produced == 0 ? -1 : produced;
+          }
+          readBlockHeader();
+          break;
+        case STATE_STORED:
+          produced += readStored(b, off + produced, len - produced);
+          break;
+        case STATE_CODES:
+          produced += decodeSymbols(b, off + produced, len - produced);
+          break;
+      }
+    }
+    if (crc != null) crc.update(b, off, produced);
+    return produced == 0 ? -1 : produced;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) return 0;
+    byte[] scratch = new byte[(int) Math.min(n, 16 * 1024)];
+    long skipped = 0;
+    while (skipped < n) {
+      int read = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+      if (read == -1) break;
+      skipped += read;
+    }
+    return skipped;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private void readHeader() throws IOException {
+    if (readByte() != 0x1f || readByte() != 0x8b) throw new ZipException("Not in gzip format");
+    if (readByte() != 8) throw new ZipException("Unsupported compression method");
+    int flags = readByte();
+    // modification time, extra flags, operating system
+    for (int i = 0; i < 6; i++) readByteFully();
+    if ((flags & 0x04) != 0) {
+      int extraLength = readByteFully() | readByteFully() << 8;
+      for (int i = 0; i < extraLength; i++) readByteFully();
+    }
+    // file name, then comment
+    if ((flags & 0x08) != 0) while (readByteFully() != 0) {}
+    if ((flags & 0x10) != 0) while (readByteFully() != 0) {}
+    if ((flags & 0x02) != 0) {
+      readByteFully();
+      readByteFully();
+    }
+  }
+
+  /** Checks the CRC and size of what has been read, {@param b} holding the last bytes of it */
+  private void readTrailer(byte[] b, int off, int produced) throws IOException {
+    if (crc == null) return;
+    crc.update(b, off, produced);
+    bits(bitCount & 7);
+    long expectedCrc = (long) bits(16) | (long) bits(16) << 16;
+    long expectedSize = (long) bits(16) | (long) bits(16) << 16;
+    if (expectedCrc != crc.getValue()) throw new ZipException("Corrupt gzip stream, CRC mismatch");
+    if (expectedSize != (outOffset & 0xffffffffL)) {
+      throw new ZipException("Corrupt gzip stream, size mismatch");
+    }
+  }
+
+  private void readBlockHeader() throws IOException {
+    if (recorder != null && recorder.wants(outOffset)) {
+      recorder.add(outOffset, (inOffset + inPosition) * 8 - bitCount, copyWindow());
+    }
+
+    lastBlock = bits(1) == 1;
+    switch (bits(2)) {
+      case 0:
+        bits(bitCount & 7);
+        int length = bits(16);
+        if (length != (~bits(16) & 0xffff)) throw new ZipException("Invalid stored block length");
+        storedRemaining = length;
+        state = STATE_STORED;
+        break;
+      case 1:
+        lengthCode = FixedCodes.LENGTH;
+        distanceCode = FixedCodes.DISTANCE;
+        state = STATE_CODES;
+        break;
+      case 2:
+        readDynamicCodes();
+        state = STATE_CODES;
+        break;
+      default:
+        throw new ZipException("Invalid block type");
+    }
+  }
+
+  private int readStored(byte[] b, int off, int len) throws IOException {
+    int count = Math.min(storedRemaining, len);
+    for (int i = 0; i < count; i++) {
+      byte value = (byte) (bitCount > 0 ? bits(8) : readByteFully());
+      window[(int) outOffset & WINDOW_MASK] = value;
+      outOffset++;
+      b[off + i] = value;
+    }
+    storedRemaining -= count;
+    if (storedRemaining == 0) state = STATE_HEADER;
+    return count;
+  }
+
+  private int decodeSymbols(byte[] b, int off, int len) throws IOException {
+    int produced = 0;
+    while (produced < len) {
+      int symbol = decode(lengthCode);
+      if (symbol < 256) {
+        byte value = (byte) symbol;
+        window[(int) outOffset & WINDOW_MASK] = value;
+        outOffset++;
+        b[off + produced++] = value;
+      } else if (symbol == 256) {
+        state = STATE_HEADER;
+        break;
+      } else {
+        symbol -= 257;
+        if (symbol >= LENGTH_BASE.length) throw new ZipException("Invalid length code");
+        copyLength = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+        symbol = decode(distanceCode);
+        if (symbol >= DISTANCE_BASE.length) throw new ZipException("Invalid distance code");
+        copyDistance = DISTANCE_BASE[symbol] + bits(DISTANCE_EXTRA[symbol]);
+        if (copyDistance > outOffset - startOffset || copyDistance > WINDOW_SIZE) {
+          throw new ZipException("Invalid distance, too far back");
+        }
+        produced += copy(b, off + produced, len - produced);
+      }
+    }
+    return produced;
+  }
+
+  private int copy(byte[] b, int off, int len) {
+    int count = Math.min(copyLength, len);
+    int to = (int) outOffset & WINDOW_MASK;
+    int from = (to - copyDistance) & WINDOW_MASK;
+    for (int i = 0; i < count; i++) {
+      byte value = window[from];
+      window[to] = value;
+      b[off + i] = value;
+      from = (from + 1) & WINDOW_MASK;
+      to = (to + 1) & WINDOW_MASK;
+    }
+    outOffset += count;
+    copyLength -= count;
+    return count;
+  }
+
+  private byte[] copyWindow() {
+    int length = (int) Math.min(outOffset - startOffset, WINDOW_SIZE);
+    byte[] copy = new byte[length];
+    for (int i = 0; i < length; i++) {
+      copy[i] = window[(int) (outOffset - length + i) & WINDOW_MASK];
+    }
+    return copy;
+  }
+
+  private void readDynamicCodes() throws IOException {
+    int lengthCount = bits(5) + 257;
+    int distanceCount = bits(5) + 1;
+    int codeLengthCount = bits(4) + 4;
+    if (lengthCount > 286 || distanceCount > 30) throw new ZipException("Too many codes");
+
+    short[] lengths = new short[lengthCount + distanceCount];
+    short[] codeLengths = new short[19];
+    for (int i = 0; i < codeLengthCount; i++) {
+      codeLengths[CODE_LENGTH_ORDER[i]] = (short) bits(3);
+    }
+    Huffman codeLengthCode = new Huffman(codeLengths, 0, 19);
+    if (codeLengthCode.left != 0) throw new ZipException("Invalid code lengths code");
+
+    int index = 0;
+    while (index < lengths.length) {
+      int symbol = decode(codeLengthCode);
+      if (symbol < 16) {
+        lengths[index++] = (short) symbol;
+        continue;
+      }
+      short repeated = 0;
+      int repeat;
+      if (symbol == 16) {
+        if (index == 0) throw new ZipException("Repeat with no first length");
+        repeated = lengths[index - 1];
+        repeat = 3 + bits(2);
+      } else if (symbol == 17) {
+        repeat = 3 + bits(3);
+      } else {
+        repeat = 11 + bits(7);
+      }
+      if (index + repeat > lengths.length) throw new ZipException("Too many lengths");
+      while (repeat-- > 0) lengths[index++] = repeated;
+    }
+    if (lengths[256] == 0) throw new ZipException("No end of block code");
+
+    lengthCode = new Huffman(lengths, 0, lengthCount);
+    if (!lengthCode.isValid()) throw new ZipException("Invalid literal/length code");
+    distanceCode = new Huffman(lengths, lengthCount, distanceCount);
+    if (!distanceCode.isValid()) throw new ZipException("Invalid distance code");
+  }
+
+  private int decode(Huffman code) throws IOException {
+    fill(FAST_BITS);
+    int entry = code.fast[bitBuffer & FAST_MASK];
+    int length = entry & 0xf;
+    if (entry != 0 && length <= bitCount) {
+      bitBuffer >>>= length;
+      bitCount -= length;
+      return entry >>> 4;
+    }
+
+    // codes longer than the table, bit by bit
+    int codeBits = 0;
+    int first = 0;
+    int index = 0;
+    for (length = 1; length <= MAX_BITS; length++) {
+      codeBits |= bits(1);
+      int count = code.count[length];
+      if (codeBits - count < first) return code.symbol[index + (codeBits - first)];
+      index += count;
+      first += count;
+      first <<= 1;
+      codeBits <<= 1;
+    }
+    throw new ZipException("Invalid Huffman code");
+  }
+
+  private int bits(int count) throws IOException {
+    while (bitCount < count) {
+      bitBuffer |= readByteFully() << bitCount;
+      bitCount += 8;
+    }
+    int value = bitBuffer & ((1 << count) - 1);
+    bitBuffer >>>= count;
+    bitCount -= count;
+    return value;
+  }
+
+  /** Gets up to {@param count} bits in the buffer, less at the end of the file */
+  private void fill(int count) throws IOException {
+    while (bitCount < count) {
+      int value = readByte();
+      if (value == -1) return;
+      bitBuffer |= value << bitCount;
+      bitCount += 8;
+    }
+  }
+
+  private int readByteFully() throws IOException {
+    int value = readByte();
+    if (value == -1) throw new EOFException("Unexpected end of gzip stream");
+    return value;
+  }
+
+  private int readByte() throws IOException {
+    if (inPosition == inEnd) {
+      inOffset += inEnd;
+      inPosition = 0;
+      inEnd = Math.max(in.read(inBuffer), 0);
+      if (inEnd == 0) return -1;
+    }
+    return inBuffer[inPosition++] & 0xff;
+  }
+
+  /** Codes of blocks compressed with fixed Huffman codes, built on first use */
+  private static class FixedCodes {
+    static final Huffman LENGTH;
+    static final Huffman DISTANCE;
+
+    static {
+      short[] lengths = new short[288];
+      for (int symbol = 0; symbol < 288; symbol++) {
+        if (symbol < 144) lengths[symbol] = 8;
+        else if (symbol < 256) lengths[symbol] = 9;
+        else if (symbol < 280) lengths[symbol] = 7;
+        else lengths[symbol] = 8;
+      }
+      LENGTH = new Huffman(lengths, 0, 288);
+
+      short[] distanceLengths = new short[30];
+      for (int symbol = 0; symbol < 30; symbol++) distanceLengths[symbol] = 5;
+      DISTANCE = new Huffman(distanceLengths, 0, 30);
+    }
+  }
+
+  /** Canonical Huffman code, as counts of codes of each length and symbols ordered by code */
+  private static class Huffman {
+    final short[] count = new short[MAX_BITS + 1];
+    final short[] symbol;
+    // (symbol << 4 | length) for the codes of up to FAST_BITS bits, indexed by their bits
+    final int[] fast = new int[1 << FAST_BITS];
+    // codes left unused: 0 for a complete code, negative for an over-subscribed one
+    final int left;
+    private final int used;
+
+    Huffman(short[] lengths, int start, int n) {
+      symbol = new short[n];
+      for (int i = 0; i < n; i++) count[lengths[start + i]]++;
+      used = n - count[0];
+
+      int left = 1;
+      for (int length = 1; length <= MAX_BITS && left >= 0; length++) {
+        left = (left << 1) - count[length];
+      }
+      this.left = left;
+
+      short[] offsets = new short[MAX_BITS + 2];
+      int[] nextCode = new int[MAX_BITS + 1];
+      int code = 0;
+      for (int length = 1; length <= MAX_BITS; length++) {
+        offsets[length + 1] = (short) (offsets[length] + count[length]);
+        code = (code + (length == 1 ? 0 : count[length - 1])) << 1;
+        nextCode[length] = code;
+      }
+
+      for (int i = 0; i < n; i++) {
+        int length = lengths[start + i];
+        if (length == 0) continue;
+        symbol[offsets[length]++] = (short) i;
+
+        int reversed = Integer.reverse(nextCode[length]++) >>> (32 - length);
+        if (length <= FAST_BITS) {
+          for (int bits = reversed; bits < fast.length; bits += 1 << length) {
+            fast[bits] = i << 4 | length;
+          }
+        }
+      }
+    }
+
+    /**
+     * @return whether the code decodes unambiguously: complete, or incomplete only by holding at
+     *     most one code, of one bit, as deflate allows for the literal/length and distance codes
+     */
+    boolean isValid() {
+      return left == 0 || (left > 0 && used == count[1]);
+    }
+  }
+}
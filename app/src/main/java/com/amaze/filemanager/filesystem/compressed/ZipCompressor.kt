@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.os.Build.VERSION.SDK_INT
+import android.os.Build.VERSION_CODES.O
+import com.amaze.filemanager.file_operations.utils.UpdatePosition
+import org.apache.commons.compress.archivers.zip.ParallelScatterZipCreator
+import org.apache.commons.compress.archivers.zip.X5455_ExtendedTimestamp
+import org.apache.commons.compress.archivers.zip.Zip64Mode
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream
+import org.apache.commons.compress.parallel.InputStreamSupplier
+import org.apache.commons.compress.parallel.ScatterGatherBackingStore
+import org.apache.commons.compress.parallel.ScatterGatherBackingStoreSupplier
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.FilterInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.InterruptedIOException
+import java.io.OutputStream
+import java.nio.file.Files
+import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.Collections
+import java.util.Date
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.zip.ZipEntry
+import kotlin.math.min
+
+/**
+ * Writes files, and the files in directories, to a zip archive.
+ *
+ * With more than one worker, entries are deflated in parallel by [ParallelScatterZipCreator]: each
+ * worker deflates the entries it's given into a spill file of its own in [spillDirectory], then the
+ * calling thread appends the spill files to the archive one after the other, with sizes and CRCs
+ * already known. Entries are grouped by worker in the archive instead of following the order of
+ * [compress]'s files, which zip tools don't care about. Without room for the spill files next to
+ * the archive, entries are deflated on the calling thread instead.
+ *
+ * @param parallelism number of entries deflated at once, 1 deflates them on the calling thread
+ * @param progress counts the bytes of the files read
+ * @param isCancelled checked for each read, files are cut short once cancelled
+ */
+class ZipCompressor(
+    private val spillDirectory: File,
+    private val parallelism: Int,
+    private val progress: UpdatePosition,
+    private val isCancelled: () -> Boolean
+) {
+
+    /**
+     * Writes [files] to [out], and closes it.
+     *
+     * @param onEntry called as the entry of a file starts, with the index in [files] of the file
+     * or directory it comes from. With workers, it's called by one of them at a time, and indices
+     * may come out of order
+     */
+    @Throws(IOException::class)
+    fun compress(files: List<File>, out: OutputStream, onEntry: (Int, File) -> Unit) {
+        ZipArchiveOutputStream(BufferedOutputStream(out, BUFFER_SIZE)).use { zos ->
+            val sources = ArrayList<Source>()
+            files.forEachIndexed { i, file -> collect(i, file, "", sources) }
+            if (parallelism > 1 && sources.size > 1 && hasRoomToSpill(sources)) {
+                compressInParallel(zos, sources, onEntry)
+            } else {
+                // sizes aren't known before deflating and the output can't be sought back to
+                // write them, ZIP64 fields must be there from the start for entries past 4 GiB
+                zos.setUseZip64(Zip64Mode.Always)
+                for (source in sources) {
+                    if (isCancelled()) break
+                    onEntry(source.index, source.file)
+                    zos.putArchiveEntry(createEntry(source))
+                    openEntryInput(source.file).use { it.copyTo(zos, BUFFER_SIZE) }
+                    zos.closeArchiveEntry()
+                }
+            }
+        }
+    }
+
+    /** File to write as entry [name], coming from the [index]th file given to [compress] */
+    private class Source(val index: Int, val file: File, val name: String)
+
+    private fun collect(index: Int, file: File, path: String, sources: MutableList<Source>) {
+        val name = if (path.isEmpty()) file.name else "$path/${file.name}"
+        if (file.isDirectory) {
+            file.listFiles()?.forEach { collect(index, it, name, sources) }
+        } else {
+            sources.add(Source(index, file, name))
+        }
+    }
+
+    /**
+     * Spill files hold the deflated entries until they're appended to the archive, so deflating in
+     * parallel needs up to the size of the files free in [spillDirectory] on top of the archive.
+     */
+    private fun hasRoomToSpill(sources: List<Source>): Boolean {
+        val totalSize = sources.fold(0L) { size, source -> size + source.file.length() }
+        return spillDirectory.usableSpace > totalSize + SPILL_HEADROOM
+    }
+
+    @Throws(IOException::class)
+    private fun compressInParallel(
+        zos: ZipArchiveOutputStream,
+        sources: List<Source>,
+        onEntry: (Int, File) -> Unit
+    ) {
+        val spillFiles = Collections.synchronizedList(ArrayList<File>())
+        val backingStoreSupplier = ScatterGatherBackingStoreSupplier {
+            val spillFile = File.createTempFile("zip-spill", null, spillDirectory)
+            spillFiles.add(spillFile)
+            SpillFile(spillFile)
+        }
+        val executor = Executors.newFixedThreadPool(min(parallelism, sources.size))
+        val creator = ParallelScatterZipCreator(executor, backingStoreSupplier)
+        val onEntryLock = Any()
+        try {
+            for (source in sources) {
+                creator.addArchiveEntry(createEntry(source)) {
+                    // on the worker, as it starts deflating the entry
+                    synchronized(onEntryLock) { onEntry(source.index, source.file) }
+                    openEntryInput(source.file)
+                }
+            }
+            creator.writeTo(zos)
+        } catch (e: ExecutionException) {
+            throw e.cause as? IOException ?: IOException(e.cause)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException()
+        } finally {
+            executor.shutdownNow()
+            // left behind when a worker failed
+            spillFiles.forEach { it.delete() }
+        }
+    }
+
+    /** @return [file]'s content, counted by [progress] and ending early once cancelled */
+    private fun openEntryInput(file: File): InputStream {
+        return object : FilterInputStream(FileInputStream(file)) {
+            override fun read(): Int {
+                val b = ByteArray(1)
+                return if (read(b, 0, 1) == -1) -1 else b[0].toInt() and 0xff
+            }
+
+            override fun read(b: ByteArray, off: Int, len: Int): Int {
+                if (isCancelled()) return -1
+                return super.read(b, off, len).also {
+                    if (it > 0) progress.updatePosition(it.toLong())
+                }
+            }
+        }
+    }
+
+    private fun createEntry(source: Source): ZipArchiveEntry =
+        ZipArchiveEntry(source.name).apply {
+            method = ZipEntry.DEFLATED
+            time = source.file.lastModified()
+            if (SDK_INT >= O) {
+                val attrs = Files.readAttributes(
+                    Paths.get(source.file.absolutePath),
+                    BasicFileAttributes::class.java
+                )
+                addExtraField(
+                    X5455_ExtendedTimestamp().apply {
+                        setModifyJavaTime(Date(attrs.lastModifiedTime().toMillis()))
+                        setAccessJavaTime(Date(attrs.lastAccessTime().toMillis()))
+                        setCreateJavaTime(Date(attrs.creationTime().toMillis()))
+                    }
+                )
+            }
+        }
+
+    /**
+     * Spill file of a worker. commons-compress' own FileBasedScatterGatherBackingStore goes through
+     * java.nio.file, which isn't there before Android O.
+     */
+    private class SpillFile(private val file: File) : ScatterGatherBackingStore {
+        private val output = BufferedOutputStream(FileOutputStream(file), BUFFER_SIZE)
+        private var closed = false
+
+        override fun getInputStream(): InputStream = FileInputStream(file)
+
+        override fun writeOut(data: ByteArray, offset: Int, length: Int) =
+            output.write(data, offset, length)
+
+        override fun closeForWriting() {
+            if (!closed) {
+                output.close()
+                closed = true
+            }
+        }
+
+        override fun close() {
+            try {
+                closeForWriting()
+            } finally {
+                file.delete()
+            }
+        }
+    }
+
+    companion object {
+        private const val BUFFER_SIZE = 64 * 1024
+
+        /** Room left free past the spill files, as deflating may slightly grow a file */
+        private const val SPILL_HEADROOM = 16L * 1024 * 1024
+    }
+}
@@ -26,12 +26,16 @@ import com.amaze.filemanager.application.AppConfig
 import com.amaze.filemanager.file_operations.utils.UpdatePosition
 import com.amaze.filemanager.filesystem.FileUtil
 import com.amaze.filemanager.filesystem.MakeDirectoryOperation
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex
+import com.amaze.filemanager.filesystem.compressed.CompressedHelper
+import com.amaze.filemanager.filesystem.compressed.GzipCheckpointIndex
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor
 import com.amaze.filemanager.filesystem.files.GenericCopyUtil
 import org.apache.commons.compress.archivers.ArchiveEntry
 import org.apache.commons.compress.archivers.ArchiveInputStream
+import org.apache.commons.compress.utils.BoundedInputStream
+import org.apache.commons.compress.utils.IOUtils
 import java.io.*
-import java.util.*
 
 abstract class AbstractCommonsArchiveExtractor(
     context: Context,
@@ -49,49 +53,97 @@ abstract class AbstractCommonsArchiveExtractor(
      */
     abstract fun createFrom(inputStream: InputStream): ArchiveInputStream
 
+    /** Reads the whole archive to index it, subclasses may record more as they do. */
+    @Throws(IOException::class)
+    protected open fun buildIndex(): ArchiveIndex {
+        return createFrom(FileInputStream(filePath)).use { ArchiveIndex.build(it) }
+    }
+
+    /**
+     * Subclasses which can read the uncompressed archive from an offset without reading what
+     * precedes it implement this method.
+     *
+     * @return the uncompressed archive from [offset], or null if it has to be read from its start
+     */
+    @Throws(IOException::class)
+    protected open fun openAt(index: ArchiveIndex, offset: Long): InputStream? = null
+
     @Throws(IOException::class)
-    @Suppress("EmptyWhileBlock")
     override fun extractWithFilter(filter: Filter) {
-        var totalBytes: Long = 0
-        val archiveEntries = ArrayList<ArchiveEntry>()
-        var inputStream = createFrom(FileInputStream(filePath))
-        var archiveEntry: ArchiveEntry?
+        val index = ArchiveIndex.get(File(filePath), context.cacheDir) { buildIndex() }
+        val archiveEntries = index.entries.filter {
+            // as named in the archive
+            val name = if (it.isDirectory) it.name + CompressedHelper.SEPARATOR else it.name
+            filter.shouldExtract(name, it.isDirectory)
+        }
+        if (archiveEntries.isEmpty()) throw EmptyArchiveNotice()
+
+        listener.onStart(archiveEntries.sumOf { it.size }, archiveEntries[0].name)
+        if (archiveEntries.any { it.offset < 0 } || !extractSeeking(index, archiveEntries)) {
+            extractSequentially(archiveEntries)
+        }
+        listener.onFinish()
+    }
+
+    /** @return false if the archive can't be read from an offset, before extracting anything */
+    @Throws(IOException::class)
+    private fun extractSeeking(index: ArchiveIndex, entries: List<ArchiveIndex.Entry>): Boolean {
+        var inputStream: InputStream? = null
+        // offset of inputStream in the uncompressed archive
+        var position = 0L
         try {
-            while (inputStream.nextEntry.also { archiveEntry = it } != null) {
-                archiveEntry?.run {
-                    if (filter.shouldExtract(name, isDirectory)) {
-                        archiveEntries.add(this)
-                        totalBytes += size
-                    }
+            for (entry in entries) {
+                if (listener.isCancelled) break
+                listener.onUpdate(entry.name)
+                if (entry.isDirectory) {
+                    MakeDirectoryOperation.mkdir(File(outputPath, entry.name), context)
+                    continue
                 }
-            }
-            if (archiveEntries.size > 0) {
-                listener.onStart(totalBytes, archiveEntries[0].name)
-                inputStream.close()
-                inputStream = createFrom(FileInputStream(filePath))
-                archiveEntries.forEach { entry ->
-                    if (!listener.isCancelled) {
-                        listener.onUpdate(entry.name)
-                        // TAR is sequential, you need to walk all the way to the file you want
-                        while (entry.hashCode() != inputStream.nextEntry.hashCode()) {}
-                        extractEntry(context, inputStream, entry, outputPath)
-                    }
+
+                val distance = entry.offset - position
+                if (inputStream == null || distance < 0 || distance > MAX_SKIP_DISTANCE) {
+                    inputStream?.close()
+                    inputStream = openAt(index, entry.offset) ?: return false
+                } else if (IOUtils.skip(inputStream, distance) < distance) {
+                    throw EOFException("Unexpected end of archive $filePath")
                 }
-                inputStream.close()
-                listener.onFinish()
-            } else {
-                throw EmptyArchiveNotice()
+                val entryStream = BoundedInputStream(inputStream, entry.size)
+                extractEntry(context, entryStream, entry, outputPath)
+                // in case it couldn't be written
+                IOUtils.skip(entryStream, Long.MAX_VALUE)
+                position = entry.offset + entry.size
             }
         } finally {
-            inputStream.close()
+            inputStream?.close()
+        }
+        return true
+    }
+
+    @Throws(IOException::class)
+    private fun extractSequentially(entries: List<ArchiveIndex.Entry>) {
+        createFrom(FileInputStream(filePath)).use { inputStream ->
+            for (entry in entries) {
+                if (listener.isCancelled) break
+                listener.onUpdate(entry.name)
+                // TAR is sequential, you need to walk all the way to the file you want
+                var archiveEntry: ArchiveEntry?
+                do {
+                    archiveEntry = inputStream.nextEntry
+                } while (
+                    archiveEntry != null &&
+                    archiveEntry.name.removeSuffix(CompressedHelper.SEPARATOR) != entry.name
+                )
+                if (archiveEntry == null) break
+                extractEntry(context, inputStream, entry, outputPath)
+            }
         }
     }
 
     @Throws(IOException::class)
     protected fun extractEntry(
         context: Context,
-        inputStream: ArchiveInputStream,
-        entry: ArchiveEntry,
+        inputStream: InputStream,
+        entry: ArchiveIndex.Entry,
         outputDir: String
     ) {
         if (entry.isDirectory) {
@@ -111,7 +163,7 @@ abstract class AbstractCommonsArchiveExtractor(
                     updatePosition.updatePosition(len.toLong())
                 }
                 close()
-                outputFile.setLastModified(entry.lastModifiedDate.time)
+                outputFile.setLastModified(entry.date)
             }
         } ?: AppConfig.toast(
             context,
@@ -122,4 +174,9 @@ abstract class AbstractCommonsArchiveExtractor(
             )
         )
     }
+
+    companion object {
+        // further than this, starting over from a checkpoint is usually faster than reading through
+        private const val MAX_SKIP_DISTANCE = GzipCheckpointIndex.DEFAULT_SPAN
+    }
 }
@@ -22,8 +22,12 @@ package com.amaze.filemanager.filesystem.compressed.extractcontents.helpers
 
 import android.content.Context
 import com.amaze.filemanager.file_operations.utils.UpdatePosition
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex
+import com.amaze.filemanager.filesystem.compressed.SeekableGzipInputStream
 import org.apache.commons.compress.compressors.CompressorInputStream
 import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import java.io.File
+import java.io.InputStream
 
 class GzipExtractor(
     context: Context,
@@ -37,4 +41,9 @@ class GzipExtractor(
 
     override fun getCompressorInputStreamClass(): Class<out CompressorInputStream> =
         GzipCompressorInputStream::class.java
+
+    override fun buildIndex(): ArchiveIndex = ArchiveIndex.buildGzippedTar(File(filePath))
+
+    override fun openAt(index: ArchiveIndex, offset: Long): InputStream? =
+        index.gzipCheckpoints?.let { SeekableGzipInputStream.open(File(filePath), it, offset) }
 }
@@ -21,7 +21,6 @@
 package com.amaze.filemanager.filesystem.compressed.extractcontents.helpers
 
 import android.content.Context
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil
 import com.amaze.filemanager.file_operations.filesystem.compressed.ArchivePasswordCache
 import com.amaze.filemanager.file_operations.utils.UpdatePosition
 import com.amaze.filemanager.filesystem.FileUtil
@@ -150,7 +149,7 @@ class RarExtractor(
             while (inputStream.read(buf).also { len = it } != -1) {
                 if (!listener.isCancelled) {
                     outputStream.write(buf, 0, len)
-                    ServiceWatcherUtil.position += len.toLong()
+                    updatePosition.updatePosition(len.toLong())
                 } else break
             }
             /* In multi-volume archives, FileHeader may have changed as the other parts of the
@@ -31,9 +31,12 @@ import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor
 import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZArchiveEntry
 import com.amaze.filemanager.filesystem.compressed.sevenz.SevenZFile
 import com.amaze.filemanager.filesystem.files.GenericCopyUtil
+import com.amaze.filemanager.utils.ParallelWorkUtil
+import com.amaze.filemanager.utils.ParallelWorkUtil.synchronizedOnUpdate
 import java.io.BufferedOutputStream
 import java.io.File
 import java.io.IOException
+import java.io.InputStream
 import java.util.*
 
 class SevenZipExtractor(
@@ -43,7 +46,7 @@ class SevenZipExtractor(
     listener: OnUpdate,
     updatePosition: UpdatePosition
 ) :
-    Extractor(context, filePath, outputPath, listener, updatePosition) {
+    Extractor(context, filePath, outputPath, synchronizedOnUpdate(listener), updatePosition) {
 
     @Throws(IOException::class)
     override fun extractWithFilter(filter: Filter) {
@@ -53,36 +56,46 @@ class SevenZipExtractor(
         } else {
             SevenZFile(File(filePath))
         }
-        val arrayList = ArrayList<SevenZArchiveEntry>()
+        // indices of the entries to be extracted, so that solid blocks without any can be skipped
+        val selection = BitSet()
+        val directories = HashSet<File>()
+        var firstEntryName: String? = null
 
         // iterating archive elements to find file names that are to be extracted
-        for (entry in sevenzFile.entries) {
+        sevenzFile.entries.forEachIndexed { index, entry ->
             if (filter.shouldExtract(entry.name, entry.isDirectory)) {
                 // Entry to be extracted is at least the entry path
                 // (may be more, when it is a directory)
-                arrayList.add(entry)
+                selection.set(index)
                 totalBytes += entry.size
+                if (firstEntryName == null) firstEntryName = entry.name
+                val outputFile = File(outputPath, entry.name)
+                directories.add(if (entry.isDirectory) outputFile else outputFile.parentFile)
             }
         }
-        listener.onStart(totalBytes, arrayList[0].name)
-        var entry: SevenZArchiveEntry?
-        while (sevenzFile.nextEntry.also { entry = it } != null) {
-            if (!arrayList.contains(entry)) {
-                continue
-            }
-            if (!listener.isCancelled) {
-                listener.onUpdate(entry!!.name)
-                extractEntry(context, sevenzFile, entry!!, outputPath)
+        if (selection.isEmpty) {
+            sevenzFile.close()
+            throw EmptyArchiveNotice()
+        }
+        listener.onStart(totalBytes, firstEntryName)
+        sevenzFile.use {
+            ParallelWorkUtil.createDirectories(context, directories) { listener.isCancelled }
+            // blocks are decoded on several threads, entries of a block one after the other
+            it.extractInParallel(selection, ParallelWorkUtil.getParallelism()) { entry, content ->
+                if (!listener.isCancelled) {
+                    listener.onUpdate(entry.name)
+                    extractEntry(context, content, entry, outputPath)
+                }
+                !listener.isCancelled
             }
         }
-        sevenzFile.close()
         listener.onFinish()
     }
 
     @Throws(IOException::class)
     private fun extractEntry(
         context: Context,
-        sevenzFile: SevenZFile,
+        content: InputStream,
         entry: SevenZArchiveEntry,
         outputDir: String
     ) {
@@ -97,13 +110,13 @@ class SevenZipExtractor(
         }
         FileUtil.getOutputStream(outputFile, context)?.let { fileOutputStream ->
             BufferedOutputStream(fileOutputStream).runCatching {
-                val content = ByteArray(GenericCopyUtil.DEFAULT_BUFFER_SIZE)
+                val buffer = ByteArray(GenericCopyUtil.DEFAULT_BUFFER_SIZE)
                 var progress: Long = 0
                 while (progress < entry.size) {
                     var length: Int
                     val bytesLeft = java.lang.Long.valueOf(entry.size - progress).toInt()
-                    length = sevenzFile.read(
-                        content,
+                    length = content.read(
+                        buffer,
                         0,
                         if (bytesLeft > GenericCopyUtil.DEFAULT_BUFFER_SIZE) {
                             GenericCopyUtil.DEFAULT_BUFFER_SIZE
@@ -111,7 +124,7 @@ class SevenZipExtractor(
                             bytesLeft
                         }
                     )
-                    write(content, 0, length)
+                    write(buffer, 0, length)
                     updatePosition.updatePosition(length.toLong())
                     progress += length.toLong()
                 }
@@ -22,7 +22,9 @@ package com.amaze.filemanager.filesystem.compressed.extractcontents.helpers
 
 import android.content.Context
 import com.amaze.filemanager.file_operations.utils.UpdatePosition
+import com.amaze.filemanager.filesystem.compressed.ArchiveIndex
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import java.io.FileInputStream
 import java.io.InputStream
 
 class TarExtractor(
@@ -37,4 +39,7 @@ class TarExtractor(
 
     override fun createFrom(inputStream: InputStream): TarArchiveInputStream =
         TarArchiveInputStream(inputStream)
+
+    override fun openAt(index: ArchiveIndex, offset: Long): InputStream =
+        FileInputStream(filePath).also { it.channel.position(offset) }
 }
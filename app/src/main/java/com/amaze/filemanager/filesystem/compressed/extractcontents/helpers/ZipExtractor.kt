@@ -29,15 +29,21 @@ import com.amaze.filemanager.filesystem.FileUtil
 import com.amaze.filemanager.filesystem.MakeDirectoryOperation
 import com.amaze.filemanager.filesystem.compressed.CompressedHelper
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor
-import com.amaze.filemanager.filesystem.files.GenericCopyUtil
+import com.amaze.filemanager.utils.ParallelWorkUtil
+import com.amaze.filemanager.utils.ParallelWorkUtil.synchronizedOnUpdate
 import net.lingala.zip4j.ZipFile
 import net.lingala.zip4j.exception.ZipException
 import net.lingala.zip4j.model.FileHeader
-import java.io.BufferedInputStream
-import java.io.BufferedOutputStream
 import java.io.File
 import java.io.IOException
+import java.io.InterruptedIOException
 import java.util.*
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.math.min
 
 class ZipExtractor(
     context: Context,
@@ -45,16 +51,17 @@ class ZipExtractor(
     outputPath: String,
     listener: OnUpdate,
     updatePosition: UpdatePosition
-) : Extractor(context, filePath, outputPath, listener, updatePosition) {
+) : Extractor(context, filePath, outputPath, synchronizedOnUpdate(listener), updatePosition) {
+
+    // set by the first worker failing, so that the others stop too
+    private val failed = AtomicBoolean(false)
+
     @Throws(IOException::class)
     override fun extractWithFilter(filter: Filter) {
         var totalBytes: Long = 0
         val entriesToExtract: MutableList<FileHeader> = ArrayList()
         try {
-            val zipfile = ZipFile(filePath)
-            if (ArchivePasswordCache.getInstance().containsKey(filePath)) {
-                zipfile.setPassword(ArchivePasswordCache.getInstance()[filePath]!!.toCharArray())
-            }
+            val zipfile = openZipFile()
 
             // iterating archive elements to find file names that are to be extracted
             zipfile.fileHeaders.forEach { obj ->
@@ -70,11 +77,12 @@ class ZipExtractor(
             }
             if (entriesToExtract.size > 0) {
                 listener.onStart(totalBytes, entriesToExtract[0].fileName)
-                for (entry in entriesToExtract) {
-                    if (!listener.isCancelled) {
-                        listener.onUpdate(entry.fileName)
-                        extractEntry(context, zipfile, entry, outputPath)
-                    }
+                val files = createDirectories(entriesToExtract)
+                val parallelism = min(files.size, ParallelWorkUtil.getParallelism())
+                if (parallelism > 1) {
+                    extractInParallel(files, parallelism)
+                } else {
+                    extractEntries(zipfile, files, AtomicInteger())
                 }
             } else {
                 throw EmptyArchiveNotice()
@@ -85,6 +93,98 @@ class ZipExtractor(
         }
     }
 
+    @Throws(ZipException::class)
+    private fun openZipFile(): ZipFile {
+        val zipfile = ZipFile(filePath)
+        if (ArchivePasswordCache.getInstance().containsKey(filePath)) {
+            zipfile.setPassword(ArchivePasswordCache.getInstance()[filePath]!!.toCharArray())
+        }
+        return zipfile
+    }
+
+    /**
+     * Creates the directories of [entries] ahead of extracting any file, so that workers don't
+     * race to create the same parent directory.
+     *
+     * @return the file entries, left to extract
+     */
+    @Throws(IOException::class)
+    private fun createDirectories(entries: List<FileHeader>): List<FileHeader> {
+        val directories = ArrayList<File>()
+        val files = ArrayList<FileHeader>(entries.size)
+        for (entry in entries) {
+            val outputFile = getOutputFile(entry)
+            if (entry.isDirectory) {
+                directories.add(outputFile)
+            } else {
+                directories.add(outputFile.parentFile)
+                files.add(entry)
+            }
+        }
+        ParallelWorkUtil.createDirectories(context, directories) { listener.isCancelled }
+        return files
+    }
+
+    /**
+     * Spreads [entries] over [parallelism] workers, each with its own [ZipFile] handle since
+     * zip4j's isn't meant to be shared. Entries are handed out in archive order, one at a time,
+     * so that workers finishing a small entry pick up the next one.
+     */
+    @Throws(IOException::class)
+    private fun extractInParallel(entries: List<FileHeader>, parallelism: Int) {
+        val next = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(parallelism)
+        try {
+            val workers = (1..parallelism).map {
+                executor.submit(
+                    Callable {
+                        try {
+                            extractEntries(openZipFile(), entries, next)
+                        } catch (e: IOException) {
+                            failed.set(true)
+                            throw e
+                        }
+                    }
+                )
+            }
+            for (worker in workers) {
+                try {
+                    worker.get()
+                } catch (e: ExecutionException) {
+                    failed.set(true)
+                    throw e.cause as? IOException ?: IOException(e.cause)
+                }
+            }
+        } catch (e: InterruptedException) {
+            failed.set(true)
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException()
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    /** Extracts the entries of [entries] from [next] on, until none is left. */
+    @Throws(IOException::class)
+    private fun extractEntries(zipFile: ZipFile, entries: List<FileHeader>, next: AtomicInteger) {
+        while (!shouldStop()) {
+            val entry = entries.getOrNull(next.getAndIncrement()) ?: return
+            listener.onUpdate(entry.fileName)
+            extractEntry(context, zipFile, entry, outputPath)
+        }
+    }
+
+    private fun shouldStop() = listener.isCancelled || failed.get()
+
+    @Throws(IOException::class)
+    private fun getOutputFile(entry: FileHeader): File {
+        val outputFile = File(outputPath, fixEntryName(entry.fileName))
+        if (!outputFile.canonicalPath.startsWith(outputPath)) {
+            throw IOException("Incorrect ZipEntry path!")
+        }
+        return outputFile
+    }
+
     /**
      * Method extracts [FileHeader] from [ZipFile]
      *
@@ -99,10 +199,7 @@ class ZipExtractor(
         entry: FileHeader,
         outputDir: String
     ) {
-        val outputFile = File(outputDir, fixEntryName(entry.fileName))
-        if (!outputFile.canonicalPath.startsWith(outputDir)) {
-            throw IOException("Incorrect ZipEntry path!")
-        }
+        val outputFile = getOutputFile(entry)
         if (entry.isDirectory) {
             // zip entry is a directory, return after creating new directory
             MakeDirectoryOperation.mkdir(outputFile, context)
@@ -112,20 +209,20 @@ class ZipExtractor(
             // creating directory if not already exists
             MakeDirectoryOperation.mkdir(outputFile.parentFile, context)
         }
-        val inputStream = BufferedInputStream(zipFile.getInputStream(entry))
         FileUtil.getOutputStream(outputFile, context)?.let { fileOutputStream ->
-            BufferedOutputStream(fileOutputStream).run {
-                var len: Int
-                val buf = ByteArray(GenericCopyUtil.DEFAULT_BUFFER_SIZE)
-                while (inputStream.read(buf).also { len = it } != -1) {
-                    if (!listener.isCancelled) {
-                        write(buf, 0, len)
-                        updatePosition.updatePosition(len.toLong())
-                    } else break
+            zipFile.getInputStream(entry).use { inputStream ->
+                fileOutputStream.use {
+                    var len: Int
+                    val buf = ByteArray(BUFFER_SIZE)
+                    while (inputStream.read(buf).also { len = it } != -1) {
+                        if (!shouldStop()) {
+                            it.write(buf, 0, len)
+                            updatePosition.updatePosition(len.toLong())
+                        } else break
+                    }
                 }
-                close()
-                outputFile.setLastModified(entry.lastModifiedTimeEpoch)
             }
+            outputFile.setLastModified(entry.lastModifiedTimeEpoch)
         } ?: AppConfig.toast(
             context,
             context.getString(
@@ -135,4 +232,9 @@ class ZipExtractor(
             )
         )
     }
+
+    companion object {
+        // zip4j reads the archive through its own buffers, larger writes are cheaper
+        private const val BUFFER_SIZE = 64 * 1024
+    }
 }
@@ -0,0 +1,595 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.files;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.security.spec.AlgorithmParameterSpec;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Chunked {@link CryptUtil#CRYPT_EXTENSION} format, in which the content is cut into chunks
+ * encrypted and authenticated independently of each other, so that they can be processed on
+ * several cores, and read from anywhere in the file.
+ *
+ * <p>A file is a header followed by the chunks:
+ *
+ * <ul>
+ *   <li>the {@link #MAGIC} bytes, the format version and the chunk size
+ *   <li>a random nonce prefix
+ *   <li>a random data key, encrypted with AES/GCM by the app's key and authenticated along with
+ *       all of the above
+ *   <li>the chunks, all of the chunk size but the last one, each encrypted with AES/GCM by the data
+ *       key and followed by its tag
+ * </ul>
+ *
+ * <p>The nonce of each chunk is the nonce prefix, the chunk index and whether it is the last chunk,
+ * as in the STREAM construction of Hoang, Reyhanitabar, Rogaway and Vizar, so that chunks can't be
+ * reordered, dropped or appended, nor the file truncated, without failing authentication. The data
+ * key being random, nonces are never reused across files, and the chunks are encrypted in the
+ * app's process rather than through the key store, one binder call each.
+ *
+ * <p>Files of the older format, a single AES/GCM stream with a fixed IV, don't start with {@link
+ * #MAGIC}, which is how {@link #isChunked} tells them apart.
+ */
+public final class ChunkedCrypt {
+
+  /** Bytes of plain content in each chunk */
+  public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+  // not valid text, nor the start of a GCM stream but by a 2^-64 chance
+  static final byte[] MAGIC = {(byte) 0x89, 'A', 'Z', 'E', '\r', '\n', 0x1a, '\n'};
+  static final int VERSION = 1;
+
+  private static final String ALGO_AES = "AES/GCM/NoPadding";
+  private static final int TAG_LENGTH = 16;
+  private static final int NONCE_LENGTH = 12;
+  // 4 bytes of the nonce count chunks, 1 tells the last one
+  private static final int NONCE_PREFIX_LENGTH = NONCE_LENGTH - 5;
+  private static final int DATA_KEY_LENGTH = 32;
+  private static final int MAX_CHUNK_SIZE = 16 * 1024 * 1024;
+  private static final long MAX_CHUNKS = 1L << 32;
+
+  // magic, version, chunk size and nonce prefix, authenticated with the data key
+  private static final int HEADER_PARAMETERS_LENGTH = MAGIC.length + 1 + 4 + NONCE_PREFIX_LENGTH;
+  static final int HEADER_LENGTH =
+      HEADER_PARAMETERS_LENGTH + NONCE_LENGTH + DATA_KEY_LENGTH + TAG_LENGTH;
+
+  private ChunkedCrypt() {}
+
+  /**
+   * Tells whether {@param in} is of the chunked format, leaving it where it was.
+   *
+   * @param in stream supporting {@link InputStream#mark}
+   */
+  public static boolean isChunked(@NonNull InputStream in) throws IOException {
+    byte[] magic = new byte[MAGIC.length];
+    in.mark(MAGIC.length);
+    try {
+      return readFully(in, magic) == MAGIC.length && Arrays.equals(magic, MAGIC);
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Encrypts what is written to the returned stream into {@param out}, which is closed along.
+   *
+   * @param masterKey the app's key, protecting the data key of the file
+   * @param parallelism number of chunks encrypted at once, 1 encrypts them on the writing thread
+   */
+  public static OutputStream encrypt(
+      @NonNull OutputStream out, @NonNull Key masterKey, int parallelism)
+      throws GeneralSecurityException, IOException {
+    Header header = Header.create(masterKey, DEFAULT_CHUNK_SIZE);
+    out.write(header.bytes);
+    return new SealingOutputStream(out, header, parallelism);
+  }
+
+  /**
+   * Decrypts {@param in}, which is closed along with the returned stream. Content is only returned
+   * once authenticated, chunk by chunk.
+   *
+   * @param masterKey the app's key, protecting the data key of the file
+   * @param parallelism number of chunks decrypted at once, 1 decrypts them on the reading thread
+   */
+  public static InputStream decrypt(
+      @NonNull InputStream in, @NonNull Key masterKey, int parallelism)
+      throws GeneralSecurityException, IOException {
+    Header header = Header.read(in, masterKey);
+    return new OpeningInputStream(in, header, parallelism);
+  }
+
+  /**
+   * Opens the encrypted file of {@param channel} for reading its content from anywhere, as media
+   * players seek through it. Closing the stream closes the channel.
+   */
+  public static RandomAccessStream open(@NonNull FileChannel channel, @NonNull Key masterKey)
+      throws GeneralSecurityException, IOException {
+    byte[] headerBytes = new byte[HEADER_LENGTH];
+    readFully(channel, ByteBuffer.wrap(headerBytes), 0);
+    Header header = Header.parse(headerBytes, masterKey);
+
+    long sealedLength = channel.size() - HEADER_LENGTH;
+    long sealedChunkSize = header.chunkSize + TAG_LENGTH;
+    long chunks = (sealedLength + sealedChunkSize - 1) / sealedChunkSize;
+    long lastChunkLength = sealedLength - (chunks - 1) * sealedChunkSize - TAG_LENGTH;
+    if (chunks == 0 || lastChunkLength < 0) {
+      throw new EOFException("Truncated encrypted file");
+    }
+    return new SeekableStream(channel, header, (chunks - 1) * header.chunkSize + lastChunkLength);
+  }
+
+  /** Parameters for AES/GCM, {@link GCMParameterSpec} being there from KitKat on only */
+  private static AlgorithmParameterSpec gcmParameters(byte[] nonce) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+      return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+    return new IvParameterSpec(nonce);
+  }
+
+  private static int readFully(InputStream in, byte[] b) throws IOException {
+    int offset = 0;
+    int count;
+    while (offset < b.length && (count = in.read(b, offset, b.length - offset)) != -1) {
+      offset += count;
+    }
+    return offset;
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int count = channel.read(buffer, position);
+      if (count == -1) throw new EOFException("Truncated encrypted file");
+      position += count;
+    }
+  }
+
+  private static IOException unwrap(ExecutionException e) {
+    return e.getCause() instanceof IOException
+        ? (IOException) e.getCause()
+        : new IOException(e.getCause());
+  }
+
+  /** Number of threads working on the chunks of a file, none for a parallelism of 1 */
+  private static ExecutorService newExecutor(int parallelism) {
+    return parallelism > 1 ? Executors.newFixedThreadPool(parallelism) : null;
+  }
+
+  /** Runs {@param task} on {@param executor}, or right away without one. */
+  private static <T> FutureTask<T> schedule(ExecutorService executor, Callable<T> task) {
+    FutureTask<T> future = new FutureTask<>(task);
+    if (executor != null) {
+      executor.execute(future);
+    } else {
+      future.run();
+    }
+    return future;
+  }
+
+  /** Parameters of a file, and its data key */
+  static final class Header {
+    final int chunkSize;
+    final byte[] bytes;
+    private final byte[] noncePrefix;
+    private final Key dataKey;
+
+    private Header(byte[] bytes, int chunkSize, byte[] noncePrefix, Key dataKey) {
+      this.bytes = bytes;
+      this.chunkSize = chunkSize;
+      this.noncePrefix = noncePrefix;
+      this.dataKey = dataKey;
+    }
+
+    static Header create(Key masterKey, int chunkSize) throws GeneralSecurityException {
+      SecureRandom random = new SecureRandom();
+      byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+      byte[] wrapNonce = new byte[NONCE_LENGTH];
+      byte[] dataKey = new byte[DATA_KEY_LENGTH];
+      random.nextBytes(noncePrefix);
+      random.nextBytes(wrapNonce);
+      random.nextBytes(dataKey);
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+      header.put(MAGIC).put((byte) VERSION).putInt(chunkSize).put(noncePrefix).put(wrapNonce);
+
+      Cipher cipher = Cipher.getInstance(ALGO_AES);
+      cipher.init(Cipher.ENCRYPT_MODE, masterKey, gcmParameters(wrapNonce));
+      cipher.updateAAD(header.array(), 0, HEADER_PARAMETERS_LENGTH);
+      header.put(cipher.doFinal(dataKey));
+
+      Header result =
+          new Header(
+              header.array(), chunkSize, noncePrefix, new SecretKeySpec(dataKey, "AES"));
+      Arrays.fill(dataKey, (byte) 0);
+      return result;
+    }
+
+    static Header read(InputStream in, Key masterKey)
+        throws GeneralSecurityException, IOException {
+      byte[] bytes = new byte[HEADER_LENGTH];
+      if (readFully(in, bytes) < HEADER_LENGTH) {
+        throw new EOFException("Truncated encrypted file");
+      }
+      return parse(bytes, masterKey);
+    }
+
+    static Header parse(byte[] bytes, Key masterKey) throws GeneralSecurityException, IOException {
+      ByteBuffer header = ByteBuffer.wrap(bytes);
+      byte[] magic = new byte[MAGIC.length];
+      header.get(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IOException("Not a chunked encrypted file");
+      }
+      int version = header.get();
+      if (version != VERSION) {
+        throw new IOException("Unsupported encrypted file version " + version);
+      }
+      int chunkSize = header.getInt();
+      if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+        throw new IOException("Invalid chunk size " + chunkSize);
+      }
+      byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+      byte[] wrapNonce = new byte[NONCE_LENGTH];
+      header.get(noncePrefix).get(wrapNonce);
+
+      Cipher cipher = Cipher.getInstance(ALGO_AES);
+      cipher.init(Cipher.DECRYPT_MODE, masterKey, gcmParameters(wrapNonce));
+      cipher.updateAAD(bytes, 0, HEADER_PARAMETERS_LENGTH);
+      byte[] dataKey;
+      try {
+        dataKey = cipher.doFinal(bytes, header.position(), DATA_KEY_LENGTH + TAG_LENGTH);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Header of encrypted file failed authentication", e);
+      }
+
+      Header result = new Header(bytes, chunkSize, noncePrefix, new SecretKeySpec(dataKey, "AES"));
+      Arrays.fill(dataKey, (byte) 0);
+      return result;
+    }
+
+    int sealedChunkSize() {
+      return chunkSize + TAG_LENGTH;
+    }
+
+    byte[] seal(long index, boolean last, byte[] content, int length)
+        throws GeneralSecurityException, IOException {
+      // a cipher per chunk, so that none holding the data key outlives the operation on a thread
+      Cipher cipher = Cipher.getInstance(ALGO_AES);
+      cipher.init(Cipher.ENCRYPT_MODE, dataKey, gcmParameters(nonce(index, last)));
+      return cipher.doFinal(content, 0, length);
+    }
+
+    byte[] open(long index, boolean last, byte[] sealed, int length) throws IOException {
+      try {
+        Cipher cipher = Cipher.getInstance(ALGO_AES);
+        cipher.init(Cipher.DECRYPT_MODE, dataKey, gcmParameters(nonce(index, last)));
+        return cipher.doFinal(sealed, 0, length);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Chunk " + index + " of encrypted file failed authentication", e);
+      }
+    }
+
+    private byte[] nonce(long index, boolean last) throws IOException {
+      if (index >= MAX_CHUNKS) throw new IOException("Too many chunks for encrypted file");
+      return ByteBuffer.allocate(NONCE_LENGTH)
+          .put(noncePrefix)
+          .putInt((int) index)
+          .put((byte) (last ? 1 : 0))
+          .array();
+    }
+  }
+
+  /**
+   * Encrypts chunk by chunk, keeping up to twice the parallelism of chunks in flight, and writes
+   * them in order. A full chunk is only sealed once more content comes, the last one being sealed
+   * differently.
+   */
+  private static class SealingOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final Header header;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Queue<FutureTask<byte[]>> pending = new ArrayDeque<>();
+    private byte[] buffer;
+    private int buffered = 0;
+    private long index = 0;
+    private boolean closed = false;
+
+    SealingOutputStream(OutputStream out, Header header, int parallelism) {
+      this.out = out;
+      this.header = header;
+      this.executor = newExecutor(parallelism);
+      this.maxPending = 2 * Math.max(parallelism, 1);
+      this.buffer = new byte[header.chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (buffered == buffer.length) sealBuffer(false);
+        int count = Math.min(len, buffer.length - buffered);
+        System.arraycopy(b, off, buffer, buffered, count);
+        buffered += count;
+        off += count;
+        len -= count;
+      }
+    }
+
+    /** Writes the chunks sealed so far, the chunk being filled stays until it is complete. */
+    @Override
+    public void flush() throws IOException {
+      while (!pending.isEmpty()) writeNext();
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) return;
+      closed = true;
+      try {
+        sealBuffer(true);
+        while (!pending.isEmpty()) writeNext();
+      } finally {
+        if (executor != null) executor.shutdownNow();
+        out.close();
+      }
+    }
+
+    private void sealBuffer(boolean last) throws IOException {
+      final byte[] content = buffer;
+      final int length = buffered;
+      final long chunkIndex = index++;
+      pending.add(
+          schedule(
+              executor,
+              new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws GeneralSecurityException, IOException {
+                  return header.seal(chunkIndex, last, content, length);
+                }
+              }));
+      // the worker owns the previous buffer now
+      buffer = new byte[header.chunkSize];
+      buffered = 0;
+      if (pending.size() >= maxPending) writeNext();
+    }
+
+    private void writeNext() throws IOException {
+      try {
+        out.write(pending.remove().get());
+      } catch (ExecutionException e) {
+        throw unwrap(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  /**
+   * Decrypts chunk by chunk, reading ahead up to twice the parallelism of chunks. A chunk is only
+   * known to be the last one once the next read finds the end of the file.
+   */
+  private static class OpeningInputStream extends InputStream {
+    private final InputStream in;
+    private final Header header;
+    private final ExecutorService executor;
+    private final int maxPending;
+    private final Queue<FutureTask<byte[]>> pending = new ArrayDeque<>();
+    // sealed chunk read but not scheduled yet, null once the last one is
+    private byte[] next;
+    private long index = 0;
+
+    private byte[] chunk = new byte[0];
+    private int chunkPosition = 0;
+
+    OpeningInputStream(InputStream in, Header header, int parallelism) throws IOException {
+      this.in = in;
+      this.header = header;
+      this.executor = newExecutor(parallelism);
+      this.maxPending = 2 * Math.max(parallelism, 1);
+      next = readSealed();
+      if (next == null) throw new EOFException("Truncated encrypted file");
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      while (chunkPosition == chunk.length) {
+        scheduleAhead();
+        if (pending.isEmpty()) return -1;
+        chunk = take();
+        chunkPosition = 0;
+      }
+      int count = Math.min(len, chunk.length - chunkPosition);
+      System.arraycopy(chunk, chunkPosition, b, off, count);
+      chunkPosition += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return chunk.length - chunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+      pending.clear();
+      if (executor != null) executor.shutdownNow();
+      in.close();
+    }
+
+    private void scheduleAhead() throws IOException {
+      while (next != null && pending.size() < maxPending) {
+        final byte[] sealed = next;
+        if (sealed.length < header.sealedChunkSize()) {
+          if (readSealed() != null) throw new IOException("Encrypted file has a short chunk");
+          next = null;
+        } else {
+          next = readSealed();
+        }
+        final boolean last = next == null;
+        final long chunkIndex = index++;
+        pending.add(
+            schedule(
+                executor,
+                new Callable<byte[]>() {
+                  @Override
+                  public byte[] call() throws IOException {
+                    return header.open(chunkIndex, last, sealed, sealed.length);
+                  }
+                }));
+      }
+    }
+
+    private byte[] take() throws IOException {
+      try {
+        return pending.remove().get();
+      } catch (ExecutionException e) {
+        throw unwrap(e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+
+    /** @return the next sealed chunk, shorter for the last one, or null at the end of the file */
+    private byte[] readSealed() throws IOException {
+      byte[] sealed = new byte[header.sealedChunkSize()];
+      int length = readFully(in, sealed);
+      if (length == 0) return null;
+      return length == sealed.length ? sealed : Arrays.copyOf(sealed, length);
+    }
+  }
+
+  /** Reads the chunk holding the current position, keeping the last one read decrypted. */
+  private static class SeekableStream extends RandomAccessStream {
+    private final FileChannel channel;
+    private final Header header;
+    private final long lastChunkIndex;
+    private long position = 0;
+    private long chunkIndex = -1;
+    private byte[] chunk;
+
+    SeekableStream(FileChannel channel, Header header, long length) {
+      super(length);
+      this.channel = channel;
+      this.header = header;
+      this.lastChunkIndex = length == 0 ? 0 : (length - 1) / header.chunkSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (position >= length()) return -1;
+      long index = position / header.chunkSize;
+      if (index != chunkIndex) {
+        chunk = readChunk(index);
+        chunkIndex = index;
+      }
+      int chunkPosition = (int) (position - index * header.chunkSize);
+      int count = Math.min(len, chunk.length - chunkPosition);
+      System.arraycopy(chunk, chunkPosition, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, length() - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public void moveTo(long position) {
+      if (position < 0 || length() < position) {
+        throw new IllegalArgumentException("Position out of the bounds of the file!");
+      }
+      this.position = position;
+    }
+
+    @Override
+    protected long getCurrentPosition() {
+      return position;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+
+    private byte[] readChunk(long index) throws IOException {
+      boolean last = index == lastChunkIndex;
+      long sealedOffset = HEADER_LENGTH + index * header.sealedChunkSize();
+      int sealedLength =
+          last ? (int) (channel.size() - sealedOffset) : header.sealedChunkSize();
+      byte[] sealed = new byte[sealedLength];
+      readFully(channel, ByteBuffer.wrap(sealed), sealedOffset);
+      return header.open(index, last, sealed, sealedLength);
+    }
+  }
+}
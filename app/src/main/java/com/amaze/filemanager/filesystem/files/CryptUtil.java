@@ -24,8 +24,14 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.math.BigInteger;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.security.GeneralSecurityException;
 import java.security.Key;
 import java.security.KeyPairGenerator;
@@ -46,10 +52,13 @@ import javax.security.auth.x500.X500Principal;
 import com.amaze.filemanager.BuildConfig;
 import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil;
 import com.amaze.filemanager.file_operations.filesystem.OpenMode;
+import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
+import com.amaze.filemanager.file_operations.utils.UpdatePosition;
 import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.MakeDirectoryOperation;
 import com.amaze.filemanager.ui.fragments.preference_fragments.PrefFrag;
+import com.amaze.filemanager.utils.ParallelWorkUtil;
 import com.amaze.filemanager.utils.ProgressHandler;
 
 import android.content.Context;
@@ -60,6 +69,7 @@ import android.security.keystore.KeyGenParameterSpec;
 import android.security.keystore.KeyProperties;
 import android.util.Base64;
 
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.preference.PreferenceManager;
 
@@ -82,6 +92,9 @@ import androidx.preference.PreferenceManager;
  * <p>From <i>new ones</i> we mean the ones when were encrypted after user changed preference for
  * master password/fingerprint sensor from settings.
  *
+ * <p>Files are written in the {@link ChunkedCrypt} format, whose chunks are encrypted on several
+ * threads. Files written as a single AES/GCM stream by older versions are still decrypted as such.
+ *
  * <p>We use buffered streams to process files, usage of NIO will probably mildly effect the
  * performance.
  *
@@ -103,6 +116,7 @@ public class CryptUtil {
   public static final String CRYPT_EXTENSION = ".aze";
 
   private ProgressHandler progressHandler;
+  private UpdatePosition updatePosition;
   private ArrayList<HybridFile> failedOps;
 
   /**
@@ -122,11 +136,13 @@ public class CryptUtil {
       Context context,
       HybridFileParcelable sourceFile,
       ProgressHandler progressHandler,
+      UpdatePosition updatePosition,
       ArrayList<HybridFile> failedOps,
       String targetFilename)
       throws GeneralSecurityException, IOException {
 
     this.progressHandler = progressHandler;
+    this.updatePosition = updatePosition;
     this.failedOps = failedOps;
 
     // target encrypted file
@@ -151,10 +167,12 @@ public class CryptUtil {
       HybridFileParcelable baseFile,
       String targetPath,
       ProgressHandler progressHandler,
+      UpdatePosition updatePosition,
       ArrayList<HybridFile> failedOps)
       throws GeneralSecurityException, IOException {
 
     this.progressHandler = progressHandler;
+    this.updatePosition = updatePosition;
     this.failedOps = failedOps;
 
     HybridFile targetDirectory = new HybridFile(OpenMode.FILE, targetPath);
@@ -221,7 +239,11 @@ public class CryptUtil {
           new BufferedOutputStream(
               targetFile.getOutputStream(context), GenericCopyUtil.DEFAULT_BUFFER_SIZE);
 
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2
+          && ChunkedCrypt.isChunked(inputStream)) {
+        chunkedDecrypt(getMasterKey(context), inputStream, outputStream);
+      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+        // single stream files, from before the chunked format
         aesDecrypt(inputStream, outputStream);
       } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
         rsaDecrypt(context, inputStream, outputStream);
@@ -289,10 +311,8 @@ public class CryptUtil {
           new BufferedOutputStream(
               targetFile.getOutputStream(context), GenericCopyUtil.DEFAULT_BUFFER_SIZE);
 
-      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-        aesEncrypt(inputStream, outputStream);
-      } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-        rsaEncrypt(context, inputStream, outputStream);
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        chunkedEncrypt(getMasterKey(context), inputStream, outputStream);
       }
     }
   }
@@ -324,42 +344,72 @@ public class CryptUtil {
   }
 
   /**
-   * Helper method to encrypt a file
+   * Helper method to encrypt a file in the {@link ChunkedCrypt} format, chunks being encrypted on
+   * several threads
    *
+   * @param masterKey key protecting the data key of the file
    * @param inputStream stream associated with the file to be encrypted
    * @param outputStream stream associated with new output encrypted file
    */
-  @RequiresApi(api = Build.VERSION_CODES.M)
-  private void aesEncrypt(BufferedInputStream inputStream, BufferedOutputStream outputStream)
+  private void chunkedEncrypt(
+      Key masterKey, BufferedInputStream inputStream, BufferedOutputStream outputStream)
       throws GeneralSecurityException, IOException {
 
-    Cipher cipher = Cipher.getInstance(ALGO_AES);
-
-    GCMParameterSpec gcmParameterSpec = new GCMParameterSpec(128, IV.getBytes());
-
-    cipher.init(Cipher.ENCRYPT_MODE, getSecretKey(), gcmParameterSpec);
-
     byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
     int count;
 
-    CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
+    OutputStream cipherOutputStream =
+        ChunkedCrypt.encrypt(outputStream, masterKey, ParallelWorkUtil.getParallelism());
 
     try {
 
       while ((count = inputStream.read(buffer)) != -1) {
         if (!progressHandler.getCancelled()) {
           cipherOutputStream.write(buffer, 0, count);
-          ServiceWatcherUtil.position += count;
+          updatePosition.updatePosition(count);
         } else break;
       }
     } finally {
 
-      cipherOutputStream.flush();
       cipherOutputStream.close();
       inputStream.close();
     }
   }
 
+  /**
+   * Helper method to decrypt a file in the {@link ChunkedCrypt} format, chunks being decrypted on
+   * several threads
+   *
+   * @param masterKey key protecting the data key of the file
+   * @param inputStream stream associated with encrypted file
+   * @param outputStream stream associated with new output decrypted file
+   */
+  private void chunkedDecrypt(
+      Key masterKey, BufferedInputStream inputStream, BufferedOutputStream outputStream)
+      throws GeneralSecurityException, IOException {
+
+    InputStream cipherInputStream =
+        ChunkedCrypt.decrypt(inputStream, masterKey, ParallelWorkUtil.getParallelism());
+
+    byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
+    int count;
+
+    try {
+
+      while ((count = cipherInputStream.read(buffer)) != -1) {
+        if (!progressHandler.getCancelled()) {
+          outputStream.write(buffer, 0, count);
+          updatePosition.updatePosition(count);
+        } else break;
+      }
+    } finally {
+
+      outputStream.flush();
+      cipherInputStream.close();
+      outputStream.close();
+    }
+  }
+
   /**
    * Helper method to decrypt file
    *
@@ -384,7 +434,7 @@ public class CryptUtil {
       while ((count = cipherInputStream.read(buffer)) != -1) {
         if (!progressHandler.getCancelled()) {
           outputStream.write(buffer, 0, count);
-          ServiceWatcherUtil.position += count;
+          updatePosition.updatePosition(count);
         } else break;
       }
     } finally {
@@ -423,34 +473,40 @@ public class CryptUtil {
     }
   }
 
+  /**
+   * Gets the key protecting the data keys of {@link ChunkedCrypt} files: the key store's AES key
+   * from M on, the AES key of preferences before.
+   */
   @RequiresApi(api = Build.VERSION_CODES.JELLY_BEAN_MR2)
-  private void rsaEncrypt(
-      Context context, BufferedInputStream inputStream, BufferedOutputStream outputStream)
-      throws GeneralSecurityException, IOException {
-
-    Cipher cipher = Cipher.getInstance(ALGO_AES);
-    RSAKeygen keygen = new RSAKeygen(context);
-
-    IvParameterSpec ivParameterSpec = new IvParameterSpec(IV.getBytes());
-    cipher.init(Cipher.ENCRYPT_MODE, keygen.getSecretKey(), ivParameterSpec);
+  private static Key getMasterKey(Context context) throws GeneralSecurityException, IOException {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+      return getSecretKey();
+    } else {
+      return new RSAKeygen(context).getSecretKey();
+    }
+  }
 
-    byte[] buffer = new byte[GenericCopyUtil.DEFAULT_BUFFER_SIZE];
-    int count;
+  /**
+   * Opens the local encrypted file {@param file} for reading its content from anywhere, as when
+   * streaming it to a media player
+   *
+   * @return null for files written as a single stream, which can only be decrypted from the start
+   */
+  public static @Nullable RandomAccessStream openChunked(Context context, File file)
+      throws GeneralSecurityException, IOException {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) return null;
 
-    CipherOutputStream cipherOutputStream = new CipherOutputStream(outputStream, cipher);
+    FileChannel channel = new RandomAccessFile(file, "r").getChannel();
     try {
-
-      while ((count = inputStream.read(buffer)) != -1) {
-        if (!progressHandler.getCancelled()) {
-          cipherOutputStream.write(buffer, 0, count);
-          ServiceWatcherUtil.position += count;
-        } else break;
+      // positioned reads of open() ignore wherever this leaves the channel
+      if (!ChunkedCrypt.isChunked(new BufferedInputStream(Channels.newInputStream(channel)))) {
+        channel.close();
+        return null;
       }
-    } finally {
-
-      cipherOutputStream.flush();
-      cipherOutputStream.close();
-      inputStream.close();
+      return ChunkedCrypt.open(channel, getMasterKey(context));
+    } catch (GeneralSecurityException | IOException | RuntimeException e) {
+      channel.close();
+      throw e;
     }
   }
 
@@ -474,7 +530,7 @@ public class CryptUtil {
       while ((count = cipherInputStream.read(buffer)) != -1) {
         if (!progressHandler.getCancelled()) {
           outputStream.write(buffer, 0, count);
-          ServiceWatcherUtil.position += count;
+          updatePosition.updatePosition(count);
         } else break;
       }
     } finally {
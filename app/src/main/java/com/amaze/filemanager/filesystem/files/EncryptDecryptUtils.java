@@ -20,6 +20,7 @@
 
 package com.amaze.filemanager.filesystem.files;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 
@@ -30,21 +31,31 @@ import com.amaze.filemanager.asynchronous.services.EncryptService;
 import com.amaze.filemanager.database.CryptHandler;
 import com.amaze.filemanager.database.models.explorer.EncryptedEntry;
 import com.amaze.filemanager.file_operations.filesystem.OpenMode;
+import com.amaze.filemanager.file_operations.filesystem.cloud.CloudStreamer;
+import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.ui.activities.MainActivity;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
 import com.amaze.filemanager.ui.fragments.MainFragment;
+import com.amaze.filemanager.ui.fragments.data.MainFragmentViewModel;
 import com.amaze.filemanager.ui.fragments.preference_fragments.PreferencesConstants;
+import com.amaze.filemanager.ui.icons.MimeTypes;
 import com.amaze.filemanager.ui.provider.UtilitiesProvider;
 
 import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.net.Uri;
 import android.os.Build;
+import android.util.Log;
 import android.widget.Toast;
 
 import androidx.preference.PreferenceManager;
 
+import io.reactivex.Single;
+import io.reactivex.android.schedulers.AndroidSchedulers;
+import io.reactivex.schedulers.Schedulers;
+
 /**
  * Provides useful interfaces and methods for encryption/decryption
  *
@@ -52,6 +63,8 @@ import androidx.preference.PreferenceManager;
  */
 public class EncryptDecryptUtils {
 
+  private static final String TAG = EncryptDecryptUtils.class.getSimpleName();
+
   public static final String DECRYPT_BROADCAST = "decrypt_broadcast";
   /**
    * Queries database to map path and password. Starts the encryption process after database query
@@ -115,7 +128,11 @@ public class EncryptDecryptUtils {
         new DecryptButtonCallbackInterface() {
           @Override
           public void confirm(Intent intent) {
-            ServiceWatcherUtil.runService(main.getContext(), intent);
+            if (broadcastResult && canStream(c, sourceFile)) {
+              streamOrDecrypt(mainActivity, main, sourceFile, intent);
+            } else {
+              ServiceWatcherUtil.runService(main.getContext(), intent);
+            }
           }
 
           @Override
@@ -194,6 +211,88 @@ public class EncryptDecryptUtils {
     }
   }
 
+  private static boolean canStream(Context c, HybridFileParcelable sourceFile) {
+    return sourceFile.getMode() == OpenMode.FILE
+        && CloudStreamer.isStreamMedia(
+            sourceFile.getName(c).replace(CryptUtil.CRYPT_EXTENSION, ""));
+  }
+
+  /**
+   * Streams the encrypted media file {@param sourceFile} to the app playing it, decrypting only
+   * the chunks it reads, so that it starts and seeks without the whole file being decrypted first.
+   * Files of the older single stream format are decrypted by {@param decryptIntent} instead.
+   */
+  private static void streamOrDecrypt(
+      final MainActivity mainActivity,
+      final MainFragment main,
+      final HybridFileParcelable sourceFile,
+      final Intent decryptIntent) {
+    final Context context = mainActivity.getApplicationContext();
+    final File file = new File(sourceFile.getPath());
+    final String name = sourceFile.getName(context).replace(CryptUtil.CRYPT_EXTENSION, "");
+
+    Single.fromCallable(
+            () -> {
+              try {
+                RandomAccessStream stream = CryptUtil.openChunked(context, file);
+                if (stream == null) return -1L;
+                long length = stream.length();
+                stream.close();
+                return length;
+              } catch (GeneralSecurityException | IOException e) {
+                Log.w(TAG, "Can't stream " + file.getPath() + ", decrypting it", e);
+                return -1L;
+              }
+            })
+        .subscribeOn(Schedulers.io())
+        .observeOn(AndroidSchedulers.mainThread())
+        .subscribe(
+            length -> {
+              MainFragmentViewModel viewModel = main.getMainFragmentViewModel();
+              if (mainActivity.isFinishing()
+                  || (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                      && mainActivity.isDestroyed())
+                  || !main.isAdded()
+                  || viewModel == null) {
+                return;
+              }
+              if (length < 0) {
+                ServiceWatcherUtil.runService(context, decryptIntent);
+                return;
+              }
+              // nothing gets decrypted to the cache to be opened
+              viewModel.setEncryptOpen(false);
+
+              String url =
+                  CloudStreamer.getInstance()
+                      .setStreamSrc(
+                          () -> {
+                            try {
+                              return CryptUtil.openChunked(context, file);
+                            } catch (GeneralSecurityException e) {
+                              throw new IOException(e);
+                            }
+                          },
+                          name,
+                          length);
+              Intent i = new Intent(Intent.ACTION_VIEW);
+              i.setDataAndType(Uri.parse(url), MimeTypes.getMimeType(name, false));
+              if (i.resolveActivity(mainActivity.getPackageManager()) != null) {
+                // served until back from the app playing it
+                viewModel.setEncryptStreamUrl(url);
+                mainActivity.startActivity(i);
+              } else {
+                CloudStreamer.getInstance().removeStreamSrc(url);
+                Toast.makeText(
+                        mainActivity,
+                        mainActivity.getString(R.string.smb_launch_error),
+                        Toast.LENGTH_SHORT)
+                    .show();
+              }
+            },
+            e -> Log.e(TAG, "Error opening " + file.getPath(), e));
+  }
+
   /**
    * Queries database to find entry for the specific path
    *
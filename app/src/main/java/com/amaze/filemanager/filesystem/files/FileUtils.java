@@ -40,6 +40,7 @@ import com.amaze.filemanager.filesystem.HybridFile;
 import com.amaze.filemanager.filesystem.HybridFileParcelable;
 import com.amaze.filemanager.filesystem.Operations;
 import com.amaze.filemanager.filesystem.RootHelper;
+import com.amaze.filemanager.filesystem.SafRootHolder;
 import com.amaze.filemanager.filesystem.cloud.CloudUtil;
 import com.amaze.filemanager.filesystem.compressed.CompressedHelper;
 import com.amaze.filemanager.ui.activities.DatabaseViewerActivity;
@@ -183,8 +184,29 @@ public class FileUtils {
   /** Helper method to get size of an otg folder */
   public static long otgFolderSize(String path, final Context context) {
     final AtomicLong totalBytes = new AtomicLong(0);
+    // sizes come with the listing, asking the files for them would query each one again
     OTGUtil.getDocumentFiles(
-        path, context, file -> totalBytes.addAndGet(getBaseFileSize(file, context)));
+        path,
+        context,
+        file ->
+            totalBytes.addAndGet(
+                file.isDirectory() ? otgFolderSize(file.getPath(), context) : file.getSize()));
+    return totalBytes.longValue();
+  }
+
+  /** Helper method to get size of a folder in the tree picked through the SAF */
+  public static long documentFileFolderSize(String path, final Context context) {
+    final AtomicLong totalBytes = new AtomicLong(0);
+    OTGUtil.getDocumentFiles(
+        SafRootHolder.getUriRoot(),
+        path,
+        context,
+        OpenMode.DOCUMENT_FILE,
+        file ->
+            totalBytes.addAndGet(
+                file.isDirectory()
+                    ? documentFileFolderSize(file.getPath(), context)
+                    : file.getSize()));
     return totalBytes.longValue();
   }
 
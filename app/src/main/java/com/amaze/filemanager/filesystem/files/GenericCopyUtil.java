@@ -22,21 +22,27 @@ package com.amaze.filemanager.filesystem.files;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.WritableByteChannel;
 import java.util.Objects;
 
+import com.amaze.filemanager.asynchronous.management.ProgressCounter;
 import com.amaze.filemanager.file_operations.filesystem.OpenMode;
+import com.amaze.filemanager.file_operations.utils.OnCheckpoint;
 import com.amaze.filemanager.file_operations.utils.OnLowMemory;
 import com.amaze.filemanager.file_operations.utils.UpdatePosition;
 import com.amaze.filemanager.filesystem.ExternalSdCardOperation;
@@ -57,6 +63,7 @@ import android.os.Build;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import androidx.documentfile.provider.DocumentFile;
 
@@ -68,6 +75,8 @@ public class GenericCopyUtil {
   private Context mContext; // context needed to find the DocumentFile in otg/sd card
   private DataUtils dataUtils = DataUtils.getInstance();
   private ProgressHandler progressHandler;
+  private long mStartOffset;
+  private OnCheckpoint mOnCheckpoint;
   public static final String PATH_FILE_DESCRIPTOR = "/proc/self/fd/";
 
   public static final int DEFAULT_BUFFER_SIZE = 8192;
@@ -80,6 +89,32 @@ public class GenericCopyUtil {
   */
   private static final int DEFAULT_TRANSFER_QUANTUM = 65536;
 
+  /*
+     Defines the number of bytes handed to a single FileChannel#transferTo call when both ends
+     are local files. Large enough to let the kernel copy without user space round trips, small
+     enough to still check for cancellation and publish progress regularly.
+  */
+  private static final long DEFAULT_TRANSFER_SLICE = 8 * 1024 * 1024;
+
+  /*
+     Defines the size of the window mapped at once when copying local files while low on memory.
+     Mapped pages live outside of the heap and each window is unmapped before the next is mapped,
+     so the address space used stays bounded whatever the size of the file is.
+  */
+  private static final long DEFAULT_MAPPED_WINDOW = 4 * 1024 * 1024;
+
+  /*
+     Defines the heap headroom below which we consider ourselves low on memory before starting a
+     copy, and switch to the memory mapped copy for local files.
+  */
+  private static final long LOW_MEMORY_THRESHOLD = 16 * 1024 * 1024;
+
+  /*
+     Defines the number of bytes copied between two checkpoints, when what was written so far is
+     flushed to the target and reported as confirmed.
+  */
+  public static final long CHECKPOINT_INTERVAL = 8 * 1024 * 1024;
+
   public GenericCopyUtil(Context context, ProgressHandler progressHandler) {
     this.mContext = context;
     this.progressHandler = progressHandler;
@@ -89,10 +124,16 @@ public class GenericCopyUtil {
    * Starts copy of file Supports : {@link File}, {@link jcifs.smb.SmbFile}, {@link DocumentFile},
    * {@link CloudStorage}
    *
-   * @param lowOnMemory defines whether system is running low on memory, in which case we'll switch
-   *     to using streams instead of channel which maps the who buffer in memory. TODO: Use buffers
-   *     even on low memory but don't map the whole file to memory but parts of it, and transfer
-   *     each part instead.
+   * @param lowOnMemory defines whether system is running low on memory, in which case local file
+   *     to local file copies map and transfer one window of the file at a time (see {@link
+   *     #doMappedCopy(FileChannel, FileChannel, UpdatePosition)}) instead of relying on transfer
+   *     buffers.
+   *     <p>Copy starts {@link #mStartOffset} bytes into the source when the target can be written
+   *     at that offset (see {@link #canResume(Context, HybridFile, long)}), and from the beginning
+   *     otherwise. The skipped bytes are reported to {@param updatePosition} before copying
+   *     anything.
+   *     <p>Every {@link #CHECKPOINT_INTERVAL} bytes, the number of bytes the target holds for sure
+   *     is reported to {@link #mOnCheckpoint}, streams being flushed first.
    */
   private void startCopy(
       boolean lowOnMemory, @NonNull OnLowMemory onLowMemory, @NonNull UpdatePosition updatePosition)
@@ -102,6 +143,15 @@ public class GenericCopyUtil {
     WritableByteChannel outChannel = null;
     BufferedInputStream bufferedInputStream = null;
     BufferedOutputStream bufferedOutputStream = null;
+    final long offset = canResume(mContext, mTargetFile, mStartOffset) ? mStartOffset : 0;
+    // what this attempt reported, taken back if it has to start over
+    final ProgressCounter reported = new ProgressCounter();
+    final UpdatePosition attempt =
+        toAdd -> {
+          updatePosition.updatePosition(toAdd);
+          reported.updatePosition(toAdd);
+        };
+    boolean retry = false;
 
     try {
       // initializing the input channels based on file types
@@ -143,8 +193,7 @@ public class GenericCopyUtil {
           if (mTargetFile.isOneDriveFile()
               || mTargetFile.isDropBoxFile()
               || mTargetFile.isGoogleDriveFile()
-              || mTargetFile.isBoxFile()
-              || lowOnMemory) {
+              || mTargetFile.isBoxFile()) {
             // our target is cloud, we need a stream not channel
             bufferedInputStream = new BufferedInputStream(new FileInputStream(file));
           } else {
@@ -189,7 +238,7 @@ public class GenericCopyUtil {
       } else if (mTargetFile.isSftp() || mTargetFile.isSmb()) {
         bufferedOutputStream =
             new BufferedOutputStream(
-                mTargetFile.getOutputStream(mContext), DEFAULT_TRANSFER_QUANTUM);
+                mTargetFile.getOutputStream(mContext, offset), DEFAULT_TRANSFER_QUANTUM);
       } else if (mTargetFile.isDropBoxFile()
           || mTargetFile.isBoxFile()
           || mTargetFile.isGoogleDriveFile()
@@ -200,13 +249,11 @@ public class GenericCopyUtil {
         // copying normal file, target not in OTG
         File file = new File(mTargetFile.getPath());
         if (FileProperties.isWritable(file)) {
-
-          if (lowOnMemory) {
-            bufferedOutputStream = new BufferedOutputStream(new FileOutputStream(file));
-          } else {
-
-            outChannel = new RandomAccessFile(file, "rw").getChannel();
-          }
+          FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel();
+          // drop whatever was there past the part we're keeping
+          fileChannel.truncate(offset);
+          fileChannel.position(offset);
+          outChannel = fileChannel;
         } else {
           if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
             ContentResolver contentResolver = mContext.getContentResolver();
@@ -227,27 +274,54 @@ public class GenericCopyUtil {
       }
 
       if (bufferedInputStream != null) {
+        skipFully(bufferedInputStream, offset);
         inChannel = Channels.newChannel(bufferedInputStream);
+      } else if (inChannel instanceof FileChannel) {
+        ((FileChannel) inChannel).position(offset);
       }
 
       if (bufferedOutputStream != null) {
-        outChannel = Channels.newChannel(bufferedOutputStream);
+        outChannel =
+            Channels.newChannel(
+                new CheckpointingOutputStream(bufferedOutputStream, mOnCheckpoint, offset));
       }
 
       Objects.requireNonNull(inChannel);
       Objects.requireNonNull(outChannel);
 
-      doCopy(inChannel, outChannel, updatePosition);
+      if (offset > 0) {
+        attempt.updatePosition(offset);
+      }
+      final UpdatePosition progress =
+          outChannel instanceof FileChannel
+              ? new CheckpointingPosition(attempt, mOnCheckpoint, offset)
+              : attempt;
+
+      if (inChannel instanceof FileChannel && outChannel instanceof FileChannel && lowOnMemory) {
+        // both ends are plain files, but there's little heap to spare, copy through mapped windows
+        doMappedCopy((FileChannel) inChannel, (FileChannel) outChannel, progress);
+      } else if (inChannel instanceof FileChannel && outChannel instanceof FileChannel) {
+        // both ends are plain files, let the kernel move the bytes
+        doChannelCopy((FileChannel) inChannel, (FileChannel) outChannel, progress);
+      } else {
+        doCopy(inChannel, outChannel, progress);
+      }
     } catch (IOException e) {
       e.printStackTrace();
       Log.d(getClass().getSimpleName(), "I/O Error!");
       throw new IOException();
     } catch (OutOfMemoryError e) {
+      // only local file to local file copies have a lighter way to go, through mapped windows
+      if (lowOnMemory
+          || !(inChannel instanceof FileChannel && outChannel instanceof FileChannel)) {
+        // fail this file like any other, rather than the whole operation
+        throw new IOException("Out of memory copying " + mSourceFile.getPath(), e);
+      }
       e.printStackTrace();
 
       onLowMemory.onLowMemory();
 
-      startCopy(true, onLowMemory, updatePosition);
+      retry = true;
     } finally {
 
       try {
@@ -266,6 +340,12 @@ public class GenericCopyUtil {
         FileUtils.scanFile(mContext, new HybridFile[] {mTargetFile});
       }
     }
+
+    if (retry) {
+      // the retry starts over from the offset, and reports it again
+      updatePosition.updatePosition(-reported.get());
+      startCopy(true, onLowMemory, updatePosition);
+    }
   }
 
   private void cloudCopy(
@@ -302,10 +382,75 @@ public class GenericCopyUtil {
       @NonNull OnLowMemory onLowMemory,
       @NonNull UpdatePosition updatePosition)
       throws IOException {
+    copy(sourceFile, targetFile, 0, onLowMemory, updatePosition, confirmedBytes -> {});
+  }
+
+  /**
+   * Method exposes this class to resume an interrupted copy
+   *
+   * @param sourceFile the source file, which is to be copied
+   * @param targetFile the target file, whose first {@param offset} bytes are already copied
+   * @param offset number of bytes to keep in the target, ignored (the copy starts over) if the
+   *     target doesn't support writing at an offset
+   * @param onCheckpoint told regularly how many bytes of the target are written for sure, which is
+   *     less than what {@param updatePosition} counted as long as writes are in flight
+   */
+  public void copy(
+      HybridFileParcelable sourceFile,
+      HybridFile targetFile,
+      long offset,
+      @NonNull OnLowMemory onLowMemory,
+      @NonNull UpdatePosition updatePosition,
+      @NonNull OnCheckpoint onCheckpoint)
+      throws IOException {
     this.mSourceFile = sourceFile;
     this.mTargetFile = targetFile;
+    this.mStartOffset = offset;
+    this.mOnCheckpoint = onCheckpoint;
 
-    startCopy(false, onLowMemory, updatePosition);
+    startCopy(isLowOnMemory(), onLowMemory, updatePosition);
+  }
+
+  /**
+   * @return whether a copy to {@param targetFile} can keep its first {@param offset} bytes and
+   *     continue writing after them; true for directly writable local files, and for SFTP and SMB
+   *     files at least that long, which are cut to that length first
+   */
+  public static boolean canResume(
+      @NonNull Context context, @NonNull HybridFile targetFile, long offset) {
+    if (targetFile.isSftp() || targetFile.isSmb()) {
+      // a remote target shorter than that lost bytes said to be copied, keep none of it
+      return targetFile.length(context) >= offset;
+    }
+    return targetFile.isLocal() && FileProperties.isWritable(new File(targetFile.getPath()));
+  }
+
+  /**
+   * Skips exactly {@param count} bytes, falling back to reading when the stream won't skip (as
+   * content provider streams may).
+   */
+  private static void skipFully(@NonNull InputStream inputStream, long count) throws IOException {
+    while (count > 0) {
+      long skipped = inputStream.skip(count);
+      if (skipped <= 0) {
+        if (inputStream.read() == -1) {
+          throw new EOFException("Source is shorter than the part already copied");
+        }
+        skipped = 1;
+      }
+      count -= skipped;
+    }
+  }
+
+  /**
+   * @return whether the heap is close enough to its limit that we'd rather not allocate transfer
+   *     buffers for this copy
+   */
+  @VisibleForTesting
+  static boolean isLowOnMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = runtime.totalMemory() - runtime.freeMemory();
+    return runtime.maxMemory() - used < LOW_MEMORY_THRESHOLD;
   }
 
   /**
@@ -326,7 +471,7 @@ public class GenericCopyUtil {
   }
 
   /**
-   * Calls {@link #doCopy(ReadableByteChannel, WritableByteChannel, UpdatePosition)}.
+   * Calls {@link #doChannelCopy(FileChannel, FileChannel, UpdatePosition)}.
    *
    * @param inChannel source
    * @param outChannel target
@@ -338,11 +483,7 @@ public class GenericCopyUtil {
       @NonNull FileChannel outChannel,
       @NonNull UpdatePosition updatePosition)
       throws IOException {
-    // MappedByteBuffer inByteBuffer = inChannel.map(FileChannel.MapMode.READ_ONLY, 0,
-    // inChannel.size());
-    // MappedByteBuffer outByteBuffer = outChannel.map(FileChannel.MapMode.READ_WRITE, 0,
-    // inChannel.size());
-    doCopy(inChannel, outChannel, updatePosition);
+    doChannelCopy(inChannel, outChannel, updatePosition);
   }
 
   /**
@@ -404,4 +545,183 @@ public class GenericCopyUtil {
     from.close();
     to.close();
   }
+
+  /**
+   * Copies between two {@link FileChannel}s using {@link FileChannel#transferTo(long, long,
+   * WritableByteChannel)}, so the bytes don't have to pass through a user space buffer.
+   *
+   * <p>Transfer is done in slices of {@link #DEFAULT_TRANSFER_SLICE} bytes, checking for
+   * cancellation and publishing progress after each of them. If the kernel refuses to transfer
+   * anymore before the end of the source, the remainder is copied with {@link
+   * #doCopy(ReadableByteChannel, WritableByteChannel, UpdatePosition)}.
+   */
+  @VisibleForTesting
+  void doChannelCopy(
+      @NonNull FileChannel from, @NonNull FileChannel to, @NonNull UpdatePosition updatePosition)
+      throws IOException {
+    final long size = from.size();
+    long position = from.position();
+    while (position < size && !progressHandler.getCancelled()) {
+      long count = from.transferTo(position, Math.min(DEFAULT_TRANSFER_SLICE, size - position), to);
+      if (count <= 0) {
+        from.position(position);
+        doCopy(from, to, updatePosition);
+        return;
+      }
+      position += count;
+      updatePosition.updatePosition(count);
+    }
+
+    from.close();
+    to.close();
+  }
+
+  /**
+   * Copies between two {@link FileChannel}s by mapping the source {@link #DEFAULT_MAPPED_WINDOW}
+   * bytes at a time and writing each window to the target. Windows are unmapped as soon as they're
+   * written, so neither the heap nor the address space grow with the size of the file.
+   *
+   * <p>Cancellation is checked and progress is published after each window.
+   */
+  @VisibleForTesting
+  void doMappedCopy(
+      @NonNull FileChannel from, @NonNull FileChannel to, @NonNull UpdatePosition updatePosition)
+      throws IOException {
+    final long size = from.size();
+    long position = from.position();
+    while (position < size && !progressHandler.getCancelled()) {
+      long windowSize = Math.min(DEFAULT_MAPPED_WINDOW, size - position);
+      MappedByteBuffer window = from.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+      try {
+        while (window.hasRemaining()) {
+          to.write(window);
+        }
+      } finally {
+        unmap(window);
+      }
+      position += windowSize;
+      updatePosition.updatePosition(windowSize);
+    }
+
+    from.close();
+    to.close();
+  }
+
+  /**
+   * Passes progress on, and reports a checkpoint every {@link #CHECKPOINT_INTERVAL} bytes. Bytes
+   * written to a {@link FileChannel} are in the kernel's hands as soon as the write returns.
+   */
+  private static class CheckpointingPosition implements UpdatePosition {
+    private final UpdatePosition progress;
+    private final OnCheckpoint onCheckpoint;
+    private long written;
+    private long confirmed;
+
+    CheckpointingPosition(
+        @NonNull UpdatePosition progress, @NonNull OnCheckpoint onCheckpoint, long offset) {
+      this.progress = progress;
+      this.onCheckpoint = onCheckpoint;
+      written = offset;
+      confirmed = offset;
+    }
+
+    @Override
+    public void updatePosition(long toAdd) {
+      progress.updatePosition(toAdd);
+      written += toAdd;
+      if (written - confirmed >= CHECKPOINT_INTERVAL) {
+        confirmed = written;
+        onCheckpoint.onCheckpoint(confirmed);
+      }
+    }
+  }
+
+  /**
+   * Counts bytes on their way to a stream target, and every {@link #CHECKPOINT_INTERVAL} bytes
+   * flushes it before reporting a checkpoint. Streams may keep bytes in buffers, or in flight for
+   * the pipelined SFTP and SMB ones, until flushed.
+   */
+  private static class CheckpointingOutputStream extends FilterOutputStream {
+    private final OnCheckpoint onCheckpoint;
+    private long written;
+    private long confirmed;
+
+    CheckpointingOutputStream(
+        @NonNull OutputStream out, @NonNull OnCheckpoint onCheckpoint, long offset) {
+      super(out);
+      this.onCheckpoint = onCheckpoint;
+      written = offset;
+      confirmed = offset;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      onWritten(1);
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      onWritten(len);
+    }
+
+    private void onWritten(long count) throws IOException {
+      written += count;
+      if (written - confirmed >= CHECKPOINT_INTERVAL) {
+        out.flush();
+        confirmed = written;
+        onCheckpoint.onCheckpoint(confirmed);
+      }
+    }
+  }
+
+  /**
+   * Releases a mapped window right away instead of waiting for the GC to find it. There's no public
+   * API for this, so it goes through the platform's hidden one (see {@link Unmapper}). If there is
+   * none, or it fails once, windows are left to the GC.
+   */
+  private static void unmap(@NonNull MappedByteBuffer buffer) {
+    Method method = Unmapper.method;
+    if (method == null) return;
+    try {
+      method.invoke(Unmapper.target, buffer);
+    } catch (Exception e) {
+      Log.w(
+          GenericCopyUtil.class.getSimpleName(),
+          "Couldn't unmap window, leaving the next ones to GC",
+          e);
+      Unmapper.method = null;
+    }
+  }
+
+  /**
+   * The hidden API unmapping windows, looked up once: NioUtils on Android, Unsafe on desktop JVMs,
+   * which our tests run on.
+   */
+  private static class Unmapper {
+    @Nullable static volatile Method method;
+    @Nullable static Object target;
+
+    static {
+      try {
+        method = Class.forName("java.nio.NioUtils").getMethod("freeDirectBuffer", ByteBuffer.class);
+      } catch (Exception ignored) {
+        // not on Android
+      }
+
+      if (method == null) {
+        try {
+          Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+          Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+          theUnsafe.setAccessible(true);
+          target = theUnsafe.get(null);
+          method = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+          Log.w(
+              GenericCopyUtil.class.getSimpleName(), "Can't unmap windows, leaving them to GC", e);
+        }
+      }
+    }
+  }
 }
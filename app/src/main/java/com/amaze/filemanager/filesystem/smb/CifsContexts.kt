@@ -36,6 +36,12 @@ object CifsContexts {
 
     const val SMB_URI_PREFIX = "smb://"
 
+    /** Bytes asked for by each request of a [PipelinedSmbFile], not a jcifs property */
+    const val PROPERTY_PIPELINE_REQUEST_SIZE = "amaze.smb.pipeline.requestSize"
+
+    /** Requests a [PipelinedSmbFile] keeps in flight at most, not a jcifs property */
+    const val PROPERTY_PIPELINE_MAX_REQUESTS = "amaze.smb.pipeline.maxRequests"
+
     private val TAG = CifsContexts::class.java.simpleName
 
     private val defaultProperties: Properties = Properties().apply {
@@ -43,6 +49,18 @@ object CifsContexts {
         setProperty("jcifs.smb.client.responseTimeout", "30000")
         setProperty("jcifs.netbios.retryTimeout", "5000")
         setProperty("jcifs.netbios.cachePolicy", "-1")
+        // attributes of listed entries are used by SmbLister, and reused for a while after instead
+        // of sending a QUERY_INFO for each, 5 seconds by default
+        setProperty("jcifs.smb.client.attrExpirationPeriod", "30000")
+        // entries listed per round trip with SMB1, 200 by default
+        setProperty("jcifs.smb.client.listCount", "512")
+        // several SMB reads or writes of jcifs per request, in a 2 MiB window
+        setProperty(PROPERTY_PIPELINE_REQUEST_SIZE, (256 * 1024).toString())
+        setProperty(PROPERTY_PIPELINE_MAX_REQUESTS, "8")
+        // message buffers kept for reuse, 16 by default. Each request in flight of a
+        // PipelinedSmbFile takes one, a copy keeps up to 8 in flight for its source and as many
+        // for its target, and several copies may run at once
+        setProperty("jcifs.smb.maxBuffers", "64")
     }
 
     private val contexts: MutableMap<String, BaseContext> = ConcurrentHashMap()
@@ -59,6 +77,10 @@ object CifsContexts {
         contexts.clear()
     }
 
+    /** @return value of the integer property [name] the contexts created here are given */
+    @JvmStatic
+    fun getIntProperty(name: String): Int = defaultProperties.getProperty(name).toInt()
+
     @JvmStatic
     fun createWithDisableIpcSigningCheck(
         basePath: String,
@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.smb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import jcifs.smb.SmbFile;
+import jcifs.smb.SmbRandomAccessFile;
+
+/**
+ * Remote file opened for transfers keeping several read or write requests in flight, as {@link
+ * com.amaze.filemanager.filesystem.ssh.PipelinedSftpFile} does for SFTP, instead of waiting for
+ * each request's response before sending the next one as jcifs' streams do.
+ *
+ * <p>jcifs-ng charges a single credit per request, so a request can't carry more than 64 KiB even
+ * when the server negotiates large MTU. Requests are made concurrently instead: each request in
+ * flight has its own thread and its own handle on the file, and jcifs multiplexes them over the
+ * connection of the session.
+ *
+ * <p>Reads start with a single request in flight, and add one for each response received up to the
+ * maximum, so that reading the first few bytes of a file doesn't fetch a whole window of it.
+ */
+public class PipelinedSmbFile implements Closeable {
+
+  private static final String TAG = PipelinedSmbFile.class.getSimpleName();
+
+  /** Handle on the remote file, reading and writing at a given position. */
+  @VisibleForTesting
+  interface Handle extends Closeable {
+    /** @return number of bytes read, -1 at the end of the file */
+    int read(long position, @NonNull byte[] b, int off, int len) throws IOException;
+
+    void write(long position, @NonNull byte[] b, int off, int len) throws IOException;
+
+    void setLength(long length) throws IOException;
+  }
+
+  /** Opens a new {@link Handle} on the same file. */
+  @VisibleForTesting
+  interface Opener {
+    @NonNull
+    Handle open() throws IOException;
+  }
+
+  private final Opener opener;
+  private final int requestSize;
+  private final int maxRequests;
+  private final ExecutorService executor;
+  private final Queue<Handle> idleHandles = new ArrayDeque<>();
+  private boolean closed = false;
+
+  @VisibleForTesting
+  PipelinedSmbFile(@NonNull Opener opener, int requestSize, int maxRequests) throws IOException {
+    this.opener = opener;
+    this.requestSize = requestSize;
+    this.maxRequests = maxRequests;
+    // fail here rather than in the first request if the file can't be opened
+    idleHandles.add(opener.open());
+    executor = Executors.newFixedThreadPool(maxRequests, PipelinedSmbFile::newThread);
+  }
+
+  /**
+   * Opens {@param file} with the request size and number of requests in flight set in {@link
+   * CifsContexts}.
+   *
+   * @param write whether to open the file for writing too, creating it if it doesn't exist
+   */
+  public static PipelinedSmbFile open(@NonNull SmbFile file, boolean write) throws IOException {
+    return open(
+        file,
+        write,
+        CifsContexts.getIntProperty(CifsContexts.PROPERTY_PIPELINE_REQUEST_SIZE),
+        CifsContexts.getIntProperty(CifsContexts.PROPERTY_PIPELINE_MAX_REQUESTS));
+  }
+
+  /**
+   * Opens {@param file}.
+   *
+   * @param write whether to open the file for writing too, creating it if it doesn't exist
+   * @param requestSize number of bytes read or written by each request
+   * @param maxRequests number of requests kept in flight at most
+   */
+  public static PipelinedSmbFile open(
+      @NonNull SmbFile file, boolean write, int requestSize, int maxRequests) throws IOException {
+    final String mode = write ? "rw" : "r";
+    return new PipelinedSmbFile(() -> SmbHandle.open(file, mode), requestSize, maxRequests);
+  }
+
+  /** Truncates or extends the file to {@param length} bytes. */
+  public void setLength(long length) throws IOException {
+    Handle handle = acquire();
+    try {
+      handle.setLength(length);
+    } finally {
+      release(handle);
+    }
+  }
+
+  /** Closes the handles not in use, the others are closed as soon as their request completes. */
+  @Override
+  public void close() throws IOException {
+    List<Handle> handles;
+    synchronized (idleHandles) {
+      if (closed) return;
+      closed = true;
+      handles = new ArrayList<>(idleHandles);
+      idleHandles.clear();
+    }
+    executor.shutdown();
+    IOException failure = null;
+    for (Handle handle : handles) {
+      try {
+        handle.close();
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  private Handle acquire() throws IOException {
+    synchronized (idleHandles) {
+      if (closed) throw new IOException("File closed");
+      Handle handle = idleHandles.poll();
+      if (handle != null) return handle;
+    }
+    // there's at most one handle per request in flight, as there's one thread per request
+    return opener.open();
+  }
+
+  private void release(@NonNull Handle handle) throws IOException {
+    synchronized (idleHandles) {
+      if (!closed) {
+        idleHandles.add(handle);
+        return;
+      }
+    }
+    handle.close();
+  }
+
+  /** @return the bytes of the file from {@param position}, fewer than asked at its end */
+  private byte[] read(long position, int length) throws IOException {
+    Handle handle = acquire();
+    try {
+      byte[] data = new byte[length];
+      int count = 0;
+      while (count < length) {
+        int read = handle.read(position + count, data, count, length - count);
+        if (read <= 0) break;
+        count += read;
+      }
+      return count == length ? data : Arrays.copyOf(data, count);
+    } finally {
+      release(handle);
+    }
+  }
+
+  private void write(long position, byte[] data, int length) throws IOException {
+    Handle handle = acquire();
+    try {
+      handle.write(position, data, 0, length);
+    } finally {
+      release(handle);
+    }
+  }
+
+  private static <T> T retrieve(@NonNull Future<T> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for SMB request");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static Thread newThread(@NonNull Runnable runnable) {
+    Thread thread = new Thread(runnable, "PipelinedSmbFile");
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Stream reading the file from a given offset, closing it closes the file. */
+  public class PipelinedInputStream extends InputStream {
+    private final Queue<Future<byte[]>> pending = new ArrayDeque<>();
+    // offset of the next byte handed to the caller, and of the next byte to request
+    private long position;
+    private long requestOffset;
+    private int window = 1;
+    private boolean eof = false;
+
+    // data of the last response not yet handed to the caller
+    private byte[] chunk = new byte[0];
+    private int chunkPosition;
+
+    public PipelinedInputStream(long offset) {
+      position = offset;
+      requestOffset = offset;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (chunkPosition == chunk.length && !nextChunk()) return -1;
+
+      int count = Math.min(len, chunk.length - chunkPosition);
+      System.arraycopy(chunk, chunkPosition, b, off, count);
+      chunkPosition += count;
+      position += count;
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) return 0;
+      int buffered = chunk.length - chunkPosition;
+      if (n <= buffered) {
+        chunkPosition += n;
+        position += n;
+        return n;
+      }
+      // past what we have, requests in flight are of no use anymore
+      chunkPosition = chunk.length;
+      position += n;
+      restartFrom(position);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return chunk.length - chunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+      restartFrom(position);
+      PipelinedSmbFile.this.close();
+    }
+
+    private void restartFrom(long offset) {
+      // requests already running complete, their response is discarded
+      for (Future<byte[]> request : pending) {
+        request.cancel(false);
+      }
+      pending.clear();
+      requestOffset = offset;
+      eof = false;
+    }
+
+    private void fill() {
+      while (!eof && pending.size() < window) {
+        final long offset = requestOffset;
+        pending.add(executor.submit(() -> PipelinedSmbFile.this.read(offset, requestSize)));
+        requestOffset += requestSize;
+      }
+    }
+
+    /** @return false at the end of the file */
+    private boolean nextChunk() throws IOException {
+      fill();
+      Future<byte[]> request = pending.poll();
+      if (request == null) return false;
+
+      chunk = retrieve(request);
+      chunkPosition = 0;
+      if (window < maxRequests) window++;
+      if (chunk.length < requestSize) {
+        // end of the file, the following requests are past it
+        restartFrom(position + chunk.length);
+        eof = true;
+      }
+      return chunk.length > 0;
+    }
+  }
+
+  private static class PendingWrite {
+    final long offset;
+    final int length;
+    final Future<byte[]> response;
+
+    PendingWrite(long offset, int length, Future<byte[]> response) {
+      this.offset = offset;
+      this.length = length;
+      this.response = response;
+    }
+  }
+
+  /**
+   * Stream writing the file from a given offset, closing it closes the file. Write errors may only
+   * be reported by a later write, or by {@link #flush()}.
+   *
+   * <p>Requests complete in any order, so when one fails those after it may already have written
+   * past it. The file is then cut at the offset of the failed request before the error is thrown,
+   * so that it never ends with data following a hole. Everything written before a successful
+   * {@link #flush()} is known to be in the file.
+   */
+  public class PipelinedOutputStream extends OutputStream {
+    private final Queue<PendingWrite> pending = new ArrayDeque<>();
+    private byte[] buffer = new byte[requestSize];
+    private int buffered = 0;
+    private long fileOffset;
+    // set once a request failed, requests not started yet don't write anymore
+    private volatile boolean failed = false;
+
+    public PipelinedOutputStream(long offset) {
+      fileOffset = offset;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      buffer[buffered++] = (byte) b;
+      if (buffered == buffer.length) sendBuffer();
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int count = Math.min(len, buffer.length - buffered);
+        System.arraycopy(b, off, buffer, buffered, count);
+        buffered += count;
+        off += count;
+        len -= count;
+        if (buffered == buffer.length) sendBuffer();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      sendBuffer();
+      while (!pending.isEmpty()) {
+        acknowledgeOldest();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        PipelinedSmbFile.this.close();
+      }
+    }
+
+    private void sendBuffer() throws IOException {
+      if (buffered == 0) return;
+      // the buffer of the oldest request is refilled once that request completes
+      byte[] next = pending.size() >= maxRequests ? acknowledgeOldest() : null;
+      final byte[] data = buffer;
+      final int length = buffered;
+      final long offset = fileOffset;
+      Future<byte[]> response =
+          executor.submit(
+              () -> {
+                if (!failed) PipelinedSmbFile.this.write(offset, data, length);
+                return data;
+              });
+      pending.add(new PendingWrite(offset, length, response));
+      fileOffset += length;
+      buffered = 0;
+      buffer = next != null ? next : new byte[requestSize];
+    }
+
+    /** @return the buffer of the oldest request, once it completed */
+    private byte[] acknowledgeOldest() throws IOException {
+      PendingWrite write = pending.remove();
+      try {
+        return retrieve(write.response);
+      } catch (IOException e) {
+        discardFrom(write.offset);
+        throw e;
+      }
+    }
+
+    /** Waits for the requests left, then cuts the file at {@param offset}. */
+    private void discardFrom(long offset) {
+      failed = true;
+      // requests already running must be done before the file can be cut
+      for (PendingWrite write : pending) {
+        try {
+          retrieve(write.response);
+        } catch (IOException ignored) {
+          // past the failed request anyway
+        }
+      }
+      pending.clear();
+      fileOffset = offset;
+      buffered = 0;
+      failed = false;
+      try {
+        setLength(offset);
+      } catch (IOException e) {
+        Log.w(TAG, "Couldn't cut the file after a failed write", e);
+      }
+    }
+  }
+
+  /** {@link Handle} on a {@link SmbRandomAccessFile}. */
+  private static class SmbHandle implements Handle {
+    private final SmbRandomAccessFile file;
+
+    private SmbHandle(@NonNull SmbRandomAccessFile file) {
+      this.file = file;
+    }
+
+    static SmbHandle open(@NonNull SmbFile file, @NonNull String mode) throws IOException {
+      SmbRandomAccessFile randomAccessFile = new SmbRandomAccessFile(file, mode);
+      // jcifs opens the file on first use otherwise
+      randomAccessFile.open();
+      return new SmbHandle(randomAccessFile);
+    }
+
+    @Override
+    public int read(long position, @NonNull byte[] b, int off, int len) throws IOException {
+      file.seek(position);
+      return file.read(b, off, len);
+    }
+
+    @Override
+    public void write(long position, @NonNull byte[] b, int off, int len) throws IOException {
+      file.seek(position);
+      file.write(b, off, len);
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+      file.setLength(length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+}
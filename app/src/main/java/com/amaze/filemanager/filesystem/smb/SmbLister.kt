@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.smb
+
+import jcifs.CIFSException
+import jcifs.RuntimeCIFSException
+import jcifs.SmbConstants
+import jcifs.SmbResource
+import jcifs.smb.SmbException
+import jcifs.smb.SmbFile
+
+/**
+ * Lists SMB directories with the attributes the server sent in the directory enumeration
+ * response, instead of asking for them entry by entry.
+ *
+ * jcifs keeps the attributes of a listing in each [SmbFile] for
+ * `jcifs.smb.client.attrExpirationPeriod` only, past which each of isHidden(), isDirectory(),
+ * lastModified() and length() sends its own QUERY_INFO. Entries are read off [SmbFile.children] as
+ * they are received, so their attributes are taken while still cached whatever the size of the
+ * directory, and servers, shares and workgroups, which have no such attributes, are never asked.
+ */
+object SmbLister {
+
+    /** An entry of a listed directory */
+    data class Entry(
+        val path: String,
+        /** Without the trailing slash of directories */
+        val name: String,
+        val isDirectory: Boolean,
+        val isHidden: Boolean,
+        val lastModified: Long,
+        /** 0 for directories */
+        val length: Long
+    )
+
+    /**
+     * Lists [directory], which should end with a slash.
+     *
+     * @throws SmbException as [SmbFile.listFiles] would, e.g. a
+     * [jcifs.smb.SmbAuthException] if access is denied
+     */
+    @JvmStatic
+    @Throws(SmbException::class)
+    fun list(directory: SmbFile): List<Entry> {
+        val entries = ArrayList<Entry>()
+        try {
+            val children = directory.children()
+            try {
+                while (children.hasNext()) {
+                    entries.add(toEntry(children.next()))
+                }
+            } finally {
+                children.close()
+            }
+        } catch (e: RuntimeCIFSException) {
+            throw toSmbException(e.cause ?: e)
+        } catch (e: CIFSException) {
+            throw toSmbException(e)
+        }
+        return entries
+    }
+
+    private fun toEntry(child: SmbResource): Entry {
+        try {
+            val file = child as SmbFile
+            val name = file.name.removeSuffix("/")
+            return if (file.type != SmbConstants.TYPE_FILESYSTEM) {
+                Entry(file.path, name, true, name.endsWith("$"), 0, 0)
+            } else {
+                val isDirectory = file.isDirectory
+                Entry(
+                    file.path,
+                    name,
+                    isDirectory,
+                    file.isHidden,
+                    file.lastModified(),
+                    if (isDirectory) 0 else file.length()
+                )
+            }
+        } finally {
+            // releases the child's reference to the share connection
+            child.close()
+        }
+    }
+
+    private fun toSmbException(e: Throwable): SmbException =
+        e as? SmbException ?: SmbException(e.message, e)
+}
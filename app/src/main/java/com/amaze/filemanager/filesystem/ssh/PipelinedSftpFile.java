@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import androidx.annotation.NonNull;
+
+import net.schmizz.concurrent.Promise;
+import net.schmizz.sshj.common.Buffer;
+import net.schmizz.sshj.sftp.FileAttributes;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.PacketType;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPEngine;
+import net.schmizz.sshj.sftp.SFTPException;
+
+/**
+ * Remote file opened for transfers keeping several read or write requests in flight, like OpenSSH's
+ * <code>sftp -R</code>, instead of waiting for each request's response before sending the next
+ * one. Throughput then is bounded by the window (request size times number of requests) divided by
+ * the round trip time, instead of a single request size divided by it.
+ *
+ * <p>Reads start with a single request in flight, and add one for each response received up to the
+ * maximum, so that reading the first few bytes of a file doesn't fetch a whole window of it.
+ *
+ * <p>Requests are built directly on the {@link SFTPEngine}, as {@link Statvfs} does, since sshj
+ * keeps the file handle and asynchronous requests of its own {@link
+ * net.schmizz.sshj.sftp.RemoteFile} to itself.
+ */
+public class PipelinedSftpFile implements Closeable {
+
+  /** Bytes asked for by each request, OpenSSH's default too */
+  public static final int DEFAULT_REQUEST_SIZE = 32 * 1024;
+
+  /** Requests in flight at most, a 1 MiB window with {@link #DEFAULT_REQUEST_SIZE} */
+  public static final int DEFAULT_MAX_REQUESTS = 32;
+
+  private static final String COPY_DATA_EXTENSION = "copy-data";
+
+  private final SFTPEngine engine;
+  private final byte[] handle;
+  private final int requestSize;
+  private final int maxRequests;
+  private boolean closed = false;
+
+  private PipelinedSftpFile(
+      @NonNull SFTPEngine engine, @NonNull byte[] handle, int requestSize, int maxRequests) {
+    this.engine = engine;
+    this.handle = handle;
+    this.requestSize = requestSize;
+    this.maxRequests = maxRequests;
+  }
+
+  /** Opens {@param path} with {@link #DEFAULT_REQUEST_SIZE} and {@link #DEFAULT_MAX_REQUESTS}. */
+  public static PipelinedSftpFile open(
+      @NonNull SFTPClient client, @NonNull String path, @NonNull Set<OpenMode> modes)
+      throws IOException {
+    return open(client, path, modes, DEFAULT_REQUEST_SIZE, DEFAULT_MAX_REQUESTS);
+  }
+
+  /**
+   * Opens {@param path}.
+   *
+   * @param requestSize number of bytes read or written by each request
+   * @param maxRequests number of requests kept in flight at most
+   */
+  public static PipelinedSftpFile open(
+      @NonNull SFTPClient client,
+      @NonNull String path,
+      @NonNull Set<OpenMode> modes,
+      int requestSize,
+      int maxRequests)
+      throws IOException {
+    SFTPEngine engine = client.getSFTPEngine();
+    byte[] handle;
+    try {
+      handle =
+          retrieve(
+                  engine,
+                  engine.request(
+                      engine
+                          .newRequest(PacketType.OPEN)
+                          .putString(path, engine.getSubsystem().getRemoteCharset())
+                          .putUInt32(OpenMode.toMask(modes))
+                          .putFileAttributes(FileAttributes.EMPTY)))
+              .ensurePacketTypeIs(PacketType.HANDLE)
+              .readBytes();
+    } catch (Buffer.BufferException e) {
+      throw new SFTPException("Malformed handle for " + path, e);
+    }
+    return new PipelinedSftpFile(engine, handle, requestSize, maxRequests);
+  }
+
+  /** Truncates or extends the file to {@param length} bytes. */
+  public void setLength(long length) throws IOException {
+    retrieve(
+            engine,
+            engine.request(
+                engine
+                    .newRequest(PacketType.FSETSTAT)
+                    .putString(handle)
+                    .putFileAttributes(new FileAttributes.Builder().withSize(length).build())))
+        .ensureStatusPacketIsOK();
+  }
+
+  /**
+   * Has the server copy this whole file into {@param target} by itself, with the <code>copy-data
+   * </code> extension of draft-ietf-secsh-filexfer-extensions (OpenSSH 9.0 and later, Apache
+   * MINA SSHD), so that no data goes through the connection.
+   *
+   * @throws SFTPException with {@link Response.StatusCode#OP_UNSUPPORTED} if the server doesn't
+   *     know the extension
+   */
+  public void copyData(@NonNull PipelinedSftpFile target) throws IOException {
+    // a length of 0 copies up to the end of the file
+    retrieve(
+            engine,
+            engine.request(
+                engine
+                    .newExtendedRequest(COPY_DATA_EXTENSION)
+                    .putString(handle)
+                    .putUInt64(0)
+                    .putUInt64(0)
+                    .putString(target.handle)
+                    .putUInt64(0)))
+        .ensureStatusPacketIsOK();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    retrieve(engine, engine.request(engine.newRequest(PacketType.CLOSE).putString(handle)))
+        .ensureStatusPacketIsOK();
+  }
+
+  private static Response retrieve(SFTPEngine engine, Promise<Response, SFTPException> promise)
+      throws SFTPException {
+    return promise.retrieve(engine.getTimeoutMs(), TimeUnit.MILLISECONDS);
+  }
+
+  private static class PendingRead {
+    final long offset;
+    final Promise<Response, SFTPException> response;
+
+    PendingRead(long offset, Promise<Response, SFTPException> response) {
+      this.offset = offset;
+      this.response = response;
+    }
+  }
+
+  /** Stream reading the file from a given offset, closing it closes the file. */
+  public class PipelinedInputStream extends InputStream {
+    private final Queue<PendingRead> pending = new ArrayDeque<>();
+    // offset of the next byte handed to the caller, and of the next byte to request
+    private long position;
+    private long requestOffset;
+    private int window = 1;
+    private boolean eof = false;
+
+    // data of the last response not yet handed to the caller
+    private byte[] chunk;
+    private int chunkPosition;
+    private int chunkEnd;
+
+    public PipelinedInputStream(long offset) {
+      position = offset;
+      requestOffset = offset;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(@NonNull byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      if (chunkPosition == chunkEnd && !nextChunk()) return -1;
+
+      int count = Math.min(len, chunkEnd - chunkPosition);
+      System.arraycopy(chunk, chunkPosition, b, off, count);
+      chunkPosition += count;
+      position += count;
+      return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      if (n <= 0) return 0;
+      int buffered = chunkEnd - chunkPosition;
+      if (n <= buffered) {
+        chunkPosition += n;
+        position += n;
+        return n;
+      }
+      // past what we have, requests in flight are of no use anymore
+      chunkPosition = chunkEnd;
+      position += n;
+      restartFrom(position);
+      return n;
+    }
+
+    @Override
+    public int available() {
+      return chunkEnd - chunkPosition;
+    }
+
+    @Override
+    public void close() throws IOException {
+      pending.clear();
+      PipelinedSftpFile.this.close();
+    }
+
+    private void restartFrom(long offset) {
+      // responses to dropped requests are still received, and discarded, by the engine
+      pending.clear();
+      requestOffset = offset;
+      eof = false;
+    }
+
+    private void fill() throws IOException {
+      while (!eof && pending.size() < window) {
+        Promise<Response, SFTPException> response =
+            engine.request(
+                engine
+                    .newRequest(PacketType.READ)
+                    .putString(handle)
+                    .putUInt64(requestOffset)
+                    .putUInt32(requestSize));
+        pending.add(new PendingRead(requestOffset, response));
+        requestOffset += requestSize;
+      }
+    }
+
+    /** @return false at the end of the file */
+    private boolean nextChunk() throws IOException {
+      fill();
+      PendingRead read = pending.poll();
+      if (read == null) return false;
+
+      Response response = retrieve(engine, read.response);
+      switch (response.getType()) {
+        case DATA:
+          try {
+            int length = response.readUInt32AsInt();
+            chunk = response.array();
+            chunkPosition = response.rpos();
+            chunkEnd = chunkPosition + length;
+            if (window < maxRequests) window++;
+            if (length < requestSize) {
+              // short read, the following requests start at the wrong offset
+              restartFrom(read.offset + length);
+            }
+            return length > 0 || nextChunk();
+          } catch (Buffer.BufferException e) {
+            throw new SFTPException("Malformed read response", e);
+          }
+        case STATUS:
+          response.ensureStatusIs(Response.StatusCode.EOF);
+          eof = true;
+          pending.clear();
+          return false;
+        default:
+          throw new SFTPException("Unexpected packet: " + response.getType());
+      }
+    }
+  }
+
+  /**
+   * Stream writing the file from a given offset, closing it closes the file. Write errors may only
+   * be reported by a later write, or by {@link #flush()}.
+   */
+  public class PipelinedOutputStream extends OutputStream {
+    private final Queue<Promise<Response, SFTPException>> pending = new ArrayDeque<>();
+    private final byte[] buffer = new byte[requestSize];
+    private int buffered = 0;
+    private long fileOffset;
+
+    public PipelinedOutputStream(long offset) {
+      fileOffset = offset;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      buffer[buffered++] = (byte) b;
+      if (buffered == buffer.length) sendBuffer();
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int count = Math.min(len, buffer.length - buffered);
+        System.arraycopy(b, off, buffer, buffered, count);
+        buffered += count;
+        off += count;
+        len -= count;
+        if (buffered == buffer.length) sendBuffer();
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      sendBuffer();
+      while (!pending.isEmpty()) {
+        retrieve(engine, pending.remove()).ensureStatusPacketIsOK();
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+      } finally {
+        PipelinedSftpFile.this.close();
+      }
+    }
+
+    private void sendBuffer() throws IOException {
+      if (buffered == 0) return;
+      if (pending.size() >= maxRequests) {
+        retrieve(engine, pending.remove()).ensureStatusPacketIsOK();
+      }
+      // the request copies the data, so the buffer can be refilled right away
+      pending.add(
+          engine.request(
+              engine
+                  .newRequest(PacketType.WRITE)
+                  .putString(handle)
+                  .putUInt64(fileOffset)
+                  .putString(buffer, 0, buffered)));
+      fileOffset += buffered;
+      buffered = 0;
+    }
+  }
+}
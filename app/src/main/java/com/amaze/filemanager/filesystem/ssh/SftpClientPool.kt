@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh
+
+import android.util.Log
+import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.sftp.SFTPClient
+import java.io.IOException
+import java.util.ArrayDeque
+import java.util.concurrent.TimeUnit
+
+/**
+ * Keeps the [SFTPClient] channels of one SSH connection open between operations, so that each
+ * stat or listing doesn't pay for opening a channel and starting the SFTP subsystem (three round
+ * trips) before doing its own.
+ *
+ * Channels idle for longer than [idleTimeoutMillis] are closed, and the ones idle for longer than
+ * [validateAfterMillis] are checked with a cheap request before being handed out again, as the
+ * server may have dropped them meanwhile. At most [maxIdle] channels are kept, servers limit the
+ * number of channels per connection (OpenSSH's MaxSessions defaults to 10).
+ */
+class SftpClientPool @JvmOverloads constructor(
+    private val sshClient: SSHClient,
+    private val maxIdle: Int = DEFAULT_MAX_IDLE,
+    private val idleTimeoutMillis: Long = DEFAULT_IDLE_TIMEOUT_MILLIS,
+    private val validateAfterMillis: Long = DEFAULT_VALIDATE_AFTER_MILLIS
+) {
+
+    companion object {
+        private val TAG = SftpClientPool::class.java.simpleName
+
+        const val DEFAULT_MAX_IDLE = 4
+        const val DEFAULT_IDLE_TIMEOUT_MILLIS = 60000L
+        const val DEFAULT_VALIDATE_AFTER_MILLIS = 15000L
+    }
+
+    private class IdleClient(val client: SFTPClient, val since: Long)
+
+    // most recently released last, so that the least used channels are the ones timing out
+    private val idle = ArrayDeque<IdleClient>()
+
+    private var closed = false
+
+    /**
+     * Obtain an [SFTPClient] channel, reusing an idle one if there is a healthy one.
+     *
+     * The channel belongs to the caller until it is given back with [release], or closed.
+     */
+    @Throws(IOException::class)
+    fun borrow(): SFTPClient {
+        while (true) {
+            val (expired, candidate) = synchronized(idle) {
+                Pair(evictExpired(), idle.pollLast())
+            }
+            expired.forEach(::closeQuietly)
+            if (candidate == null) {
+                break
+            } else if (isHealthy(candidate)) {
+                return candidate.client
+            }
+            closeQuietly(candidate.client)
+        }
+        return sshClient.newSFTPClient()
+    }
+
+    /**
+     * Give back a channel obtained from [borrow]. It is closed instead of kept if it's not usable
+     * anymore, or if there are enough idle channels already.
+     */
+    fun release(client: SFTPClient) {
+        if (!isOpen(client)) {
+            closeQuietly(client)
+            return
+        }
+        val (expired, kept) = synchronized(idle) {
+            val expired = evictExpired()
+            if (!closed && idle.size < maxIdle) {
+                idle.addLast(IdleClient(client, now()))
+                Pair(expired, true)
+            } else {
+                Pair(expired, false)
+            }
+        }
+        expired.forEach(::closeQuietly)
+        if (!kept) {
+            closeQuietly(client)
+        }
+    }
+
+    /** Close every idle channel, channels released afterwards are closed right away. */
+    fun close() {
+        val clients = synchronized(idle) {
+            closed = true
+            val all = idle.map { it.client }
+            idle.clear()
+            all
+        }
+        clients.forEach(::closeQuietly)
+    }
+
+    // closing is a round trip, callers close the evicted channels after letting go of the lock
+    private fun evictExpired(): List<SFTPClient> {
+        val evicted = ArrayList<SFTPClient>()
+        val now = now()
+        while (idle.isNotEmpty() && now - idle.peekFirst()!!.since >= idleTimeoutMillis) {
+            evicted.add(idle.pollFirst()!!.client)
+        }
+        return evicted
+    }
+
+    private fun isHealthy(candidate: IdleClient): Boolean {
+        if (!isOpen(candidate.client)) {
+            return false
+        }
+        if (now() - candidate.since < validateAfterMillis) {
+            return true
+        }
+        return try {
+            candidate.client.canonicalize(".")
+            true
+        } catch (e: IOException) {
+            Log.d(TAG, "Idle SFTP channel no longer usable", e)
+            false
+        }
+    }
+
+    private fun isOpen(client: SFTPClient): Boolean =
+        client.sftpEngine?.subsystem?.isOpen == true
+
+    private fun closeQuietly(client: SFTPClient) {
+        try {
+            client.close()
+        } catch (e: IOException) {
+            Log.w(TAG, "Error closing SFTP client", e)
+        }
+    }
+
+    private fun now(): Long = TimeUnit.NANOSECONDS.toMillis(System.nanoTime())
+}
@@ -149,17 +149,15 @@ public abstract class SshClientUtils {
             SFTPClient sftpClient = null;
             T retval = null;
             try {
-              sftpClient = client.newSFTPClient();
+              sftpClient = SshConnectionPool.INSTANCE.borrowSftpClient(client);
               retval = template.execute(sftpClient);
             } catch (IOException e) {
               Log.e(TAG, "Error executing template method", e);
             } finally {
+              // templates not closing the client on finish hand it over to what they return,
+              // which is then responsible for closing it
               if (sftpClient != null && template.closeClientOnFinish) {
-                try {
-                  sftpClient.close();
-                } catch (IOException e) {
-                  Log.w(TAG, "Error closing SFTP client", e);
-                }
+                SshConnectionPool.INSTANCE.releaseSftpClient(client, sftpClient);
               }
             }
             return retval;
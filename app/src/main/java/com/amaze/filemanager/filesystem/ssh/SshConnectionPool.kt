@@ -27,6 +27,8 @@ import com.amaze.filemanager.asynchronous.asynctasks.ssh.PemToKeyPairTask
 import com.amaze.filemanager.asynchronous.asynctasks.ssh.SshAuthenticationTask
 import net.schmizz.sshj.Config
 import net.schmizz.sshj.SSHClient
+import net.schmizz.sshj.sftp.SFTPClient
+import java.io.IOException
 import java.security.KeyPair
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.CountDownLatch
@@ -50,6 +52,11 @@ object SshConnectionPool {
 
     private var connections: MutableMap<String, SSHClient> = ConcurrentHashMap()
 
+    private val sftpClientPools: ConcurrentHashMap<SSHClient, SftpClientPool> = ConcurrentHashMap()
+
+    private val serverCapabilities: ConcurrentHashMap<SSHClient, SshServerCapabilities> =
+        ConcurrentHashMap()
+
     @JvmField
     var sshClientFactory: SSHClientFactory = DefaultSSHClientFactory()
 
@@ -148,6 +155,53 @@ object SshConnectionPool {
         return client
     }
 
+    /**
+     * Obtain a [SFTPClient] channel on the given connection, reusing one left idle by a previous
+     * operation when possible.
+     *
+     * Give it back with [releaseSftpClient] once done, or close it if it has to outlive the
+     * operation (e.g. when it backs a stream handed to the caller).
+     *
+     * @param client [SSHClient] connection obtained from [getConnection]
+     * @throws IOException IOExceptions that occur while opening a new channel
+     */
+    @Throws(IOException::class)
+    fun borrowSftpClient(client: SSHClient): SFTPClient {
+        val pool = sftpClientPools[client]
+            ?: SftpClientPool(client).let { sftpClientPools.putIfAbsent(client, it) ?: it }
+        return pool.borrow()
+    }
+
+    /**
+     * Give back a [SFTPClient] channel obtained from [borrowSftpClient], for the next operation on
+     * the same connection to reuse.
+     */
+    fun releaseSftpClient(client: SSHClient, sftpClient: SFTPClient) {
+        val pool = sftpClientPools[client]
+        if (pool != null) {
+            pool.release(sftpClient)
+        } else {
+            // connection was dropped meanwhile
+            try {
+                sftpClient.close()
+            } catch (e: IOException) {
+                Log.w(TAG, "Error closing SFTP client", e)
+            }
+        }
+    }
+
+    /**
+     * Obtain what server side operations were found to be supported on the given connection, for
+     * callers to probe and fill in. Forgotten along with the connection, as a reconnection may
+     * land on a different server.
+     *
+     * @param client [SSHClient] connection obtained from [getConnection]
+     */
+    fun getServerCapabilities(client: SSHClient): SshServerCapabilities {
+        return serverCapabilities[client]
+            ?: SshServerCapabilities().let { serverCapabilities.putIfAbsent(client, it) ?: it }
+    }
+
     /**
      * Kill any connection that is still in place. Used by [ ].
      *
@@ -159,7 +213,7 @@ object SshConnectionPool {
             .runInBackground {
                 if (!connections.isEmpty()) {
                     for (connection in connections.values) {
-                        SshClientUtils.tryDisconnect(connection)
+                        expire(connection)
                     }
                     connections.clear()
                 }
@@ -232,8 +286,12 @@ object SshConnectionPool {
         return client.isConnected && client.isAuthenticated
     }
 
-    private fun expire(client: SSHClient) {
+    private fun expire(client: SSHClient?) {
         SshClientUtils.tryDisconnect(client)
+        client?.let {
+            sftpClientPools.remove(it)?.close()
+            serverCapabilities.remove(it)
+        }
     }
 
     /**
@@ -283,7 +341,7 @@ object SshConnectionPool {
         override fun doInBackground(vararg params: Unit) {
             url = SshClientUtils.extractBaseUriFrom(url)
             if (connections.containsKey(url)) {
-                SshClientUtils.tryDisconnect(connections.remove(url))
+                expire(connections.remove(url))
             }
         }
 
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh
+
+/**
+ * Server side operations a SSH server was found to support or not. Each is probed the first time
+ * it is needed and remembered for as long as the connection lives, see
+ * [SshConnectionPool.getServerCapabilities].
+ *
+ * Null means not known yet.
+ */
+class SshServerCapabilities {
+
+    /** Whether the SFTP server implements the `copy-data` extension */
+    @Volatile
+    var copyData: Boolean? = null
+
+    /** Whether `cp` can be run on the server, seeing the same paths as SFTP does */
+    @Volatile
+    var execCopy: Boolean? = null
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import static com.amaze.filemanager.filesystem.ssh.SshClientUtils.extractBaseUriFrom;
+import static com.amaze.filemanager.filesystem.ssh.SshClientUtils.extractRemotePathFrom;
+
+import java.io.IOException;
+import java.util.EnumSet;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.common.IOUtils;
+import net.schmizz.sshj.connection.channel.direct.Session;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.Response;
+import net.schmizz.sshj.sftp.SFTPClient;
+import net.schmizz.sshj.sftp.SFTPException;
+
+/**
+ * Moves and copies files within a single SSH server, without downloading and uploading them again.
+ *
+ * <p>Copies use the SFTP <code>copy-data</code> extension when the server has it, else run <code>
+ * cp</code> on the server. Which of them works is found out by trying, and remembered in {@link
+ * SshServerCapabilities} for the connection. Callers are expected to fall back to transferring the
+ * data themselves when an operation here returns false.
+ */
+public abstract class SshServerSideOperations {
+
+  private static final String TAG = SshServerSideOperations.class.getSimpleName();
+
+  /** Exit status of the copy command when the shell doesn't see the source SFTP sees */
+  private static final int EXIT_NO_SOURCE = 99;
+
+  /** Exit status of a shell for a command found but not executable */
+  private static final int EXIT_CANNOT_EXECUTE = 126;
+
+  /** Exit status of a shell for a command not found */
+  private static final int EXIT_NOT_FOUND = 127;
+
+  /** @return true if both SSH URLs point to the same connection */
+  public static boolean isSameServer(@NonNull String url, @NonNull String otherUrl) {
+    return extractBaseUriFrom(url).equals(extractBaseUriFrom(otherUrl));
+  }
+
+  /**
+   * Renames (moves) a file or directory with a SFTP rename request.
+   *
+   * @return false if the paths are on different servers, or the server refused
+   */
+  public static boolean rename(@NonNull String sourceUrl, @NonNull String targetUrl) {
+    if (!isSameServer(sourceUrl, targetUrl)) return false;
+
+    Boolean renamed =
+        SshClientUtils.execute(
+            new SFtpClientTemplate<Boolean>(sourceUrl) {
+              @Override
+              public Boolean execute(@NonNull SFTPClient client) throws IOException {
+                client.rename(extractRemotePathFrom(sourceUrl), extractRemotePathFrom(targetUrl));
+                return true;
+              }
+            });
+    return renamed != null && renamed;
+  }
+
+  /**
+   * Copies a file on the server, replacing the target if it exists.
+   *
+   * @return false if the paths are on different servers, or the server can't copy by itself
+   */
+  public static boolean copy(@NonNull String sourceUrl, @NonNull String targetUrl) {
+    if (!isSameServer(sourceUrl, targetUrl)) return false;
+
+    final String source = extractRemotePathFrom(sourceUrl);
+    final String target = extractRemotePathFrom(targetUrl);
+    Boolean copied =
+        SshClientUtils.execute(
+            new SshClientTemplate<Boolean>(sourceUrl, false) {
+              @Override
+              public Boolean execute(@NonNull SSHClient client) throws IOException {
+                SshServerCapabilities capabilities =
+                    SshConnectionPool.INSTANCE.getServerCapabilities(client);
+
+                if (!Boolean.FALSE.equals(capabilities.getCopyData())) {
+                  try {
+                    copyData(client, source, target);
+                    capabilities.setCopyData(true);
+                    return true;
+                  } catch (SFTPException e) {
+                    if (e.getStatusCode() != Response.StatusCode.OP_UNSUPPORTED) throw e;
+                    capabilities.setCopyData(false);
+                  }
+                }
+
+                if (!Boolean.FALSE.equals(capabilities.getExecCopy())) {
+                  return execCopy(client, source, target, capabilities);
+                }
+
+                return false;
+              }
+            });
+    return copied != null && copied;
+  }
+
+  /**
+   * Copies with the <code>copy-data</code> extension. The target is only cut to the source's length
+   * once the copy succeeded, so that it's left as it was when the server turns out not to have the
+   * extension.
+   */
+  private static void copyData(
+      @NonNull SSHClient client, @NonNull String source, @NonNull String target)
+      throws IOException {
+    SFTPClient sftpClient = SshConnectionPool.INSTANCE.borrowSftpClient(client);
+    PipelinedSftpFile sourceFile = null;
+    PipelinedSftpFile targetFile = null;
+    try {
+      sourceFile = PipelinedSftpFile.open(sftpClient, source, EnumSet.of(OpenMode.READ));
+      targetFile =
+          PipelinedSftpFile.open(sftpClient, target, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT));
+      sourceFile.copyData(targetFile);
+      targetFile.setLength(sftpClient.size(source));
+    } finally {
+      if (sourceFile != null) sourceFile.close();
+      if (targetFile != null) targetFile.close();
+      SshConnectionPool.INSTANCE.releaseSftpClient(client, sftpClient);
+    }
+  }
+
+  /**
+   * Runs <code>cp</code> on the server. The shell may see other paths than SFTP does (e.g. SFTP
+   * chrooted elsewhere), so the source is checked for first, and the target's size checked after.
+   *
+   * <p>Copying is only given up on for the connection when exec channels are refused, <code>cp
+   * </code> can't be run or the shell sees other paths, not when a copy fails for other reasons.
+   */
+  private static boolean execCopy(
+      @NonNull SSHClient client,
+      @NonNull String source,
+      @NonNull String target,
+      @NonNull SshServerCapabilities capabilities)
+      throws IOException {
+    Integer exitStatus;
+    Session session = null;
+    try {
+      session = client.startSession();
+      Session.Command cmd =
+          session.exec(
+              String.format(
+                  "test -f %1$s || exit %3$d; cp -- %1$s %2$s",
+                  quoteForShell(source),
+                  quoteForShell(target),
+                  EXIT_NO_SOURCE));
+      IOUtils.readFully(cmd.getInputStream());
+      cmd.join();
+      exitStatus = cmd.getExitStatus();
+      cmd.close();
+    } catch (IOException e) {
+      if (capabilities.getExecCopy() != null) throw e;
+      // exec channels may well be disabled for this account
+      Log.w(TAG, "Could not run cp on server", e);
+      capabilities.setExecCopy(false);
+      return false;
+    } finally {
+      if (session != null && session.isOpen()) session.close();
+    }
+
+    if (exitStatus == null || exitStatus != 0) {
+      if (exitStatus != null && isExecCopyUnsupported(exitStatus)) {
+        capabilities.setExecCopy(false);
+      }
+      return false;
+    }
+
+    SFTPClient sftpClient = SshConnectionPool.INSTANCE.borrowSftpClient(client);
+    boolean copied;
+    try {
+      copied = sftpClient.size(source) == sftpClient.size(target);
+    } finally {
+      SshConnectionPool.INSTANCE.releaseSftpClient(client, sftpClient);
+    }
+    // the first time, a target of another size was written where SFTP doesn't look
+    if (capabilities.getExecCopy() == null) capabilities.setExecCopy(copied);
+    return copied;
+  }
+
+  /** @return whether the copy command exiting with {@param exitStatus} means it can never work */
+  static boolean isExecCopyUnsupported(int exitStatus) {
+    return exitStatus == EXIT_NO_SOURCE
+        || exitStatus == EXIT_CANNOT_EXECUTE
+        || exitStatus == EXIT_NOT_FOUND;
+  }
+
+  @NonNull
+  static String quoteForShell(@NonNull String path) {
+    return "'" + path.replace("'", "'\\''") + "'";
+  }
+}
@@ -33,6 +33,7 @@ import static com.amaze.filemanager.ui.fragments.preference_fragments.Preference
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 
@@ -49,6 +50,7 @@ import com.amaze.filemanager.asynchronous.handlers.FileHandler;
 import com.amaze.filemanager.database.SortHandler;
 import com.amaze.filemanager.database.models.explorer.Tab;
 import com.amaze.filemanager.file_operations.filesystem.OpenMode;
+import com.amaze.filemanager.file_operations.filesystem.cloud.CloudStreamer;
 import com.amaze.filemanager.file_operations.filesystem.smbstreamer.Streamer;
 import com.amaze.filemanager.filesystem.CustomFileObserver;
 import com.amaze.filemanager.filesystem.FileProperties;
@@ -61,6 +63,7 @@ import com.amaze.filemanager.filesystem.files.CryptUtil;
 import com.amaze.filemanager.filesystem.files.EncryptDecryptUtils;
 import com.amaze.filemanager.filesystem.files.FileListSorter;
 import com.amaze.filemanager.filesystem.files.FileUtils;
+import com.amaze.filemanager.filesystem.smb.SmbLister;
 import com.amaze.filemanager.filesystem.ssh.SshClientUtils;
 import com.amaze.filemanager.ui.activities.MainActivity;
 import com.amaze.filemanager.ui.dialogs.GeneralDialogCreation;
@@ -78,8 +81,10 @@ import com.amaze.filemanager.ui.views.FastScroller;
 import com.amaze.filemanager.ui.views.WarnableTextInputValidator;
 import com.amaze.filemanager.utils.BottomBarButtonPath;
 import com.amaze.filemanager.utils.DataUtils;
+import com.amaze.filemanager.utils.DirectoryListCache;
 import com.amaze.filemanager.utils.MainActivityHelper;
 import com.amaze.filemanager.utils.OTGUtil;
+import com.amaze.filemanager.utils.OnProgressUpdate;
 import com.amaze.filemanager.utils.Utils;
 import com.google.android.material.appbar.AppBarLayout;
 
@@ -128,6 +133,7 @@ import androidx.appcompat.view.ActionMode;
 import androidx.core.content.pm.ShortcutInfoCompat;
 import androidx.core.content.pm.ShortcutManagerCompat;
 import androidx.core.graphics.drawable.IconCompat;
+import androidx.core.util.Pair;
 import androidx.drawerlayout.widget.DrawerLayout;
 import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentActivity;
@@ -140,7 +146,6 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
-import jcifs.smb.SmbException;
 import jcifs.smb.SmbFile;
 
 public class MainFragment extends Fragment
@@ -981,6 +986,37 @@ public class MainFragment extends Fragment
       openMode = OpenMode.FILE;
     }
 
+    final OpenMode requestedOpenMode = openMode;
+    final String listedPath = actualPath;
+    final boolean showHiddenFiles = getBoolean(PREFERENCE_SHOW_HIDDENFILES);
+    final boolean isPathLayoutGrid =
+        DataUtils.getInstance().getListOrGridForPath(providedPath, DataUtils.LIST)
+            == DataUtils.GRID;
+
+    // show what was listed last time right away, it is listed again below to catch up with changes
+    final Pair<OpenMode, ArrayList<LayoutElementParcelable>> cached =
+        DirectoryListCache.getInstance().get(requestedOpenMode, listedPath, showHiddenFiles);
+    if (cached != null) {
+      setFolderAndFileCount(cached.second);
+      setListElements(cached.second, back, providedPath, cached.first, false, isPathLayoutGrid);
+    }
+
+    // without a cached listing to show, show elements as they're found
+    final boolean[] streamed = {false};
+    OnProgressUpdate<Pair<OpenMode, ArrayList<LayoutElementParcelable>>> batchListener = null;
+    if (cached == null) {
+      batchListener =
+          (batch) -> {
+            if (!streamed[0]) {
+              streamed[0] = true;
+              setListElements(
+                  batch.second, back, providedPath, batch.first, false, isPathLayoutGrid);
+            } else {
+              addListElements(batch.second, loadFilesListTask.getSorter());
+            }
+          };
+    }
+
     loadFilesListTask =
         new LoadFilesListTask(
             getActivity(),
@@ -988,15 +1024,21 @@ public class MainFragment extends Fragment
             this,
             openMode,
             getBoolean(PREFERENCE_SHOW_THUMB),
-            getBoolean(PREFERENCE_SHOW_HIDDENFILES),
+            showHiddenFiles,
+            batchListener,
             (data) -> {
               mSwipeRefreshLayout.setRefreshing(false);
               if (data != null && data.second != null) {
-                boolean isPathLayoutGrid =
-                    DataUtils.getInstance().getListOrGridForPath(providedPath, DataUtils.LIST)
-                        == DataUtils.GRID;
-                setListElements(
-                    data.second, back, providedPath, data.first, false, isPathLayoutGrid);
+                DirectoryListCache.getInstance()
+                    .put(requestedOpenMode, listedPath, showHiddenFiles, data);
+                setFolderAndFileCount(data.second);
+                if ((cached != null || streamed[0])
+                    && providedPath.equals(mainFragmentViewModel.getCurrentPath())) {
+                  updateListElements(data.second, data.first);
+                } else {
+                  setListElements(
+                      data.second, back, providedPath, data.first, false, isPathLayoutGrid);
+                }
               } else {
                 Log.w(getClass().getSimpleName(), "Load list operation cancelled");
               }
@@ -1112,27 +1154,95 @@ public class MainFragment extends Fragment
     }
   }
 
+  /**
+   * Puts a fresh listing of the directory shown in place of the cached one it was shown from,
+   * touching only the items that changed, so that the list neither jumps nor loses its scroll.
+   *
+   * @param elements the elements just listed
+   * @param openMode the mode the directory was listed in
+   */
+  private void updateListElements(ArrayList<LayoutElementParcelable> elements, OpenMode openMode) {
+    if (!isAdded()) return;
+    List<LayoutElementParcelable> shown = new ArrayList<>();
+    if (mainFragmentViewModel.getListElements() != null) {
+      for (LayoutElementParcelable element : mainFragmentViewModel.getListElements()) {
+        if (!element.isBack) shown.add(element);
+      }
+    }
+    if (openMode == mainFragmentViewModel.getOpenMode()
+        && DirectoryListCache.isSameListing(shown, elements)) {
+      // nothing changed since the cached listing
+      getMainActivity().updatePaths(mainFragmentViewModel.getNo());
+      return;
+    }
+
+    if (adapter == null
+        || shown.isEmpty()
+        || elements.isEmpty()
+        || openMode != mainFragmentViewModel.getOpenMode()) {
+      // views need to be set up differently, don't bother diffing
+      computeScroll();
+      mainFragmentViewModel.setListElements(elements);
+      mainFragmentViewModel.setOpenMode(openMode);
+      reloadListElements(true, mainFragmentViewModel.getResults(), !mainFragmentViewModel.isList());
+      return;
+    }
+
+    mainFragmentViewModel.setListElements(elements);
+    addBackElementIfNeeded(mainFragmentViewModel.getResults());
+    adapter.updateItems(listView, new ArrayList<>(mainFragmentViewModel.getListElements()));
+    getMainActivity().updatePaths(mainFragmentViewModel.getNo());
+  }
+
+  /**
+   * Adds elements found while the directory shown is still being listed, at their place in the
+   * list.
+   *
+   * @param batch the elements, sorted by {@param sorter}
+   */
+  private void addListElements(
+      ArrayList<LayoutElementParcelable> batch, Comparator<LayoutElementParcelable> sorter) {
+    if (!isAdded() || adapter == null || mainFragmentViewModel.getListElements() == null) return;
+    // the list itself gets sorted once complete, only what is shown has to be sorted meanwhile
+    mainFragmentViewModel.getListElements().addAll(batch);
+    adapter.insertItems(batch, sorter);
+    getMainActivity().updatePaths(mainFragmentViewModel.getNo());
+  }
+
+  private void setFolderAndFileCount(List<LayoutElementParcelable> elements) {
+    int folderCount = 0;
+    for (LayoutElementParcelable element : elements) {
+      if (element.isDirectory) folderCount++;
+    }
+    mainFragmentViewModel.setFolderCount(folderCount);
+    mainFragmentViewModel.setFileCount(elements.size() - folderCount);
+  }
+
+  private void addBackElementIfNeeded(boolean results) {
+    boolean isOtg = (OTGUtil.PREFIX_OTG + "/").equals(mainFragmentViewModel.getCurrentPath());
+
+    if (getBoolean(PREFERENCE_SHOW_GOBACK_BUTTON)
+        && !"/".equals(mainFragmentViewModel.getCurrentPath())
+        && (mainFragmentViewModel.getOpenMode() == OpenMode.FILE
+            || mainFragmentViewModel.getOpenMode() == OpenMode.ROOT)
+        && !isOtg
+        && !mainFragmentViewModel.getIsOnCloud()
+        && (mainFragmentViewModel.getListElements() != null
+            && (mainFragmentViewModel.getListElements().size() == 0
+                || !mainFragmentViewModel
+                    .getListElements()
+                    .get(0)
+                    .size
+                    .equals(getString(R.string.goback))))
+        && !results) {
+      mainFragmentViewModel.getListElements().add(0, getBackElement());
+    }
+  }
+
   public void reloadListElements(boolean back, boolean results, boolean grid) {
     if (isAdded()) {
       mainFragmentViewModel.setResults(results);
-      boolean isOtg = (OTGUtil.PREFIX_OTG + "/").equals(mainFragmentViewModel.getCurrentPath());
-
-      if (getBoolean(PREFERENCE_SHOW_GOBACK_BUTTON)
-          && !"/".equals(mainFragmentViewModel.getCurrentPath())
-          && (mainFragmentViewModel.getOpenMode() == OpenMode.FILE
-              || mainFragmentViewModel.getOpenMode() == OpenMode.ROOT)
-          && !isOtg
-          && !mainFragmentViewModel.getIsOnCloud()
-          && (mainFragmentViewModel.getListElements() != null
-              && (mainFragmentViewModel.getListElements().size() == 0
-                  || !mainFragmentViewModel
-                      .getListElements()
-                      .get(0)
-                      .size
-                      .equals(getString(R.string.goback))))
-          && !results) {
-        mainFragmentViewModel.getListElements().add(0, getBackElement());
-      }
+      addBackElementIfNeeded(results);
 
       if (mainFragmentViewModel.getListElements() != null
           && mainFragmentViewModel.getListElements().size() == 0
@@ -1247,6 +1357,11 @@ public class MainFragment extends Fragment
    * pending opened files in application cache
    */
   private void resumeDecryptOperations() {
+    if (mainFragmentViewModel.getEncryptStreamUrl() != null) {
+      // we're back from the app playing the stream, no other app should fetch it anymore
+      CloudStreamer.getInstance().removeStreamSrc(mainFragmentViewModel.getEncryptStreamUrl());
+      mainFragmentViewModel.setEncryptStreamUrl(null);
+    }
     if (SDK_INT >= JELLY_BEAN_MR2) {
       (getActivity())
           .registerReceiver(
@@ -1575,31 +1690,31 @@ public class MainFragment extends Fragment
     }
   }
 
+  /**
+   * Builds the elements of an SMB directory from its entries, as listed by {@link SmbLister} with
+   * all their attributes, so that nothing is asked to the server here.
+   */
   public ArrayList<LayoutElementParcelable> addToSmb(
-      @NonNull SmbFile[] mFile, @NonNull String path, boolean showHiddenFiles) throws SmbException {
+      @NonNull List<SmbLister.Entry> entries, @NonNull String path, boolean showHiddenFiles) {
     ArrayList<LayoutElementParcelable> smbFileList = new ArrayList<>();
     String extraParams = Uri.parse(path).getQuery();
 
     if (mainFragmentViewModel.getSearchHelper().size() > 500) {
       mainFragmentViewModel.getSearchHelper().clear();
     }
-    for (SmbFile aMFile : mFile) {
-      if ((DataUtils.getInstance().isFileHidden(aMFile.getPath()) || aMFile.isHidden())
+    for (SmbLister.Entry entry : entries) {
+      if ((DataUtils.getInstance().isFileHidden(entry.getPath()) || entry.isHidden())
           && !showHiddenFiles) {
         continue;
       }
-      String name = aMFile.getName();
-      name =
-          (aMFile.isDirectory() && name.endsWith("/"))
-              ? name.substring(0, name.length() - 1)
-              : name;
+      String name = entry.getName();
       if (path.equals(mainFragmentViewModel.getSmbPath())) {
         if (name.endsWith("$")) continue;
       }
-      if (aMFile.isDirectory()) {
+      if (entry.isDirectory()) {
         mainFragmentViewModel.setFolderCount(mainFragmentViewModel.getFolderCount() + 1);
 
-        Uri.Builder aMFilePathBuilder = Uri.parse(aMFile.getPath()).buildUpon();
+        Uri.Builder aMFilePathBuilder = Uri.parse(entry.getPath()).buildUpon();
         if (!TextUtils.isEmpty(extraParams)) aMFilePathBuilder.query(extraParams);
 
         LayoutElementParcelable layoutElement =
@@ -1612,7 +1727,7 @@ public class MainFragment extends Fragment
                 "",
                 0,
                 false,
-                aMFile.lastModified() + "",
+                entry.getLastModified() + "",
                 true,
                 getBoolean(PREFERENCE_SHOW_THUMB),
                 OpenMode.SMB);
@@ -1626,13 +1741,13 @@ public class MainFragment extends Fragment
             new LayoutElementParcelable(
                 getContext(),
                 name,
-                aMFile.getPath(),
+                entry.getPath(),
                 "",
                 "",
-                Formatter.formatFileSize(getContext(), aMFile.length()),
-                aMFile.length(),
+                Formatter.formatFileSize(getContext(), entry.getLength()),
+                entry.getLength(),
                 false,
-                aMFile.lastModified() + "",
+                entry.getLastModified() + "",
                 false,
                 getBoolean(PREFERENCE_SHOW_THUMB),
                 OpenMode.SMB);
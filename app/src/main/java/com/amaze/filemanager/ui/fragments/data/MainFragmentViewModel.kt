@@ -68,6 +68,9 @@ class MainFragmentViewModel : ViewModel() {
     /** a list of encrypted base files which are supposed to be deleted  */
     var encryptBaseFiles = ArrayList<HybridFileParcelable>()
 
+    // URL an encrypted file is streamed at, to stop serving it once back from the app playing it
+    var encryptStreamUrl: String? = null
+
     // defines the current visible tab, default either 0 or 1
     // private int mCurrentTab;
 
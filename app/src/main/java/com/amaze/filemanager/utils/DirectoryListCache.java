@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.amaze.filemanager.adapters.data.LayoutElementParcelable;
+import com.amaze.filemanager.file_operations.filesystem.OpenMode;
+
+import android.text.TextUtils;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.core.util.Pair;
+
+/**
+ * In-memory cache of the last directory listings loaded into {@link
+ * com.amaze.filemanager.ui.fragments.MainFragment}, so that going back to a directory can show its
+ * contents right away while they're listed again in the background. Listings are keyed by the
+ * {@link OpenMode} they were asked for, their path and whether hidden files were shown.
+ *
+ * <p>The least recently used listings are dropped once the cache holds more than {@link
+ * #MAX_ELEMENTS} elements in total. Anything changing a directory should call {@link
+ * #invalidate(String)} for it, a listing may still be stale if something else changed it.
+ *
+ * <p>Implemented as a Singleton with Bill Pugh's Singleton implementation, like {@link DataUtils}.
+ */
+public class DirectoryListCache {
+
+  /** Elements kept over all listings at most */
+  private static final int MAX_ELEMENTS = 10000;
+
+  private final LruCache<Key, Pair<OpenMode, ArrayList<LayoutElementParcelable>>> listings =
+      new LruCache<Key, Pair<OpenMode, ArrayList<LayoutElementParcelable>>>(MAX_ELEMENTS) {
+        @Override
+        protected int sizeOf(Key key, Pair<OpenMode, ArrayList<LayoutElementParcelable>> value) {
+          // empty directories still take an entry
+          return value.second.size() + 1;
+        }
+      };
+
+  private DirectoryListCache() {}
+
+  private static class DirectoryListCacheHolder {
+    private static final DirectoryListCache INSTANCE = new DirectoryListCache();
+  }
+
+  public static DirectoryListCache getInstance() {
+    return DirectoryListCacheHolder.INSTANCE;
+  }
+
+  /**
+   * @return the {@link OpenMode} the directory was found to be in, and a copy of its elements, or
+   *     null if it isn't cached
+   */
+  @Nullable
+  public Pair<OpenMode, ArrayList<LayoutElementParcelable>> get(
+      @NonNull OpenMode openMode, @NonNull String path, boolean showHiddenFiles) {
+    Pair<OpenMode, ArrayList<LayoutElementParcelable>> listing =
+        listings.get(new Key(openMode, path, showHiddenFiles));
+    if (listing == null) return null;
+    // callers add and remove elements of the list they're given
+    return new Pair<>(listing.first, new ArrayList<>(listing.second));
+  }
+
+  /**
+   * Caches a listing, as returned by {@link
+   * com.amaze.filemanager.asynchronous.asynctasks.LoadFilesListTask}.
+   *
+   * @param openMode the mode the listing was asked for, that may differ from the one it's in
+   */
+  public void put(
+      @NonNull OpenMode openMode,
+      @NonNull String path,
+      boolean showHiddenFiles,
+      @NonNull Pair<OpenMode, ArrayList<LayoutElementParcelable>> listing) {
+    if (listing.first == null || listing.second == null) return;
+    listings.put(
+        new Key(openMode, path, showHiddenFiles),
+        new Pair<>(listing.first, new ArrayList<>(listing.second)));
+  }
+
+  /** Drops the listings of the given directory, whatever mode they were asked for. */
+  public void invalidate(@Nullable String path) {
+    if (TextUtils.isEmpty(path)) return;
+    String normalized = normalize(path);
+    for (Key key : listings.snapshot().keySet()) {
+      if (key.path.equals(normalized)) listings.remove(key);
+    }
+  }
+
+  public void clear() {
+    listings.evictAll();
+  }
+
+  /**
+   * @return true if both listings have the same elements in the same order, with the same
+   *     attributes shown
+   */
+  public static boolean isSameListing(
+      @NonNull List<LayoutElementParcelable> listing,
+      @NonNull List<LayoutElementParcelable> other) {
+    if (listing.size() != other.size()) return false;
+    for (int i = 0; i < listing.size(); i++) {
+      if (!isSameElement(listing.get(i), other.get(i))) return false;
+    }
+    return true;
+  }
+
+  /** @return true if both elements show the same file the same way */
+  public static boolean isSameElement(
+      @NonNull LayoutElementParcelable element, @NonNull LayoutElementParcelable other) {
+    return element.isDirectory == other.isDirectory
+        && element.date == other.date
+        && element.longSize == other.longSize
+        && TextUtils.equals(element.desc, other.desc)
+        && TextUtils.equals(element.title, other.title)
+        && TextUtils.equals(element.permissions, other.permissions)
+        && TextUtils.equals(element.symlink, other.symlink);
+  }
+
+  /**
+   * @return {@param path} without what doesn't change the directory listed: a trailing slash, and
+   *     for SMB and SFTP URLs the password, encrypted or not depending on where the URL comes from,
+   *     and the query, which only holds connection options. The user name stays, other accounts may
+   *     see other files.
+   */
+  @VisibleForTesting
+  static String normalize(String path) {
+    int authorityStart = path.indexOf("://");
+    if (authorityStart > 0) {
+      authorityStart += "://".length();
+      int query = path.indexOf('?', authorityStart);
+      if (query >= 0) path = path.substring(0, query);
+
+      int authorityEnd = path.indexOf('/', authorityStart);
+      if (authorityEnd < 0) authorityEnd = path.length();
+      int userInfoEnd = path.lastIndexOf('@', authorityEnd - 1);
+      int passwordStart = path.indexOf(':', authorityStart);
+      if (userInfoEnd >= authorityStart && passwordStart >= 0 && passwordStart < userInfoEnd) {
+        path = path.substring(0, passwordStart) + path.substring(userInfoEnd);
+      }
+    }
+    return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+  }
+
+  private static final class Key {
+    final OpenMode openMode;
+    final String path;
+    final boolean showHiddenFiles;
+
+    Key(OpenMode openMode, String path, boolean showHiddenFiles) {
+      this.openMode = openMode;
+      this.path = normalize(path);
+      this.showHiddenFiles = showHiddenFiles;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return openMode == key.openMode
+          && showHiddenFiles == key.showHiddenFiles
+          && path.equals(key.path);
+    }
+
+    @Override
+    public int hashCode() {
+      return (openMode.hashCode() * 31 + path.hashCode()) * 2 + (showHiddenFiles ? 1 : 0);
+    }
+  }
+}
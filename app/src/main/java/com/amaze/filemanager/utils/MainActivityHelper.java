@@ -381,6 +381,8 @@ public class MainActivityHelper {
                    * instead of merely looking at the return value
                    */
                   if (b || newFile.exists(context)) {
+                    DirectoryListCache.getInstance().invalidate(hFile.getParent(context));
+
                     Intent intent = new Intent(MainActivity.KEY_INTENT_LOAD_LIST);
 
                     intent.putExtra(
@@ -548,6 +550,7 @@ public class MainActivityHelper {
                 .runOnUiThread(
                     () -> {
                       if (b) {
+                        DirectoryListCache.getInstance().invalidate(parentFile.getPath());
                         ma.updateList();
                       } else {
                         Toast.makeText(
@@ -629,6 +632,7 @@ public class MainActivityHelper {
                 .runOnUiThread(
                     () -> {
                       if (b) {
+                        DirectoryListCache.getInstance().invalidate(parentPath.getPath());
                         ma.updateList();
                       } else {
                         Toast.makeText(
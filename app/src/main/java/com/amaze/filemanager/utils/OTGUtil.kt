@@ -36,6 +36,8 @@ import com.amaze.filemanager.file_operations.filesystem.usb.SingletonUsbOtg
 import com.amaze.filemanager.file_operations.filesystem.usb.UsbOtgRepresentation
 import com.amaze.filemanager.filesystem.HybridFileParcelable
 import com.amaze.filemanager.filesystem.RootHelper
+import com.amaze.filemanager.filesystem.SafDocumentTree
+import com.amaze.filemanager.filesystem.SafRootHolder
 import kotlin.collections.ArrayList
 
 /** Created by Vishal on 27-04-2017.  */
@@ -97,18 +99,17 @@ object OTGUtil {
         openMode: OpenMode,
         fileFound: OnFileFound
     ) {
-        var rootUri = DocumentFile.fromTreeUri(context, rootUriString)
-        val parts: Array<String> = if (openMode == OpenMode.DOCUMENT_FILE) {
-            path.substringAfter(rootUriString.toString())
-                .split("/", PATH_SEPARATOR_ENCODED).toTypedArray()
-        } else {
-            path.split("/").toTypedArray()
+        val parts = getPathSegments(path, rootUriString, openMode)
+        if (SDK_INT >= LOLLIPOP) {
+            val found = SafDocumentTree.listFiles(
+                context, rootUriString, parts, path, openMode, fileFound
+            )
+            if (!found) Log.w(TAG, "Directory not found: $path")
+            return
         }
-        for (part in parts.filterNot { it.isEmpty() or it.isBlank() }) {
-            // first omit 'otg:/' before iterating through DocumentFile
-            if (path == "$PREFIX_OTG/" || path == "$PREFIX_DOCUMENT_FILE/") break
-            if (part == "otg:" || part == "" || part == "content:") continue
 
+        var rootUri = DocumentFile.fromTreeUri(context, rootUriString)
+        for (part in parts) {
             // iterating through the required path to find the end point
             rootUri = rootUri!!.findFile(part)
         }
@@ -160,28 +161,63 @@ object OTGUtil {
         openMode: OpenMode,
         createRecursive: Boolean
     ): DocumentFile? {
-        // start with root of SD card and then parse through document tree.
-        var retval = DocumentFile.fromTreeUri(context, rootUri)
-        val parts: Array<String> = if (openMode == OpenMode.DOCUMENT_FILE) {
-            path.substringAfter(rootUri.toString())
-                .split("/", PATH_SEPARATOR_ENCODED).toTypedArray()
-        } else {
-            path.split("/").toTypedArray()
+        val parts = getPathSegments(path, rootUri, openMode)
+        if (SDK_INT >= LOLLIPOP) {
+            val document = SafDocumentTree.getDocumentFile(context, rootUri, parts)
+            if (document != null || !createRecursive || parts.isEmpty()) return document
+            // most of the time only the file itself is missing
+            val parent = SafDocumentTree.getDocumentFile(context, rootUri, parts.dropLast(1))
+            if (parent != null) return createDocumentFile(parent, parts.last())
         }
-        for (part in parts.filterNot { it.isEmpty() or it.isBlank() }) {
-            if (path == "otg:/" || path == "content:/") break
-            if (part == "otg:" || part == "" || part == "content:") continue
 
+        // start with root of SD card and then parse through document tree.
+        var retval = DocumentFile.fromTreeUri(context, rootUri)
+        for (part in parts) {
             // iterating through the required path to find the end point
             var nextDocument = retval!!.findFile(part)
             if (createRecursive && (nextDocument == null || !nextDocument.exists())) {
-                nextDocument = retval.createFile(part.substring(part.lastIndexOf(".")), part)
+                nextDocument = createDocumentFile(retval, part)
             }
             retval = nextDocument
         }
         return retval
     }
 
+    /**
+     * Forgets the documents looked up at [path] and under it, for [path] having been renamed,
+     * deleted or made.
+     */
+    @JvmStatic
+    fun invalidateDocumentFile(path: String, openMode: OpenMode) {
+        if (SDK_INT < LOLLIPOP) return
+        val rootUri = when (openMode) {
+            OpenMode.OTG -> SingletonUsbOtg.getInstance().usbOtgRoot
+            OpenMode.DOCUMENT_FILE -> SafRootHolder.uriRoot
+            else -> null
+        } ?: return
+        SafDocumentTree.invalidate(rootUri, getPathSegments(path, rootUri, openMode))
+    }
+
+    private fun createDocumentFile(parent: DocumentFile, name: String): DocumentFile? {
+        val extension = name.lastIndexOf('.').let { if (it >= 0) name.substring(it) else "" }
+        return parent.createFile(extension, name)
+    }
+
+    /**
+     * Splits [path] into the names of the directories (and file) to go through from the root of
+     * the tree at [rootUri], skipping the 'otg:/' or 'content:/' prefix.
+     */
+    private fun getPathSegments(path: String, rootUri: Uri, openMode: OpenMode): List<String> {
+        val parts = if (openMode == OpenMode.DOCUMENT_FILE) {
+            path.substringAfter(rootUri.toString()).split("/", PATH_SEPARATOR_ENCODED)
+        } else {
+            path.split("/")
+        }
+        return parts.filterNot {
+            it.isBlank() || "$it/" == PREFIX_OTG || "$it/" == PREFIX_DOCUMENT_FILE
+        }
+    }
+
     /** Check if the usb uri is still accessible  */
     @RequiresApi(api = KITKAT)
     @JvmStatic
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.utils
+
+import android.content.Context
+import com.amaze.filemanager.filesystem.MakeDirectoryOperation
+import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor
+import java.io.File
+import java.io.IOException
+import java.util.TreeSet
+import kotlin.math.min
+
+/**
+ * Helpers shared by the operations spreading CPU bound work over a few threads: compressing and
+ * extracting archives, encrypting and decrypting files.
+ */
+object ParallelWorkUtil {
+
+    /**
+     * Most threads such an operation uses. Each of them keeps a core busy, past four of them
+     * storage is the bottleneck.
+     */
+    const val MAX_PARALLELISM = 4
+
+    /** @return number of threads to spread the work over on this device */
+    @JvmStatic
+    fun getParallelism(): Int = min(Runtime.getRuntime().availableProcessors(), MAX_PARALLELISM)
+
+    /**
+     * Creates [directories] ahead of writing any file, so that threads don't race to create the
+     * same parent directory. Stops as soon as [isCancelled] returns true.
+     */
+    @JvmStatic
+    @Throws(IOException::class)
+    fun createDirectories(
+        context: Context,
+        directories: Collection<File>,
+        isCancelled: () -> Boolean
+    ) {
+        // parents sort before their children
+        for (directory in TreeSet(directories)) {
+            if (isCancelled()) break
+            if (!directory.exists()) MakeDirectoryOperation.mkdir(directory, context)
+        }
+    }
+
+    /**
+     * @return [listener] called by one thread at a time, as it counts the entries it's told
+     * about
+     */
+    @JvmStatic
+    fun synchronizedOnUpdate(listener: Extractor.OnUpdate): Extractor.OnUpdate =
+        object : Extractor.OnUpdate {
+            override fun onStart(totalBytes: Long, firstEntryName: String?) =
+                synchronized(listener) { listener.onStart(totalBytes, firstEntryName) }
+
+            override fun onUpdate(entryPath: String?) =
+                synchronized(listener) { listener.onUpdate(entryPath) }
+
+            override fun onFinish() = synchronized(listener) { listener.onFinish() }
+
+            override fun isCancelled(): Boolean = listener.isCancelled
+        }
+}
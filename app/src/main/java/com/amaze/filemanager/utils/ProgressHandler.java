@@ -52,6 +52,9 @@ public class ProgressHandler {
   /** boolean manages the lifecycle of service and whether it should be canceled */
   private volatile boolean isCancelled = false;
 
+  /** whether the watcher found no progress for a while, progress details are not shown meanwhile */
+  private volatile boolean isHalted = false;
+
   /** callback interface to interact with process viewer fragment and notification */
   private volatile ProgressListener progressListener;
 
@@ -111,6 +114,14 @@ public class ProgressHandler {
     return isCancelled;
   }
 
+  public void setHalted(boolean isHalted) {
+    this.isHalted = isHalted;
+  }
+
+  public boolean isHalted() {
+    return isHalted;
+  }
+
   public long getWrittenSize() {
     return writtenSize;
   }
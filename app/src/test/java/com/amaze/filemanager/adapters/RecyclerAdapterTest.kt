@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.adapters
+
+import android.content.Context
+import android.os.Build
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.N
+import android.os.Build.VERSION_CODES.P
+import android.os.Looper.getMainLooper
+import android.os.storage.StorageManager
+import androidx.lifecycle.Lifecycle
+import androidx.recyclerview.widget.RecyclerView
+import androidx.test.core.app.ActivityScenario
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.adapters.RecyclerAdapter.EMPTY_LAST_ITEM
+import com.amaze.filemanager.adapters.RecyclerAdapter.TYPE_HEADER_FILES
+import com.amaze.filemanager.adapters.RecyclerAdapter.TYPE_HEADER_FOLDERS
+import com.amaze.filemanager.adapters.data.LayoutElementParcelable
+import com.amaze.filemanager.file_operations.filesystem.OpenMode
+import com.amaze.filemanager.filesystem.files.FileListSorter
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import com.amaze.filemanager.test.ShadowCryptUtil
+import com.amaze.filemanager.test.TestUtils
+import com.amaze.filemanager.ui.activities.MainActivity
+import com.amaze.filemanager.ui.fragments.preference_fragments.PreferencesConstants.PREFERENCE_SHOW_HEADERS
+import io.reactivex.android.plugins.RxAndroidPlugins
+import io.reactivex.plugins.RxJavaPlugins
+import io.reactivex.schedulers.Schedulers
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import org.robolectric.shadows.ShadowStorageManager
+
+@RunWith(AndroidJUnit4::class)
+@LooperMode(LooperMode.Mode.PAUSED)
+@Config(
+    shadows = [ShadowMultiDex::class, ShadowStorageManager::class, ShadowCryptUtil::class],
+    sdk = [JELLY_BEAN, KITKAT, P]
+)
+class RecyclerAdapterTest {
+
+    private val sorter = FileListSorter(0, 0, 1)
+
+    /** Pre-test setup */
+    @Before
+    fun setUp() {
+        if (Build.VERSION.SDK_INT >= N) TestUtils.initializeInternalStorage()
+        RxJavaPlugins.reset()
+        RxJavaPlugins.setIoSchedulerHandler { Schedulers.trampoline() }
+        RxAndroidPlugins.reset()
+        RxAndroidPlugins.setInitMainThreadSchedulerHandler { Schedulers.trampoline() }
+    }
+
+    /** Post-test cleanup */
+    @After
+    fun tearDown() {
+        if (Build.VERSION.SDK_INT >= N) {
+            shadowOf(
+                ApplicationProvider.getApplicationContext<Context>()
+                    .getSystemService(StorageManager::class.java)
+            ).resetStorageVolumeList()
+        }
+    }
+
+    /** Test the first elements inserted in a list get the empty item below them */
+    @Test
+    fun testInsertIntoEmptyList() {
+        assertInserts(
+            initial = listOf(),
+            inserted = listOf("b/", "a.txt", "a/"),
+            expected = listOf("a/", "b/", "a.txt", END)
+        )
+    }
+
+    /** Test the first elements inserted in a grid get no empty item */
+    @Test
+    fun testInsertIntoEmptyGrid() {
+        assertInserts(
+            initial = listOf(),
+            inserted = listOf("a/", "a.txt"),
+            expected = listOf("a/", "a.txt"),
+            isList = false
+        )
+    }
+
+    /** Test files inserted below a folders' header with no files' header yet */
+    @Test
+    fun testInsertUnderFoldersHeaderOnly() {
+        assertInserts(
+            initial = listOf("a/", "c/"),
+            inserted = listOf("b/", "d/", "a.txt"),
+            expected = listOf(FOLDERS, "a/", "b/", "c/", "d/", "a.txt", END)
+        )
+    }
+
+    /** Test folders inserted above the files' header, with no folders' header yet */
+    @Test
+    fun testInsertAboveFilesHeaderOnly() {
+        assertInserts(
+            initial = listOf("m.txt"),
+            inserted = listOf("d/", "a.txt", "z.txt"),
+            expected = listOf("d/", FILES, "a.txt", "m.txt", "z.txt", END)
+        )
+    }
+
+    /** Test elements inserted among others of both headers, and the back item */
+    @Test
+    fun testInsertIntoPopulatedList() {
+        assertInserts(
+            initial = listOf(BACK, "b/", "d/", "b.txt", "d.txt"),
+            inserted = listOf("a/", "c/", "e/", "a.txt", "c.txt", "e.txt"),
+            expected = listOf(
+                FOLDERS, BACK, "a/", "b/", "c/", "d/", "e/",
+                FILES, "a.txt", "b.txt", "c.txt", "d.txt", "e.txt", END
+            )
+        )
+    }
+
+    /** Test elements inserted among others without headers */
+    @Test
+    fun testInsertIntoPopulatedListWithoutHeaders() {
+        assertInserts(
+            initial = listOf("b/", "b.txt"),
+            inserted = listOf("a/", "c/", "a.txt"),
+            expected = listOf("a/", "b/", "c/", "a.txt", "b.txt", END),
+            showHeaders = false
+        )
+    }
+
+    /**
+     * Creates an adapter of [initial] elements, inserts [inserted] and checks its items against
+     * [expected]. Names of directories end with a slash.
+     */
+    private fun assertInserts(
+        initial: List<String>,
+        inserted: List<String>,
+        expected: List<String>,
+        isList: Boolean = true,
+        showHeaders: Boolean = true
+    ) {
+        val scenario = ActivityScenario.launch(MainActivity::class.java)
+        shadowOf(getMainLooper()).idle()
+        scenario.moveToState(Lifecycle.State.STARTED).onActivity { activity ->
+            activity.prefs.edit().putBoolean(PREFERENCE_SHOW_HEADERS, showHeaders).commit()
+            val mainFragment = activity.currentMainFragment!!
+            mainFragment.mainFragmentViewModel!!.isList = isList
+
+            fun element(name: String): LayoutElementParcelable =
+                if (name == BACK) {
+                    LayoutElementParcelable(activity, true, "/storage", false)
+                } else {
+                    LayoutElementParcelable(
+                        activity, "/storage/test/${name.removeSuffix("/")}", "", "", "",
+                        0, false, "", name.endsWith("/"), false, OpenMode.FILE
+                    )
+                }
+
+            val adapter = RecyclerAdapter(
+                activity,
+                mainFragment,
+                activity.utilsProvider,
+                activity.prefs,
+                RecyclerView(activity),
+                initial.map(::element),
+                activity,
+                !isList
+            )
+            val insertedPositions = ArrayList<Int>()
+            adapter.registerAdapterDataObserver(object : RecyclerView.AdapterDataObserver() {
+                override fun onItemRangeInserted(positionStart: Int, itemCount: Int) {
+                    insertedPositions.addAll(positionStart until positionStart + itemCount)
+                }
+            })
+
+            adapter.insertItems(inserted.map(::element).sortedWith(sorter), sorter)
+
+            val items = adapter.itemsDigested.indices.map { label(adapter, it) }
+            assertEquals(expected, items)
+            // the notified positions hold exactly what was inserted, once all are applied
+            val notified = insertedPositions.map { items[it] }
+            assertEquals(inserted.toSet(), (notified - END).toSet())
+            assertEquals(initial.isEmpty() && isList, notified.contains(END))
+        }.moveToState(Lifecycle.State.DESTROYED).close()
+    }
+
+    private fun label(adapter: RecyclerAdapter, position: Int): String =
+        when (adapter.getItemViewType(position)) {
+            TYPE_HEADER_FOLDERS -> FOLDERS
+            TYPE_HEADER_FILES -> FILES
+            EMPTY_LAST_ITEM -> END
+            else -> adapter.itemsDigested[position].elem.run {
+                if (isBack) BACK else if (isDirectory) "$title/" else title
+            }
+        }
+
+    companion object {
+        private const val BACK = ".."
+        private const val FOLDERS = "[folders]"
+        private const val FILES = "[files]"
+        private const val END = "[end]"
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.asynchronous.management
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * Tests for [ProgressCounter].
+ */
+class ProgressCounterTest {
+
+    /**
+     * Updates from many threads at once must all be counted, as when an operation copies several
+     * files in parallel.
+     */
+    @Test
+    fun testConcurrentUpdates() {
+        val counter = ProgressCounter()
+        val threads = 8
+        val updatesPerThread = 100000
+        val executor = Executors.newFixedThreadPool(threads)
+        val start = CountDownLatch(1)
+        repeat(threads) {
+            executor.execute {
+                start.await()
+                repeat(updatesPerThread) {
+                    counter.updatePosition(3)
+                }
+            }
+        }
+        start.countDown()
+        executor.shutdown()
+        executor.awaitTermination(1, TimeUnit.MINUTES)
+
+        assertEquals(3L * threads * updatesPerThread, counter.get())
+    }
+
+    /**
+     * Every operation gets its own counter, updates to one don't show up in another.
+     */
+    @Test
+    fun testCountersAreIndependent() {
+        val copy = ProgressCounter()
+        val extract = ProgressCounter()
+        copy.updatePosition(1024)
+        extract.updatePosition(42)
+        copy.updatePosition(1024)
+
+        assertEquals(2048L, copy.get())
+        assertEquals(42L, extract.get())
+    }
+}
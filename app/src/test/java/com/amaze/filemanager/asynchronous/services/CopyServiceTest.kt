@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.asynchronous.services
+
+import android.app.Application
+import android.content.Context
+import android.content.Intent
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Looper.getMainLooper
+import androidx.test.core.app.ApplicationProvider
+import com.amaze.filemanager.asynchronous.services.CopyService.TAG_BROADCAST_COPY_CANCEL
+import com.amaze.filemanager.asynchronous.services.CopyService.TAG_COPY_MOVE
+import com.amaze.filemanager.asynchronous.services.CopyService.TAG_COPY_OPEN_MODE
+import com.amaze.filemanager.asynchronous.services.CopyService.TAG_COPY_SOURCES
+import com.amaze.filemanager.asynchronous.services.CopyService.TAG_COPY_TARGET
+import com.amaze.filemanager.file_operations.filesystem.OpenMode
+import com.amaze.filemanager.filesystem.HybridFile
+import com.amaze.filemanager.filesystem.HybridFileParcelable
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import com.amaze.filemanager.ui.activities.MainActivity.TAG_INTENT_FILTER_FAILED_OPS
+import com.amaze.filemanager.ui.activities.MainActivity.TAG_INTENT_FILTER_GENERAL
+import org.awaitility.Awaitility.await
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.android.controller.ServiceController
+import org.robolectric.annotation.Config
+import org.robolectric.annotation.LooperMode
+import java.io.File
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+@RunWith(RobolectricTestRunner::class)
+@LooperMode(LooperMode.Mode.PAUSED)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class CopyServiceTest {
+
+    private lateinit var context: Context
+    private lateinit var source: File
+    private lateinit var target: File
+
+    /** Creates empty source and target directories */
+    @Before
+    fun setUp() {
+        context = ApplicationProvider.getApplicationContext()
+        source = File(context.cacheDir, "copy-source").also { it.mkdirs() }
+        target = File(context.cacheDir, "copy-target").also { it.mkdirs() }
+    }
+
+    /** Deletes the source and target directories */
+    @After
+    fun tearDown() {
+        source.deleteRecursively()
+        target.deleteRecursively()
+    }
+
+    /**
+     * Test a tree copied by the workers, every file of it can only get to the target if its
+     * directories were created before it was handed to a worker
+     */
+    @Test
+    fun testCopyTree() {
+        val contents = writeTree("tree", 40, 10_000)
+        contents["lone.bin"] = Random(40).nextBytes(10_000).also {
+            File(source, "lone.bin").writeBytes(it)
+        }
+
+        awaitStopped(startCopy(listOf(File(source, "tree"), File(source, "lone.bin"))))
+
+        contents.forEach { (name, content) ->
+            assertArrayEquals(name, content, File(target, name).readBytes())
+        }
+        assertTrue(failedOpsBroadcasts().isEmpty())
+    }
+
+    /**
+     * Test a source failing in a worker fails it and every source after it, as the sequential
+     * copy does. The target of one file in the tree being a directory, it can't be written to.
+     */
+    @Test
+    @Config(sdk = [JELLY_BEAN])
+    fun testFailedOpsCollectedFromWorkers() {
+        writeTree("tree", 40, 1_000)
+        File(source, "lone.bin").writeBytes(Random(40).nextBytes(1_000))
+        File(source, "other.bin").writeBytes(Random(41).nextBytes(1_000))
+        File(target, "tree/1/1/13.bin").mkdirs()
+        val sources =
+            listOf(File(source, "tree"), File(source, "lone.bin"), File(source, "other.bin"))
+
+        awaitStopped(startCopy(sources))
+
+        val failedOps = failedOpsBroadcasts()
+        assertEquals(1, failedOps.size)
+        assertEquals(sources.map { it.path }.toSet(), failedOps[0].map { it.path }.toSet())
+    }
+
+    /** Test cancelling the copy leaves the workers nothing more to write to the target */
+    @Test
+    fun testCancelStopsWorkers() {
+        val contents = writeTree("big", 32, 4 * 1024 * 1024)
+
+        val service = startCopy(listOf(File(source, "big")))
+        await().pollInSameThread().atMost(10, TimeUnit.SECONDS).until {
+            targetFiles().any { it.length() > 0 }
+        }
+        context.sendBroadcast(Intent(TAG_BROADCAST_COPY_CANCEL))
+        awaitStopped(service)
+
+        val copied = targetFiles().sumOf { it.length() }
+        assertTrue(copied < contents.values.sumOf { it.size.toLong() })
+        Thread.sleep(500)
+        assertEquals(copied, targetFiles().sumOf { it.length() })
+    }
+
+    /** Writes [count] files of [size] bytes, spread over directories under [root] in the source */
+    private fun writeTree(root: String, count: Int, size: Int): MutableMap<String, ByteArray> {
+        val contents = HashMap<String, ByteArray>()
+        for (i in 0 until count) {
+            contents["$root/${i % 4}/${i % 3}/$i.bin"] = Random(i).nextBytes(size)
+        }
+        contents.forEach { (name, content) ->
+            File(source, name).run {
+                parentFile!!.mkdirs()
+                writeBytes(content)
+            }
+        }
+        return contents
+    }
+
+    private fun startCopy(sources: List<File>): ServiceController<CopyService> {
+        val files = sources.map {
+            HybridFileParcelable(it.path, "", it.lastModified(), it.length(), it.isDirectory)
+        }
+        val intent = Intent()
+            .setClass(context, CopyService::class.java)
+            .putParcelableArrayListExtra(TAG_COPY_SOURCES, ArrayList(files))
+            .putExtra(TAG_COPY_TARGET, target.path)
+            .putExtra(TAG_COPY_OPEN_MODE, OpenMode.FILE.ordinal)
+            .putExtra(TAG_COPY_MOVE, false)
+        return Robolectric.buildService(CopyService::class.java, intent).create().startCommand(0, 0)
+    }
+
+    /** Waits for the copy to finish, running the main looper so it can post its results */
+    private fun awaitStopped(service: ServiceController<CopyService>) {
+        await().pollInSameThread().atMost(30, TimeUnit.SECONDS).until {
+            shadowOf(getMainLooper()).idle()
+            shadowOf(service.get()).isStoppedBySelf
+        }
+    }
+
+    private fun targetFiles(): List<File> = target.walk().filter { it.isFile }.toList()
+
+    @Suppress("UNCHECKED_CAST")
+    private fun failedOpsBroadcasts(): List<List<HybridFile>> =
+        shadowOf(context as Application).broadcastIntents
+            .filter { it.action == TAG_INTENT_FILTER_GENERAL }
+            .map { it.getSerializableExtra(TAG_INTENT_FILTER_FAILED_OPS) as List<HybridFile> }
+}
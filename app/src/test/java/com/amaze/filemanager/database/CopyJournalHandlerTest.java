@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.database;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.database.models.utilities.CopyJournalEntry;
+import com.amaze.filemanager.shadows.ShadowMultiDex;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class CopyJournalHandlerTest {
+
+  private final CopyJournalHandler copyJournal = CopyJournalHandler.getInstance();
+
+  @After
+  public void tearDown() {
+    copyJournal.clear("copy");
+    copyJournal.clear("move");
+  }
+
+  /** Test entries are found again by operation and source path */
+  @Test
+  public void testSaveEntry() {
+    copyJournal.saveEntry(new CopyJournalEntry("copy", "/a", "/target/a", 10, 1000));
+    copyJournal.saveEntry(new CopyJournalEntry("copy", "/b", "/target/b", 20, 2000));
+    copyJournal.saveEntry(new CopyJournalEntry("move", "/a", "/elsewhere/a", 10, 1000));
+
+    Map<String, CopyJournalEntry> entries = copyJournal.getEntries("copy");
+    assertEquals(2, entries.size());
+    assertTrue(entries.get("/a").matches("/target/a", 10, 1000));
+    assertTrue(entries.get("/b").matches("/target/b", 20, 2000));
+    assertTrue(copyJournal.getEntries("move").get("/a").matches("/elsewhere/a", 10, 1000));
+  }
+
+  /** Test saving the same source twice for an operation keeps only the last progress */
+  @Test
+  public void testSaveEntryReplaces() {
+    CopyJournalEntry entry = new CopyJournalEntry("copy", "/a", "/target/a", 10, 1000);
+    entry.bytesCopied = 4;
+    copyJournal.saveEntry(entry);
+    entry = new CopyJournalEntry("copy", "/a", "/target/a", 10, 1000);
+    entry.bytesCopied = 10;
+    entry.completed = true;
+    copyJournal.saveEntry(entry);
+
+    Map<String, CopyJournalEntry> entries = copyJournal.getEntries("copy");
+    assertEquals(1, entries.size());
+    assertEquals(10, entries.get("/a").bytesCopied);
+    assertTrue(entries.get("/a").completed);
+  }
+
+  /** Test clearing an operation leaves the others alone */
+  @Test
+  public void testClear() {
+    copyJournal.saveEntry(new CopyJournalEntry("copy", "/a", "/target/a", 10, 1000));
+    copyJournal.saveEntry(new CopyJournalEntry("move", "/a", "/elsewhere/a", 10, 1000));
+
+    copyJournal.clear("copy");
+
+    assertTrue(copyJournal.getEntries("copy").isEmpty());
+    assertEquals(1, copyJournal.getEntries("move").size());
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.database;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static com.amaze.filemanager.database.UtilitiesDatabase.COLUMN_NAME;
+import static com.amaze.filemanager.database.UtilitiesDatabase.COLUMN_PATH;
+import static com.amaze.filemanager.database.UtilitiesDatabase.MIGRATION_5_6;
+import static com.amaze.filemanager.database.UtilitiesDatabase.TABLE_BOOKMARKS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.database.models.utilities.Bookmark;
+import com.amaze.filemanager.database.models.utilities.CopyJournalEntry;
+import com.amaze.filemanager.shadows.ShadowMultiDex;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.framework.FrameworkSQLiteOpenHelperFactory;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import io.reactivex.schedulers.Schedulers;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class UtilitiesDatabaseMigrationTest {
+
+  private static final String TEST_DB = "utilities-test";
+
+  @Rule
+  public final MigrationTestHelper helper =
+      new MigrationTestHelper(
+          InstrumentationRegistry.getInstrumentation(),
+          UtilitiesDatabase.class.getCanonicalName(),
+          new FrameworkSQLiteOpenHelperFactory());
+
+  @Test
+  public void migrateAndValidateFromV5() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 5);
+    db.close();
+
+    db = helper.runMigrationsAndValidate(TEST_DB, 6, true, MIGRATION_5_6);
+    db.close();
+  }
+
+  @Test
+  public void migrateFromV5() throws IOException {
+    SupportSQLiteDatabase db = helper.createDatabase(TEST_DB, 5);
+    db.execSQL(
+        "INSERT INTO "
+            + TABLE_BOOKMARKS
+            + "("
+            + COLUMN_NAME
+            + ","
+            + COLUMN_PATH
+            + ") VALUES ('Downloads','/storage/emulated/0/Download')");
+    db.close();
+
+    UtilitiesDatabase utilitiesDatabase =
+        Room.databaseBuilder(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                UtilitiesDatabase.class,
+                TEST_DB)
+            .addMigrations(MIGRATION_5_6)
+            .allowMainThreadQueries()
+            .build();
+    utilitiesDatabase.getOpenHelper().getWritableDatabase();
+
+    List<Bookmark> bookmarks =
+        utilitiesDatabase
+            .bookmarkEntryDao()
+            .list()
+            .subscribeOn(Schedulers.trampoline())
+            .blockingGet();
+    assertEquals(1, bookmarks.size());
+    assertEquals("Downloads", bookmarks.get(0).name);
+    assertEquals("/storage/emulated/0/Download", bookmarks.get(0).path);
+
+    CopyJournalEntry entry = new CopyJournalEntry("copy", "/source", "/target", 100, 1000);
+    entry.bytesCopied = 50;
+    utilitiesDatabase
+        .copyJournalEntryDao()
+        .insert(entry)
+        .subscribeOn(Schedulers.trampoline())
+        .blockingAwait();
+    List<CopyJournalEntry> entries =
+        utilitiesDatabase
+            .copyJournalEntryDao()
+            .findByOperation("copy")
+            .subscribeOn(Schedulers.trampoline())
+            .blockingGet();
+    assertEquals(1, entries.size());
+    assertTrue(entries.get(0).matches("/target", 100, 1000));
+    assertEquals(50, entries.get(0).bytesCopied);
+    assertFalse(entries.get(0).completed);
+
+    utilitiesDatabase.close();
+  }
+}
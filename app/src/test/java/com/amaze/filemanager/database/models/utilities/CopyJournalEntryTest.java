@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.database.models.utilities;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CopyJournalEntryTest {
+
+  /** Test a partial copy resumes after the bytes confirmed to have reached the target */
+  @Test
+  public void testGetResumeOffsetPartial() {
+    CopyJournalEntry entry = new CopyJournalEntry("copy", "/a", "/target/a", 100, 1000);
+    entry.bytesCopied = 40;
+    assertEquals(40, entry.getResumeOffset("/target/a", 100, 1000, 60));
+    // target was cut after the journal was saved
+    assertEquals(0, entry.getResumeOffset("/target/a", 100, 1000, 30));
+  }
+
+  /** Test a completed copy keeps the target only if it's whole */
+  @Test
+  public void testGetResumeOffsetCompleted() {
+    CopyJournalEntry entry = new CopyJournalEntry("copy", "/a", "/target/a", 100, 1000);
+    entry.bytesCopied = 96;
+    entry.completed = true;
+    assertEquals(100, entry.getResumeOffset("/target/a", 100, 1000, 100));
+    assertEquals(0, entry.getResumeOffset("/target/a", 100, 1000, 50));
+  }
+
+  /** Test nothing is kept when the source changed, or the target isn't the journaled one */
+  @Test
+  public void testGetResumeOffsetMismatch() {
+    CopyJournalEntry entry = new CopyJournalEntry("copy", "/a", "/target/a", 100, 1000);
+    entry.bytesCopied = 40;
+    assertEquals(0, entry.getResumeOffset("/target/a", 101, 1000, 60));
+    assertEquals(0, entry.getResumeOffset("/target/a", 100, 2000, 60));
+    assertEquals(0, entry.getResumeOffset("/elsewhere/a", 100, 1000, 60));
+  }
+}
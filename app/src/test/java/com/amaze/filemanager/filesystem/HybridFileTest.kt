@@ -28,9 +28,11 @@ import androidx.test.ext.junit.runners.AndroidJUnit4
 import com.amaze.filemanager.file_operations.filesystem.OpenMode
 import com.amaze.filemanager.shadows.ShadowMultiDex
 import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.robolectric.annotation.Config
+import java.io.File
 import kotlin.random.Random
 
 @RunWith(AndroidJUnit4::class)
@@ -79,4 +81,35 @@ class HybridFileTest {
             file.getParent(ApplicationProvider.getApplicationContext())
         )
     }
+
+    /**
+     * Test [HybridFile.getOutputStream] keeps a local file's first bytes and drops the rest.
+     */
+    @Test
+    fun testGetOutputStreamAtOffset() {
+        val file = File.createTempFile("hybrid", "txt")
+        try {
+            file.writeText("0123456789")
+            HybridFile(OpenMode.FILE, file.absolutePath)
+                .getOutputStream(ApplicationProvider.getApplicationContext(), 4)!!
+                .use { it.write("ab".toByteArray()) }
+            assertEquals("0123ab", file.readText())
+
+            HybridFile(OpenMode.FILE, file.absolutePath)
+                .getOutputStream(ApplicationProvider.getApplicationContext(), 0)!!
+                .use { it.write("cd".toByteArray()) }
+            assertEquals("cd", file.readText())
+        } finally {
+            file.delete()
+        }
+    }
+
+    /**
+     * Test [HybridFile.getOutputStream] refuses an offset in files it can't write at one.
+     */
+    @Test
+    fun testGetOutputStreamAtOffsetUnsupported() {
+        val file = HybridFile(OpenMode.DROPBOX, "dropbox:/file.txt")
+        assertNull(file.getOutputStream(ApplicationProvider.getApplicationContext(), 4))
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.content.Context
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.net.Uri
+import android.os.Build.VERSION_CODES.P
+import android.provider.DocumentsContract
+import android.provider.DocumentsContract.Document
+import androidx.documentfile.provider.DocumentFile
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.file_operations.filesystem.OpenMode
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import com.amaze.filemanager.utils.OnFileFound
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.annotation.Config
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [P])
+class SafDocumentTreeTest {
+
+    companion object {
+        private const val AUTHORITY = "com.amaze.filemanager.test.documents"
+        private const val ROOT_ID = "root"
+    }
+
+    private lateinit var provider: FakeDocumentsProvider
+    private lateinit var treeUri: Uri
+
+    /** Sets up root/music/albums/track.mp3 and root/notes.txt */
+    @Before
+    fun setUp() {
+        provider = Robolectric.setupContentProvider(FakeDocumentsProvider::class.java, AUTHORITY)
+        provider.add(ROOT_ID, FakeDocument("1", "music", Document.MIME_TYPE_DIR, 0))
+        provider.add(ROOT_ID, FakeDocument("2", "notes.txt", "text/plain", 12))
+        provider.add("1", FakeDocument("3", "albums", Document.MIME_TYPE_DIR, 0))
+        provider.add("3", FakeDocument("4", "track.mp3", "audio/mpeg", 4096))
+        // ids are unique per test, as the tree is cached across them
+        treeUri = DocumentsContract.buildTreeDocumentUri(AUTHORITY, ROOT_ID + System.nanoTime())
+        provider.alias(DocumentsContract.getTreeDocumentId(treeUri), ROOT_ID)
+    }
+
+    /** Test [SafDocumentTree.listFiles] gives every property of the files with one query */
+    @Test
+    fun testListFiles() {
+        val files = list(listOf(), "otg:/")
+        assertEquals(1, provider.queries)
+        assertEquals(2, files.size)
+
+        val music = files.first { it.name == "music" }
+        assertTrue(music.isDirectory)
+        assertEquals("otg://music", music.path)
+        assertEquals(OpenMode.OTG, music.mode)
+        assertEquals(DocumentsContract.buildDocumentUriUsingTree(treeUri, "1"), music.fullUri)
+
+        val notes = files.first { it.name == "notes.txt" }
+        assertFalse(notes.isDirectory)
+        assertEquals(12L, notes.size)
+        assertEquals(1000L, notes.date)
+        assertEquals("rwx", notes.permission)
+    }
+
+    /** Test [SafDocumentTree.listFiles] doesn't walk the path again for directories it has seen */
+    @Test
+    fun testListFilesRemembersDirectories() {
+        assertEquals(1, list(listOf("music", "albums"), "otg://music/albums").size)
+        // two lookups for the path, one listing
+        assertEquals(3, provider.queries)
+
+        provider.queries = 0
+        assertEquals(1, list(listOf("music", "albums"), "otg://music/albums").size)
+        assertEquals(1, provider.queries)
+
+        // directories listed are known too
+        list(listOf(), "otg:/")
+        provider.queries = 0
+        list(listOf("music"), "otg://music")
+        assertEquals(1, provider.queries)
+    }
+
+    /** Test [SafDocumentTree.listFiles] for directories gone since they were seen */
+    @Test
+    fun testListFilesForgetsDeletedDirectories() {
+        list(listOf("music", "albums"), "otg://music/albums")
+        provider.remove("1", "3")
+
+        val found = SafDocumentTree.listFiles(
+            ApplicationProvider.getApplicationContext(),
+            treeUri,
+            listOf("music", "albums"),
+            "otg://music/albums",
+            OpenMode.OTG,
+            object : OnFileFound {
+                override fun onFileFound(file: HybridFileParcelable) = Unit
+            }
+        )
+        assertFalse(found)
+
+        // a new directory with the same name is found
+        provider.add("1", FakeDocument("5", "albums", Document.MIME_TYPE_DIR, 0))
+        assertEquals(0, list(listOf("music", "albums"), "otg://music/albums").size)
+    }
+
+    /** Test [SafDocumentTree.getDocumentFile] against walking with [DocumentFile.findFile] */
+    @Test
+    fun testGetDocumentFileQueries() {
+        for (i in 1..20) {
+            provider.add("3", FakeDocument("t$i", "track$i.mp3", "audio/mpeg", 4096))
+        }
+        provider.add("3", FakeDocument("6", "last.mp3", "audio/mpeg", 4096))
+        val parts = listOf("music", "albums", "last.mp3")
+        val context = ApplicationProvider.getApplicationContext<Context>()
+
+        var walked = DocumentFile.fromTreeUri(context, treeUri)
+        for (part in parts) {
+            walked = walked!!.findFile(part)
+        }
+        // a listing and a name for each sibling before the one looked for, for each segment
+        assertEquals(27, provider.queries)
+
+        provider.queries = 0
+        val found = SafDocumentTree.getDocumentFile(context, treeUri, parts)
+        assertEquals(walked!!.uri, found!!.uri)
+        // a lookup and a listing for each segment, whatever the number of siblings
+        assertEquals(6, provider.queries)
+
+        provider.queries = 0
+        assertEquals(walked.uri, SafDocumentTree.getDocumentFile(context, treeUri, parts)!!.uri)
+        assertEquals(0, provider.queries)
+
+        // siblings start from their parent
+        SafDocumentTree.getDocumentFile(context, treeUri, listOf("music", "albums", "track1.mp3"))
+        assertEquals(2, provider.queries)
+
+        // directories known from a listing don't have to be looked up
+        SafDocumentTree.invalidate(treeUri, listOf("music"))
+        list(listOf(), "otg:/")
+        provider.queries = 0
+        SafDocumentTree.getDocumentFile(context, treeUri, listOf("music"))
+        assertEquals(1, provider.queries)
+    }
+
+    /** Test [SafDocumentTree.getDocumentFile] for directories replaced since they were listed */
+    @Test
+    fun testGetDocumentFileWithStaleId() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        list(listOf("music"), "otg://music")
+        provider.remove("1", "3")
+        provider.add("1", FakeDocument("5", "albums", Document.MIME_TYPE_DIR, 0))
+
+        provider.queries = 0
+        val found = SafDocumentTree.getDocumentFile(context, treeUri, listOf("music", "albums"))
+        assertEquals(DocumentsContract.buildDocumentUriUsingTree(treeUri, "5"), found!!.uri)
+        // a listing for each segment, and a lookup once the id known for albums didn't match
+        assertEquals(3, provider.queries)
+    }
+
+    /** Test [SafDocumentTree.invalidate] makes paths be looked up again */
+    @Test
+    fun testInvalidate() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        val parts = listOf("music", "albums", "track.mp3")
+        assertEquals("track.mp3", SafDocumentTree.getDocumentFile(context, treeUri, parts)!!.name)
+
+        provider.remove("1", "3")
+        provider.add("1", FakeDocument("5", "albums", Document.MIME_TYPE_DIR, 0))
+        provider.add("5", FakeDocument("7", "track.mp3", "audio/mpeg", 4096))
+        SafDocumentTree.invalidate(treeUri, listOf("music", "albums"))
+
+        provider.queries = 0
+        val found = SafDocumentTree.getDocumentFile(context, treeUri, parts)
+        assertEquals(DocumentsContract.buildDocumentUriUsingTree(treeUri, "7"), found!!.uri)
+        // music is still known
+        assertEquals(4, provider.queries)
+    }
+
+    private fun list(parts: List<String>, path: String): List<HybridFileParcelable> {
+        val files = ArrayList<HybridFileParcelable>()
+        val found = SafDocumentTree.listFiles(
+            ApplicationProvider.getApplicationContext(),
+            treeUri,
+            parts,
+            path,
+            OpenMode.OTG,
+            object : OnFileFound {
+                override fun onFileFound(file: HybridFileParcelable) {
+                    files.add(file)
+                }
+            }
+        )
+        assertTrue(found)
+        return files
+    }
+
+    data class FakeDocument(val id: String, val name: String, val mimeType: String, val size: Long)
+
+    /** Provider answering document and child document queries, and counting them */
+    class FakeDocumentsProvider : ContentProvider() {
+        private val documents = HashMap<String, FakeDocument>()
+        private val children = HashMap<String, MutableList<FakeDocument>>()
+        private val aliases = HashMap<String, String>()
+        var queries = 0
+
+        fun add(parentId: String, document: FakeDocument) {
+            documents[document.id] = document
+            children.getOrPut(parentId) { ArrayList() }.add(document)
+            children.getOrPut(document.id) { ArrayList() }
+        }
+
+        fun remove(parentId: String, id: String) {
+            children[parentId]?.removeAll { it.id == id }
+            children.remove(id)
+            documents.remove(id)
+        }
+
+        fun alias(alias: String, id: String) {
+            aliases[alias] = id
+        }
+
+        override fun query(
+            uri: Uri,
+            projection: Array<String>?,
+            selection: String?,
+            selectionArgs: Array<String>?,
+            sortOrder: String?
+        ): Cursor? {
+            queries++
+            val documentId = DocumentsContract.getDocumentId(uri)
+            val rows = if (uri.lastPathSegment == "children") {
+                children[aliases[documentId] ?: documentId] ?: return null
+            } else {
+                listOf(documents[documentId] ?: return null)
+            }
+            val columns = projection ?: arrayOf(Document.COLUMN_DOCUMENT_ID)
+            val cursor = MatrixCursor(columns)
+            for (document in rows) {
+                cursor.addRow(
+                    columns.map {
+                        when (it) {
+                            Document.COLUMN_DOCUMENT_ID -> document.id
+                            Document.COLUMN_DISPLAY_NAME -> document.name
+                            Document.COLUMN_MIME_TYPE -> document.mimeType
+                            Document.COLUMN_SIZE -> document.size
+                            Document.COLUMN_LAST_MODIFIED -> 1000L
+                            Document.COLUMN_FLAGS -> Document.FLAG_SUPPORTS_DELETE
+                            else -> null
+                        }
+                    }
+                )
+            }
+            return cursor
+        }
+
+        override fun onCreate(): Boolean = true
+
+        override fun getType(uri: Uri): String? = null
+
+        override fun insert(uri: Uri, values: ContentValues?): Uri? = null
+
+        override fun delete(uri: Uri, selection: String?, selectionArgs: Array<String>?): Int = 0
+
+        override fun update(
+            uri: Uri,
+            values: ContentValues?,
+            selection: String?,
+            selectionArgs: Array<String>?
+        ): Int = 0
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Environment
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.File
+import java.io.FileInputStream
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class ArchiveIndexTest {
+
+    private lateinit var archive: File
+    private lateinit var cacheDir: File
+    private var builds = 0
+
+    /** Copies test-archive.tar into the storage Robolectric provides for each test */
+    @Before
+    fun setUp() {
+        val storage = Environment.getExternalStorageDirectory()
+        archive = File(storage, "test-archive.tar")
+        File("src/test/resources/test-archive.tar").copyTo(archive)
+        cacheDir = File(storage, "cache")
+        ArchiveIndex.clear()
+    }
+
+    /** Test [ArchiveIndex.list] for each level of the archive */
+    @Test
+    fun testList() {
+        val index = get()
+        assertFalse(index.hasInvalidEntries)
+        assertEquals(listOf("test-archive"), index.list("").map { it.name })
+        assertEquals(
+            setOf("1", "2", "3", "4", "a").map { "test-archive/$it" }.toSet(),
+            index.list("test-archive").map { it.name }.toSet()
+        )
+        assertTrue(index.list("test-archive").all { it.isDirectory })
+
+        val file = index.list("test-archive/a/b/c/d").single()
+        assertEquals("test-archive/a/b/c/d/lipsum.bin", file.name)
+        assertFalse(file.isDirectory)
+        assertEquals(512L, file.size)
+        // tar headers are 512 bytes, data follows its header
+        assertEquals(0L, file.offset % 512)
+
+        assertTrue(index.list("not-in-archive").isEmpty())
+    }
+
+    /** Test [ArchiveIndex.get] reads the archive once */
+    @Test
+    fun testGetKeepsIndexInMemory() {
+        val index = get()
+        assertSame(index, get())
+        assertEquals(1, builds)
+    }
+
+    /** Test [ArchiveIndex.get] reads the index written in the cache directory */
+    @Test
+    fun testGetReadsPersistedIndex() {
+        val index = get()
+        ArchiveIndex.clear()
+        assertEquals(index.entries, get().entries)
+        assertEquals(1, builds)
+    }
+
+    /** Test [ArchiveIndex.get] reads the archive again once it's changed */
+    @Test
+    fun testGetAfterArchiveChange() {
+        get()
+        archive.setLastModified(archive.lastModified() - 10_000)
+        get()
+        assertEquals(2, builds)
+    }
+
+    private fun get(): ArchiveIndex {
+        return ArchiveIndex.get(archive, cacheDir) {
+            builds++
+            TarArchiveInputStream(FileInputStream(archive)).use { ArchiveIndex.build(it) }
+        }
+    }
+}
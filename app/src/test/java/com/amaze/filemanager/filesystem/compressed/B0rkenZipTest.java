@@ -40,7 +40,7 @@ import org.robolectric.shadows.ShadowToast;
 import com.amaze.filemanager.R;
 import com.amaze.filemanager.adapters.data.CompressedObjectParcelable;
 import com.amaze.filemanager.asynchronous.asynctasks.compress.ZipHelperTask;
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil;
+import com.amaze.filemanager.asynchronous.management.ProgressCounter;
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor;
 import com.amaze.filemanager.filesystem.compressed.extractcontents.helpers.ZipExtractor;
 import com.amaze.filemanager.shadows.ShadowMultiDex;
@@ -100,7 +100,7 @@ public class B0rkenZipTest {
             zipfile1.getAbsolutePath(),
             Environment.getExternalStorageDirectory().getAbsolutePath(),
             emptyListener,
-            ServiceWatcherUtil.UPDATE_POSITION);
+            new ProgressCounter());
     extractor.extractEverything();
     assertEquals(1, extractor.getInvalidArchiveEntries().size());
     assertTrue(new File(Environment.getExternalStorageDirectory(), "good.txt").exists());
@@ -114,7 +114,7 @@ public class B0rkenZipTest {
             zipfile2.getAbsolutePath(),
             Environment.getExternalStorageDirectory().getAbsolutePath(),
             emptyListener,
-            ServiceWatcherUtil.UPDATE_POSITION);
+            new ProgressCounter());
     extractor.extractEverything();
     assertEquals(1, extractor.getInvalidArchiveEntries().size());
     assertTrue(new File(Environment.getExternalStorageDirectory(), "good.txt").exists());
@@ -128,7 +128,7 @@ public class B0rkenZipTest {
             zipfile3.getAbsolutePath(),
             Environment.getExternalStorageDirectory().getAbsolutePath(),
             emptyListener,
-            ServiceWatcherUtil.UPDATE_POSITION);
+            new ProgressCounter());
     extractor.extractFiles(new String[] {"/test.txt"});
     assertEquals(0, extractor.getInvalidArchiveEntries().size());
     assertTrue(new File(Environment.getExternalStorageDirectory(), "test.txt").exists());
@@ -34,7 +34,7 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.robolectric.annotation.Config;
 
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil;
+import com.amaze.filemanager.asynchronous.management.ProgressCounter;
 import com.amaze.filemanager.file_operations.utils.UpdatePosition;
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor;
 import com.amaze.filemanager.filesystem.compressed.extractcontents.helpers.Bzip2Extractor;
@@ -97,7 +97,7 @@ public class CompressedHelperTest {
    */
   @Test
   public void getExtractorInstance() {
-    UpdatePosition updatePosition = ServiceWatcherUtil.UPDATE_POSITION;
+    UpdatePosition updatePosition = new ProgressCounter();
 
     File file = new File("/test/test.zip"); // .zip used by ZipExtractor
     Extractor result =
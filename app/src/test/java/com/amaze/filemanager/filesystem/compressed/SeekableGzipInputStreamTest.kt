@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Environment
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import org.apache.commons.compress.utils.IOUtils
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.io.FileInputStream
+import java.util.Random
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import java.util.zip.ZipException
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class SeekableGzipInputStreamTest {
+
+    private lateinit var archive: File
+    private lateinit var expected: ByteArray
+
+    /** Gzips 1 MiB of somewhat compressible data into the storage Robolectric provides */
+    @Before
+    fun setUp() {
+        archive = File(Environment.getExternalStorageDirectory(), "data.gz")
+        val random = Random(0)
+        val words = listOf("amaze", "file", "manager", "gzip", "tar", "seek", "\n")
+        expected = ByteArrayOutputStream().run {
+            while (size() < 1024 * 1024) {
+                write(words[random.nextInt(words.size)].toByteArray())
+                write(random.nextInt(256))
+            }
+            toByteArray()
+        }
+        GZIPOutputStream(archive.outputStream()).use { it.write(expected) }
+    }
+
+    /** Test [SeekableGzipInputStream] reads what [GZIPInputStream] does */
+    @Test
+    fun testReadTestArchive() {
+        val file = File("src/test/resources/test-archive.tar.gz")
+        val expected = GZIPInputStream(FileInputStream(file)).use { IOUtils.toByteArray(it) }
+        val actual = SeekableGzipInputStream(file).use { IOUtils.toByteArray(it) }
+        assertArrayEquals(expected, actual)
+    }
+
+    /** Test [SeekableGzipInputStream.open] at offsets around each checkpoint */
+    @Test
+    fun testOpenAtCheckpoints() {
+        val index = record(64 * 1024)
+        assertTrue(index.checkpoints.size > 4)
+
+        for (checkpoint in index.checkpoints) {
+            assertReadsFrom(index, checkpoint.uncompressedOffset - 1)
+            assertReadsFrom(index, checkpoint.uncompressedOffset)
+        }
+        assertReadsFrom(index, 0)
+        assertReadsFrom(index, expected.size.toLong() - 10)
+    }
+
+    /** Test [GzipCheckpointIndex] is read back the way it was written */
+    @Test
+    fun testWriteAndRead() {
+        val index = record(64 * 1024)
+        val bytes = ByteArrayOutputStream().also { index.write(DataOutputStream(it)) }
+        val read = GzipCheckpointIndex.read(
+            DataInputStream(ByteArrayInputStream(bytes.toByteArray()))
+        )
+
+        assertEquals(index.checkpoints.size, read.checkpoints.size)
+        assertReadsFrom(read, expected.size / 2L)
+    }
+
+    /** Test [GzipCheckpointIndex.Builder] keeps at most [GzipCheckpointIndex.MAX_CHECKPOINTS] */
+    @Test
+    fun testCheckpointsAreThinnedOut() {
+        val index = record(1024)
+        assertTrue(index.checkpoints.size <= GzipCheckpointIndex.MAX_CHECKPOINTS)
+        assertReadsFrom(index, expected.size / 3L)
+    }
+
+    /** Test a stream read from its start to its end is checked against the gzip trailer */
+    @Test
+    fun testCorruptTrailer() {
+        val index = record(64 * 1024)
+        val bytes = archive.readBytes()
+        // first byte of the CRC
+        bytes[bytes.size - 8] = (bytes[bytes.size - 8] + 1).toByte()
+        archive.writeBytes(bytes)
+
+        assertThrows(ZipException::class.java) {
+            SeekableGzipInputStream(archive).use { IOUtils.toByteArray(it) }
+        }
+        assertThrows(ZipException::class.java) {
+            SeekableGzipInputStream.open(archive, index, 0).use { IOUtils.toByteArray(it) }
+        }
+        // first block, after the 10 bytes of header GZIPOutputStream writes
+        val first = GzipCheckpointIndex.Checkpoint(0, 10 * 8, 0, ByteArray(0))
+        assertThrows(ZipException::class.java) {
+            SeekableGzipInputStream(archive, first).use { IOUtils.toByteArray(it) }
+        }
+        // the CRC of what precedes a checkpoint is unknown, so only the data is read
+        val checkpoint = index.checkpoints.last()
+        SeekableGzipInputStream(archive, checkpoint).use {
+            val actual = IOUtils.toByteArray(it)
+            val start = checkpoint.uncompressedOffset.toInt()
+            assertArrayEquals(expected.copyOfRange(start, expected.size), actual)
+        }
+    }
+
+    /** Test [SeekableGzipInputStream.skip] moves forward only, and not past the end */
+    @Test
+    fun testSkip() {
+        SeekableGzipInputStream(archive).use {
+            assertEquals(0L, it.skip(-1))
+            assertEquals(0L, it.skip(0))
+            assertEquals(0L, it.position)
+            assertEquals(100_000L, it.skip(100_000))
+            assertEquals(100_000L, it.position)
+            assertEquals(expected[100_000].toInt() and 0xff, it.read())
+            assertEquals(expected.size - 100_001L, it.skip(Long.MAX_VALUE))
+            assertEquals(0L, it.skip(1))
+            assertEquals(-1, it.read())
+        }
+    }
+
+    /** Test over-subscribed and incomplete dynamic Huffman codes are rejected */
+    @Test
+    fun testInvalidHuffmanCodes() {
+        // code lengths code of four 1 bit codes
+        assertInvalid(dynamicBlock(intArrayOf(1, 1, 1, 1)) {})
+        // code lengths code of a single 1 bit code
+        assertInvalid(dynamicBlock(intArrayOf(1, 0, 0, 0)) {})
+        // every literal/length of 1 bit, symbol 1 being code 1 of the code lengths code
+        assertInvalid(
+            dynamicBlock(codeLengths(mapOf(0 to 1, 1 to 1))) {
+                repeat(258) { code(1, 1) }
+            }
+        )
+        // only 'a' and the end of block, both of 2 bits, symbol 2 being code 11
+        assertInvalid(
+            dynamicBlock(codeLengths(mapOf(0 to 1, 1 to 2, 2 to 2))) {
+                repeat('a'.code) { code(0, 1) }
+                code(3, 2)
+                repeat(256 - 'a'.code - 1) { code(0, 1) }
+                code(3, 2)
+                code(0, 1)
+            }
+        )
+    }
+
+    private fun assertInvalid(deflated: ByteArray) {
+        val file = File(Environment.getExternalStorageDirectory(), "invalid.gz")
+        file.writeBytes(
+            byteArrayOf(0x1f, 0x8b.toByte(), 8, 0, 0, 0, 0, 0, 0, 0xff.toByte()) +
+                deflated + ByteArray(8)
+        )
+        assertThrows(ZipException::class.java) {
+            SeekableGzipInputStream(file).use { IOUtils.toByteArray(it) }
+        }
+    }
+
+    /** @return the lengths of the code lengths code in their order in a dynamic block header */
+    private fun codeLengths(lengths: Map<Int, Int>): IntArray {
+        val order = intArrayOf(16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15)
+        val count = order.indexOfLast { lengths.containsKey(it) } + 1
+        return IntArray(count) { lengths[order[it]] ?: 0 }
+    }
+
+    /**
+     * @return a final dynamic block of 257 literal/length and 1 distance codes, with
+     * {@param codeLengths} and the lengths written by {@param writeLengths}
+     */
+    private fun dynamicBlock(codeLengths: IntArray, writeLengths: BitWriter.() -> Unit) =
+        BitWriter().apply {
+            bits(1, 1)
+            bits(2, 2)
+            bits(0, 5)
+            bits(0, 5)
+            bits(codeLengths.size - 4, 4)
+            codeLengths.forEach { bits(it, 3) }
+            writeLengths()
+        }.toByteArray()
+
+    /** Writes deflate bits, least significant first, and Huffman codes most significant first */
+    private class BitWriter {
+        private val out = ByteArrayOutputStream()
+        private var buffer = 0
+        private var count = 0
+
+        fun bits(value: Int, n: Int) {
+            buffer = buffer or (value shl count)
+            count += n
+            while (count >= 8) {
+                out.write(buffer and 0xff)
+                buffer = buffer ushr 8
+                count -= 8
+            }
+        }
+
+        fun code(code: Int, length: Int) {
+            for (i in length - 1 downTo 0) bits(code ushr i and 1, 1)
+        }
+
+        fun toByteArray(): ByteArray {
+            if (count > 0) bits(0, 8 - count)
+            return out.toByteArray()
+        }
+    }
+
+    private fun record(span: Long): GzipCheckpointIndex {
+        val recorder = GzipCheckpointIndex.Builder(span)
+        val actual = SeekableGzipInputStream(archive, recorder).use { IOUtils.toByteArray(it) }
+        assertArrayEquals(expected, actual)
+        return recorder.build()
+    }
+
+    private fun assertReadsFrom(index: GzipCheckpointIndex, offset: Long) {
+        SeekableGzipInputStream.open(archive, index, offset).use {
+            assertEquals(offset, it.position)
+            val start = offset.toInt()
+            val actual = ByteArray(4096.coerceAtMost(expected.size - start))
+            IOUtils.readFully(it, actual)
+            assertArrayEquals(expected.copyOfRange(start, start + actual.size), actual)
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed
+
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Environment
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.asynchronous.management.ProgressCounter
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import net.lingala.zip4j.ZipFile
+import org.apache.commons.compress.archivers.zip.ZipShort
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.File
+import java.util.Collections
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class ZipCompressorTest {
+
+    private lateinit var storage: File
+    private lateinit var spillDirectory: File
+    private lateinit var sources: List<File>
+    private val contents = HashMap<String, ByteArray>()
+
+    /** Creates a directory tree and a lone file to compress in the Robolectric storage */
+    @Before
+    fun setUp() {
+        storage = Environment.getExternalStorageDirectory()
+        spillDirectory = File(storage, "spill").also { it.mkdir() }
+        val tree = File(storage, "tree")
+        for (i in 0 until 60) {
+            val name = "tree/${i % 5}/${i % 3}/$i.txt"
+            contents[name] = "$i ".repeat(i * 100).toByteArray()
+        }
+        contents["lone.bin"] = ByteArray(100_000) { (it % 251).toByte() }
+        contents.forEach { (name, content) ->
+            File(storage, name).run {
+                parentFile!!.mkdirs()
+                writeBytes(content)
+            }
+        }
+        sources = listOf(tree, File(storage, "lone.bin"))
+    }
+
+    /**
+     * Test [ZipCompressor.compress] on the calling thread, with ZIP64 fields as entry sizes aren't
+     * known before writing them
+     */
+    @Test
+    fun testCompress() {
+        val zip = assertCompresses(1)
+        org.apache.commons.compress.archivers.zip.ZipFile(zip).use { zipFile ->
+            for (entry in zipFile.entries) {
+                assertNotNull(entry.getExtraField(ZIP64_EXTRA_FIELD))
+            }
+        }
+    }
+
+    /** Test [ZipCompressor.compress] falls back to the calling thread without room to spill */
+    @Test
+    fun testCompressWithoutRoomToSpill() {
+        spillDirectory.delete()
+        assertCompresses(4)
+    }
+
+    /** Test [ZipCompressor.compress] with workers, leaving no spill file behind */
+    @Test
+    fun testCompressInParallel() {
+        assertCompresses(4)
+        assertTrue(spillDirectory.list()!!.isEmpty())
+    }
+
+    private fun assertCompresses(parallelism: Int): File {
+        val zip = File(storage, "out-$parallelism.zip")
+        val progress = ProgressCounter()
+        val entries = Collections.synchronizedList(ArrayList<Pair<Int, File>>())
+        ZipCompressor(spillDirectory, parallelism, progress) { false }
+            .compress(sources, zip.outputStream()) { index, file -> entries.add(index to file) }
+
+        assertEquals(contents.values.sumOf { it.size.toLong() }, progress.get())
+        assertEquals(contents.size, entries.size)
+        assertEquals(1, entries.count { it.first == 1 })
+
+        val zipFile = ZipFile(zip)
+        assertEquals(contents.keys, zipFile.fileHeaders.map { it.fileName }.toSet())
+        for (header in zipFile.fileHeaders) {
+            val file = File(storage, header.fileName)
+            assertEquals(file.lastModified() / 2000, header.lastModifiedTimeEpoch / 2000)
+            val actual = zipFile.getInputStream(header).use { it.readBytes() }
+            assertArrayEquals(contents[header.fileName], actual)
+        }
+        return zip
+    }
+
+    companion object {
+        /** Header id of Zip64ExtendedInformationExtraField, which keeps it to itself */
+        private val ZIP64_EXTRA_FIELD = ZipShort(0x0001)
+    }
+}
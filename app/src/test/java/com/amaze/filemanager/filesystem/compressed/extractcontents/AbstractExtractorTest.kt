@@ -27,7 +27,7 @@ import android.os.Build.VERSION_CODES.P
 import android.os.Environment
 import androidx.test.core.app.ApplicationProvider
 import androidx.test.ext.junit.runners.AndroidJUnit4
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil
+import com.amaze.filemanager.asynchronous.management.ProgressCounter
 import com.amaze.filemanager.file_operations.filesystem.compressed.ArchivePasswordCache
 import com.amaze.filemanager.file_operations.utils.UpdatePosition
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor.OnUpdate
@@ -119,7 +119,7 @@ abstract class AbstractExtractorTest {
                     override fun isCancelled(): Boolean = false
                     override fun onFinish() = Unit
                 },
-                ServiceWatcherUtil.UPDATE_POSITION
+                ProgressCounter()
             )
         assertEquals("test.txt", extractor.fixEntryName("test.txt"))
         assertEquals("test.txt", extractor.fixEntryName("/test.txt"))
@@ -177,7 +177,7 @@ abstract class AbstractExtractorTest {
                         }
                     }
                 },
-                ServiceWatcherUtil.UPDATE_POSITION
+                ProgressCounter()
             )
         extractor.extractEverything()
         latch.await()
@@ -24,7 +24,7 @@ import android.os.Build
 import android.os.Environment
 import androidx.test.core.app.ApplicationProvider
 import androidx.test.ext.junit.runners.AndroidJUnit4
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil
+import com.amaze.filemanager.asynchronous.management.ProgressCounter
 import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor.OnUpdate
 import com.amaze.filemanager.filesystem.compressed.extractcontents.helpers.RarExtractor
 import com.amaze.filemanager.shadows.ShadowMultiDex
@@ -85,7 +85,7 @@ class MultipartRarExtractorTest {
                     Assert.assertEquals((1024 * 128).toLong(), verify.length())
                 }
             },
-            ServiceWatcherUtil.UPDATE_POSITION
+            ProgressCounter()
         ).extractEverything()
         latch.await()
     }
@@ -105,7 +105,7 @@ class MultipartRarExtractorTest {
                     .absolutePath,
                 Environment.getExternalStorageDirectory().absolutePath,
                 callback,
-                ServiceWatcherUtil.UPDATE_POSITION
+                ProgressCounter()
             ).extractEverything()
             Assert.fail("No exception was thrown")
         } catch (expected: IOException) {
@@ -20,11 +20,64 @@
 
 package com.amaze.filemanager.filesystem.compressed.extractcontents
 
+import android.os.Environment
+import androidx.test.core.app.ApplicationProvider
+import com.amaze.filemanager.asynchronous.management.ProgressCounter
 import com.amaze.filemanager.filesystem.compressed.extractcontents.helpers.ZipExtractor
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.io.File
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
 
 class ZipExtractorTest : AbstractExtractorTest() {
 
     override val archiveType: String = "zip"
 
     override fun extractorClass(): Class<out Extractor?> = ZipExtractor::class.java
+
+    /**
+     * Test extracting an archive with more entries than workers reports every entry and byte once
+     */
+    @Test
+    fun testExtractManyEntries() {
+        val storage = Environment.getExternalStorageDirectory()
+        val archive = File(storage, "many-entries.zip")
+        val contents = (0 until 200).associate { i ->
+            "many-entries/${i % 7}/$i.txt" to "$i ".repeat(i * 50).toByteArray()
+        }
+        ZipOutputStream(archive.outputStream()).use { zip ->
+            contents.forEach { (name, content) ->
+                zip.putNextEntry(ZipEntry(name))
+                zip.write(content)
+                zip.closeEntry()
+            }
+        }
+
+        val updates = ArrayList<String>()
+        val progress = ProgressCounter()
+        ZipExtractor(
+            ApplicationProvider.getApplicationContext(),
+            archive.absolutePath,
+            storage.absolutePath,
+            object : Extractor.OnUpdate {
+                override fun onStart(totalBytes: Long, firstEntryName: String) = Unit
+                override fun onUpdate(entryPath: String) {
+                    updates.add(entryPath)
+                }
+                override fun isCancelled(): Boolean = false
+                override fun onFinish() = Unit
+            },
+            progress
+        ).extractEverything()
+
+        assertEquals(contents.keys, updates.toSet())
+        assertEquals(contents.size, updates.size)
+        assertEquals(contents.values.sumOf { it.size.toLong() }, progress.get())
+        contents.forEach { (name, content) ->
+            assertArrayEquals(content, File(storage, name).readBytes())
+        }
+        File(storage, "many-entries").deleteRecursively()
+    }
 }
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed.sevenz
+
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Environment
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.fail
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.File
+import java.io.IOException
+import java.util.BitSet
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class SevenZFileTest {
+
+    private lateinit var archive: File
+    private val contents = (0 until 40).map { i ->
+        if (i % 7 == 3) ByteArray(0) else "$i ".repeat(1000 + i * 10).toByteArray()
+    }
+
+    /** Writes an archive of several solid blocks, with empty entries in between */
+    @Before
+    fun setUp() {
+        archive = File(Environment.getExternalStorageDirectory(), "test.7z")
+        SevenZOutputFile(archive).use { out ->
+            out.setThreadCount(2)
+            out.setBlockSize(20_000)
+            contents.forEachIndexed { i, content ->
+                out.putArchiveEntry(SevenZArchiveEntry().apply { name = "$i" })
+                out.write(content)
+                out.closeArchiveEntry()
+            }
+        }
+    }
+
+    /**
+     * Test [SevenZFile.extractInParallel] hands each wanted entry over once, with its content,
+     * whether folders are decoded on one thread or several
+     */
+    @Test
+    fun testExtractInParallel() {
+        val wanted = BitSet().apply {
+            for (i in contents.indices) if (i % 4 != 1) set(i)
+        }
+        for (threadCount in listOf(1, 3)) {
+            val extracted = ConcurrentHashMap<Int, ByteArray>()
+            SevenZFile(archive).use { sevenZFile ->
+                sevenZFile.extractInParallel(wanted, threadCount) { entry, content ->
+                    assertNull(extracted.put(entry.name.toInt(), content.readBytes()))
+                    true
+                }
+            }
+            assertEquals(wanted.cardinality(), extracted.size)
+            extracted.forEach { (i, content) -> assertArrayEquals(contents[i], content) }
+        }
+    }
+
+    /** Test [SevenZFile.extractInParallel] stops once an entry is refused */
+    @Test
+    fun testExtractInParallelStops() {
+        val wanted = BitSet().apply { set(0, contents.size) }
+        val extracted = ConcurrentHashMap.newKeySet<String>()
+        SevenZFile(archive).use { sevenZFile ->
+            sevenZFile.extractInParallel(wanted, 1) { entry, _ ->
+                extracted.add(entry.name)
+                extracted.size < 5
+            }
+        }
+        assertEquals(5, extracted.size)
+        assertFalse(extracted.contains("${contents.size - 1}"))
+    }
+
+    /** Test [SevenZFile.extractInParallel] only throws once no folder is being decoded anymore */
+    @Test
+    fun testExtractInParallelWaitsOnFailure() {
+        val wanted = BitSet().apply { set(0, contents.size) }
+        val visiting = AtomicInteger()
+        SevenZFile(archive).use { sevenZFile ->
+            try {
+                sevenZFile.extractInParallel(wanted, 3) { entry, content ->
+                    visiting.incrementAndGet()
+                    try {
+                        if (entry.name == "0") throw IOException("Refused")
+                        Thread.sleep(50)
+                        content.readBytes()
+                    } finally {
+                        visiting.decrementAndGet()
+                    }
+                    true
+                }
+                fail("Failure not reported")
+            } catch (e: IOException) {
+                assertEquals("Refused", e.message)
+            }
+            assertEquals(0, visiting.get())
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.compressed.sevenz
+
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Environment
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.File
+import java.util.Random
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class SevenZOutputFileTest {
+
+    // empty entries, entries smaller and larger than the block size
+    private val contents = listOf(0, 10, 100_000, 300_000, 0, 1, 50_000, 900_000, 200).map {
+        val random = Random(it.toLong())
+        ByteArray(it) { "amaze".let { s -> s[random.nextInt(s.length)].toByte() } }
+    }
+
+    /** Test an archive written on the calling thread reads back */
+    @Test
+    fun testWrite() {
+        assertReadsBack(write(1))
+    }
+
+    /** Test an archive written in blocks on several threads reads back */
+    @Test
+    fun testWriteInBlocks() {
+        assertReadsBack(write(3))
+    }
+
+    private fun write(threadCount: Int): File {
+        val archive = File(Environment.getExternalStorageDirectory(), "$threadCount.7z")
+        SevenZOutputFile(archive).use { out ->
+            out.setThreadCount(threadCount)
+            out.setBlockSize(200_000)
+            out.putArchiveEntry(
+                SevenZArchiveEntry().apply {
+                    name = "dir"
+                    isDirectory = true
+                }
+            )
+            out.closeArchiveEntry()
+            contents.forEachIndexed { i, content ->
+                out.putArchiveEntry(SevenZArchiveEntry().apply { name = "dir/$i" })
+                // in uneven pieces, across the chunks handed to the threads
+                var offset = 0
+                while (offset < content.size) {
+                    val length = minOf(30_001, content.size - offset)
+                    out.write(content, offset, length)
+                    offset += length
+                }
+                out.closeArchiveEntry()
+            }
+        }
+        return archive
+    }
+
+    private fun assertReadsBack(archive: File) {
+        SevenZFile(archive).use { sevenZFile ->
+            assertTrue(sevenZFile.nextEntry.isDirectory)
+            contents.forEachIndexed { i, content ->
+                val entry = sevenZFile.nextEntry
+                assertEquals("dir/$i", entry.name)
+                assertEquals(content.size.toLong(), entry.size)
+                val actual = ByteArray(content.size)
+                var offset = 0
+                while (offset < actual.size) {
+                    offset += sevenZFile.read(actual, offset, actual.size - offset)
+                }
+                assertArrayEquals(content, actual)
+            }
+        }
+    }
+}
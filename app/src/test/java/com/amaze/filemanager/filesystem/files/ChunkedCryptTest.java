@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.files;
+
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static com.amaze.filemanager.filesystem.files.ChunkedCrypt.DEFAULT_CHUNK_SIZE;
+import static com.amaze.filemanager.filesystem.files.ChunkedCrypt.HEADER_LENGTH;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
+import com.amaze.filemanager.shadows.ShadowMultiDex;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+// GCMParameterSpec, which the JVM's AES/GCM requires, is there from KitKat on
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {KITKAT, P})
+public class ChunkedCryptTest {
+
+  private static final int[] SIZES = {
+    0, 1, DEFAULT_CHUNK_SIZE, DEFAULT_CHUNK_SIZE + 1, 5 * DEFAULT_CHUNK_SIZE + 77
+  };
+
+  private final Random random = new Random(42);
+  private SecretKeySpec key;
+
+  @Before
+  public void setUp() {
+    byte[] keyBytes = new byte[16];
+    random.nextBytes(keyBytes);
+    key = new SecretKeySpec(keyBytes, "AES");
+  }
+
+  /** Content survives encryption and decryption, on one thread or several */
+  @Test
+  public void testRoundTrip() throws GeneralSecurityException, IOException {
+    for (int size : SIZES) {
+      for (int parallelism = 1; parallelism <= 3; parallelism += 2) {
+        byte[] content = randomBytes(size);
+        byte[] encrypted = encrypt(content, parallelism);
+        int chunks = Math.max(1, (size + DEFAULT_CHUNK_SIZE - 1) / DEFAULT_CHUNK_SIZE);
+        assertEquals(HEADER_LENGTH + size + 16 * chunks, encrypted.length);
+        assertArrayEquals(content, decrypt(encrypted, 4 - parallelism));
+      }
+    }
+  }
+
+  /** Only files of the chunked format are told to be */
+  @Test
+  public void testIsChunked() throws GeneralSecurityException, IOException {
+    InputStream chunked = buffered(encrypt(new byte[3], 1));
+    assertTrue(ChunkedCrypt.isChunked(chunked));
+    // left where it was
+    assertEquals(0x89, chunked.read());
+
+    byte[] singleStream = randomBytes(100);
+    singleStream[0] = 0x12;
+    assertFalse(ChunkedCrypt.isChunked(buffered(singleStream)));
+    assertFalse(ChunkedCrypt.isChunked(buffered(new byte[2])));
+  }
+
+  /** Dropping the last chunks, or altering any, fails authentication */
+  @Test
+  public void testTamperingDetected() throws GeneralSecurityException, IOException {
+    byte[] encrypted = encrypt(randomBytes(3 * DEFAULT_CHUNK_SIZE + 5), 2);
+
+    assertDecryptFails(Arrays.copyOf(encrypted, HEADER_LENGTH + 2 * (DEFAULT_CHUNK_SIZE + 16)));
+    assertDecryptFails(Arrays.copyOf(encrypted, encrypted.length - 1));
+    // in the magic, the wrapped data key, the first and the last chunk
+    int[] offsets = {
+      ChunkedCrypt.MAGIC.length - 1, HEADER_LENGTH - 1, HEADER_LENGTH + 1, encrypted.length - 1
+    };
+    for (int offset : offsets) {
+      byte[] altered = encrypted.clone();
+      altered[offset] ^= 1;
+      assertDecryptFails(altered);
+    }
+  }
+
+  /** Content is read from anywhere through {@link ChunkedCrypt#open} */
+  @Test
+  public void testRandomAccess() throws GeneralSecurityException, IOException {
+    for (int size : SIZES) {
+      byte[] content = randomBytes(size);
+      File file = File.createTempFile("test", CryptUtil.CRYPT_EXTENSION);
+      file.deleteOnExit();
+      try (OutputStream out = new FileOutputStream(file)) {
+        out.write(encrypt(content, 1));
+      }
+
+      try (RandomAccessStream stream =
+          ChunkedCrypt.open(new RandomAccessFile(file, "r").getChannel(), key)) {
+        assertEquals(size, stream.length());
+        for (int i = 0; i < 10 && size > 0; i++) {
+          int position = random.nextInt(size);
+          byte[] read = new byte[Math.min(size - position, random.nextInt(3 * DEFAULT_CHUNK_SIZE))];
+          stream.moveTo(position);
+          readFully(stream, read);
+          assertArrayEquals(Arrays.copyOfRange(content, position, position + read.length), read);
+        }
+        stream.moveTo(size);
+        assertEquals(-1, stream.read());
+      }
+    }
+  }
+
+  private byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+
+  private byte[] encrypt(byte[] content, int parallelism)
+      throws GeneralSecurityException, IOException {
+    ByteArrayOutputStream encrypted = new ByteArrayOutputStream();
+    try (OutputStream out = ChunkedCrypt.encrypt(encrypted, key, parallelism)) {
+      // writes not aligned on chunks
+      for (int offset = 0; offset < content.length; offset += 10000) {
+        out.write(content, offset, Math.min(10000, content.length - offset));
+      }
+    }
+    return encrypted.toByteArray();
+  }
+
+  private byte[] decrypt(byte[] encrypted, int parallelism)
+      throws GeneralSecurityException, IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try (InputStream in =
+        ChunkedCrypt.decrypt(new ByteArrayInputStream(encrypted), key, parallelism)) {
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = in.read(buffer)) != -1) {
+        content.write(buffer, 0, count);
+      }
+    }
+    return content.toByteArray();
+  }
+
+  private void assertDecryptFails(byte[] encrypted) throws GeneralSecurityException {
+    try {
+      decrypt(encrypted, 2);
+      fail("Altered file decrypted");
+    } catch (IOException expected) {
+      // authentication failed, or the header isn't recognized
+    }
+  }
+
+  private static InputStream buffered(byte[] bytes) {
+    return new BufferedInputStream(new ByteArrayInputStream(bytes));
+  }
+
+  private static void readFully(InputStream in, byte[] b) throws IOException {
+    int offset = 0;
+    while (offset < b.length) {
+      int count = in.read(b, offset, b.length - offset);
+      assertTrue(count > 0);
+      offset += count;
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.files;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static com.amaze.filemanager.filesystem.files.GenericCopyUtil.CHECKPOINT_INTERVAL;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.asynchronous.management.ProgressCounter;
+import com.amaze.filemanager.database.models.utilities.CopyJournalEntry;
+import com.amaze.filemanager.file_operations.filesystem.OpenMode;
+import com.amaze.filemanager.filesystem.HybridFile;
+import com.amaze.filemanager.filesystem.HybridFileParcelable;
+import com.amaze.filemanager.shadows.ShadowMultiDex;
+import com.amaze.filemanager.utils.ProgressHandler;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class GenericCopyUtilResumeTest {
+
+  private static final int SIZE = (int) (3 * CHECKPOINT_INTERVAL + 1234);
+
+  private GenericCopyUtil copyUtil;
+  private File source, target;
+  private byte[] contents;
+
+  @Before
+  public void setUp() throws IOException {
+    copyUtil =
+        new GenericCopyUtil(ApplicationProvider.getApplicationContext(), new ProgressHandler());
+    source = File.createTempFile("source", "bin");
+    target = File.createTempFile("target", "bin");
+    contents = new byte[SIZE];
+    new Random(123).nextBytes(contents);
+    Files.write(source.toPath(), contents);
+  }
+
+  @After
+  public void tearDown() {
+    source.delete();
+    target.delete();
+  }
+
+  /**
+   * Test a copy resumed at an offset keeps the target's first bytes, drops what was written past
+   * the offset, and only reports checkpoints after the offset
+   */
+  @Test
+  public void testResumePartialCopy() throws IOException {
+    long offset = CHECKPOINT_INTERVAL / 2 + 7;
+    // nothing was confirmed past the offset, but some writes made it anyway
+    byte[] stale = new byte[(int) offset + 1000];
+    Arrays.fill(stale, (byte) 0x5a);
+    Files.write(target.toPath(), stale);
+
+    ProgressCounter progress = new ProgressCounter();
+    List<Long> checkpoints = new ArrayList<>();
+    copyUtil.copy(
+        new HybridFileParcelable(source.getAbsolutePath()),
+        new HybridFile(OpenMode.FILE, target.getAbsolutePath()),
+        offset,
+        () -> {},
+        progress,
+        checkpoints::add);
+
+    assertEquals(SIZE, progress.get());
+    byte[] copied = Files.readAllBytes(target.toPath());
+    assertEquals(SIZE, copied.length);
+    for (int i = 0; i < offset; i++) {
+      assertEquals(0x5a, copied[i]);
+    }
+    assertArrayEquals(
+        Arrays.copyOfRange(contents, (int) offset, SIZE),
+        Arrays.copyOfRange(copied, (int) offset, SIZE));
+
+    assertFalse(checkpoints.isEmpty());
+    long previous = offset;
+    for (long checkpoint : checkpoints) {
+      assertTrue(checkpoint - previous >= CHECKPOINT_INTERVAL);
+      assertTrue(checkpoint <= SIZE);
+      previous = checkpoint;
+    }
+  }
+
+  /** Test a source changed since it was journaled is copied again from the start */
+  @Test
+  public void testResumeAfterSourceChanged() throws IOException {
+    CopyJournalEntry entry =
+        new CopyJournalEntry(
+            "copy", source.getAbsolutePath(), target.getAbsolutePath(), SIZE, 1000000);
+    entry.bytesCopied = CHECKPOINT_INTERVAL;
+    try (RandomAccessFile partial = new RandomAccessFile(target, "rw")) {
+      partial.write(contents, 0, (int) CHECKPOINT_INTERVAL);
+    }
+
+    contents[0] ^= 1;
+    Files.write(source.toPath(), contents);
+    assertTrue(source.setLastModified(2000000));
+
+    long offset =
+        entry.getResumeOffset(
+            target.getAbsolutePath(), source.length(), source.lastModified(), target.length());
+    assertEquals(0, offset);
+
+    ProgressCounter progress = new ProgressCounter();
+    copyUtil.copy(
+        new HybridFileParcelable(source.getAbsolutePath()),
+        new HybridFile(OpenMode.FILE, target.getAbsolutePath()),
+        offset,
+        () -> {},
+        progress,
+        confirmedBytes -> {});
+
+    assertEquals(SIZE, progress.get());
+    assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+  }
+
+  /**
+   * Test a local copy running out of memory starts over through mapped windows, taking back the
+   * progress it reported
+   */
+  @Test
+  public void testRetryWhenOutOfMemory() throws IOException {
+    ProgressCounter progress = new ProgressCounter();
+    AtomicInteger updates = new AtomicInteger();
+    AtomicInteger lowMemoryCalls = new AtomicInteger();
+    copyUtil.copy(
+        new HybridFileParcelable(source.getAbsolutePath()),
+        new HybridFile(OpenMode.FILE, target.getAbsolutePath()),
+        0,
+        lowMemoryCalls::incrementAndGet,
+        toAdd -> {
+          if (updates.incrementAndGet() == 2) {
+            throw new OutOfMemoryError();
+          }
+          progress.updatePosition(toAdd);
+        },
+        confirmedBytes -> {});
+
+    assertEquals(1, lowMemoryCalls.get());
+    assertEquals(SIZE, progress.get());
+    assertArrayEquals(contents, Files.readAllBytes(target.toPath()));
+  }
+
+  /**
+   * Test remote targets are only resumed when holding at least the part already copied
+   */
+  @Test
+  public void testResumeRemoteTargetOnlyAtItsLength() {
+    HybridFileParcelable remoteTarget = new HybridFileParcelable("ssh://user@127.0.0.1/target");
+    remoteTarget.setMode(OpenMode.SFTP);
+    remoteTarget.setSize(CHECKPOINT_INTERVAL);
+
+    assertTrue(
+        GenericCopyUtil.canResume(
+            ApplicationProvider.getApplicationContext(), remoteTarget, CHECKPOINT_INTERVAL));
+    assertTrue(
+        GenericCopyUtil.canResume(
+            ApplicationProvider.getApplicationContext(), remoteTarget, CHECKPOINT_INTERVAL / 2));
+    assertFalse(
+        GenericCopyUtil.canResume(
+            ApplicationProvider.getApplicationContext(), remoteTarget, CHECKPOINT_INTERVAL + 1));
+  }
+}
@@ -29,19 +29,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.Before;
+import org.junit.Test;
 import org.junit.experimental.theories.DataPoints;
 import org.junit.experimental.theories.Theories;
 import org.junit.experimental.theories.Theory;
 import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 
-import com.amaze.filemanager.asynchronous.management.ServiceWatcherUtil;
+import com.amaze.filemanager.asynchronous.management.ProgressCounter;
+import com.amaze.filemanager.file_operations.utils.UpdatePosition;
 import com.amaze.filemanager.test.DummyFileGenerator;
 import com.amaze.filemanager.utils.ProgressHandler;
 
@@ -50,13 +62,16 @@ public class GenericCopyUtilTest {
 
   private GenericCopyUtil copyUtil;
 
+  private ProgressHandler progressHandler;
+
   private File file1, file2;
 
   public static final @DataPoints int fileSizes[] = {512, 187139366};
 
   @Before
   public void setUp() throws IOException {
-    copyUtil = new GenericCopyUtil(RuntimeEnvironment.application, new ProgressHandler());
+    progressHandler = new ProgressHandler();
+    copyUtil = new GenericCopyUtil(RuntimeEnvironment.application, progressHandler);
     file1 = File.createTempFile("test", "bin");
     file2 = File.createTempFile("test", "bin");
     file1.deleteOnExit();
@@ -69,7 +84,7 @@ public class GenericCopyUtilTest {
     copyUtil.doCopy(
         new FileInputStream(file1).getChannel(),
         Channels.newChannel(new FileOutputStream(file2)),
-        ServiceWatcherUtil.UPDATE_POSITION);
+        new ProgressCounter());
     assertEquals(file1.length(), file2.length());
     assertSha1Equals(checksum, file2);
   }
@@ -80,7 +95,7 @@ public class GenericCopyUtilTest {
     copyUtil.copyFile(
         new FileInputStream(file1).getChannel(),
         new FileOutputStream(file2).getChannel(),
-        ServiceWatcherUtil.UPDATE_POSITION);
+        new ProgressCounter());
     assertEquals(file1.length(), file2.length());
     assertSha1Equals(checksum, file2);
   }
@@ -91,11 +106,207 @@ public class GenericCopyUtilTest {
     copyUtil.copyFile(
         new BufferedInputStream(new FileInputStream(file1)),
         new BufferedOutputStream(new FileOutputStream(file2)),
-        ServiceWatcherUtil.UPDATE_POSITION);
+        new ProgressCounter());
+    assertEquals(file1.length(), file2.length());
+    assertSha1Equals(checksum, file2);
+  }
+
+  @Theory // doChannelCopy(FileChannel in, FileChannel out)
+  public void testChannelCopy(int size) throws IOException, NoSuchAlgorithmException {
+    byte[] checksum = DummyFileGenerator.createFile(file1, size);
+    ProgressCounter progress = new ProgressCounter();
+    copyUtil.doChannelCopy(
+        new FileInputStream(file1).getChannel(), new FileOutputStream(file2).getChannel(), progress);
+    assertEquals(file1.length(), file2.length());
+    assertEquals(file1.length(), progress.get());
+    assertSha1Equals(checksum, file2);
+  }
+
+  @Theory // doMappedCopy(FileChannel in, FileChannel out)
+  public void testMappedCopy(int size) throws IOException, NoSuchAlgorithmException {
+    byte[] checksum = DummyFileGenerator.createFile(file1, size);
+    ProgressCounter progress = new ProgressCounter();
+    copyUtil.doMappedCopy(
+        new FileInputStream(file1).getChannel(),
+        new RandomAccessFile(file2, "rw").getChannel(),
+        progress);
     assertEquals(file1.length(), file2.length());
+    assertEquals(file1.length(), progress.get());
     assertSha1Equals(checksum, file2);
   }
 
+  @Test
+  public void testChannelCopyCancelled() throws IOException {
+    DummyFileGenerator.createFile(file1, 512);
+    progressHandler.setCancelled(true);
+    copyUtil.doChannelCopy(
+        new FileInputStream(file1).getChannel(),
+        new FileOutputStream(file2).getChannel(),
+        new ProgressCounter());
+    assertEquals(0, file2.length());
+  }
+
+  /**
+   * Test {@link GenericCopyUtil#doChannelCopy(FileChannel, FileChannel, UpdatePosition)} starts
+   * at the channels' positions, leaving the target's first bytes alone
+   */
+  @Test
+  public void testChannelCopyFromOffset() throws IOException {
+    int size = 20 * 1024 * 1024 + 123;
+    int offset = 5 * 1024 * 1024 + 7;
+    byte[] contents = randomBytes(size);
+    Files.write(file1.toPath(), contents);
+    byte[] prefix = new byte[offset];
+    Arrays.fill(prefix, (byte) 0x5a);
+    Files.write(file2.toPath(), prefix);
+
+    FileChannel from = new RandomAccessFile(file1, "r").getChannel();
+    from.position(offset);
+    FileChannel to = new RandomAccessFile(file2, "rw").getChannel();
+    to.position(offset);
+    ProgressCounter progress = new ProgressCounter();
+    copyUtil.doChannelCopy(from, to, progress);
+
+    assertEquals(size - offset, progress.get());
+    byte[] copied = Files.readAllBytes(file2.toPath());
+    assertEquals(size, copied.length);
+    assertArrayEquals(prefix, Arrays.copyOfRange(copied, 0, offset));
+    assertArrayEquals(
+        Arrays.copyOfRange(contents, offset, size), Arrays.copyOfRange(copied, offset, size));
+  }
+
+  /**
+   * Test {@link GenericCopyUtil#doChannelCopy(FileChannel, FileChannel, UpdatePosition)} copies
+   * everything when the kernel transfers less than asked for, then stops transferring at all
+   */
+  @Test
+  public void testChannelCopyPartialTransfer() throws IOException {
+    int size = 1024 * 1024 + 123;
+    byte[] contents = randomBytes(size);
+    Files.write(file1.toPath(), contents);
+
+    ProgressCounter progress = new ProgressCounter();
+    copyUtil.doChannelCopy(
+        new StingyFileChannel(new RandomAccessFile(file1, "r").getChannel(), 65536, 524288 + 9),
+        new RandomAccessFile(file2, "rw").getChannel(),
+        progress);
+
+    assertEquals(size, progress.get());
+    assertArrayEquals(contents, Files.readAllBytes(file2.toPath()));
+  }
+
+  private static byte[] randomBytes(int size) {
+    byte[] bytes = new byte[size];
+    new Random(123).nextBytes(bytes);
+    return bytes;
+  }
+
+  /**
+   * {@link FileChannel} transferring at most {@link #maxTransfer} bytes at once, and nothing past
+   * {@link #transferLimit}, as the kernel may
+   */
+  private static class StingyFileChannel extends FileChannel {
+    private final FileChannel channel;
+    private final long maxTransfer;
+    private final long transferLimit;
+
+    StingyFileChannel(FileChannel channel, long maxTransfer, long transferLimit) {
+      this.channel = channel;
+      this.maxTransfer = maxTransfer;
+      this.transferLimit = transferLimit;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+        throws IOException {
+      long allowed = Math.min(Math.min(count, maxTransfer), transferLimit - position);
+      return allowed <= 0 ? 0 : channel.transferTo(position, allowed, target);
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      return channel.read(dst);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+      return channel.read(dsts, offset, length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      return channel.write(src);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+      return channel.write(srcs, offset, length);
+    }
+
+    @Override
+    public long position() throws IOException {
+      return channel.position();
+    }
+
+    @Override
+    public FileChannel position(long newPosition) throws IOException {
+      channel.position(newPosition);
+      return this;
+    }
+
+    @Override
+    public long size() throws IOException {
+      return channel.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size) throws IOException {
+      channel.truncate(size);
+      return this;
+    }
+
+    @Override
+    public void force(boolean metaData) throws IOException {
+      channel.force(metaData);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+        throws IOException {
+      return channel.transferFrom(src, position, count);
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException {
+      return channel.read(dst, position);
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException {
+      return channel.write(src, position);
+    }
+
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+      return channel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared) throws IOException {
+      return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+      return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    protected void implCloseChannel() throws IOException {
+      channel.close();
+    }
+  }
+
   private void assertSha1Equals(byte[] expected, File file)
       throws NoSuchAlgorithmException, IOException {
     MessageDigest md = MessageDigest.getInstance("SHA-1");
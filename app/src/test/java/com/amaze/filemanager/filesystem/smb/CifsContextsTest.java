@@ -135,11 +135,21 @@ public class CifsContextsTest {
     assertEquals(ctx2.hashCode(), ctx4.hashCode());
   }
 
+  @Test
+  public void testGetPipelineProperties() {
+    assertEquals(
+        256 * 1024, CifsContexts.getIntProperty(CifsContexts.PROPERTY_PIPELINE_REQUEST_SIZE));
+    assertEquals(8, CifsContexts.getIntProperty(CifsContexts.PROPERTY_PIPELINE_MAX_REQUESTS));
+  }
+
   private void verifyCommonProperties(@NonNull BaseContext ctx) {
     assertNotNull(ctx);
     assertEquals(ResolverType.RESOLVER_BCAST, ctx.getConfig().getResolveOrder().get(0));
     assertEquals(-1 * 60, ctx.getConfig().getNetbiosCachePolicy());
     assertEquals(30000, ctx.getConfig().getResponseTimeout());
     assertEquals(5000, ctx.getConfig().getNetbiosRetryTimeout());
+    assertEquals(30000, ctx.getConfig().getAttributeCacheTimeout());
+    assertEquals(512, ctx.getConfig().getListCount());
+    assertEquals(64, ctx.getConfig().getBufferCacheSize());
   }
 }
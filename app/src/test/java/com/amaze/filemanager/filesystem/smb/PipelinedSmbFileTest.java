@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.smb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import androidx.annotation.NonNull;
+
+public class PipelinedSmbFileTest {
+
+  private static final int REQUEST_SIZE = 4096;
+  private static final int MAX_REQUESTS = 4;
+
+  private File file;
+  private final AtomicInteger openHandles = new AtomicInteger();
+  private final AtomicInteger maxOpenHandles = new AtomicInteger();
+  private final AtomicInteger running = new AtomicInteger();
+  private final AtomicInteger maxRunning = new AtomicInteger();
+  private int latencyMillis = 0;
+  private long failingWriteOffset = -1;
+
+  @Before
+  public void setUp() throws IOException {
+    file = File.createTempFile("pipelined", ".bin");
+  }
+
+  @After
+  public void tearDown() {
+    file.delete();
+  }
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    byte[] data = randomBytes(REQUEST_SIZE * 40 + 1234);
+
+    OutputStream out = open("rw").new PipelinedOutputStream(0);
+    // uneven writes, so that requests don't line up with them
+    for (int offset = 0; offset < data.length; offset += 1000) {
+      out.write(data, offset, Math.min(1000, data.length - offset));
+    }
+    out.close();
+    assertArrayEquals(data, Files.readAllBytes(file.toPath()));
+
+    InputStream in = open("r").new PipelinedInputStream(0);
+    assertArrayEquals(data, readFully(in));
+    in.close();
+  }
+
+  @Test
+  public void testReadFromOffsetAndSkip() throws IOException {
+    byte[] data = randomBytes(REQUEST_SIZE * 10 + 7);
+    Files.write(file.toPath(), data);
+
+    InputStream in = open("r").new PipelinedInputStream(1000);
+    byte[] head = new byte[10];
+    assertEquals(10, in.read(head));
+    assertArrayEquals(Arrays.copyOfRange(data, 1000, 1010), head);
+    assertEquals(20000, in.skip(20000));
+    assertArrayEquals(Arrays.copyOfRange(data, 21010, data.length), readFully(in));
+    in.close();
+  }
+
+  @Test
+  public void testReadEmpty() throws IOException {
+    InputStream in = open("r").new PipelinedInputStream(0);
+    assertEquals(-1, in.read());
+    in.close();
+  }
+
+  @Test
+  public void testWriteAtOffset() throws IOException {
+    byte[] data = randomBytes(50000);
+    Files.write(file.toPath(), data);
+    byte[] tail = randomBytes(20000);
+
+    PipelinedSmbFile smbFile = open("rw");
+    smbFile.setLength(5000);
+    OutputStream out = smbFile.new PipelinedOutputStream(5000);
+    out.write(tail);
+    out.close();
+
+    byte[] expected = Arrays.copyOf(data, 5000 + tail.length);
+    System.arraycopy(tail, 0, expected, 5000, tail.length);
+    assertArrayEquals(expected, Files.readAllBytes(file.toPath()));
+  }
+
+  /** Requests must overlap, up to the maximum, whichever way the data goes. */
+  @Test
+  public void testRequestsInFlight() throws IOException {
+    byte[] data = randomBytes(REQUEST_SIZE * 32);
+    latencyMillis = 20;
+
+    OutputStream out = open("rw").new PipelinedOutputStream(0);
+    out.write(data);
+    out.close();
+    assertEquals(MAX_REQUESTS, maxRunning.get());
+
+    maxRunning.set(0);
+    InputStream in = open("r").new PipelinedInputStream(0);
+    assertArrayEquals(data, readFully(in));
+    in.close();
+    assertEquals(MAX_REQUESTS, maxRunning.get());
+    assertTrue(maxOpenHandles.get() <= MAX_REQUESTS);
+  }
+
+  @Test
+  public void testWriteFailure() throws IOException {
+    failingWriteOffset = 0;
+    OutputStream out = open("rw").new PipelinedOutputStream(0);
+    try {
+      out.write(randomBytes(REQUEST_SIZE * 2));
+      out.close();
+      fail("Write failure not reported");
+    } catch (IOException e) {
+      assertEquals("Disk full", e.getMessage());
+    }
+  }
+
+  /** Requests following a failed one must not leave data past a hole. */
+  @Test
+  public void testWriteFailureCutsFile() throws IOException {
+    byte[] data = randomBytes(REQUEST_SIZE * 16);
+    failingWriteOffset = REQUEST_SIZE * 5;
+    latencyMillis = 20;
+
+    PipelinedSmbFile.PipelinedOutputStream out = open("rw").new PipelinedOutputStream(0);
+    try {
+      out.write(data);
+      out.close();
+      fail("Write failure not reported");
+    } catch (IOException e) {
+      assertEquals("Disk full", e.getMessage());
+    }
+    assertArrayEquals(
+        Arrays.copyOf(data, (int) failingWriteOffset), Files.readAllBytes(file.toPath()));
+  }
+
+  private PipelinedSmbFile open(String mode) throws IOException {
+    return new PipelinedSmbFile(() -> new LocalHandle(mode), REQUEST_SIZE, MAX_REQUESTS);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] data = new byte[length];
+    new Random(length).nextBytes(data);
+    return data;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1500];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
+    }
+    return out.toByteArray();
+  }
+
+  /** Handle on the local file, taking {@link #latencyMillis} for each read or write. */
+  private class LocalHandle implements PipelinedSmbFile.Handle {
+    private final RandomAccessFile randomAccessFile;
+
+    LocalHandle(String mode) throws IOException {
+      randomAccessFile = new RandomAccessFile(file, mode);
+      maxOpenHandles.accumulateAndGet(openHandles.incrementAndGet(), Math::max);
+    }
+
+    @Override
+    public int read(long position, @NonNull byte[] b, int off, int len) throws IOException {
+      startRequest();
+      try {
+        randomAccessFile.seek(position);
+        return randomAccessFile.read(b, off, len);
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void write(long position, @NonNull byte[] b, int off, int len) throws IOException {
+      startRequest();
+      try {
+        if (position == failingWriteOffset) throw new IOException("Disk full");
+        randomAccessFile.seek(position);
+        randomAccessFile.write(b, off, len);
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void setLength(long length) throws IOException {
+      randomAccessFile.setLength(length);
+    }
+
+    @Override
+    public void close() throws IOException {
+      randomAccessFile.close();
+      openHandles.decrementAndGet();
+    }
+
+    private void startRequest() throws IOException {
+      int count = running.incrementAndGet();
+      maxRunning.accumulateAndGet(count, Math::max);
+      try {
+        Thread.sleep(latencyMillis);
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+    }
+  }
+}
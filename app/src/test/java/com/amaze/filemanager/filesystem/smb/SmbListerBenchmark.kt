@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.smb
+
+import android.os.Build.VERSION_CODES.P
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import jcifs.CIFSContext
+import jcifs.config.PropertyConfiguration
+import jcifs.context.BaseContext
+import jcifs.smb.NtlmPasswordAuthenticator
+import jcifs.smb.SmbFile
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.util.Properties
+
+/**
+ * Compares listing a directory of [FILE_COUNT] files the way MainFragment did, asking each
+ * [SmbFile] of listFiles() for its attributes, with [SmbLister].
+ *
+ * Needs an SMB server and is skipped without one. A local Samba stand-in can be started with
+ *
+ *     docker run -d -p 445:445 dperson/samba -u "amaze;amaze" -s "share;/share;yes;no;no;amaze"
+ *
+ * and the benchmark run with SMB_BENCHMARK_URL=smb://127.0.0.1/share/,
+ * SMB_BENCHMARK_USER=amaze and SMB_BENCHMARK_PASSWORD=amaze in the environment. Timings are
+ * printed to the standard output.
+ */
+@RunWith(AndroidJUnit4::class)
+@Config(
+    shadows = [ShadowMultiDex::class],
+    sdk = [P]
+)
+class SmbListerBenchmark {
+
+    private val url: String? = System.getenv("SMB_BENCHMARK_URL")
+    private val credentials = NtlmPasswordAuthenticator(
+        null,
+        System.getenv("SMB_BENCHMARK_USER"),
+        System.getenv("SMB_BENCHMARK_PASSWORD")
+    )
+    private var directory: SmbFile? = null
+
+    /** Creates [FILE_COUNT] empty files in a directory of the share */
+    @Before
+    fun setUp() {
+        assumeTrue("SMB_BENCHMARK_URL is not set", url != null)
+        directory = open(CifsContexts.create(url!!, null)).apply {
+            if (!exists()) mkdir()
+            for (i in 0 until FILE_COUNT) {
+                val file = SmbFile(this, "$i.txt")
+                if (!file.exists()) file.createNewFile()
+                file.close()
+            }
+        }
+    }
+
+    /** Deletes the directory and its files */
+    @After
+    fun tearDown() {
+        directory?.delete()
+    }
+
+    /**
+     * Lists the directory without attribute caching, with the jcifs defaults and with
+     * [SmbLister] on a [CifsContexts] context, the best of [ROUNDS] each.
+     */
+    @Test
+    fun compareListings() {
+        val uncached = best { listLikeBefore(open(newContext("0"))) }
+        val jcifsDefaults = best { listLikeBefore(open(newContext(null))) }
+        val lister = best { SmbLister.list(open(CifsContexts.create(url!!, null))).size }
+        println(
+            "$TAG: $FILE_COUNT files listed in $uncached ms uncached, $jcifsDefaults ms with " +
+                "the jcifs defaults, $lister ms with SmbLister"
+        )
+    }
+
+    /** What MainFragment.addToSmb asked each file */
+    private fun listLikeBefore(directory: SmbFile): Int {
+        val files = directory.listFiles()
+        for (file in files) {
+            file.isHidden
+            if (file.isDirectory) file.isDirectory
+            file.lastModified()
+            file.length()
+        }
+        return files.size
+    }
+
+    private fun best(listing: () -> Int): Long {
+        var best = Long.MAX_VALUE
+        for (i in 0 until ROUNDS) {
+            val start = System.nanoTime()
+            assertEquals(FILE_COUNT, listing())
+            best = minOf(best, (System.nanoTime() - start) / 1000000)
+        }
+        return best
+    }
+
+    /** Context with the jcifs defaults, but for [attrExpirationPeriod] if not null */
+    private fun newContext(attrExpirationPeriod: String?): CIFSContext {
+        val properties = Properties()
+        if (attrExpirationPeriod != null) {
+            properties.setProperty("jcifs.smb.client.attrExpirationPeriod", attrExpirationPeriod)
+        }
+        return BaseContext(PropertyConfiguration(properties))
+    }
+
+    private fun open(context: CIFSContext): SmbFile =
+        SmbFile("$url$TAG/", context.withCredentials(credentials))
+
+    companion object {
+        private const val TAG = "SmbListerBenchmark"
+        private const val FILE_COUNT = 500
+        private const val ROUNDS = 3
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.smb
+
+import android.os.Build.VERSION_CODES.P
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import jcifs.smb.NtlmPasswordAuthenticator
+import jcifs.smb.SmbFile
+import org.junit.After
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.ByteArrayOutputStream
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.Random
+
+/**
+ * Compares copying a [FILE_SIZE] file to and from a share through jcifs' streams, one request in
+ * flight at a time, and through [PipelinedSmbFile].
+ *
+ * Needs an SMB server and is skipped without one. A local Samba stand-in can be started with
+ *
+ *     docker run -d -p 445:445 dperson/samba -u "amaze;amaze" -s "share;/share;yes;no;no;amaze"
+ *
+ * and the benchmark run with SMB_BENCHMARK_URL=smb://127.0.0.1/share/,
+ * SMB_BENCHMARK_USER=amaze and SMB_BENCHMARK_PASSWORD=amaze in the environment. Throughputs are
+ * printed to the standard output.
+ */
+@RunWith(AndroidJUnit4::class)
+@Config(
+    shadows = [ShadowMultiDex::class],
+    sdk = [P]
+)
+class SmbTransferBenchmark {
+
+    private val url: String? = System.getenv("SMB_BENCHMARK_URL")
+    private val data = ByteArray(FILE_SIZE).apply { Random(FILE_SIZE.toLong()).nextBytes(this) }
+    private var file: SmbFile? = null
+
+    /** Opens the file copied to and from, with the properties of [CifsContexts] */
+    @Before
+    fun setUp() {
+        assumeTrue("SMB_BENCHMARK_URL is not set", url != null)
+        val credentials = NtlmPasswordAuthenticator(
+            null,
+            System.getenv("SMB_BENCHMARK_USER"),
+            System.getenv("SMB_BENCHMARK_PASSWORD")
+        )
+        val context = CifsContexts.create(url!!, null).withCredentials(credentials)
+        file = SmbFile("$url$TAG.bin", context)
+    }
+
+    /** Deletes the file */
+    @After
+    fun tearDown() {
+        file?.run {
+            if (exists()) delete()
+            close()
+        }
+    }
+
+    /** Uploads and downloads with both, checking the data made the round trip */
+    @Test
+    fun compareTransfers() {
+        val smbFile = file!!
+        val jcifsUpload = upload { smbFile.openOutputStream() }
+        val jcifsDownload = download { smbFile.openInputStream() }
+        val pipelinedUpload = upload {
+            PipelinedSmbFile.open(smbFile, true).run {
+                setLength(0)
+                PipelinedOutputStream(0)
+            }
+        }
+        val pipelinedDownload = download {
+            PipelinedSmbFile.open(smbFile, false).PipelinedInputStream(0)
+        }
+        println(
+            "$TAG: uploads at $jcifsUpload MB/s with jcifs, $pipelinedUpload MB/s pipelined; " +
+                "downloads at $jcifsDownload MB/s with jcifs, $pipelinedDownload MB/s pipelined"
+        )
+    }
+
+    /** @return throughput in MB/s */
+    private fun upload(open: () -> OutputStream): Long = measure {
+        open().use { out ->
+            for (offset in 0 until FILE_SIZE step COPY_BUFFER_SIZE) {
+                out.write(data, offset, minOf(COPY_BUFFER_SIZE, FILE_SIZE - offset))
+            }
+        }
+    }
+
+    /** @return throughput in MB/s */
+    private fun download(open: () -> InputStream): Long {
+        val copy = ByteArrayOutputStream(FILE_SIZE)
+        val throughput = measure {
+            open().use { it.copyTo(copy, COPY_BUFFER_SIZE) }
+        }
+        assertArrayEquals(data, copy.toByteArray())
+        return throughput
+    }
+
+    private fun measure(transfer: () -> Unit): Long {
+        val start = System.nanoTime()
+        transfer()
+        // bytes per microsecond
+        return FILE_SIZE / maxOf(1L, (System.nanoTime() - start) / 1000)
+    }
+
+    companion object {
+        private const val TAG = "SmbTransferBenchmark"
+        private const val FILE_SIZE = 64 * 1024 * 1024
+
+        /** Buffer size of GenericCopyUtil's SMB streams */
+        private const val COPY_BUFFER_SIZE = 64 * 1024
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.junit.Test;
+
+import com.amaze.filemanager.filesystem.ssh.test.LatencyProxy;
+
+import android.os.Environment;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.OpenMode;
+import net.schmizz.sshj.sftp.RemoteFile;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+public class PipelinedSftpFileTest extends AbstractSftpServerTest {
+
+  private static final String FILE_NAME = "pipelined.bin";
+
+  /** One way delay added by the proxy in {@link #testThroughputWithLatency()} */
+  private static final int LATENCY_MILLIS = 10;
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    byte[] data = randomBytes(PipelinedSftpFile.DEFAULT_REQUEST_SIZE * 40 + 1234);
+    SFTPClient client = connect(serverPort).newSFTPClient();
+
+    OutputStream out = openOutput(client, "/" + FILE_NAME);
+    // uneven writes, so that requests don't line up with them
+    for (int offset = 0; offset < data.length; offset += 1000) {
+      out.write(data, offset, Math.min(1000, data.length - offset));
+    }
+    out.close();
+    assertArrayEquals(data, Files.readAllBytes(localFile().toPath()));
+
+    InputStream in = openInput(client, "/" + FILE_NAME, 0);
+    assertArrayEquals(data, readFully(in));
+    client.close();
+  }
+
+  @Test
+  public void testReadFromOffsetAndSkip() throws IOException {
+    byte[] data = randomBytes(PipelinedSftpFile.DEFAULT_REQUEST_SIZE * 10 + 7);
+    Files.write(localFile().toPath(), data);
+    SFTPClient client = connect(serverPort).newSFTPClient();
+
+    InputStream in = openInput(client, "/" + FILE_NAME, 1000);
+    byte[] head = new byte[10];
+    assertEquals(10, in.read(head));
+    assertArrayEquals(Arrays.copyOfRange(data, 1000, 1010), head);
+    assertEquals(100000, in.skip(100000));
+    assertArrayEquals(Arrays.copyOfRange(data, 101010, data.length), readFully(in));
+    client.close();
+  }
+
+  @Test
+  public void testWriteAtOffset() throws IOException {
+    byte[] data = randomBytes(200000);
+    Files.write(localFile().toPath(), data);
+    byte[] tail = randomBytes(70000);
+    SFTPClient client = connect(serverPort).newSFTPClient();
+
+    PipelinedSftpFile file =
+        PipelinedSftpFile.open(client, "/" + FILE_NAME, EnumSet.of(OpenMode.WRITE));
+    file.setLength(5000);
+    OutputStream out = file.new PipelinedOutputStream(5000);
+    out.write(tail);
+    out.close();
+
+    byte[] expected = Arrays.copyOf(data, 5000 + tail.length);
+    System.arraycopy(tail, 0, expected, 5000, tail.length);
+    assertArrayEquals(expected, Files.readAllBytes(localFile().toPath()));
+    client.close();
+  }
+
+  /**
+   * Transfers the same file through a proxy adding {@link #LATENCY_MILLIS} each way, with sshj's
+   * streams (one request in flight at a time) and with {@link PipelinedSftpFile}. Results must be
+   * identical, the throughput of each is printed for reference.
+   *
+   * <p>Takes a while and only prints figures, so it is skipped unless SFTP_BENCHMARK is set in the
+   * environment.
+   */
+  @Test
+  public void testThroughputWithLatency() throws IOException {
+    assumeTrue("SFTP_BENCHMARK is not set", System.getenv("SFTP_BENCHMARK") != null);
+    byte[] data = randomBytes(2 * 1024 * 1024);
+    byte[] buffer = new byte[PipelinedSftpFile.DEFAULT_REQUEST_SIZE];
+    String path = "/" + FILE_NAME;
+
+    LatencyProxy proxy = new LatencyProxy(serverPort, LATENCY_MILLIS);
+    SFTPClient client = connect(proxy.getPort()).newSFTPClient();
+
+    long start = System.nanoTime();
+    RemoteFile rf = client.open(path, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC));
+    OutputStream out = rf.new RemoteFileOutputStream(0, 0);
+    for (int offset = 0; offset < data.length; offset += buffer.length) {
+      out.write(data, offset, Math.min(buffer.length, data.length - offset));
+    }
+    out.close();
+    rf.close();
+    long sequentialWrite = System.nanoTime() - start;
+    assertArrayEquals(data, Files.readAllBytes(localFile().toPath()));
+
+    start = System.nanoTime();
+    rf = client.open(path);
+    InputStream in = rf.new RemoteFileInputStream();
+    assertArrayEquals(data, readFully(in));
+    rf.close();
+    long sequentialRead = System.nanoTime() - start;
+
+    localFile().delete();
+    start = System.nanoTime();
+    out = openOutput(client, path);
+    out.write(data);
+    out.close();
+    long pipelinedWrite = System.nanoTime() - start;
+    assertArrayEquals(data, Files.readAllBytes(localFile().toPath()));
+
+    start = System.nanoTime();
+    in = openInput(client, path, 0);
+    assertArrayEquals(data, readFully(in));
+    long pipelinedRead = System.nanoTime() - start;
+
+    client.close();
+    proxy.close();
+
+    System.out.printf(
+        "%d ms RTT, sequential: write %.2f MB/s, read %.2f MB/s; "
+            + "pipelined: write %.2f MB/s, read %.2f MB/s%n",
+        LATENCY_MILLIS * 2,
+        megabytesPerSecond(data.length, sequentialWrite),
+        megabytesPerSecond(data.length, sequentialRead),
+        megabytesPerSecond(data.length, pipelinedWrite),
+        megabytesPerSecond(data.length, pipelinedRead));
+  }
+
+  private SSHClient connect(int port) {
+    return SshConnectionPool.INSTANCE.getConnection(
+        "127.0.0.1",
+        port,
+        KeyUtils.getFingerPrint(hostKeyProvider.getKeyPair().getPublic()),
+        "testuser",
+        "testpassword",
+        null);
+  }
+
+  private static InputStream openInput(SFTPClient client, String path, long offset)
+      throws IOException {
+    PipelinedSftpFile file = PipelinedSftpFile.open(client, path, EnumSet.of(OpenMode.READ));
+    return file.new PipelinedInputStream(offset);
+  }
+
+  private static OutputStream openOutput(SFTPClient client, String path) throws IOException {
+    PipelinedSftpFile file =
+        PipelinedSftpFile.open(
+            client, path, EnumSet.of(OpenMode.WRITE, OpenMode.CREAT, OpenMode.TRUNC));
+    return file.new PipelinedOutputStream(0);
+  }
+
+  private File localFile() {
+    return new File(Environment.getExternalStorageDirectory(), FILE_NAME);
+  }
+
+  private static byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[PipelinedSftpFile.DEFAULT_REQUEST_SIZE];
+    int count;
+    while ((count = in.read(buffer)) != -1) {
+      out.write(buffer, 0, count);
+    }
+    in.close();
+    return out.toByteArray();
+  }
+
+  private static double megabytesPerSecond(long bytes, long nanos) {
+    return bytes / (nanos / 1e9) / (1024 * 1024);
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.schmizz.sshj.SSHClient;
+import net.schmizz.sshj.sftp.SFTPClient;
+
+public class SftpClientPoolTest extends AbstractSftpServerTest {
+
+  private SSHClient sshClient;
+
+  @Before
+  @Override
+  public void setUp() throws IOException {
+    super.setUp();
+    sshClient =
+        SshConnectionPool.INSTANCE.getConnection(
+            "127.0.0.1",
+            serverPort,
+            KeyUtils.getFingerPrint(hostKeyProvider.getKeyPair().getPublic()),
+            "testuser",
+            "testpassword",
+            null);
+  }
+
+  @Test
+  public void testReusesReleasedClient() throws IOException {
+    SftpClientPool pool = new SftpClientPool(sshClient);
+    SFTPClient first = pool.borrow();
+    pool.release(first);
+    assertSame(first, pool.borrow());
+  }
+
+  @Test
+  public void testConcurrentBorrowsGetDistinctClients() throws IOException {
+    SftpClientPool pool = new SftpClientPool(sshClient);
+    SFTPClient first = pool.borrow();
+    SFTPClient second = pool.borrow();
+    assertNotSame(first, second);
+    pool.release(first);
+    pool.release(second);
+  }
+
+  @Test
+  public void testDropsClosedClient() throws IOException {
+    SftpClientPool pool = new SftpClientPool(sshClient);
+    SFTPClient first = pool.borrow();
+    first.close();
+    pool.release(first);
+    assertNotSame(first, pool.borrow());
+  }
+
+  @Test
+  public void testEvictsIdleClient() throws IOException, InterruptedException {
+    SftpClientPool pool = new SftpClientPool(sshClient, 4, 10, 10);
+    SFTPClient first = pool.borrow();
+    pool.release(first);
+    Thread.sleep(50);
+    SFTPClient second = pool.borrow();
+    assertNotSame(first, second);
+    assertTrue(second.getSFTPEngine().getSubsystem().isOpen());
+  }
+
+  @Test
+  public void testKeepsAtMostMaxIdle() throws IOException {
+    SftpClientPool pool = new SftpClientPool(sshClient, 1, 60000, 60000);
+    SFTPClient first = pool.borrow();
+    SFTPClient second = pool.borrow();
+    pool.release(first);
+    pool.release(second);
+    assertSame(first, pool.borrow());
+    assertNotSame(second, pool.borrow());
+  }
+
+  @Test
+  public void testEvictsBrokenIdleClient() throws IOException {
+    SftpClientPool pool = new SftpClientPool(sshClient);
+    SFTPClient first = pool.borrow();
+    pool.release(first);
+    // the server dropped the channel while it was idle
+    first.getSFTPEngine().getSubsystem().close();
+    SFTPClient second = pool.borrow();
+    assertNotSame(first, second);
+    assertEquals("/", second.canonicalize("/"));
+  }
+
+  @Test
+  public void testValidatesLongIdleClient() throws IOException {
+    SftpClientPool pool = new SftpClientPool(sshClient, 4, 60000, 0);
+    SFTPClient first = pool.borrow();
+    pool.release(first);
+    assertSame(first, pool.borrow());
+  }
+
+  @Test
+  public void testConnectionPoolKeepsAtMostDefaultMaxIdle() throws IOException {
+    Set<SFTPClient> released = new HashSet<>();
+    for (int i = 0; i < SftpClientPool.DEFAULT_MAX_IDLE + 2; i++) {
+      released.add(SshConnectionPool.INSTANCE.borrowSftpClient(sshClient));
+    }
+    assertEquals(SftpClientPool.DEFAULT_MAX_IDLE + 2, released.size());
+    for (SFTPClient client : released) {
+      SshConnectionPool.INSTANCE.releaseSftpClient(sshClient, client);
+    }
+
+    int reused = 0;
+    for (int i = 0; i < SftpClientPool.DEFAULT_MAX_IDLE + 2; i++) {
+      if (released.contains(SshConnectionPool.INSTANCE.borrowSftpClient(sshClient))) {
+        reused++;
+      }
+    }
+    assertEquals(SftpClientPool.DEFAULT_MAX_IDLE, reused);
+  }
+}
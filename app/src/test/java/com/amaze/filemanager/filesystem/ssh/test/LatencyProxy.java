@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.filesystem.ssh.test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * TCP proxy to a local port, holding back everything going through it in either direction for a
+ * fixed delay. Makes a server running on the same machine look like one on a high latency link;
+ * the round trip time added is twice the delay.
+ */
+public class LatencyProxy implements Closeable {
+
+  private static final byte[] END_OF_STREAM = new byte[0];
+
+  private final ServerSocket serverSocket;
+  private final int targetPort;
+  private final long delayMillis;
+  private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+  public LatencyProxy(int targetPort, long delayMillis) throws IOException {
+    this.targetPort = targetPort;
+    this.delayMillis = delayMillis;
+    serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    startThread("accept", this::accept);
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  @Override
+  public void close() throws IOException {
+    serverSocket.close();
+    for (Socket socket : sockets) {
+      socket.close();
+    }
+  }
+
+  private void accept() {
+    try {
+      while (true) {
+        Socket client = serverSocket.accept();
+        Socket server = new Socket("127.0.0.1", targetPort);
+        client.setTcpNoDelay(true);
+        server.setTcpNoDelay(true);
+        sockets.add(client);
+        sockets.add(server);
+        relay(client, server);
+        relay(server, client);
+      }
+    } catch (IOException closed) {
+      // proxy closed
+    }
+  }
+
+  private void relay(Socket from, Socket to) throws IOException {
+    final InputStream in = from.getInputStream();
+    final OutputStream out = to.getOutputStream();
+    final BlockingQueue<Chunk> chunks = new LinkedBlockingQueue<>();
+
+    startThread(
+        "read",
+        () -> {
+          byte[] buffer = new byte[16384];
+          try {
+            int count;
+            while ((count = in.read(buffer)) != -1) {
+              chunks.add(new Chunk(Arrays.copyOf(buffer, count)));
+            }
+          } catch (IOException closed) {
+            // socket closed
+          }
+          chunks.add(new Chunk(END_OF_STREAM));
+        });
+
+    startThread(
+        "write",
+        () -> {
+          try {
+            while (true) {
+              Chunk chunk = chunks.take();
+              long wait = chunk.due - System.currentTimeMillis();
+              if (wait > 0) Thread.sleep(wait);
+              if (chunk.data == END_OF_STREAM) {
+                to.shutdownOutput();
+                return;
+              }
+              out.write(chunk.data);
+              out.flush();
+            }
+          } catch (IOException | InterruptedException closed) {
+            // socket closed
+          }
+        });
+  }
+
+  private void startThread(String name, Runnable runnable) {
+    Thread thread = new Thread(runnable, "LatencyProxy-" + name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private class Chunk {
+    final byte[] data;
+    final long due = System.currentTimeMillis() + delayMillis;
+
+    Chunk(byte[] data) {
+      this.data = data;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.utils
+
+import android.os.Build.VERSION_CODES.JELLY_BEAN
+import android.os.Build.VERSION_CODES.KITKAT
+import android.os.Build.VERSION_CODES.P
+import android.os.Environment
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.amaze.filemanager.filesystem.compressed.extractcontents.Extractor
+import com.amaze.filemanager.shadows.ShadowMultiDex
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.Config
+import java.io.File
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+@Config(shadows = [ShadowMultiDex::class], sdk = [JELLY_BEAN, KITKAT, P])
+class ParallelWorkUtilTest {
+
+    /** Test [ParallelWorkUtil.getParallelism] stays within the cap */
+    @Test
+    fun testGetParallelism() {
+        val parallelism = ParallelWorkUtil.getParallelism()
+        assertTrue(parallelism >= 1)
+        assertTrue(parallelism <= ParallelWorkUtil.MAX_PARALLELISM)
+    }
+
+    /** Test [ParallelWorkUtil.createDirectories] creates children listed before their parents */
+    @Test
+    fun testCreateDirectories() {
+        val storage = Environment.getExternalStorageDirectory()
+        val directories = listOf(
+            File(storage, "a/b/c"),
+            File(storage, "a/b"),
+            File(storage, "d"),
+            File(storage, "a")
+        )
+        ParallelWorkUtil.createDirectories(
+            ApplicationProvider.getApplicationContext(), directories
+        ) { false }
+        directories.forEach { assertTrue(it.isDirectory) }
+    }
+
+    /** Test [ParallelWorkUtil.createDirectories] stops once cancelled */
+    @Test
+    fun testCreateDirectoriesCancelled() {
+        val directory = File(Environment.getExternalStorageDirectory(), "a")
+        ParallelWorkUtil.createDirectories(
+            ApplicationProvider.getApplicationContext(), listOf(directory)
+        ) { true }
+        assertFalse(directory.exists())
+    }
+
+    /** Test [ParallelWorkUtil.synchronizedOnUpdate] doesn't lose updates from several threads */
+    @Test
+    fun testSynchronizedOnUpdate() {
+        var updates = 0
+        val listener = ParallelWorkUtil.synchronizedOnUpdate(object : Extractor.OnUpdate {
+            override fun onStart(totalBytes: Long, firstEntryName: String?) = Unit
+
+            override fun onUpdate(entryPath: String?) {
+                updates++
+            }
+
+            override fun onFinish() = Unit
+
+            override fun isCancelled() = false
+        })
+        val executor = Executors.newFixedThreadPool(4)
+        repeat(4) {
+            executor.execute { repeat(10000) { listener.onUpdate("entry") } }
+        }
+        executor.shutdown()
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS))
+        assertEquals(40000, updates)
+    }
+}
@@ -28,6 +28,8 @@ class BoundedFileChannelInputStream extends InputStream {
     private final ByteBuffer buffer;
     private final FileChannel channel;
     private long bytesRemaining;
+    // next offset to read at, or -1 when reading from the channel's own position
+    private long position = -1;
 
     public BoundedFileChannelInputStream(final FileChannel channel,
                                          final long size) {
@@ -40,6 +42,17 @@ class BoundedFileChannelInputStream extends InputStream {
         }
     }
 
+    /**
+     * Reads {@code size} bytes starting at {@code position} with positional reads, leaving the
+     * channel's own position alone, so that several such streams can read the same channel
+     * concurrently.
+     */
+    public BoundedFileChannelInputStream(final FileChannel channel,
+                                         final long position, final long size) {
+        this(channel, size);
+        this.position = position;
+    }
+
     @Override
     public int read() throws IOException {
         if (bytesRemaining > 0) {
@@ -69,7 +82,7 @@ class BoundedFileChannelInputStream extends InputStream {
             bytesRead = read(bytesToRead);
         } else {
             buf = ByteBuffer.allocate(bytesToRead);
-            bytesRead = channel.read(buf);
+            bytesRead = readChannel(buf);
             buf.flip();
         }
         if (bytesRead >= 0) {
@@ -81,11 +94,22 @@ class BoundedFileChannelInputStream extends InputStream {
 
     private int read(int len) throws IOException {
         buffer.rewind().limit(len);
-        int read = channel.read(buffer);
+        int read = readChannel(buffer);
         buffer.flip();
         return read;
     }
 
+    private int readChannel(final ByteBuffer buf) throws IOException {
+        if (position < 0) {
+            return channel.read(buf);
+        }
+        final int read = channel.read(buf, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
     @Override
     public void close() {
         // the nested channel is controlled externally
@@ -32,6 +32,7 @@ import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
@@ -42,6 +43,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.zip.CRC32;
 
 /**
@@ -297,6 +306,168 @@ public class SevenZFile implements Closeable {
         return entry;
     }
 
+    /**
+     * Receives the wanted entries of {@link #extractInParallel}.
+     */
+    public interface EntryVisitor {
+        /**
+         * Reads a wanted entry. Called from several threads at once, but never concurrently
+         * for entries of the same folder, which come in archive order.
+         *
+         * @param entry the wanted entry
+         * @param content the content of the entry, only readable during the call,
+         *        what is left unread is skipped
+         * @return {@code false} to stop the extraction of all remaining entries
+         * @throws IOException to stop the extraction too, it is then thrown by
+         *         {@link #extractInParallel}
+         */
+        boolean visit(SevenZArchiveEntry entry, InputStream content) throws IOException;
+    }
+
+    /**
+     * Hands the wanted entries to {@code visitor}, decoding the folders (solid blocks) holding
+     * them on up to {@code threadCount} threads.
+     *
+     * <p>Folders are independent of each other: each one is read through its own positional
+     * reader of the archive's channel and gets its own decoders, so that archives of many
+     * folders, non-solid ones or those written with several blocks, decode in parallel.
+     * Entries within a folder still have to be decoded one after the other. Each folder being
+     * decoded holds its own decoders, for LZMA that is the dictionary size of the folder.</p>
+     *
+     * <p>This doesn't change the position of {@link #getNextEntry}, but must not run while
+     * an entry is being {@link #read}.</p>
+     *
+     * @param wanted indices of the wanted entries, in the order of {@link #getEntries}
+     * @param threadCount number of folders decoded at once at most,
+     *        1 decodes them all on the calling thread
+     * @param visitor receives the wanted entries
+     * @throws IOException if an entry could not be read, or thrown by the visitor
+     */
+    public void extractInParallel(final BitSet wanted, final int threadCount,
+            final EntryVisitor visitor) throws IOException {
+        final List<Integer> folders = new ArrayList<>();
+        int lastFolderIndex = -1;
+        for (int i = wanted.nextSetBit(0); i >= 0 && i < archive.files.length;
+             i = wanted.nextSetBit(i + 1)) {
+            final int folderIndex = archive.streamMap.fileFolderIndex[i];
+            if (folderIndex < 0) {
+                // directories and empty files hold no data, no need for any thread
+                if (!visitor.visit(archive.files[i], new ByteArrayInputStream(new byte[0]))) {
+                    return;
+                }
+            } else if (folderIndex != lastFolderIndex) {
+                // folder indices only grow with entry indices
+                folders.add(folderIndex);
+                lastFolderIndex = folderIndex;
+            }
+        }
+
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        if (threadCount <= 1 || folders.size() <= 1) {
+            for (final int folderIndex : folders) {
+                visitFolder(folderIndex, wanted, visitor, stopped);
+            }
+            return;
+        }
+
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(Math.min(threadCount, folders.size()));
+        final List<Future<Void>> results = new ArrayList<>(folders.size());
+        try {
+            for (final int folderIndex : folders) {
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        try {
+                            visitFolder(folderIndex, wanted, visitor, stopped);
+                        } catch (final IOException e) {
+                            stopped.set(true);
+                            throw e;
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> result : results) {
+                result.get();
+            }
+        } catch (final ExecutionException e) {
+            stopped.set(true);
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final InterruptedException e) {
+            stopped.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            // the channel may be closed once this returns, so no worker may still be reading it.
+            // Workers aren't interrupted as shutdownNow() would: interrupting a thread blocked
+            // in a read of the FileChannel closes the channel
+            for (final Future<Void> result : results) {
+                result.cancel(false);
+            }
+            executor.shutdown();
+            awaitTerminationUninterruptibly(executor);
+        }
+    }
+
+    /* Waits for the running tasks of executor, the interrupt status being restored after. */
+    private static void awaitTerminationUninterruptibly(final ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                    break;
+                }
+            } catch (final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /* Decodes the folder up to its last wanted entry, handing the wanted ones to visitor. */
+    private void visitFolder(final int folderIndex, final BitSet wanted,
+            final EntryVisitor visitor, final AtomicBoolean stopped) throws IOException {
+        final Folder folder = archive.folders[folderIndex];
+        final int firstPackStreamIndex = archive.streamMap.folderFirstPackStreamIndex[folderIndex];
+        final long folderOffset = SIGNATURE_HEADER_SIZE + archive.packPos +
+                archive.streamMap.packStreamOffsets[firstPackStreamIndex];
+        final int firstFileIndex = archive.streamMap.folderFirstFileIndex[folderIndex];
+        final SevenZArchiveEntry firstFile = archive.files[firstFileIndex];
+        final InputStream folderStream = addDecoders(folder, new BufferedInputStream(
+                new BoundedFileChannelInputStream(channel, folderOffset,
+                    archive.packSizes[firstPackStreamIndex])), firstFile);
+        try {
+            for (int i = firstFileIndex; !stopped.get(); i++) {
+                final int nextWanted = wanted.nextSetBit(i);
+                if (nextWanted < 0 || nextWanted >= archive.files.length
+                        || archive.streamMap.fileFolderIndex[nextWanted] != folderIndex) {
+                    // the rest of the folder isn't wanted, no need to decode it
+                    return;
+                }
+                final SevenZArchiveEntry file = archive.files[i];
+                file.setContentMethods(firstFile.getContentMethods());
+                InputStream fileStream = new BoundedInputStream(folderStream, file.getSize());
+                if (file.getHasCrc()) {
+                    fileStream = new CRC32VerifyingInputStream(fileStream, file.getSize(),
+                        file.getCrcValue());
+                }
+                if (i == nextWanted && !visitor.visit(file, fileStream)) {
+                    stopped.set(true);
+                    return;
+                }
+                IOUtils.skip(fileStream, Long.MAX_VALUE);
+            }
+        } finally {
+            folderStream.close();
+        }
+    }
+
     /**
      * Returns meta-data of all archive entries.
      *
@@ -992,7 +1163,7 @@ public class SevenZFile implements Closeable {
     private InputStream buildDecoderStack(final Folder folder, final long folderOffset,
                 final int firstPackStreamIndex, final SevenZArchiveEntry entry) throws IOException {
         channel.position(folderOffset);
-        InputStream inputStreamStack = new FilterInputStream(new BufferedInputStream(
+        final InputStream inputStreamStack = new FilterInputStream(new BufferedInputStream(
               new BoundedFileChannelInputStream(channel,
                   archive.packSizes[firstPackStreamIndex]))) {
             @Override
@@ -1019,6 +1190,11 @@ public class SevenZFile implements Closeable {
                 compressedBytesReadFromCurrentEntry += c;
             }
         };
+        return addDecoders(folder, inputStreamStack, entry);
+    }
+
+    private InputStream addDecoders(final Folder folder, InputStream inputStreamStack,
+                final SevenZArchiveEntry entry) throws IOException {
         final LinkedList<SevenZMethodConfiguration> methods = new LinkedList<>();
         for (final Coder coder : folder.getOrderedCoders()) {
             if (coder.numInStreams != 1 || coder.numOutStreams != 1) {
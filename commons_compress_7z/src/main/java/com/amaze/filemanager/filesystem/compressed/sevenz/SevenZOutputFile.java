@@ -19,12 +19,17 @@ package com.amaze.filemanager.filesystem.compressed.sevenz;
 
 import android.annotation.TargetApi;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
@@ -33,15 +38,22 @@ import java.nio.channels.SeekableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.List;
 import java.util.LinkedList;
-import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import org.apache.commons.compress.archivers.ArchiveEntry;
 import org.apache.commons.compress.utils.CountingOutputStream;
@@ -51,9 +63,16 @@ import org.apache.commons.compress.utils.CountingOutputStream;
  * @since 1.6
  */
 public class SevenZOutputFile implements Closeable {
+    /** Default uncompressed size of the blocks compressed at once by {@link #setThreadCount} */
+    public static final long DEFAULT_BLOCK_SIZE = 8 * 1024 * 1024;
+
+    // content handed to a block's compressing thread at once
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte[] END_OF_BLOCK = new byte[0];
+
     private final RandomAccessFile channel;
     private final List<SevenZArchiveEntry> files = new ArrayList<>();
-    private int numNonEmptyStreams = 0;
+    private final List<OutputFolder> folders = new ArrayList<>();
     private final CRC32 crc32 = new CRC32();
     private final CRC32 compressedCrc32 = new CRC32();
     private long fileBytesWritten = 0;
@@ -62,7 +81,12 @@ public class SevenZOutputFile implements Closeable {
     private CountingOutputStream[] additionalCountingStreams;
     private Iterable<? extends SevenZMethodConfiguration> contentMethods =
             Collections.singletonList(new SevenZMethodConfiguration(SevenZMethod.LZMA2));
-    private final Map<SevenZArchiveEntry, long[]> additionalSizes = new HashMap<>();
+    private int threadCount = 1;
+    private long blockSize = DEFAULT_BLOCK_SIZE;
+    private ExecutorService executor;
+    private Block currentBlock;
+    // compressed or being compressed, in archive order
+    private final LinkedList<Block> pendingBlocks = new LinkedList<>();
 
     /**
      * Opens file to write a 7z archive to.
@@ -71,7 +95,7 @@ public class SevenZOutputFile implements Closeable {
      * @throws IOException if opening the file fails
      */
     public SevenZOutputFile(final File filename) throws IOException {
-        this(new RandomAccessFile(filename, ""));
+        this(openTruncated(filename));
     }
 
     /**
@@ -124,6 +148,50 @@ public class SevenZOutputFile implements Closeable {
         this.contentMethods = reverse(methods);
     }
 
+    /**
+     * Compresses entries on up to {@code threadCount} threads at once. Consecutive entries are
+     * grouped into blocks of at least {@link #setBlockSize block size} uncompressed bytes, each
+     * written as a folder of its own and compressed by a thread of its own. An entry larger than
+     * the block size makes a block by itself.
+     *
+     * <p>Up to {@code threadCount} blocks are kept in memory at once, and every thread needs
+     * the memory of its own encoder, see {@link org.tukaani.xz.LZMA2Options#getEncoderMemoryUsage}
+     * for LZMA2.</p>
+     *
+     * <p>With a single thread, the default, every entry is compressed as a folder of its own on
+     * the calling thread.</p>
+     *
+     * @param threadCount number of blocks compressed at once
+     * @throws IllegalStateException if entries were added already
+     */
+    public void setThreadCount(final int threadCount) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount must be at least 1");
+        }
+        if (!files.isEmpty()) {
+            throw new IllegalStateException("Entries were added already");
+        }
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets the uncompressed size of the blocks compressed at once with {@link #setThreadCount},
+     * {@link #DEFAULT_BLOCK_SIZE} by default. Larger blocks compress better, and take more
+     * memory.
+     *
+     * @param blockSize uncompressed size from which a block is handed to its thread
+     * @throws IllegalStateException if entries were added already
+     */
+    public void setBlockSize(final long blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be at least 1");
+        }
+        if (!files.isEmpty()) {
+            throw new IllegalStateException("Entries were added already");
+        }
+        this.blockSize = blockSize;
+    }
+
     /**
      * Closes the archive, calling {@link #finish} if necessary.
      *
@@ -136,6 +204,12 @@ public class SevenZOutputFile implements Closeable {
                 finish();
             }
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            for (final Block block : pendingBlocks) {
+                block.output.delete();
+            }
             channel.close();
         }
     }
@@ -183,21 +257,33 @@ public class SevenZOutputFile implements Closeable {
         }
 
         final SevenZArchiveEntry entry = files.get(files.size() - 1);
-        if (fileBytesWritten > 0) { // this implies currentOutputStream != null
+        if (threadCount > 1 && currentOutputStream != null
+            && currentOutputStream.getBytesWritten() > 0) {
+            entry.setHasStream(true);
+            entry.setSize(currentOutputStream.getBytesWritten());
+            entry.setCrcValue(crc32.getValue());
+            entry.setHasCrc(true);
+            currentBlock.folder.entries.add(entry);
+            currentBlock.folder.unpackSize += entry.getSize();
+            if (currentBlock.folder.unpackSize >= blockSize) {
+                closeBlock();
+            }
+        } else if (fileBytesWritten > 0) { // this implies currentOutputStream != null
             entry.setHasStream(true);
-            ++numNonEmptyStreams;
             entry.setSize(currentOutputStream.getBytesWritten()); //NOSONAR
             entry.setCompressedSize(fileBytesWritten);
             entry.setCrcValue(crc32.getValue());
             entry.setCompressedCrcValue(compressedCrc32.getValue());
             entry.setHasCrc(true);
-            if (additionalCountingStreams != null) {
-                final long[] sizes = new long[additionalCountingStreams.length];
-                for (int i = 0; i < additionalCountingStreams.length; i++) {
-                    sizes[i] = additionalCountingStreams[i].getBytesWritten();
-                }
-                additionalSizes.put(entry, sizes);
-            }
+
+            final OutputFolder folder = new OutputFolder(getContentMethods(entry));
+            folder.entries.add(entry);
+            folder.packSize = fileBytesWritten;
+            folder.packCrc = compressedCrc32.getValue();
+            folder.unpackSize = entry.getSize();
+            folder.unpackCrc = entry.getCrcValue();
+            folder.additionalSizes = getBytesWritten(additionalCountingStreams);
+            folders.add(folder);
         } else {
             entry.setHasStream(false);
             entry.setSize(0);
@@ -253,6 +339,17 @@ public class SevenZOutputFile implements Closeable {
         }
         finished = true;
 
+        if (currentBlock != null) {
+            closeBlock();
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeBlock(pendingBlocks.getFirst());
+            pendingBlocks.removeFirst();
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+
         final long headerPosition = channel.getFilePointer();
 
         final ByteArrayOutputStream headerBaos = new ByteArrayOutputStream();
@@ -300,7 +397,8 @@ public class SevenZOutputFile implements Closeable {
      */
     private OutputStream getCurrentOutputStream() throws IOException {
         if (currentOutputStream == null) {
-            currentOutputStream = setupFileOutputStream();
+            currentOutputStream =
+                threadCount > 1 ? setupBlockOutputStream() : setupFileOutputStream();
         }
         return currentOutputStream;
     }
@@ -310,10 +408,73 @@ public class SevenZOutputFile implements Closeable {
             throw new IllegalStateException("No current 7z entry");
         }
 
-        OutputStream out = new OutputStreamWrapper();
         final ArrayList<CountingOutputStream> moreStreams = new ArrayList<>();
+        final OutputStream out = addEncoders(new OutputStreamWrapper(),
+            getContentMethods(files.get(files.size() - 1)), moreStreams);
+        if (!moreStreams.isEmpty()) {
+            additionalCountingStreams = moreStreams.toArray(new CountingOutputStream[moreStreams.size()]);
+        }
+        return checksummed(out);
+    }
+
+    /*
+     * Entries written with more than one thread go to the current block, a new one if the entry
+     * is compressed with other methods than the current block.
+     */
+    private CountingOutputStream setupBlockOutputStream() throws IOException {
+        if (files.isEmpty()) {
+            throw new IllegalStateException("No current 7z entry");
+        }
+
+        final Iterable<? extends SevenZMethodConfiguration> methods =
+            getContentMethods(files.get(files.size() - 1));
+        if (currentBlock != null && currentBlock.folder.methods != methods) {
+            closeBlock();
+        }
+        if (currentBlock == null) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(threadCount);
+            }
+            // bounds the memory taken by blocks waiting to be written
+            if (pendingBlocks.size() >= threadCount) {
+                writeBlock(pendingBlocks.getFirst());
+                pendingBlocks.removeFirst();
+            }
+            currentBlock = new Block(methods);
+            currentBlock.future = executor.submit(currentBlock);
+        }
+        return checksummed(currentBlock.input);
+    }
+
+    private void closeBlock() throws IOException {
+        currentBlock.input.finish();
+        pendingBlocks.add(currentBlock);
+        currentBlock = null;
+    }
+
+    /* Appends the compressed content of block to the archive, once its thread is done. */
+    private void writeBlock(final Block block) throws IOException {
+        try {
+            block.future.get();
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        block.output.copyTo(channel);
+        block.output.delete();
+        folders.add(block.folder);
+    }
+
+    private static OutputStream addEncoders(OutputStream out,
+            final Iterable<? extends SevenZMethodConfiguration> methods,
+            final List<CountingOutputStream> moreStreams) throws IOException {
         boolean first = true;
-        for (final SevenZMethodConfiguration m : getContentMethods(files.get(files.size() - 1))) {
+        for (final SevenZMethodConfiguration m : methods) {
             if (!first) {
                 final CountingOutputStream cos = new CountingOutputStream(out);
                 moreStreams.add(cos);
@@ -322,9 +483,21 @@ public class SevenZOutputFile implements Closeable {
             out = Coders.addEncoder(out, m.getMethod(), m.getOptions());
             first = false;
         }
-        if (!moreStreams.isEmpty()) {
-            additionalCountingStreams = moreStreams.toArray(new CountingOutputStream[moreStreams.size()]);
+        return out;
+    }
+
+    private static long[] getBytesWritten(final CountingOutputStream[] streams) {
+        if (streams == null) {
+            return null;
+        }
+        final long[] sizes = new long[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            sizes[i] = streams[i].getBytesWritten();
         }
+        return sizes;
+    }
+
+    private CountingOutputStream checksummed(final OutputStream out) {
         return new CountingOutputStream(out) {
             @Override
             public void write(final int b) throws IOException {
@@ -362,7 +535,7 @@ public class SevenZOutputFile implements Closeable {
     }
 
     private void writeStreamsInfo(final DataOutput header) throws IOException {
-        if (numNonEmptyStreams > 0) {
+        if (!folders.isEmpty()) {
             writePackInfo(header);
             writeUnpackInfo(header);
         }
@@ -376,21 +549,17 @@ public class SevenZOutputFile implements Closeable {
         header.write(NID.kPackInfo);
 
         writeUint64(header, 0);
-        writeUint64(header, 0xffffFFFFL & numNonEmptyStreams);
+        writeUint64(header, 0xffffFFFFL & folders.size());
 
         header.write(NID.kSize);
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                writeUint64(header, entry.getCompressedSize());
-            }
+        for (final OutputFolder folder : folders) {
+            writeUint64(header, folder.packSize);
         }
 
         header.write(NID.kCRC);
         header.write(1); // "allAreDefined" == true
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                header.writeInt(Integer.reverseBytes((int) entry.getCompressedCrcValue()));
-            }
+        for (final OutputFolder folder : folders) {
+            header.writeInt(Integer.reverseBytes((int) folder.packCrc));
         }
 
         header.write(NID.kEnd);
@@ -400,42 +569,36 @@ public class SevenZOutputFile implements Closeable {
         header.write(NID.kUnpackInfo);
 
         header.write(NID.kFolder);
-        writeUint64(header, numNonEmptyStreams);
+        writeUint64(header, folders.size());
         header.write(0);
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                writeFolder(header, entry);
-            }
+        for (final OutputFolder folder : folders) {
+            writeFolder(header, folder.methods);
         }
 
         header.write(NID.kCodersUnpackSize);
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                final long[] moreSizes = additionalSizes.get(entry);
-                if (moreSizes != null) {
-                    for (final long s : moreSizes) {
-                        writeUint64(header, s);
-                    }
+        for (final OutputFolder folder : folders) {
+            if (folder.additionalSizes != null) {
+                for (final long s : folder.additionalSizes) {
+                    writeUint64(header, s);
                 }
-                writeUint64(header, entry.getSize());
             }
+            writeUint64(header, folder.unpackSize);
         }
 
         header.write(NID.kCRC);
         header.write(1); // "allAreDefined" == true
-        for (final SevenZArchiveEntry entry : files) {
-            if (entry.hasStream()) {
-                header.writeInt(Integer.reverseBytes((int) entry.getCrcValue()));
-            }
+        for (final OutputFolder folder : folders) {
+            header.writeInt(Integer.reverseBytes((int) folder.unpackCrc));
         }
 
         header.write(NID.kEnd);
     }
 
-    private void writeFolder(final DataOutput header, final SevenZArchiveEntry entry) throws IOException {
+    private void writeFolder(final DataOutput header,
+            final Iterable<? extends SevenZMethodConfiguration> methods) throws IOException {
         final ByteArrayOutputStream bos = new ByteArrayOutputStream();
         int numCoders = 0;
-        for (final SevenZMethodConfiguration m : getContentMethods(entry)) {
+        for (final SevenZMethodConfiguration m : methods) {
             numCoders++;
             writeSingleCodec(m, bos);
         }
@@ -468,6 +631,36 @@ public class SevenZOutputFile implements Closeable {
 
     private void writeSubStreamsInfo(final DataOutput header) throws IOException {
         header.write(NID.kSubStreamsInfo);
+
+        boolean hasSubStreams = false;
+        for (final OutputFolder folder : folders) {
+            hasSubStreams |= folder.entries.size() != 1;
+        }
+        if (hasSubStreams) {
+            header.write(NID.kNumUnpackStream);
+            for (final OutputFolder folder : folders) {
+                writeUint64(header, folder.entries.size());
+            }
+
+            // the last entry of a folder takes what's left of it
+            header.write(NID.kSize);
+            for (final OutputFolder folder : folders) {
+                for (int i = 0; i < folder.entries.size() - 1; i++) {
+                    writeUint64(header, folder.entries.get(i).getSize());
+                }
+            }
+
+            // folders of a single entry have its CRC already
+            header.write(NID.kCRC);
+            header.write(1); // "allAreDefined" == true
+            for (final OutputFolder folder : folders) {
+                if (folder.entries.size() != 1) {
+                    for (final SevenZArchiveEntry entry : folder.entries) {
+                        header.writeInt(Integer.reverseBytes((int) entry.getCrcValue()));
+                    }
+                }
+            }
+        }
 //
 //        header.write(NID.kCRC);
 //        header.write(1);
@@ -760,6 +953,12 @@ public class SevenZOutputFile implements Closeable {
         }
     }
 
+    private static RandomAccessFile openTruncated(final File file) throws IOException {
+        final RandomAccessFile channel = new RandomAccessFile(file, "rw");
+        channel.setLength(0);
+        return channel;
+    }
+
     private static <T> Iterable<T> reverse(final Iterable<T> i) {
         final LinkedList<T> l = new LinkedList<>();
         for (final T t : i) {
@@ -769,13 +968,9 @@ public class SevenZOutputFile implements Closeable {
     }
 
     private class OutputStreamWrapper extends OutputStream {
-        private static final int BUF_SIZE = 8192;
-        private final ByteBuffer buffer = ByteBuffer.allocate(BUF_SIZE);
         @Override
         public void write(final int b) throws IOException {
-            buffer.clear();
-            buffer.put((byte) b).flip();
-            channel.write(buffer.array());
+            channel.write(b);
             compressedCrc32.update(b);
             fileBytesWritten++;
         }
@@ -788,13 +983,7 @@ public class SevenZOutputFile implements Closeable {
         @Override
         public void write(final byte[] b, final int off, final int len)
             throws IOException {
-            if (len > BUF_SIZE) {
-                channel.write(b, off, len);
-            } else {
-                buffer.clear();
-                buffer.put(b, off, len).flip();
-                channel.write(buffer.array());
-            }
+            channel.write(b, off, len);
             compressedCrc32.update(b, off, len);
             fileBytesWritten += len;
         }
@@ -809,4 +998,190 @@ public class SevenZOutputFile implements Closeable {
             // the file will be closed by the containing class's close method
         }
     }
+
+    /* Content of one or more consecutive entries, compressed together. */
+    private static class OutputFolder {
+        private final Iterable<? extends SevenZMethodConfiguration> methods;
+        private final List<SevenZArchiveEntry> entries = new ArrayList<>();
+        private long packSize;
+        private long packCrc;
+        private long unpackSize;
+        private long unpackCrc;
+        private long[] additionalSizes;
+
+        OutputFolder(final Iterable<? extends SevenZMethodConfiguration> methods) {
+            this.methods = methods;
+        }
+    }
+
+    /*
+     * Folder compressed by a thread of its own. The writing thread hands content over in chunks,
+     * up to a block size of them, and carries on with the next block once this one is large
+     * enough.
+     */
+    private class Block implements Callable<Void> {
+        private final OutputFolder folder;
+        private final BlockingQueue<byte[]> chunks =
+            new ArrayBlockingQueue<>((int) Math.min(blockSize / CHUNK_SIZE + 1, Integer.MAX_VALUE));
+        private final BlockInput input = new BlockInput();
+        private final BlockOutput output = new BlockOutput(blockSize);
+        private Future<Void> future;
+
+        Block(final Iterable<? extends SevenZMethodConfiguration> methods) {
+            folder = new OutputFolder(methods);
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                final CRC32 packCrc = new CRC32();
+                final CRC32 unpackCrc = new CRC32();
+                final CountingOutputStream packed =
+                    new CountingOutputStream(new CheckedOutputStream(output, packCrc));
+                final List<CountingOutputStream> moreStreams = new ArrayList<>();
+                final OutputStream out = addEncoders(packed, folder.methods, moreStreams);
+                byte[] chunk;
+                while ((chunk = chunks.take()) != END_OF_BLOCK) {
+                    out.write(chunk);
+                    unpackCrc.update(chunk);
+                }
+                out.close();
+
+                folder.packSize = packed.getBytesWritten();
+                folder.packCrc = packCrc.getValue();
+                folder.unpackCrc = unpackCrc.getValue();
+                if (!moreStreams.isEmpty()) {
+                    folder.additionalSizes = getBytesWritten(
+                        moreStreams.toArray(new CountingOutputStream[moreStreams.size()]));
+                }
+                return null;
+            } catch (final IOException | RuntimeException e) {
+                // so that the writing thread doesn't wait for room in the queue forever
+                while (chunks.take() != END_OF_BLOCK) {
+                    // discarded
+                }
+                throw e;
+            }
+        }
+
+        private class BlockInput extends OutputStream {
+            private byte[] chunk = new byte[CHUNK_SIZE];
+            private int length = 0;
+
+            @Override
+            public void write(final int b) throws IOException {
+                chunk[length++] = (byte) b;
+                if (length == chunk.length) {
+                    putChunk();
+                }
+            }
+
+            @Override
+            public void write(final byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    final int count = Math.min(len, chunk.length - length);
+                    System.arraycopy(b, off, chunk, length, count);
+                    length += count;
+                    off += count;
+                    len -= count;
+                    if (length == chunk.length) {
+                        putChunk();
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+                // an entry ends, not the block
+            }
+
+            void finish() throws IOException {
+                if (length > 0) {
+                    chunk = Arrays.copyOf(chunk, length);
+                    putChunk();
+                }
+                put(END_OF_BLOCK);
+            }
+
+            private void putChunk() throws IOException {
+                put(chunk);
+                chunk = new byte[CHUNK_SIZE];
+                length = 0;
+            }
+
+            private void put(final byte[] chunk) throws IOException {
+                try {
+                    chunks.put(chunk);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /* Compressed content of a block, spilled to a temporary file past the block size. */
+    private static class BlockOutput extends OutputStream {
+        private final long memoryLimit;
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File spillFile;
+        private OutputStream spill;
+
+        BlockOutput(final long memoryLimit) {
+            this.memoryLimit = memoryLimit;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (spill == null && memory.size() + len > memoryLimit) {
+                spillFile = File.createTempFile("7z-block", null);
+                spill = new BufferedOutputStream(new FileOutputStream(spillFile), CHUNK_SIZE);
+                memory.writeTo(spill);
+                memory = null;
+            }
+            if (spill != null) {
+                spill.write(b, off, len);
+            } else {
+                memory.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (spill != null) {
+                spill.close();
+            }
+        }
+
+        void copyTo(final RandomAccessFile channel) throws IOException {
+            if (spillFile == null) {
+                channel.write(memory.toByteArray());
+                return;
+            }
+            try (InputStream in = new FileInputStream(spillFile)) {
+                final byte[] buffer = new byte[CHUNK_SIZE];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    channel.write(buffer, 0, n);
+                }
+            }
+        }
+
+        void delete() {
+            memory = null;
+            if (spillFile != null) {
+                try {
+                    spill.close();
+                } catch (final IOException ignored) {
+                    // deleted anyway
+                }
+                spillFile.delete();
+            }
+        }
+    }
 }
@@ -20,83 +20,105 @@
 
 package com.amaze.filemanager.file_operations.filesystem.cloud;
 
-import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
-
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amaze.filemanager.file_operations.filesystem.streams.BlockCache;
+import com.amaze.filemanager.file_operations.filesystem.streams.CachedRandomAccessStream;
 
-public class CloudStreamSource extends RandomAccessStream {
-  protected long fp;
+/**
+ * Reads a file of which there only is an {@link InputStream}, through a {@link BlockCache}: moving
+ * back is only possible to blocks still cached, moving forward skips the stream.
+ */
+public class CloudStreamSource extends CachedRandomAccessStream {
   protected String name;
-  private InputStream inputStream;
+  private final Upstream upstream;
+  private final boolean ownsUpstream;
 
   public CloudStreamSource(String fileName, long length, InputStream inputStream) {
-    super(length);
+    this(fileName, length, new Upstream(fileName, inputStream), BlockCache.getDefault(), true);
+  }
+
+  CloudStreamSource(
+      String fileName, long length, Upstream upstream, BlockCache cache, boolean ownsUpstream) {
+    super(length, upstream.cacheKey, cache);
 
-    fp = 0;
     this.name = fileName;
-    this.inputStream = inputStream;
+    this.upstream = upstream;
+    this.ownsUpstream = ownsUpstream;
   }
 
-  /**
-   * You may notice a strange name for the smb input stream. I made some modifications to the
-   * original one in the jcifs library for my needs, but streaming required returning to the
-   * original one so I renamed it to "old". However, I needed to specify a buffer size in the
-   * constructor. It looks now like this:
-   *
-   * <p>public SmbFileInputStreamOld( SmbFile file, int readBuffer, int openFlags) throws
-   * SmbException, MalformedURLException, UnknownHostException { this.file = file; this.openFlags =
-   * SmbFile.O_RDONLY & 0xFFFF; this.access = (openFlags >>> 16) & 0xFFFF; if (file.type !=
-   * SmbFile.TYPE_NAMED_PIPE) { file.open( openFlags, access, SmbFile.ATTR_NORMAL, 0 );
-   * this.openFlags &= ~(SmbFile.O_CREAT | SmbFile.O_TRUNC); } else { file.connect0(); } readSize =
-   * readBuffer; fs = file.length(); }
-   *
-   * <p>Setting buffer size by properties didn't work for me so I created this constructor. In the
-   * libs folder there is a library modified by me. If you want to use a stock one, you have to set
-   * somehow the buffer size to be equal with http server's buffer size which is 8192.
-   */
+  @Override
   public void open() throws IOException {
-    if (fp > 0) {
-      fp = inputStream.skip(fp);
-    }
+    if (upstream.inputStream == null) throw new IOException("No stream for " + name);
   }
 
   @Override
-  public int read() throws IOException {
-    int read = inputStream.read();
-    if (read != -1) fp++;
-    return read;
+  protected int readAt(long position, byte[] bytes, int off, int len) throws IOException {
+    return upstream.read(position, bytes, off, len);
   }
 
+  /** Closes the stream too if it was given to the constructor. */
   @Override
-  public int read(byte[] bytes, int start, int offs) throws IOException {
-    int read = inputStream.read(bytes, start, offs);
-    fp += read;
-    return read;
-  }
-
-  @Override
-  public void close() throws IOException {
-    if (inputStream != null) {
-      inputStream.close();
-    }
+  public void close() {
+    super.close();
+    if (ownsUpstream) upstream.close();
   }
 
   public String getName() {
     return name;
   }
 
-  @Override
-  public void moveTo(long position) {
-    if (position < 0 || length() < position) {
-      throw new IllegalArgumentException("Position out of the bounds of the file!");
+  /**
+   * Stream of a file, shared by the sources answering the requests for it, which keeps track of
+   * its position.
+   */
+  static class Upstream implements Closeable {
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    /** Unique to this stream, no cached block of another stream is taken for one of this one */
+    final String cacheKey;
+
+    final InputStream inputStream;
+    private long position = 0;
+    private boolean closed = false;
+
+    Upstream(String fileName, InputStream inputStream) {
+      this.cacheKey = fileName + "#" + NEXT_ID.incrementAndGet();
+      this.inputStream = inputStream;
     }
 
-    fp = position;
-  }
+    synchronized int read(long at, byte[] bytes, int off, int len) throws IOException {
+      if (closed || inputStream == null) throw new IOException("Stream closed");
+      if (at < position) {
+        throw new IOException("Can't go back to " + at + " from " + position + ", not cached");
+      }
+      while (position < at) {
+        long skipped = inputStream.skip(at - position);
+        if (skipped <= 0) {
+          if (inputStream.read() == -1) return -1;
+          skipped = 1;
+        }
+        position += skipped;
+      }
+      int read = inputStream.read(bytes, off, len);
+      if (read > 0) position += read;
+      return read;
+    }
 
-  @Override
-  protected long getCurrentPosition() {
-    return fp;
+    @Override
+    public synchronized void close() {
+      if (closed) return;
+      closed = true;
+      if (inputStream != null) {
+        try {
+          inputStream.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
   }
 }
@@ -23,9 +23,15 @@ package com.amaze.filemanager.file_operations.filesystem.cloud;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
+import com.amaze.filemanager.file_operations.filesystem.streams.BlockCache;
+import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
+
+import android.net.Uri;
 import android.util.Log;
 
 import jcifs.smb.SmbFile;
@@ -36,10 +42,14 @@ public class CloudStreamer extends CloudStreamServer {
 
   public static final int PORT = 7871;
   public static final String URL = "http://127.0.0.1:" + PORT;
-  private InputStream inputStream;
+  private CloudStreamSource.Upstream upstream;
+  private SourceOpener opener;
+  // first segment of the path of requests for the source, null when any path will do
+  private String token;
   private String fileName;
   long length = 0;
   private static CloudStreamer instance;
+  private static final SecureRandom RANDOM = new SecureRandom();
   private static Pattern pattern =
       Pattern.compile(
           "^.*\\.(?i)(mp3|wma|wav|aac|ogg|m4a|flac|mp4|avi|mpg|mpeg|3gp|3gpp|mkv|flv|rmvb)$");
@@ -62,28 +72,102 @@ public class CloudStreamer extends CloudStreamServer {
   }
 
   public static boolean isStreamMedia(SmbFile file) {
-    return pattern.matcher(file.getName()).matches();
+    return isStreamMedia(file.getName());
+  }
+
+  public static boolean isStreamMedia(String fileName) {
+    return pattern.matcher(fileName).matches();
   }
 
-  public void setStreamSrc(InputStream inputStream, String fileName, long length) {
-    this.inputStream = inputStream;
+  /** Opens the content served, a new stream for each request */
+  public interface SourceOpener {
+    RandomAccessStream open() throws IOException;
+  }
+
+  /**
+   * Serves {@param inputStream} until the next call, or {@link #stop()}, which close it. Requests
+   * read it through the default {@link BlockCache}, to move back to blocks already read.
+   */
+  public synchronized void setStreamSrc(InputStream inputStream, String fileName, long length) {
+    closeUpstream();
+    final CloudStreamSource.Upstream upstream =
+        new CloudStreamSource.Upstream(fileName, inputStream);
+    this.upstream = upstream;
+    this.opener =
+        () -> new CloudStreamSource(fileName, length, upstream, BlockCache.getDefault(), false);
     this.fileName = fileName;
     this.length = length;
   }
 
+  /**
+   * Serves what {@param opener} opens until the next call, {@link #removeStreamSrc} or {@link
+   * #stop()}. Unlike an {@link InputStream}, streams it opens can move anywhere without going
+   * through a cache.
+   *
+   * <p>Only requests for the returned URL are served. Its path starts with a random token, so that
+   * other apps on the device can't fetch the content.
+   *
+   * @return URL to open the content at
+   */
+  public synchronized String setStreamSrc(SourceOpener opener, String fileName, long length) {
+    closeUpstream();
+    byte[] bytes = new byte[16];
+    RANDOM.nextBytes(bytes);
+    StringBuilder token = new StringBuilder();
+    for (byte b : bytes) token.append(String.format("%02x", b));
+
+    this.opener = opener;
+    this.token = token.toString();
+    this.fileName = fileName;
+    this.length = length;
+    return URL + "/" + token + "/" + Uri.encode(fileName);
+  }
+
+  /** Stops serving the source at {@param url}, unless another one replaced it since */
+  public synchronized void removeStreamSrc(String url) {
+    if (token != null && url.startsWith(URL + "/" + token + "/")) closeUpstream();
+  }
+
   @Override
   public void stop() {
     super.stop();
+    synchronized (this) {
+      closeUpstream();
+    }
     instance = null;
   }
 
+  private void closeUpstream() {
+    opener = null;
+    token = null;
+    if (upstream == null) return;
+    upstream.close();
+    BlockCache.getDefault().invalidate(upstream.cacheKey);
+    upstream = null;
+  }
+
   @Override
   public CloudStreamServer.Response serve(
       String uri, String method, Properties header, Properties parms, Properties files) {
     CloudStreamServer.Response res = null;
+    SourceOpener opener;
+    synchronized (this) {
+      opener = token == null || hasToken(uri, token) ? this.opener : null;
+    }
+
+    RandomAccessStream source = null;
+    if (opener != null) {
+      try {
+        source = opener.open();
+      } catch (IOException e) {
+        Log.e(TAG, "Error opening " + fileName, e);
+      }
+    }
 
-    if (inputStream == null)
+    if (opener == null)
       res = new CloudStreamServer.Response(HTTP_NOTFOUND, MIME_PLAINTEXT, null);
+    else if (source == null)
+      res = new CloudStreamServer.Response(HTTP_INTERNALERROR, MIME_PLAINTEXT, null);
     else {
 
       long startFrom = 0;
@@ -107,10 +191,10 @@ public class CloudStreamer extends CloudStreamServer {
       // Change return code and add Content-Range header when skipping
       // is requested
       // source.open();
-      final CloudStreamSource source = new CloudStreamSource(fileName, length, inputStream);
       long fileLen = source.length();
       if (range != null && startFrom > 0) {
         if (startFrom >= fileLen) {
+          closeQuietly(source);
           res = new CloudStreamServer.Response(HTTP_RANGE_NOT_SATISFIABLE, MIME_PLAINTEXT, null);
           res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
         } else {
@@ -124,6 +208,9 @@ public class CloudStreamer extends CloudStreamServer {
 
           res = new CloudStreamServer.Response(HTTP_PARTIALCONTENT, null, source);
           res.addHeader("Content-length", "" + dataLen);
+          // the whole rest of the file is sent, whatever the end asked for
+          res.addHeader(
+              "Content-Range", "bytes " + startFrom + "-" + (fileLen - 1) + "/" + fileLen);
         }
       } else {
         source.reset();
@@ -137,4 +224,20 @@ public class CloudStreamer extends CloudStreamServer {
     // content requestes
     return res;
   }
+
+  /** @return whether the first segment of {@param uri} is {@param token}, in constant time */
+  private static boolean hasToken(String uri, String token) {
+    int end = uri.indexOf('/', 1);
+    return uri.startsWith("/")
+        && end > 0
+        && MessageDigest.isEqual(uri.substring(1, end).getBytes(), token.getBytes());
+  }
+
+  private static void closeQuietly(RandomAccessStream source) {
+    try {
+      source.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Error closing unused stream", e);
+    }
+  }
 }
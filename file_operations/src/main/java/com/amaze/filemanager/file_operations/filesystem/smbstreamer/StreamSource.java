@@ -22,87 +22,68 @@ package com.amaze.filemanager.file_operations.filesystem.smbstreamer;
 
 /** Created by Arpit on 06-07-2015. */
 import java.io.IOException;
-import java.io.InputStream;
 
-import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
+import com.amaze.filemanager.file_operations.filesystem.streams.BlockCache;
+import com.amaze.filemanager.file_operations.filesystem.streams.CachedRandomAccessStream;
 
 import android.webkit.MimeTypeMap;
 
 import jcifs.smb.SmbFile;
+import jcifs.smb.SmbRandomAccessFile;
 
-public class StreamSource extends RandomAccessStream {
+/**
+ * Reads a {@link SmbFile} at any position with a {@link SmbRandomAccessFile}, so that moving to
+ * another position costs nothing until the next read, instead of reopening and skipping the file.
+ *
+ * <p>Reads go through a {@link BlockCache}, blocks cached by an earlier request for the file being
+ * read without opening it.
+ */
+public class StreamSource extends CachedRandomAccessStream {
 
   protected String mime;
-  protected long fp;
   protected String name;
   protected SmbFile file;
-  InputStream input;
+  SmbRandomAccessFile input;
+  private boolean closed = false;
 
   public StreamSource(SmbFile file, long l) {
-    super(l);
+    this(file, l, BlockCache.getDefault());
+  }
+
+  public StreamSource(SmbFile file, long l, BlockCache cache) {
+    super(l, getCacheKey(file, l), cache);
 
-    fp = 0;
     mime = MimeTypeMap.getFileExtensionFromUrl(file.getName());
     name = file.getName();
     this.file = file;
   }
 
-  /**
-   * You may notice a strange name for the smb input stream. I made some modifications to the
-   * original one in the jcifs library for my needs, but streaming required returning to the
-   * original one so I renamed it to "old". However, I needed to specify a buffer size in the
-   * constructor. It looks now like this:
-   *
-   * <p>public SmbFileInputStreamOld( SmbFile file, int readBuffer, int openFlags) throws
-   * SmbException, MalformedURLException, UnknownHostException { this.file = file; this.openFlags =
-   * SmbFile.O_RDONLY & 0xFFFF; this.access = (openFlags >>> 16) & 0xFFFF; if (file.type !=
-   * SmbFile.TYPE_NAMED_PIPE) { file.open( openFlags, access, SmbFile.ATTR_NORMAL, 0 );
-   * this.openFlags &= ~(SmbFile.O_CREAT | SmbFile.O_TRUNC); } else { file.connect0(); } readSize =
-   * readBuffer; fs = file.length(); }
-   *
-   * <p>Setting buffer size by properties didn't work for me so I created this constructor. In the
-   * libs folder there is a library modified by me. If you want to use a stock one, you have to set
-   * somehow the buffer size to be equal with http server's buffer size which is 8192.
-   */
-  public void open() throws IOException {
-    try {
-      input = file.getInputStream(); // new SmbFileInputStream(file, bufferSize, 1);
-      if (fp > 0) input.skip(fp);
-    } catch (Exception e) {
-      throw new IOException(e);
-    }
+  /** Identifies {@param file} in the {@link BlockCache} while its length is {@param length}. */
+  public static String getCacheKey(SmbFile file, long length) {
+    return file.getPath() + ":" + length;
   }
 
   @Override
-  public int read() throws IOException {
-    int read = input.read();
-    if (read != -1) fp++;
-    return read;
-  }
-
-  public int read(byte[] bytes, int start, int offs) throws IOException {
-    int read = input.read(bytes, start, offs);
-    fp += read;
-    return read;
+  protected synchronized int readAt(long position, byte[] bytes, int off, int len)
+      throws IOException {
+    if (closed) throw new IOException("Stream closed");
+    // opened on the first block not cached
+    if (input == null) input = new SmbRandomAccessFile(file, "r");
+    input.seek(position);
+    return input.read(bytes, off, len);
   }
 
   @Override
-  public void moveTo(long position) throws IllegalArgumentException {
-    if (position < 0 || length() < position) {
-      throw new IllegalArgumentException("Position out of the bounds of the file!");
-    }
-
-    fp = position;
-  }
-
-  @Override
-  public void close() {
+  public synchronized void close() {
+    super.close();
+    closed = true;
     if (input != null) {
       try {
         input.close();
       } catch (IOException e) {
         e.printStackTrace();
       }
+      input = null;
     }
   }
 
@@ -117,9 +98,4 @@ public class StreamSource extends RandomAccessStream {
   public SmbFile getFile() {
     return file;
   }
-
-  @Override
-  protected long getCurrentPosition() {
-    return fp;
-  }
 }
@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.util.Properties;
 import java.util.regex.Pattern;
 
+import com.amaze.filemanager.file_operations.filesystem.streams.BlockCache;
+
 import android.util.Log;
 
 import jcifs.smb.SmbFile;
@@ -43,6 +45,8 @@ public class Streamer extends StreamServer {
   private static Pattern pattern =
       Pattern.compile(
           "^.*\\.(?i)(mp3|wma|wav|aac|ogg|m4a|flac|mp4|avi|mpg|mpeg|3gp|3gpp|mkv|flv|rmvb)$");
+  /** Returned by {@link #parseRange(String, long)} for a range that no byte of the file is in */
+  static final long[] UNSATISFIABLE = new long[0];
 
   // private CBItem source;
   // private String mime;
@@ -65,7 +69,12 @@ public class Streamer extends StreamServer {
     return pattern.matcher(file.getName()).matches();
   }
 
+  /**
+   * Serves {@param file}, dropping the blocks of it cached by the default {@link BlockCache} in
+   * case it changed since it was last served.
+   */
   public void setStreamSrc(SmbFile file, long len) {
+    BlockCache.getDefault().invalidate(StreamSource.getCacheKey(file, len));
     this.file = file;
     // this.extras = extraFiles;
     this.length = len;
@@ -94,45 +103,27 @@ public class Streamer extends StreamServer {
     }*/
     if (sourceFile == null) res = new Response(StreamServer.HTTP_NOTFOUND, StreamServer.MIME_PLAINTEXT, null);
     else {
-      long startFrom = 0;
-      long endAt = -1;
-      String range = header.getProperty("range");
-      if (range != null) {
-        if (range.startsWith("bytes=")) {
-          range = range.substring("bytes=".length());
-          int minus = range.indexOf('-');
-          try {
-            if (minus > 0) {
-              startFrom = Long.parseLong(range.substring(0, minus));
-              endAt = Long.parseLong(range.substring(minus + 1));
-            }
-          } catch (NumberFormatException nfe) {
-          }
-        }
-      }
-      Log.d(TAG, "Request: " + range + " from: " + startFrom + ", to: " + endAt);
-
-      // Change return code and add Content-Range header when skipping
-      // is requested
-      // source.open();
       final StreamSource source = new StreamSource(sourceFile, length);
       long fileLen = source.length();
-      if (range != null && startFrom > 0) {
-        if (startFrom >= fileLen) {
-          res = new Response(StreamServer.HTTP_RANGE_NOT_SATISFIABLE, StreamServer.MIME_PLAINTEXT, null);
-          res.addHeader("Content-Range", "bytes 0-0/" + fileLen);
-        } else {
-          if (endAt < 0) endAt = fileLen - 1;
-          long newLen = fileLen - startFrom;
-          if (newLen < 0) newLen = 0;
-          Log.d(TAG, "start=" + startFrom + ", endAt=" + endAt + ", newLen=" + newLen);
-          final long dataLen = newLen;
-          source.moveTo(startFrom);
-          Log.d(TAG, "Skipped " + startFrom + " bytes");
-
-          res = new Response(StreamServer.HTTP_PARTIALCONTENT, source.getMimeType(), source);
-          res.addHeader("Content-length", "" + dataLen);
-        }
+      String range = header.getProperty("range");
+      long[] bounds = range != null ? parseRange(range, fileLen) : null;
+      Log.d(TAG, "Request: " + range);
+
+      if (bounds == UNSATISFIABLE) {
+        res =
+            new Response(
+                StreamServer.HTTP_RANGE_NOT_SATISFIABLE, StreamServer.MIME_PLAINTEXT, null);
+        res.addHeader("Content-Range", "bytes */" + fileLen);
+      } else if (bounds != null) {
+        long startFrom = bounds[0];
+        long endAt = bounds[1];
+        Log.d(TAG, "start=" + startFrom + ", endAt=" + endAt);
+        source.moveTo(startFrom);
+        source.limitReadAhead(endAt);
+
+        res = new Response(StreamServer.HTTP_PARTIALCONTENT, source.getMimeType(), source);
+        res.addHeader("Content-Length", "" + (endAt - startFrom + 1));
+        res.addHeader("Content-Range", "bytes " + startFrom + "-" + endAt + "/" + fileLen);
       } else {
         source.reset();
         res = new Response(StreamServer.HTTP_OK, source.getMimeType(), source);
@@ -146,6 +137,41 @@ public class Streamer extends StreamServer {
     return res;
   }
 
+  /**
+   * Parses a single byte range, <code>bytes=a-b</code>, <code>bytes=a-</code> or the suffix range
+   * <code>bytes=-n</code>, clamping its end to the file.
+   *
+   * @return the first and last byte of the range, {@link #UNSATISFIABLE} if it starts past the end
+   *     of the file, or null to send the whole file for a malformed range or several of them
+   */
+  static long[] parseRange(String range, long fileLen) {
+    if (!range.startsWith("bytes=")) return null;
+    range = range.substring("bytes=".length()).trim();
+    int minus = range.indexOf('-');
+    if (minus < 0 || range.indexOf(',') >= 0) return null;
+    long start;
+    long end;
+    try {
+      if (minus == 0) {
+        long suffixLength = Long.parseLong(range.substring(1));
+        if (suffixLength == 0) return UNSATISFIABLE;
+        start = Math.max(0, fileLen - suffixLength);
+        end = fileLen - 1;
+      } else {
+        start = Long.parseLong(range.substring(0, minus));
+        end =
+            minus == range.length() - 1
+                ? fileLen - 1
+                : Math.min(Long.parseLong(range.substring(minus + 1)), fileLen - 1);
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (start >= fileLen) return UNSATISFIABLE;
+    if (start > end || start < 0) return null;
+    return new long[] {start, end};
+  }
+
   private static String getNameFromPath(String path) {
     if (path == null || path.length() < 2) return null;
     int slash = path.lastIndexOf('/');
@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.streams;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Blocks of streamed files, so that ranges a player asks for again while seeking are read locally
+ * instead of from the network.
+ *
+ * <p>Blocks are kept in memory up to a budget, the least recently used leaving first. If a
+ * directory is given, blocks leaving memory are written there up to another budget, and read back
+ * into memory when used again. The directory only holds the blocks of this process, it is emptied
+ * before the first block is written in it.
+ *
+ * <p>Each block is read once at a time: a read of a block already being read, e.g. ahead of a
+ * reader, waits for it instead of reading it again.
+ */
+public class BlockCache {
+  private static final String TAG = BlockCache.class.getSimpleName();
+
+  /** Bytes in a block, a few requests of the network file systems */
+  public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+
+  /** Bytes kept in memory at most, by default */
+  public static final long DEFAULT_MEMORY_BUDGET = 16 * 1024 * 1024;
+
+  /** Bytes kept in the directory at most, by default */
+  public static final long DEFAULT_DISK_BUDGET = 256 * 1024 * 1024;
+
+  /** Threads reading blocks ahead, for all caches */
+  public static final int READ_AHEAD_THREADS = 2;
+
+  private static final ThreadPoolExecutor READ_AHEAD_EXECUTOR =
+      new ThreadPoolExecutor(
+          READ_AHEAD_THREADS,
+          READ_AHEAD_THREADS,
+          60,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  static {
+    READ_AHEAD_EXECUTOR.allowCoreThreadTimeOut(true);
+  }
+
+  private static BlockCache defaultCache;
+
+  private final int blockSize;
+  private final long memoryBudget;
+  @Nullable private final File directory;
+  private final long diskBudget;
+  private final Executor readAheadExecutor;
+
+  // in access order, the eldest is the least recently used
+  private final LinkedHashMap<Key, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+  private final LinkedHashMap<Key, DiskBlock> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private final Map<Key, FutureTask<byte[]>> loading = new HashMap<>();
+  private long memorySize = 0;
+  private long diskSize = 0;
+  private boolean directoryCleared = false;
+  private long nextFile = 0;
+
+  /** Cache with the default sizes, writing blocks to {@param directory} if not null. */
+  public BlockCache(@Nullable File directory) {
+    this(
+        DEFAULT_BLOCK_SIZE,
+        DEFAULT_MEMORY_BUDGET,
+        directory,
+        DEFAULT_DISK_BUDGET,
+        READ_AHEAD_EXECUTOR);
+  }
+
+  /**
+   * @param blockSize bytes in a block, the last block of a file may be shorter
+   * @param memoryBudget bytes kept in memory at most
+   * @param directory where blocks leaving memory are written, null to drop them
+   * @param diskBudget bytes kept in {@param directory} at most
+   * @param readAheadExecutor runs the tasks of {@link #executeReadAhead}
+   */
+  public BlockCache(
+      int blockSize,
+      long memoryBudget,
+      @Nullable File directory,
+      long diskBudget,
+      @NonNull Executor readAheadExecutor) {
+    this.blockSize = blockSize;
+    this.memoryBudget = memoryBudget;
+    this.directory = directory;
+    this.diskBudget = diskBudget;
+    this.readAheadExecutor = readAheadExecutor;
+  }
+
+  /** The cache used by streams not given one, only in memory until {@link #setDefault} */
+  public static synchronized BlockCache getDefault() {
+    if (defaultCache == null) defaultCache = new BlockCache(null);
+    return defaultCache;
+  }
+
+  public static synchronized void setDefault(@NonNull BlockCache cache) {
+    defaultCache = cache;
+  }
+
+  public int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Gets block {@param index} of {@param source}, reading it with {@param loader} if it isn't
+   * cached.
+   *
+   * @param source identifies the file, and its content
+   * @param loader reads the block, returning its bytes up to the end of the file
+   */
+  @NonNull
+  public byte[] get(@NonNull String source, long index, @NonNull Callable<byte[]> loader)
+      throws IOException {
+    Key key = new Key(source, index);
+    while (true) {
+      FutureTask<byte[]> task;
+      boolean started;
+      synchronized (this) {
+        byte[] block = memory.get(key);
+        if (block != null) return block;
+        task = loading.get(key);
+        started = task == null;
+        if (started) {
+          task = newLoad(key, loader);
+          loading.put(key, task);
+        }
+      }
+      if (started) task.run();
+
+      try {
+        return task.get();
+      } catch (ExecutionException e) {
+        // the read of another stream, e.g. closed meanwhile, is tried again with this one's
+        if (!started) continue;
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) throw (IOException) cause;
+        throw new IOException(cause);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+  }
+
+  /** Runs {@param task} reading blocks ahead of a stream on another thread. */
+  public void executeReadAhead(@NonNull Runnable task) {
+    readAheadExecutor.execute(task);
+  }
+
+  /** Drops the blocks of {@param source}, e.g. once it changed. */
+  public void invalidate(@NonNull String source) {
+    List<File> deleted = new ArrayList<>();
+    synchronized (this) {
+      Iterator<Map.Entry<Key, byte[]>> blocks = memory.entrySet().iterator();
+      while (blocks.hasNext()) {
+        Map.Entry<Key, byte[]> block = blocks.next();
+        if (block.getKey().source.equals(source)) {
+          memorySize -= block.getValue().length;
+          blocks.remove();
+        }
+      }
+      Iterator<Map.Entry<Key, DiskBlock>> files = disk.entrySet().iterator();
+      while (files.hasNext()) {
+        Map.Entry<Key, DiskBlock> file = files.next();
+        if (file.getKey().source.equals(source)) {
+          diskSize -= file.getValue().length;
+          deleted.add(file.getValue().file);
+          files.remove();
+        }
+      }
+    }
+    for (File file : deleted) file.delete();
+  }
+
+  private FutureTask<byte[]> newLoad(final Key key, final Callable<byte[]> loader) {
+    return new FutureTask<>(
+        () -> {
+          try {
+            byte[] block = readFile(key);
+            if (block == null) block = loader.call();
+            put(key, block);
+            return block;
+          } finally {
+            synchronized (this) {
+              loading.remove(key);
+            }
+          }
+        });
+  }
+
+  /** @return the block written in the directory, or null */
+  @Nullable
+  private byte[] readFile(Key key) {
+    DiskBlock diskBlock;
+    synchronized (this) {
+      diskBlock = disk.remove(key);
+      if (diskBlock == null) return null;
+      diskSize -= diskBlock.length;
+    }
+    File file = diskBlock.file;
+    try {
+      byte[] block = new byte[diskBlock.length];
+      InputStream in = new FileInputStream(file);
+      try {
+        int read = 0;
+        while (read < block.length) {
+          int count = in.read(block, read, block.length - read);
+          if (count == -1) return null;
+          read += count;
+        }
+      } finally {
+        in.close();
+      }
+      return block;
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to read cached block", e);
+      return null;
+    } finally {
+      file.delete();
+    }
+  }
+
+  private void put(Key key, byte[] block) {
+    if (block.length == 0) return;
+
+    List<Map.Entry<Key, byte[]>> evicted = new ArrayList<>();
+    synchronized (this) {
+      byte[] previous = memory.put(key, block);
+      if (previous != null) memorySize -= previous.length;
+      memorySize += block.length;
+      Iterator<Map.Entry<Key, byte[]>> eldest = memory.entrySet().iterator();
+      while (memorySize > memoryBudget && eldest.hasNext()) {
+        Map.Entry<Key, byte[]> entry = eldest.next();
+        memorySize -= entry.getValue().length;
+        evicted.add(entry);
+        eldest.remove();
+      }
+    }
+    if (directory == null) return;
+    // written outside of the lock, readers of other blocks don't wait for the disk
+    for (Map.Entry<Key, byte[]> entry : evicted) writeFile(entry.getKey(), entry.getValue());
+  }
+
+  private void writeFile(Key key, byte[] block) {
+    File file;
+    synchronized (this) {
+      if (!directoryCleared) {
+        directoryCleared = true;
+        clearDirectory();
+      }
+      file = new File(directory, (nextFile++) + ".block");
+    }
+    try {
+      OutputStream out = new FileOutputStream(file);
+      try {
+        out.write(block);
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to cache block", e);
+      file.delete();
+      return;
+    }
+
+    List<File> deleted = new ArrayList<>();
+    synchronized (this) {
+      if (memory.containsKey(key) || disk.containsKey(key)) {
+        // read again in the meantime
+        deleted.add(file);
+      } else {
+        disk.put(key, new DiskBlock(file, block.length));
+        diskSize += block.length;
+      }
+      Iterator<DiskBlock> eldest = disk.values().iterator();
+      while (diskSize > diskBudget && eldest.hasNext()) {
+        DiskBlock eldestBlock = eldest.next();
+        diskSize -= eldestBlock.length;
+        deleted.add(eldestBlock.file);
+        eldest.remove();
+      }
+    }
+    for (File deletedFile : deleted) deletedFile.delete();
+  }
+
+  private void clearDirectory() {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      Log.w(TAG, "Failed to create " + directory);
+      return;
+    }
+    File[] files = directory.listFiles();
+    if (files == null) return;
+    for (File file : files) file.delete();
+  }
+
+  private static final class DiskBlock {
+    final File file;
+    final int length;
+
+    DiskBlock(File file, int length) {
+      this.file = file;
+      this.length = length;
+    }
+  }
+
+  private static final class Key {
+    final String source;
+    final long index;
+
+    Key(String source, long index) {
+      this.source = source;
+      this.index = index;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key key = (Key) o;
+      return index == key.index && source.equals(key.source);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * source.hashCode() + (int) (index ^ (index >>> 32));
+    }
+  }
+}
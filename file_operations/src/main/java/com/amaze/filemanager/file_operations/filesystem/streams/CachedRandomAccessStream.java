@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.streams;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+
+import androidx.annotation.NonNull;
+
+/**
+ * {@link RandomAccessStream} reading its file through a {@link BlockCache}. Subclasses read the
+ * file in {@link #readAt}, which may be called from the threads reading ahead.
+ *
+ * <p>While the stream is read sequentially, the blocks following the current one are read ahead
+ * asynchronously, one more at each new block up to {@link #MAX_READ_AHEAD_BLOCKS}, so that a
+ * player probing a container with short ranges doesn't fetch much it won't use. Blocks are read
+ * ahead in order by a single task at a time, so that files only read forward aren't skipped past
+ * a block still needed.
+ */
+public abstract class CachedRandomAccessStream extends RandomAccessStream {
+
+  /** Blocks read ahead at most, 1 MiB with {@link BlockCache#DEFAULT_BLOCK_SIZE} */
+  public static final int MAX_READ_AHEAD_BLOCKS = 4;
+
+  private final String source;
+  private final BlockCache cache;
+  private final int blockSize;
+
+  protected long fp = 0;
+  private volatile boolean closed = false;
+  // last block read and blocks read ahead of it, to tell sequential reads
+  private long lastBlock = -1;
+  private int readAhead = 0;
+  // position read ahead up to at most, the end of the requested range
+  private long readLimit = -1;
+  // next block to read ahead and last one, guarded by readAheadTask
+  private long nextReadAhead = 0;
+  private long lastReadAhead = -1;
+  private boolean readingAhead = false;
+  private final Runnable readAheadTask =
+      new Runnable() {
+        @Override
+        public void run() {
+          while (true) {
+            long index;
+            synchronized (this) {
+              if (closed || nextReadAhead > lastReadAhead) {
+                readingAhead = false;
+                return;
+              }
+              index = nextReadAhead++;
+            }
+            try {
+              cache.get(source, index, loader(index));
+            } catch (IOException e) {
+              // left to the reader, if it ever gets there
+              synchronized (this) {
+                readingAhead = false;
+              }
+              return;
+            }
+          }
+        }
+      };
+
+  /** @param source identifies the file and its content in {@param cache} */
+  protected CachedRandomAccessStream(
+      long length, @NonNull String source, @NonNull BlockCache cache) {
+    super(length);
+    this.source = source;
+    this.cache = cache;
+    this.blockSize = cache.getBlockSize();
+  }
+
+  /**
+   * Reads up to {@param len} bytes of the file at {@param position}.
+   *
+   * @return the number of bytes read, -1 at the end of the file
+   */
+  protected abstract int readAt(long position, byte[] bytes, int off, int len) throws IOException;
+
+  /**
+   * Keeps reading ahead from going past {@param end}, the last byte of the range being sent. Blocks
+   * are read ahead as usual when reading past it.
+   */
+  public void limitReadAhead(long end) {
+    readLimit = end;
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] b = new byte[1];
+    return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > bytes.length - off) {
+      throw new IndexOutOfBoundsException();
+    }
+    if (closed) throw new IOException("Stream closed");
+    if (len == 0) return 0;
+    if (fp >= length()) return -1;
+
+    long index = fp / blockSize;
+    byte[] block = cache.get(source, index, loader(index));
+    int offset = (int) (fp - index * blockSize);
+    if (offset >= block.length) return -1;
+    int count = Math.min(len, block.length - offset);
+    System.arraycopy(block, offset, bytes, off, count);
+    fp += count;
+
+    if (index != lastBlock) {
+      readAhead = index == lastBlock + 1 ? Math.min(readAhead + 1, MAX_READ_AHEAD_BLOCKS) : 1;
+      lastBlock = index;
+      readAhead(index);
+    }
+    return count;
+  }
+
+  private void readAhead(long index) {
+    long lastByte = length() - 1;
+    if (fp <= readLimit) lastByte = Math.min(lastByte, readLimit);
+    long last = Math.min(index + readAhead, lastByte / blockSize);
+    synchronized (readAheadTask) {
+      nextReadAhead = index + 1;
+      lastReadAhead = last;
+      if (readingAhead || nextReadAhead > lastReadAhead) return;
+      readingAhead = true;
+    }
+    try {
+      cache.executeReadAhead(readAheadTask);
+    } catch (RejectedExecutionException e) {
+      synchronized (readAheadTask) {
+        readingAhead = false;
+      }
+    }
+  }
+
+  private Callable<byte[]> loader(final long index) {
+    return () -> {
+      long start = index * blockSize;
+      byte[] block = new byte[(int) Math.max(0, Math.min(blockSize, length() - start))];
+      int read = 0;
+      while (read < block.length) {
+        int count = readAt(start + read, block, read, block.length - read);
+        if (count <= 0) break;
+        read += count;
+      }
+      if (read < block.length) {
+        byte[] shorter = new byte[read];
+        System.arraycopy(block, 0, shorter, 0, read);
+        return shorter;
+      }
+      return block;
+    };
+  }
+
+  @Override
+  public void moveTo(long position) {
+    if (position < 0 || length() < position) {
+      throw new IllegalArgumentException("Position out of the bounds of the file!");
+    }
+
+    fp = position;
+  }
+
+  /** Further reads fail, subclasses close the file too. */
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  @Override
+  protected long getCurrentPosition() {
+    return fp;
+  }
+}
@@ -0,0 +1,554 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.streams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * HTTP/1.1 engine shared by the streaming servers, serving {@link RandomAccessStream}s.
+ *
+ * <p>Media players send many range requests while seeking, so connections are kept alive between
+ * requests, and pipelined requests are answered in order off the same buffered stream. Connections
+ * are handled on a bounded pool of threads shared by all servers, threads being reused across
+ * connections and servers rather than started for each one. Bodies are copied through a buffer
+ * kept by each thread.
+ *
+ * <p>Request parsing is derived from NanoHTTPD 1.24, see the servers for its licence. Request
+ * bodies are read and, when URL encoded, decoded into the parameters, multipart uploads are not
+ * supported.
+ */
+public class HttpStreamCore {
+  private static final String TAG = HttpStreamCore.class.getSimpleName();
+
+  /**
+   * Connections served at once by all servers. Past it, the kept alive connection waiting the
+   * longest for its next request is closed to serve the new one, which is only answered 503 when
+   * none is waiting.
+   */
+  public static final int MAX_CONNECTIONS = 16;
+
+  /** Time a kept alive connection may wait for its next request */
+  public static final int KEEP_ALIVE_TIMEOUT_MS = 15 * 1000;
+
+  // Apache's default limit too
+  private static final int MAX_HEADER_SIZE = 8192;
+  private static final int MAX_BODY_SIZE = 64 * 1024;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  // time for the thread of a closed idle connection to notice and give up its permit
+  private static final int EVICTION_WAIT_MS = 1000;
+
+  private static final String HTTP_BADREQUEST = "400 Bad Request";
+  private static final String HTTP_PAYLOAD_TOO_LARGE = "413 Payload Too Large";
+  private static final String HTTP_INTERNALERROR = "500 Internal Server Error";
+  private static final String HTTP_UNAVAILABLE = "503 Service Unavailable";
+  private static final String MIME_PLAINTEXT = "text/plain";
+
+  private static final Charset HEADER_CHARSET = Charset.forName("ISO-8859-1");
+
+  // bounded by CONNECTION_PERMITS, as a thread may linger a bit after giving its permit back
+  private static final ThreadPoolExecutor EXECUTOR =
+      new ThreadPoolExecutor(
+          0,
+          Integer.MAX_VALUE,
+          60,
+          TimeUnit.SECONDS,
+          new SynchronousQueue<>(),
+          new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, TAG + "-" + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  static final Semaphore CONNECTION_PERMITS = new Semaphore(MAX_CONNECTIONS);
+
+  /** Kept alive connections of all servers waiting for their next request, oldest first */
+  private static final Set<Socket> IDLE_CONNECTIONS = new LinkedHashSet<>();
+
+  private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<>();
+
+  /** GMT date formatter, not thread safe */
+  private static final SimpleDateFormat GMT_FORMAT =
+      new SimpleDateFormat("E, d MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+
+  static {
+    GMT_FORMAT.setTimeZone(TimeZone.getTimeZone("GMT"));
+  }
+
+  /** Answers the requests of a server */
+  public interface Handler {
+    /**
+     * @param uri Percent-decoded URI without parameters, for example "/index.cgi"
+     * @param method "GET", "POST" etc.
+     * @param header Header entries, names in lower case
+     * @param parms Parsed, percent decoded parameters from URI and, in case of POST, data.
+     * @return the response, null answers 500
+     */
+    Reply serve(String uri, String method, Properties header, Properties parms);
+  }
+
+  /** Response to a request */
+  public static class Reply {
+    final String status;
+    final String mimeType;
+    final Properties header;
+    final RandomAccessStream data;
+
+    /**
+     * @param status e.g. "200 OK"
+     * @param mimeType may be null
+     * @param header headers of the response, may be null
+     * @param data content, from its current position, closed once sent. May be null.
+     */
+    public Reply(String status, String mimeType, Properties header, RandomAccessStream data) {
+      this.status = status;
+      this.mimeType = mimeType;
+      this.header = header != null ? header : new Properties();
+      this.data = data;
+    }
+  }
+
+  private final ServerSocket serverSocket;
+  private final Handler handler;
+  private final Thread acceptThread;
+  private final Set<Socket> connections = Collections.synchronizedSet(new HashSet<>());
+  private volatile boolean stopped = false;
+
+  /** Starts accepting connections on {@param serverSocket}. */
+  public HttpStreamCore(ServerSocket serverSocket, Handler handler) {
+    this.serverSocket = serverSocket;
+    this.handler = handler;
+    acceptThread = new Thread(this::acceptConnections, TAG + "-accept");
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+  }
+
+  /** Stops accepting connections, and closes the open ones. */
+  public void stop() {
+    stopped = true;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      Log.w(TAG, "Error closing server socket", e);
+    }
+    try {
+      acceptThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (connections) {
+      for (Socket socket : connections) closeQuietly(socket);
+      connections.clear();
+    }
+  }
+
+  public int getLocalPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  private void acceptConnections() {
+    try {
+      while (!stopped) {
+        final Socket socket = serverSocket.accept();
+        if (!acquireConnection()) {
+          refuse(socket);
+          continue;
+        }
+        connections.add(socket);
+        try {
+          EXECUTOR.execute(
+              () -> {
+                try {
+                  handleConnection(socket);
+                } finally {
+                  CONNECTION_PERMITS.release();
+                }
+              });
+        } catch (RejectedExecutionException e) {
+          CONNECTION_PERMITS.release();
+          connections.remove(socket);
+          refuse(socket);
+        }
+      }
+    } catch (IOException e) {
+      // server socket closed
+    }
+  }
+
+  /**
+   * Takes the permit of a new connection. With none left, closes the kept alive connection idle
+   * the longest for it: its client reconnects when it has another request, while refusing the new
+   * one would fail a request now.
+   *
+   * @return false if there is no idle connection to close either
+   */
+  private static boolean acquireConnection() {
+    if (CONNECTION_PERMITS.tryAcquire()) return true;
+
+    Socket idle = null;
+    synchronized (IDLE_CONNECTIONS) {
+      Iterator<Socket> iterator = IDLE_CONNECTIONS.iterator();
+      if (iterator.hasNext()) {
+        idle = iterator.next();
+        iterator.remove();
+      }
+    }
+    if (idle == null) return false;
+    closeQuietly(idle);
+
+    try {
+      return CONNECTION_PERMITS.tryAcquire(EVICTION_WAIT_MS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void refuse(Socket socket) {
+    Log.w(TAG, "Too many connections, refusing one");
+    try {
+      OutputStream out = socket.getOutputStream();
+      writeHeader(out, "HTTP/1.1", HTTP_UNAVAILABLE, MIME_PLAINTEXT, new Properties(), false);
+      out.flush();
+    } catch (IOException ignored) {
+    }
+    closeQuietly(socket);
+  }
+
+  private void handleConnection(Socket socket) {
+    try {
+      socket.setSoTimeout(KEEP_ALIVE_TIMEOUT_MS);
+      socket.setTcpNoDelay(true);
+      InputStream in = new BufferedInputStream(socket.getInputStream(), MAX_HEADER_SIZE);
+      OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+      byte[] lineBuffer = new byte[MAX_HEADER_SIZE];
+      boolean keepAlive = true;
+      boolean first = true;
+      while (keepAlive && !stopped) {
+        if (!first && !awaitRequest(socket, in)) break;
+        first = false;
+        keepAlive = handleRequest(in, out, lineBuffer);
+        // pipelined requests are answered together
+        if (in.available() == 0) out.flush();
+      }
+      out.flush();
+    } catch (IOException e) {
+      // timed out waiting for the next request, or closed by the client
+    } finally {
+      connections.remove(socket);
+      closeQuietly(socket);
+    }
+  }
+
+  /**
+   * Waits for the next request of a kept alive connection, which meanwhile may be closed for a new
+   * connection by {@link #acquireConnection()}.
+   *
+   * @return false if the connection was closed
+   */
+  private static boolean awaitRequest(Socket socket, InputStream in) throws IOException {
+    synchronized (IDLE_CONNECTIONS) {
+      IDLE_CONNECTIONS.add(socket);
+    }
+    int next;
+    boolean closed;
+    try {
+      in.mark(1);
+      next = in.read();
+    } finally {
+      synchronized (IDLE_CONNECTIONS) {
+        closed = !IDLE_CONNECTIONS.remove(socket);
+      }
+    }
+    if (next == -1 || closed) return false;
+    in.reset();
+    return true;
+  }
+
+  /** @return whether the connection is to be kept alive */
+  private boolean handleRequest(InputStream in, OutputStream out, byte[] lineBuffer)
+      throws IOException {
+    String requestLine = readLine(in, lineBuffer);
+    if (requestLine == null) return false;
+    // a blank line may come between pipelined requests
+    if (requestLine.isEmpty()) return true;
+
+    StringTokenizer tokens = new StringTokenizer(requestLine);
+    if (tokens.countTokens() < 2) {
+      sendError(out, "HTTP/1.0", HTTP_BADREQUEST, "BAD REQUEST: Syntax error.");
+      return false;
+    }
+    String method = tokens.nextToken();
+    String uri = tokens.nextToken();
+    String version = tokens.hasMoreTokens() ? tokens.nextToken() : "HTTP/1.0";
+
+    Properties header = new Properties();
+    int headerSize = requestLine.length();
+    String line;
+    while ((line = readLine(in, lineBuffer)) != null && !line.isEmpty()) {
+      headerSize += line.length();
+      if (headerSize > MAX_HEADER_SIZE) {
+        sendError(out, version, HTTP_BADREQUEST, "BAD REQUEST: Header too large.");
+        return false;
+      }
+      int colon = line.indexOf(':');
+      if (colon >= 0) {
+        header.put(
+            line.substring(0, colon).trim().toLowerCase(Locale.US),
+            line.substring(colon + 1).trim());
+      }
+    }
+    if (line == null) return false;
+
+    Properties parms = new Properties();
+    int query = uri.indexOf('?');
+    if (query >= 0) {
+      decodeParms(uri.substring(query + 1), parms);
+      uri = uri.substring(0, query);
+    }
+    uri = Uri.decode(uri);
+
+    long contentLength = parseLength(header.getProperty("content-length"), 0);
+    if (contentLength < 0 || contentLength > MAX_BODY_SIZE) {
+      sendError(out, version, HTTP_PAYLOAD_TOO_LARGE, "Request body too large.");
+      return false;
+    }
+    if (contentLength > 0) {
+      byte[] body = new byte[(int) contentLength];
+      readFully(in, body);
+      String contentType = header.getProperty("content-type", "");
+      if (contentType.startsWith("application/x-www-form-urlencoded")) {
+        decodeParms(new String(body, HEADER_CHARSET).trim(), parms);
+      }
+    }
+
+    String connection = header.getProperty("connection", "");
+    boolean keepAlive =
+        version.equals("HTTP/1.1")
+            ? !connection.equalsIgnoreCase("close")
+            : connection.equalsIgnoreCase("keep-alive");
+
+    Reply reply;
+    try {
+      reply = handler.serve(uri, method, header, parms);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Error serving " + uri, e);
+      reply = null;
+    }
+    if (reply == null) {
+      sendError(out, version, HTTP_INTERNALERROR, "SERVER INTERNAL ERROR");
+      return false;
+    }
+    return sendReply(out, version, method, reply, keepAlive);
+  }
+
+  /** @return whether the connection can be kept alive after the reply */
+  private boolean sendReply(
+      OutputStream out, String version, String method, Reply reply, boolean keepAlive)
+      throws IOException {
+    RandomAccessStream data = reply.data;
+    try {
+      long length = -1;
+      for (String name : reply.header.stringPropertyNames()) {
+        if (name.equalsIgnoreCase("content-length")) {
+          length = parseLength(reply.header.getProperty(name), -1);
+        }
+      }
+      Properties header = reply.header;
+      if (data == null && length < 0) {
+        header = new Properties();
+        header.putAll(reply.header);
+        header.put("Content-Length", "0");
+        length = 0;
+      }
+      // without a length, the end of the content is told by closing the connection
+      keepAlive &= length >= 0;
+      writeHeader(out, version, reply.status, reply.mimeType, header, keepAlive);
+
+      if (data == null || method.equals("HEAD")) return keepAlive;
+      data.open();
+      long sent = copy(data, out, length);
+      // the client would wait for the missing content
+      return keepAlive && sent == length;
+    } finally {
+      if (data != null) data.close();
+    }
+  }
+
+  private void sendError(OutputStream out, String version, String status, String message)
+      throws IOException {
+    byte[] body = message.getBytes(HEADER_CHARSET);
+    Properties header = new Properties();
+    header.put("Content-Length", String.valueOf(body.length));
+    writeHeader(out, version, status, MIME_PLAINTEXT, header, false);
+    out.write(body);
+    out.flush();
+  }
+
+  private static void writeHeader(
+      OutputStream out,
+      String version,
+      String status,
+      String mimeType,
+      Properties header,
+      boolean keepAlive)
+      throws IOException {
+    StringBuilder response = new StringBuilder(256);
+    response.append(version.equals("HTTP/1.1") ? "HTTP/1.1 " : "HTTP/1.0 ");
+    response.append(status).append("\r\n");
+    if (mimeType != null) response.append("Content-Type: ").append(mimeType).append("\r\n");
+    if (header.getProperty("Date") == null) {
+      String date;
+      synchronized (GMT_FORMAT) {
+        date = GMT_FORMAT.format(new Date());
+      }
+      response.append("Date: ").append(date).append("\r\n");
+    }
+    Enumeration<?> names = header.propertyNames();
+    while (names.hasMoreElements()) {
+      String name = (String) names.nextElement();
+      response.append(name).append(": ").append(header.getProperty(name)).append("\r\n");
+    }
+    response.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+    response.append("\r\n");
+    out.write(response.toString().getBytes(HEADER_CHARSET));
+  }
+
+  /** Copies up to {@param length} bytes of {@param data}, all of it for a negative length. */
+  private static long copy(RandomAccessStream data, OutputStream out, long length)
+      throws IOException {
+    byte[] buffer = BUFFER.get();
+    if (buffer == null) {
+      buffer = new byte[BUFFER_SIZE];
+      BUFFER.set(buffer);
+    }
+    long sent = 0;
+    while (length < 0 || sent < length) {
+      int count =
+          data.read(
+              buffer, 0, length < 0 ? buffer.length : (int) Math.min(buffer.length, length - sent));
+      if (count <= 0) break;
+      out.write(buffer, 0, count);
+      sent += count;
+    }
+    return sent;
+  }
+
+  /**
+   * Reads a line ending with LF or CRLF into {@param buffer}, without the line end.
+   *
+   * @return the line, or null at the end of the stream
+   */
+  private static String readLine(InputStream in, byte[] buffer) throws IOException {
+    int length = 0;
+    int b;
+    while ((b = in.read()) != -1 && b != '\n') {
+      if (length == buffer.length) throw new IOException("Header line too long");
+      buffer[length++] = (byte) b;
+    }
+    if (b == -1 && length == 0) return null;
+    if (length > 0 && buffer[length - 1] == '\r') length--;
+    return new String(buffer, 0, length, HEADER_CHARSET);
+  }
+
+  private static void readFully(InputStream in, byte[] b) throws IOException {
+    int offset = 0;
+    while (offset < b.length) {
+      int count = in.read(b, offset, b.length - offset);
+      if (count == -1) throw new IOException("Truncated request body");
+      offset += count;
+    }
+  }
+
+  private static long parseLength(String value, long defaultValue) {
+    if (value == null) return defaultValue;
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * Decodes parameters in percent-encoded URI-format ( e.g.
+   * "name=Jack%20Daniels&pass=Single%20Malt" ) and adds them to given Properties.
+   */
+  private static void decodeParms(String parms, Properties p) {
+    StringTokenizer st = new StringTokenizer(parms, "&");
+    while (st.hasMoreTokens()) {
+      String e = st.nextToken();
+      int sep = e.indexOf('=');
+      if (sep >= 0) {
+        p.put(decodePercent(e.substring(0, sep)).trim(), decodePercent(e.substring(sep + 1)));
+      }
+    }
+  }
+
+  private static String decodePercent(String str) {
+    try {
+      return URLDecoder.decode(str, "UTF-8");
+    } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+      return str;
+    }
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+}
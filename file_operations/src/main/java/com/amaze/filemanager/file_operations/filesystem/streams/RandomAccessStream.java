@@ -67,6 +67,9 @@ public abstract class RandomAccessStream extends InputStream {
     throw new IOException("Use availableExact()!");
   }
 
+  /** Prepares reading from the current position, before the first read. Does nothing by default. */
+  public void open() throws IOException {}
+
   public abstract int read() throws IOException;
 
   public abstract void moveTo(long position);
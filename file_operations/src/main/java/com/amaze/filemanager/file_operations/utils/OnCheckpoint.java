@@ -0,0 +1,6 @@
+package com.amaze.filemanager.file_operations.utils;
+
+/** Told how many bytes of a copy are known to have reached the target. */
+public interface OnCheckpoint {
+    public void onCheckpoint(long confirmedBytes);
+}
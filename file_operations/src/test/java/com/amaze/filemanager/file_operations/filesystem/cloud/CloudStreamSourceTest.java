@@ -272,4 +272,20 @@ public class CloudStreamSourceTest {
     cs.reset();
     assertEquals(len, cs.availableExact());
   }
+
+  /**
+   * Purpose: Move back after reading the whole stream Input: read(buff), moveTo(0), read(buff)
+   * Expected: the content again, from the cache
+   */
+  @Test
+  public void moveBackCached() throws IOException {
+    byte[] buff = new byte[100];
+    assertEquals(len, cs.read(buff));
+    assertEquals(-1, cs.read(buff));
+
+    cs.moveTo(0);
+    int n = cs.read(buff);
+    assertEquals(len, n);
+    assertArrayEquals(text, Arrays.copyOfRange(buff, 0, n));
+  }
 }
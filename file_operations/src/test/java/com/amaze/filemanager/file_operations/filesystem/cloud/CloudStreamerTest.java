@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2014-2021 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.cloud;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.file_operations.filesystem.streams.RandomAccessStream;
+import com.amaze.filemanager.file_operations.shadows.ShadowMultiDex;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class CloudStreamerTest {
+  private final byte[] content = new byte[1000];
+  private final List<ByteArrayStream> opened = new ArrayList<>();
+  private CloudStreamer streamer;
+  private String path;
+
+  @Before
+  public void setUp() throws IOException {
+    for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+    streamer = new CloudStreamer(0);
+  }
+
+  @After
+  public void tearDown() {
+    streamer.stop();
+  }
+
+  /** Purpose: Serve an opened source Input: no range, then a range Expected: a stream each */
+  @Test
+  public void serveOpenedSource() throws IOException {
+    setStreamSrc(this::open);
+
+    CloudStreamServer.Response whole = serve(null);
+    assertEquals(CloudStreamServer.HTTP_OK, whole.status);
+    assertEquals(String.valueOf(content.length), whole.header.getProperty("Content-Length"));
+    assertArrayEquals(content, readAll(whole.data));
+
+    CloudStreamServer.Response rest = serve("bytes=600-");
+    assertEquals(CloudStreamServer.HTTP_PARTIALCONTENT, rest.status);
+    assertEquals("bytes 600-999/1000", rest.header.getProperty("Content-Range"));
+    assertArrayEquals(Arrays.copyOfRange(content, 600, 1000), readAll(rest.data));
+
+    assertEquals(2, opened.size());
+    assertNotSame(opened.get(0), opened.get(1));
+  }
+
+  /** Purpose: Close what isn't sent Input: a range past the end Expected: 416, stream closed */
+  @Test
+  public void closeUnsatisfiableSource() {
+    setStreamSrc(this::open);
+
+    assertEquals(CloudStreamServer.HTTP_RANGE_NOT_SATISFIABLE, serve("bytes=1000-").status);
+    assertTrue(opened.get(0).closed);
+  }
+
+  /** Purpose: Answer without a source Input: none set, one failing to open Expected: 404, 500 */
+  @Test
+  public void serveWithoutSource() {
+    path = "/video.mp4";
+    assertEquals(CloudStreamServer.HTTP_NOTFOUND, serve(null).status);
+
+    setStreamSrc(
+        () -> {
+          throw new IOException("Gone");
+        });
+    assertEquals(CloudStreamServer.HTTP_INTERNALERROR, serve(null).status);
+  }
+
+  /** Purpose: Serve only the URL given Input: other paths Expected: 404, nothing opened */
+  @Test
+  public void serveOnlyWithToken() {
+    String url = streamer.setStreamSrc(this::open, "video.mp4", content.length);
+    assertTrue(url.startsWith(CloudStreamer.URL + "/"));
+
+    path = "/video.mp4";
+    assertEquals(CloudStreamServer.HTTP_NOTFOUND, serve(null).status);
+    path = "/0123456789abcdef0123456789abcdef/video.mp4";
+    assertEquals(CloudStreamServer.HTTP_NOTFOUND, serve(null).status);
+    assertTrue(opened.isEmpty());
+
+    // a new source gets a new token
+    String previous = url.substring(CloudStreamer.URL.length());
+    setStreamSrc(this::open);
+    assertNotEquals(previous, path);
+    path = previous;
+    assertEquals(CloudStreamServer.HTTP_NOTFOUND, serve(null).status);
+  }
+
+  /** Purpose: Stop serving once played Input: the URL removed Expected: 404 */
+  @Test
+  public void removeSource() {
+    String url = streamer.setStreamSrc(this::open, "video.mp4", content.length);
+    path = url.substring(CloudStreamer.URL.length());
+
+    // another source's URL leaves this one
+    streamer.removeStreamSrc(CloudStreamer.URL + "/0123456789abcdef0123456789abcdef/video.mp4");
+    assertEquals(CloudStreamServer.HTTP_OK, serve(null).status);
+
+    streamer.removeStreamSrc(url);
+    assertEquals(CloudStreamServer.HTTP_NOTFOUND, serve(null).status);
+  }
+
+  private void setStreamSrc(CloudStreamer.SourceOpener opener) {
+    String url = streamer.setStreamSrc(opener, "video.mp4", content.length);
+    path = url.substring(CloudStreamer.URL.length());
+  }
+
+  private RandomAccessStream open() {
+    ByteArrayStream stream = new ByteArrayStream(content);
+    opened.add(stream);
+    return stream;
+  }
+
+  private CloudStreamServer.Response serve(String range) {
+    Properties header = new Properties();
+    if (range != null) header.setProperty("range", range);
+    return streamer.serve(path, "GET", header, new Properties(), new Properties());
+  }
+
+  private static byte[] readAll(RandomAccessStream stream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    int b;
+    while ((b = stream.read()) != -1) out.write(b);
+    return out.toByteArray();
+  }
+
+  /** Content held in memory */
+  private static class ByteArrayStream extends RandomAccessStream {
+    private final byte[] bytes;
+    private int position = 0;
+    private boolean closed;
+
+    ByteArrayStream(byte[] bytes) {
+      super(bytes.length);
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int read() {
+      return position < bytes.length ? bytes[position++] & 0xff : -1;
+    }
+
+    @Override
+    public void moveTo(long position) {
+      this.position = (int) position;
+    }
+
+    @Override
+    protected long getCurrentPosition() {
+      return position;
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+  }
+}
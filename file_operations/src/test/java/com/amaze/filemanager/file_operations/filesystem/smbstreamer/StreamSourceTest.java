@@ -26,11 +26,13 @@ import static android.os.Build.VERSION_CODES.P;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Arrays;
+import java.util.Random;
 
 import org.junit.After;
 import org.junit.Before;
@@ -40,8 +42,10 @@ import org.robolectric.annotation.Config;
 import org.robolectric.shadow.api.Shadow;
 
 import com.amaze.filemanager.file_operations.filesystem.smbstreamer.StreamSource;
+import com.amaze.filemanager.file_operations.filesystem.streams.BlockCache;
 import com.amaze.filemanager.file_operations.shadows.ShadowMultiDex;
 import com.amaze.filemanager.file_operations.shadows.jcifs.smb.ShadowSmbFile;
+import com.amaze.filemanager.file_operations.shadows.jcifs.smb.ShadowSmbRandomAccessFile;
 
 import android.os.Environment;
 
@@ -52,7 +56,7 @@ import jcifs.smb.SmbFile;
 /** Created by Rustam Khadipash on 30/3/2018. */
 @RunWith(AndroidJUnit4.class)
 @Config(
-    shadows = {ShadowMultiDex.class, ShadowSmbFile.class},
+    shadows = {ShadowMultiDex.class, ShadowSmbFile.class, ShadowSmbRandomAccessFile.class},
     sdk = {JELLY_BEAN, KITKAT, P})
 public class StreamSourceTest {
   private SmbFile file;
@@ -75,6 +79,10 @@ public class StreamSourceTest {
   }
 
   private SmbFile createFile() throws IOException {
+    return createFile(text);
+  }
+
+  private SmbFile createFile(byte[] text) throws IOException {
     File testFile = new File(Environment.getExternalStorageDirectory(), "Test.txt");
     testFile.createNewFile();
 
@@ -287,4 +295,78 @@ public class StreamSourceTest {
   public void getFile() {
     assertEquals(file, ss.getFile());
   }
+
+  /**
+   * Purpose: Move back into a block already read Input: read(buff), moveTo(position), read(buff)
+   * Expected: buff = text[position], the file is read once
+   */
+  @Test
+  public void moveToCached() throws IOException {
+    byte[] content = new byte[1000];
+    for (int i = 0; i < content.length; i++) content[i] = (byte) i;
+    ss.close();
+    ss = new StreamSource(createFile(content), content.length, newCache(1000));
+    ss.open();
+
+    byte[] buff = new byte[10];
+    ss.moveTo(700);
+    assertEquals(buff.length, ss.read(buff));
+    assertArrayEquals(Arrays.copyOfRange(content, 700, 710), buff);
+    ss.moveTo(500);
+    assertEquals(buff.length, ss.read(buff));
+    assertArrayEquals(Arrays.copyOfRange(content, 500, 510), buff);
+
+    ShadowSmbRandomAccessFile shadowInput = Shadow.extract(ss.input);
+    assertEquals(1, shadowInput.getReadCount());
+  }
+
+  /**
+   * Purpose: Read blocks ahead of a sequential reader Input: read(buff) until the end Expected: the
+   * whole content is read, each block once, the next one ahead
+   */
+  @Test
+  public void readSequential() throws IOException {
+    byte[] content = new byte[3500];
+    new Random(42).nextBytes(content);
+    ss.close();
+    ss = new StreamSource(createFile(content), content.length, newCache(1000));
+    ss.open();
+
+    byte[] buff = new byte[300];
+    ByteArrayOutputStream read = new ByteArrayOutputStream();
+    int n = ss.read(buff);
+    ShadowSmbRandomAccessFile shadowInput = Shadow.extract(ss.input);
+    assertEquals(2, shadowInput.getReadCount());
+    while (n != -1) {
+      read.write(buff, 0, n);
+      n = ss.read(buff);
+    }
+
+    assertArrayEquals(content, read.toByteArray());
+    assertEquals(4, shadowInput.getReadCount());
+  }
+
+  /**
+   * Purpose: Don't read ahead past the end of a range Input: limitReadAhead(end), read(buff) up to
+   * the end Expected: only the blocks of the range are read
+   */
+  @Test
+  public void limitReadAhead() throws IOException {
+    byte[] content = new byte[4000];
+    ss.close();
+    ss = new StreamSource(createFile(content), content.length, newCache(1000));
+    ss.open();
+    ss.limitReadAhead(1499);
+
+    byte[] buff = new byte[100];
+    for (int i = 0; i < 15; i++) assertEquals(buff.length, ss.read(buff));
+
+    ShadowSmbRandomAccessFile shadowInput = Shadow.extract(ss.input);
+    assertEquals(2, shadowInput.getReadCount());
+  }
+
+  /** Cache of blocks of {@param blockSize} bytes reading ahead on the reading thread */
+  private static BlockCache newCache(int blockSize) {
+    return new BlockCache(blockSize, 16 * blockSize, null, 0, Runnable::run);
+  }
 }
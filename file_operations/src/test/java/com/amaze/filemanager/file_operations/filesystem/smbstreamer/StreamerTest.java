@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.smbstreamer;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.file_operations.shadows.ShadowMultiDex;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class StreamerTest {
+
+  /** Purpose: Parse a bounded range Input: bytes=a-b Expected: a and b */
+  @Test
+  public void parseRangeBounded() {
+    assertArrayEquals(new long[] {10, 19}, Streamer.parseRange("bytes=10-19", 100));
+    assertArrayEquals(new long[] {0, 0}, Streamer.parseRange("bytes=0-0", 100));
+  }
+
+  /** Purpose: Clamp the end of a range Input: bytes=a-, bytes=a-b past the end Expected: len - 1 */
+  @Test
+  public void parseRangeOpen() {
+    assertArrayEquals(new long[] {10, 99}, Streamer.parseRange("bytes=10-", 100));
+    assertArrayEquals(new long[] {90, 99}, Streamer.parseRange("bytes=90-1000", 100));
+  }
+
+  /** Purpose: Parse a suffix range Input: bytes=-n Expected: the last n bytes, or the whole file */
+  @Test
+  public void parseRangeSuffix() {
+    assertArrayEquals(new long[] {80, 99}, Streamer.parseRange("bytes=-20", 100));
+    assertArrayEquals(new long[] {0, 99}, Streamer.parseRange("bytes=-1000", 100));
+  }
+
+  /** Purpose: Reject ranges past the end Input: bytes=len-, bytes=-0 Expected: UNSATISFIABLE */
+  @Test
+  public void parseRangeUnsatisfiable() {
+    assertSame(Streamer.UNSATISFIABLE, Streamer.parseRange("bytes=100-", 100));
+    assertSame(Streamer.UNSATISFIABLE, Streamer.parseRange("bytes=-0", 100));
+    assertSame(Streamer.UNSATISFIABLE, Streamer.parseRange("bytes=-10", 0));
+  }
+
+  /** Purpose: Ignore ranges that can't be served Input: malformed or multiple Expected: null */
+  @Test
+  public void parseRangeIgnored() {
+    assertNull(Streamer.parseRange("bytes=20-10", 100));
+    assertNull(Streamer.parseRange("bytes=a-b", 100));
+    assertNull(Streamer.parseRange("bytes=0-1,5-9", 100));
+    assertNull(Streamer.parseRange("items=0-1", 100));
+  }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.streams;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.file_operations.shadows.ShadowMultiDex;
+
+import android.os.Environment;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class BlockCacheTest {
+
+  private static final int BLOCK_SIZE = 10;
+  private static final String SOURCE = "smb://127.0.0.1/test.mp4";
+
+  private final AtomicInteger loads = new AtomicInteger();
+  private File directory;
+
+  @Before
+  public void setUp() {
+    directory = new File(Environment.getExternalStorageDirectory(), "blocks");
+  }
+
+  /** Content of block {@param index}, each block having different bytes */
+  private static byte[] block(long index) {
+    byte[] block = new byte[BLOCK_SIZE];
+    for (int i = 0; i < block.length; i++) block[i] = (byte) (index * BLOCK_SIZE + i);
+    return block;
+  }
+
+  private Callable<byte[]> loader(final long index) {
+    return () -> {
+      loads.incrementAndGet();
+      return block(index);
+    };
+  }
+
+  /** Blocks leaving memory are read back from the directory, until they leave it too */
+  @Test
+  public void testDiskTier() throws IOException {
+    BlockCache cache =
+        new BlockCache(BLOCK_SIZE, 2 * BLOCK_SIZE, directory, 3 * BLOCK_SIZE, Runnable::run);
+    for (int i = 0; i < 5; i++) cache.get(SOURCE, i, loader(i));
+    assertEquals(5, loads.get());
+
+    // 3 and 4 in memory, 0 to 2 in the directory, then 0 and 4 in memory, 1 to 3 in it
+    assertArrayEquals(block(0), cache.get(SOURCE, 0, loader(0)));
+    assertArrayEquals(block(4), cache.get(SOURCE, 4, loader(4)));
+    assertEquals(5, loads.get());
+    assertEquals(3, directory.list().length);
+
+    // 0 moved to the directory, evicting 1
+    cache.get(SOURCE, 5, loader(5));
+    assertArrayEquals(block(2), cache.get(SOURCE, 2, loader(2)));
+    assertEquals(6, loads.get());
+    assertArrayEquals(block(1), cache.get(SOURCE, 1, loader(1)));
+    assertEquals(7, loads.get());
+  }
+
+  /** Without a directory, blocks leaving memory are read again */
+  @Test
+  public void testMemoryOnly() throws IOException {
+    BlockCache cache = new BlockCache(BLOCK_SIZE, 2 * BLOCK_SIZE, null, 0, Runnable::run);
+    for (int i = 0; i < 3; i++) cache.get(SOURCE, i, loader(i));
+
+    assertArrayEquals(block(2), cache.get(SOURCE, 2, loader(2)));
+    assertEquals(3, loads.get());
+    assertArrayEquals(block(0), cache.get(SOURCE, 0, loader(0)));
+    assertEquals(4, loads.get());
+  }
+
+  /** Invalidated blocks are read again, the ones of other sources are kept */
+  @Test
+  public void testInvalidate() throws IOException {
+    BlockCache cache =
+        new BlockCache(BLOCK_SIZE, 2 * BLOCK_SIZE, directory, 4 * BLOCK_SIZE, Runnable::run);
+    for (int i = 0; i < 4; i++) cache.get(SOURCE, i, loader(i));
+    cache.get("other", 0, loader(0));
+    assertEquals(5, loads.get());
+
+    cache.invalidate(SOURCE);
+    assertEquals(0, directory.list().length);
+    cache.get(SOURCE, 0, loader(0));
+    cache.get("other", 0, loader(0));
+    assertEquals(6, loads.get());
+  }
+
+  /** A block asked for while it's being read is read once */
+  @Test
+  public void testConcurrentGet() throws Exception {
+    final BlockCache cache = new BlockCache(BLOCK_SIZE, 10 * BLOCK_SIZE, null, 0, Runnable::run);
+    final CountDownLatch loading = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final Callable<byte[]> slowLoader =
+        () -> {
+          loads.incrementAndGet();
+          loading.countDown();
+          release.await();
+          return block(0);
+        };
+    final byte[][] results = new byte[2][];
+    Thread first =
+        new Thread(
+            () -> {
+              try {
+                results[0] = cache.get(SOURCE, 0, slowLoader);
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    first.start();
+    loading.await();
+    Thread second =
+        new Thread(
+            () -> {
+              try {
+                results[1] = cache.get(SOURCE, 0, loader(0));
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    second.start();
+    release.countDown();
+    first.join();
+    second.join();
+
+    assertArrayEquals(block(0), results[0]);
+    assertArrayEquals(block(0), results[1]);
+    assertEquals(1, loads.get());
+  }
+}
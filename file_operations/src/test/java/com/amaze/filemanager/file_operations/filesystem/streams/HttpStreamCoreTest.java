@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.streams;
+
+import static android.os.Build.VERSION_CODES.JELLY_BEAN;
+import static android.os.Build.VERSION_CODES.KITKAT;
+import static android.os.Build.VERSION_CODES.P;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import com.amaze.filemanager.file_operations.shadows.ShadowMultiDex;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+@RunWith(AndroidJUnit4.class)
+@Config(
+    shadows = {ShadowMultiDex.class},
+    sdk = {JELLY_BEAN, KITKAT, P})
+public class HttpStreamCoreTest {
+
+  private static final String PATH = "/test.mp4";
+
+  private final byte[] content = new byte[3 * 1024 * 1024 + 17];
+  private final AtomicInteger served = new AtomicInteger();
+  private HttpStreamCore core;
+
+  @Before
+  public void setUp() throws IOException {
+    new Random(1).nextBytes(content);
+    core = new HttpStreamCore(new ServerSocket(0), this::serve);
+  }
+
+  @After
+  public void tearDown() {
+    core.stop();
+  }
+
+  /** Serves {@link #content} at {@link #PATH}, honouring ranges the way the streamers do */
+  private HttpStreamCore.Reply serve(
+      String uri, String method, Properties header, Properties parms) {
+    served.incrementAndGet();
+    if (!uri.equals(PATH)) return new HttpStreamCore.Reply("404 Not Found", null, null, null);
+
+    Properties responseHeader = new Properties();
+    long start = 0;
+    long end = content.length - 1;
+    String range = header.getProperty("range");
+    if (range != null) {
+      String[] bounds = range.substring("bytes=".length()).split("-");
+      start = Long.parseLong(bounds[0]);
+      if (bounds.length > 1) end = Long.parseLong(bounds[1]);
+      responseHeader.put("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+    }
+    responseHeader.put("Content-Length", String.valueOf(end - start + 1));
+    ByteArrayStream data = new ByteArrayStream(content);
+    data.moveTo(start);
+    return new HttpStreamCore.Reply(
+        range != null ? "206 Partial Content" : "200 OK", "video/mp4", responseHeader, data);
+  }
+
+  /** Pipelined requests are answered in order, over the same connection */
+  @Test
+  public void testPipelinedRangeRequests() throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", core.getLocalPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(
+          ("GET " + PATH + " HTTP/1.1\r\nRange: bytes=10-19\r\n\r\n"
+                  + "GET /missing HTTP/1.1\r\n\r\n"
+                  + "GET " + PATH + " HTTP/1.1\r\nRange: bytes=2000000-2100000\r\n\r\n")
+              .getBytes("US-ASCII"));
+      out.flush();
+
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      RangeLoadClient.Response first = RangeLoadClient.Response.read(in);
+      assertEquals("HTTP/1.1 206 Partial Content", first.status);
+      assertArrayEquals(Arrays.copyOfRange(content, 10, 20), first.body);
+      assertTrue(first.keepAlive);
+
+      RangeLoadClient.Response missing = RangeLoadClient.Response.read(in);
+      assertEquals("HTTP/1.1 404 Not Found", missing.status);
+      assertEquals(0, missing.body.length);
+      assertTrue(missing.keepAlive);
+
+      RangeLoadClient.Response third = RangeLoadClient.Response.read(in);
+      assertArrayEquals(Arrays.copyOfRange(content, 2000000, 2100001), third.body);
+      assertTrue(third.keepAlive);
+    }
+  }
+
+  /** HTTP/1.0 connections, and those asking for it, are closed after the response */
+  @Test
+  public void testConnectionClose() throws IOException {
+    for (String request :
+        new String[] {
+          "GET " + PATH + " HTTP/1.0\r\nRange: bytes=0-99\r\n\r\n",
+          "GET " + PATH + " HTTP/1.1\r\nConnection: close\r\nRange: bytes=0-99\r\n\r\n"
+        }) {
+      try (Socket socket = new Socket("127.0.0.1", core.getLocalPort())) {
+        socket.getOutputStream().write(request.getBytes("US-ASCII"));
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        RangeLoadClient.Response response = RangeLoadClient.Response.read(in);
+        assertArrayEquals(Arrays.copyOf(content, 100), response.body);
+        assertFalse(response.keepAlive);
+        assertEquals(-1, in.read());
+      }
+    }
+  }
+
+  /** HEAD requests get the headers only */
+  @Test
+  public void testHead() throws IOException {
+    try (Socket socket = new Socket("127.0.0.1", core.getLocalPort())) {
+      OutputStream out = socket.getOutputStream();
+      out.write(
+          ("HEAD " + PATH + " HTTP/1.1\r\n\r\n"
+                  + "GET " + PATH + " HTTP/1.1\r\nRange: bytes=0-0\r\n\r\n")
+              .getBytes("US-ASCII"));
+      InputStream in = new BufferedInputStream(socket.getInputStream());
+      String head = readHeader(in);
+      assertTrue(head.contains("Content-Length: " + content.length));
+      RangeLoadClient.Response next = RangeLoadClient.Response.read(in);
+      assertArrayEquals(new byte[] {content[0]}, next.body);
+    }
+  }
+
+  /** Concurrent clients seeking through the content each keep a single connection */
+  @Test
+  public void testConcurrentRangeRequests() throws Exception {
+    RangeLoadClient client =
+        new RangeLoadClient("127.0.0.1", core.getLocalPort(), PATH, content.length);
+    int[] connections =
+        client.run(
+            8,
+            40,
+            256 * 1024,
+            3,
+            (start, body) ->
+                assertArrayEquals(
+                    Arrays.copyOfRange(content, (int) start, (int) start + body.length), body));
+    for (int count : connections) assertEquals(1, count);
+    assertEquals(8 * 40, served.get());
+  }
+
+  /** With every connection taken, the one idle the longest is closed to serve a new one */
+  @Test
+  public void testIdleConnectionClosedForNewOne() throws IOException {
+    awaitConnectionsFree();
+    Socket[] idle = new Socket[HttpStreamCore.MAX_CONNECTIONS];
+    try {
+      for (int i = 0; i < idle.length; i++) {
+        idle[i] = new Socket("127.0.0.1", core.getLocalPort());
+        idle[i].setSoTimeout(5000);
+        idle[i]
+            .getOutputStream()
+            .write(("GET " + PATH + " HTTP/1.1\r\nRange: bytes=0-0\r\n\r\n").getBytes("US-ASCII"));
+        assertTrue(RangeLoadClient.Response.read(idle[i].getInputStream()).keepAlive);
+      }
+
+      try (Socket socket = new Socket("127.0.0.1", core.getLocalPort())) {
+        socket.setSoTimeout(5000);
+        socket
+            .getOutputStream()
+            .write(("GET " + PATH + " HTTP/1.1\r\nRange: bytes=1-1\r\n\r\n").getBytes("US-ASCII"));
+        RangeLoadClient.Response response = RangeLoadClient.Response.read(socket.getInputStream());
+        assertEquals("HTTP/1.1 206 Partial Content", response.status);
+        assertArrayEquals(new byte[] {content[1]}, response.body);
+      }
+      assertEquals(-1, idle[0].getInputStream().read());
+    } finally {
+      for (Socket socket : idle) if (socket != null) socket.close();
+    }
+  }
+
+  /** With every connection busy with a request, a new one is refused */
+  @Test
+  public void testNewConnectionRefusedWhenNoneIdle() throws IOException {
+    awaitConnectionsFree();
+    Socket[] busy = new Socket[HttpStreamCore.MAX_CONNECTIONS];
+    try {
+      for (int i = 0; i < busy.length; i++) {
+        busy[i] = new Socket("127.0.0.1", core.getLocalPort());
+        // the request is never finished
+        busy[i].getOutputStream().write(("GET " + PATH + " HTTP/1.1\r\n").getBytes("US-ASCII"));
+      }
+
+      try (Socket socket = new Socket("127.0.0.1", core.getLocalPort())) {
+        socket.setSoTimeout(5000);
+        RangeLoadClient.Response response = RangeLoadClient.Response.read(socket.getInputStream());
+        assertEquals("HTTP/1.1 503 Service Unavailable", response.status);
+      }
+    } finally {
+      for (Socket socket : busy) if (socket != null) socket.close();
+    }
+  }
+
+  /** Waits for connections of previous tests to give their permits back */
+  private static void awaitConnectionsFree() {
+    await()
+        .atMost(5, TimeUnit.SECONDS)
+        .until(
+            () ->
+                HttpStreamCore.CONNECTION_PERMITS.availablePermits()
+                    == HttpStreamCore.MAX_CONNECTIONS);
+  }
+
+  private static String readHeader(InputStream in) throws IOException {
+    StringBuilder header = new StringBuilder();
+    while (!header.toString().endsWith("\r\n\r\n")) header.append((char) in.read());
+    return header.toString();
+  }
+
+  /** Content held in memory */
+  private static class ByteArrayStream extends RandomAccessStream {
+    private final byte[] bytes;
+    private int position = 0;
+
+    ByteArrayStream(byte[] bytes) {
+      super(bytes.length);
+      this.bytes = bytes;
+    }
+
+    @Override
+    public int read() {
+      return position < bytes.length ? bytes[position++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (position >= bytes.length) return -1;
+      int count = Math.min(len, bytes.length - position);
+      System.arraycopy(bytes, position, b, off, count);
+      position += count;
+      return count;
+    }
+
+    @Override
+    public void moveTo(long position) {
+      this.position = (int) position;
+    }
+
+    @Override
+    protected long getCurrentPosition() {
+      return position;
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.filesystem.streams;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test harness for the streaming servers: clients on their own threads send range requests
+ * over kept alive connections, the way media players do while seeking.
+ *
+ * <p>Runs from tests against a local {@link HttpStreamCore}, or by itself against a device, after
+ * <code>adb forward tcp:7871 tcp:7871</code>, with the URL path and length of the file being
+ * streamed: <code>RangeLoadClient 127.0.0.1 7871 /video.mp4 123456789 [clients] [requests]</code>
+ */
+public class RangeLoadClient {
+
+  private static final Charset ASCII = Charset.forName("US-ASCII");
+
+  /** Checks each range received, is given the range start and its content */
+  public interface Verifier {
+    void verify(long start, byte[] content) throws IOException;
+  }
+
+  private final String host;
+  private final int port;
+  private final String path;
+  private final long length;
+
+  public RangeLoadClient(String host, int port, String path, long length) {
+    this.host = host;
+    this.port = port;
+    this.path = path;
+    this.length = length;
+  }
+
+  /**
+   * Runs {@param clients} clients, each sending {@param requests} requests of up to {@param
+   * maxRange} bytes over one connection, {@param pipelined} at a time.
+   *
+   * @return the number of connections each client had to open, which is 1 when kept alive
+   */
+  public int[] run(
+      int clients, final int requests, final int maxRange, final int pipelined, Verifier verifier)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(clients);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int i = 0; i < clients; i++) {
+        final Random random = new Random(i);
+        results.add(
+            executor.submit(
+                new Callable<Integer>() {
+                  @Override
+                  public Integer call() throws IOException {
+                    return runClient(random, requests, maxRange, pipelined, verifier);
+                  }
+                }));
+      }
+      int[] connections = new int[clients];
+      for (int i = 0; i < clients; i++) {
+        connections[i] = results.get(i).get();
+      }
+      return connections;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private int runClient(
+      Random random, int requests, int maxRange, int pipelined, Verifier verifier)
+      throws IOException {
+    int connections = 0;
+    int done = 0;
+    while (done < requests) {
+      connections++;
+      try (Socket socket = new Socket(host, port)) {
+        socket.setTcpNoDelay(true);
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        boolean open = true;
+        while (open && done < requests) {
+          int batch = Math.min(pipelined, requests - done);
+          long[] starts = new long[batch];
+          for (int i = 0; i < batch; i++) {
+            starts[i] = (long) (random.nextDouble() * length);
+            long end = Math.min(length, starts[i] + 1 + random.nextInt(maxRange)) - 1;
+            String request =
+                String.format(
+                    Locale.US,
+                    "GET %s HTTP/1.1\r\nHost: %s\r\nRange: bytes=%d-%d\r\n\r\n",
+                    path,
+                    host,
+                    starts[i],
+                    end);
+            out.write(request.getBytes(ASCII));
+          }
+          out.flush();
+          for (int i = 0; i < batch; i++) {
+            Response response = Response.read(in);
+            if (!response.status.contains(" 206 ") && !response.status.contains(" 200 ")) {
+              throw new IOException("Unexpected response " + response.status);
+            }
+            verifier.verify(starts[i], response.body);
+            done++;
+            open = response.keepAlive;
+            if (!open) break;
+          }
+        }
+      }
+    }
+    return connections;
+  }
+
+  /** A response read off the connection */
+  public static class Response {
+    public final String status;
+    public final boolean keepAlive;
+    public final byte[] body;
+
+    private Response(String status, boolean keepAlive, byte[] body) {
+      this.status = status;
+      this.keepAlive = keepAlive;
+      this.body = body;
+    }
+
+    /** Reads a response with a Content-Length, or up to the end of the connection without. */
+    public static Response read(InputStream in) throws IOException {
+      String status = readLine(in);
+      if (status == null) throw new IOException("Connection closed");
+      long contentLength = -1;
+      boolean keepAlive = status.startsWith("HTTP/1.1");
+      String line;
+      while ((line = readLine(in)) != null && !line.isEmpty()) {
+        int colon = line.indexOf(':');
+        String name = line.substring(0, colon).trim();
+        String value = line.substring(colon + 1).trim();
+        if (name.equalsIgnoreCase("content-length")) contentLength = Long.parseLong(value);
+        if (name.equalsIgnoreCase("connection")) keepAlive = value.equalsIgnoreCase("keep-alive");
+      }
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      long left = contentLength < 0 ? Long.MAX_VALUE : contentLength;
+      int count;
+      while (left > 0 && (count = in.read(buffer, 0, (int) Math.min(buffer.length, left))) != -1) {
+        body.write(buffer, 0, count);
+        left -= count;
+      }
+      if (contentLength >= 0 && left > 0) throw new IOException("Truncated body");
+      return new Response(status, keepAlive && contentLength >= 0, body.toByteArray());
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int b;
+      while ((b = in.read()) != -1 && b != '\n') {
+        if (b != '\r') line.append((char) b);
+      }
+      return b == -1 && line.length() == 0 ? null : line.toString();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    RangeLoadClient client =
+        new RangeLoadClient(args[0], Integer.parseInt(args[1]), args[2], Long.parseLong(args[3]));
+    int clients = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+    int requests = args.length > 5 ? Integer.parseInt(args[5]) : 50;
+    long start = System.nanoTime();
+    final long[] bytes = new long[1];
+    int[] connections =
+        client.run(
+            clients,
+            requests,
+            1024 * 1024,
+            1,
+            (rangeStart, content) -> {
+              synchronized (bytes) {
+                bytes[0] += content.length;
+              }
+            });
+    double seconds = (System.nanoTime() - start) / 1e9;
+    int opened = 0;
+    for (int count : connections) opened += count;
+    System.out.printf(
+        Locale.US,
+        "%d requests in %.2f s, %.1f requests/s, %.1f MiB/s, %d connections%n",
+        clients * requests,
+        seconds,
+        clients * requests / seconds,
+        bytes[0] / seconds / 1024 / 1024,
+        opened);
+  }
+}
@@ -47,11 +47,20 @@ public class ShadowSmbFile {
     this.file = file;
   }
 
+  File getFile() {
+    return file;
+  }
+
   @Implementation
   public InputStream getInputStream() throws IOException {
     return new FileInputStream(file);
   }
 
+  @Implementation
+  public String getPath() {
+    return "smb://127.0.0.1/" + file.getName();
+  }
+
   @Implementation
   public long length() throws SmbException {
     return file.length();
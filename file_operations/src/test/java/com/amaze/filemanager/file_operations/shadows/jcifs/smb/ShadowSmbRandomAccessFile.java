@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2014-2020 Arpit Khurana <arpitkh96@gmail.com>, Vishal Nehra <vishalmeham2@gmail.com>,
+ * Emmanuel Messulam<emmanuelbendavid@gmail.com>, Raymond Lai <airwave209gt at gmail.com> and Contributors.
+ *
+ * This file is part of Amaze File Manager.
+ *
+ * Amaze File Manager is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.amaze.filemanager.file_operations.shadows.jcifs.smb;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadow.api.Shadow;
+
+import jcifs.smb.SmbException;
+import jcifs.smb.SmbFile;
+import jcifs.smb.SmbRandomAccessFile;
+
+/** Reads the local file of a {@link ShadowSmbFile}, counting the reads reaching it. */
+@Implements(SmbRandomAccessFile.class)
+public class ShadowSmbRandomAccessFile {
+
+  private RandomAccessFile file;
+  private int readCount = 0;
+
+  @Implementation
+  public void __constructor__(SmbFile smbFile, String mode) throws SmbException {
+    ShadowSmbFile shadowSmbFile = Shadow.extract(smbFile);
+    try {
+      file = new RandomAccessFile(shadowSmbFile.getFile(), mode);
+    } catch (IOException e) {
+      throw new SmbException(e.getMessage(), e);
+    }
+  }
+
+  public int getReadCount() {
+    return readCount;
+  }
+
+  @Implementation
+  public int read(byte[] b, int off, int len) throws SmbException {
+    readCount++;
+    try {
+      return file.read(b, off, len);
+    } catch (IOException e) {
+      throw new SmbException(e.getMessage(), e);
+    }
+  }
+
+  @Implementation
+  public void seek(long pos) {
+    try {
+      file.seek(pos);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Implementation
+  public long getFilePointer() {
+    try {
+      return file.getFilePointer();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Implementation
+  public long length() throws SmbException {
+    try {
+      return file.length();
+    } catch (IOException e) {
+      throw new SmbException(e.getMessage(), e);
+    }
+  }
+
+  @Implementation
+  public void close() throws SmbException {
+    try {
+      file.close();
+    } catch (IOException e) {
+      throw new SmbException(e.getMessage(), e);
+    }
+  }
+}